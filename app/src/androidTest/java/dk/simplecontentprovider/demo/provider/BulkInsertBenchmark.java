@@ -0,0 +1,113 @@
+package dk.simplecontentprovider.demo.provider;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import dk.simplecontentprovider.SimpleContentProvider;
+
+/**
+ * Compares the objects and bytes allocated by inserting pets with bulkInsert and with
+ * METHOD_BULK_INSERT_COLUMNS, counted on the calling thread, which includes the provider,
+ * since it runs in the same process. The calls are not parceled, so the results say nothing
+ * about the cost of calls from other processes, and the time of the runs is only logged for
+ * reference. Results are logged with the tag "BulkInsertBenchmark".
+ */
+public class BulkInsertBenchmark extends AndroidTestCase {
+    private static final String TAG = "BulkInsertBenchmark";
+    private static final int ROWS = 5000;
+    private static final int RUNS = 5;
+
+    private long mOwnerId;
+
+    @Override
+    public void setUp() {
+        ContentValues owner = new ContentValues();
+        owner.put(DemoContract.Owners.NAME, "Benchmark");
+        Uri ownerUri = mContext.getContentResolver().insert(DemoContract.Owners.CONTENT_URI, owner);
+        mOwnerId = ContentUris.parseId(ownerUri);
+    }
+
+    @Override
+    public void tearDown() {
+        // Deleting the owner deletes the pets as well...
+        mContext.getContentResolver().delete(ContentUris.withAppendedId(DemoContract.Owners.CONTENT_URI, mOwnerId), null, null);
+    }
+
+    public void testBulkInsert() {
+        measure("bulkInsert", new Runnable() {
+            @Override
+            public void run() {
+                ContentValues[] values = new ContentValues[ROWS];
+                for (int i = 0; i < ROWS; i++) {
+                    values[i] = new ContentValues();
+                    values[i].put(DemoContract.Pets.NAME, "Pet " + i);
+                    values[i].put(DemoContract.Pets.TYPE, "Dog");
+                    values[i].put(DemoContract.Pets.AGE, i % 20);
+                    values[i].put(DemoContract.Pets.OWNER_ID, mOwnerId);
+                }
+                assertEquals(ROWS, mContext.getContentResolver().bulkInsert(DemoContract.Pets.CONTENT_URI, values));
+            }
+        });
+    }
+
+    public void testBulkInsertColumns() {
+        measure("bulkInsertColumns", new Runnable() {
+            @Override
+            public void run() {
+                String[] names = new String[ROWS];
+                String[] types = new String[ROWS];
+                long[] ages = new long[ROWS];
+                long[] ownerIds = new long[ROWS];
+                for (int i = 0; i < ROWS; i++) {
+                    names[i] = "Pet " + i;
+                    types[i] = "Dog";
+                    ages[i] = i % 20;
+                    ownerIds[i] = mOwnerId;
+                }
+
+                Bundle extras = new Bundle();
+                extras.putStringArray(DemoContract.Pets.NAME, names);
+                extras.putStringArray(DemoContract.Pets.TYPE, types);
+                extras.putLongArray(DemoContract.Pets.AGE, ages);
+                extras.putLongArray(DemoContract.Pets.OWNER_ID, ownerIds);
+                Bundle result = mContext.getContentResolver().call(
+                        DemoContract.Pets.CONTENT_URI,
+                        SimpleContentProvider.METHOD_BULK_INSERT_COLUMNS,
+                        DemoContract.Pets.TABLE_NAME,
+                        extras);
+                assertEquals(ROWS, result.getLong(SimpleContentProvider.KEY_ROW_COUNT));
+            }
+        });
+    }
+
+    @SuppressWarnings("deprecation")
+    private void measure(String name, Runnable insert) {
+        long totalTime = 0;
+        long totalObjects = 0;
+        long totalBytes = 0;
+        for (int run = 0; run < RUNS; run++) {
+            // Start each run with an empty table...
+            mContext.getContentResolver().delete(DemoContract.Pets.CONTENT_URI, DemoContract.Pets.OWNER_ID + "=?", new String[] {"" + mOwnerId});
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            long start = SystemClock.elapsedRealtime();
+            insert.run();
+            totalTime += SystemClock.elapsedRealtime() - start;
+            Debug.stopAllocCounting();
+            totalObjects += Debug.getThreadAllocCount();
+            totalBytes += Debug.getThreadAllocSize();
+        }
+
+        Log.i(TAG, name + ": " + (totalObjects / RUNS / ROWS) + " objects/row, " +
+                (totalBytes / RUNS / ROWS) + " bytes/row, " +
+                (totalTime / RUNS) + " ms/run in-process");
+    }
+}
@@ -15,7 +15,7 @@ public class DemoContentProvider extends SimpleContentProvider {
 
         // Set database name and version...
         setDatabaseName("DemoContentProvider.db");
-        setDatabaseVersion(1);
+        setDatabaseVersion(3);
 
         // Enable foreign key constraints. By default the database will not
         // enforce foreign key constraints and usually this not necessary,
@@ -29,7 +29,10 @@ public class DemoContentProvider extends SimpleContentProvider {
         addEntity(DemoContract.Owners.TABLE_NAME)
             .addColumn(DemoContract.Owners._ID, "INTEGER PRIMARY KEY AUTOINCREMENT")
             .addColumn(DemoContract.Owners.NAME, "TEXT")
-            .addColumn(DemoContract.Owners.ADDRESS, "TEXT");
+            .addColumn(DemoContract.Owners.ADDRESS, "TEXT")
+
+            // Optionally maintain the number of pets of each owner...
+            .addCounterCacheColumn(DemoContract.Owners.PET_COUNT, DemoContract.Pets.TABLE_NAME, DemoContract.Pets.OWNER_ID);
 
         addEntity(DemoContract.Pets.TABLE_NAME)
                 .addColumn(DemoContract.Pets._ID, "INTEGER PRIMARY KEY AUTOINCREMENT")
@@ -41,12 +44,19 @@ public class DemoContentProvider extends SimpleContentProvider {
                 // Optionally add some constraints...
                 .addConstraint("FOREIGN KEY (" + DemoContract.Pets.OWNER_ID + ") " +
                                 "REFERENCES " + DemoContract.Owners.TABLE_NAME + " (" + DemoContract.Owners._ID + ") ON DELETE CASCADE")
-                .addConstraint("UNIQUE (" + DemoContract.Pets.NAME + ", " + DemoContract.Pets.OWNER_ID + ") ON CONFLICT REPLACE");
+                .addConstraint("UNIQUE (" + DemoContract.Pets.NAME + ", " + DemoContract.Pets.OWNER_ID + ") ON CONFLICT REPLACE")
+
+                // Optionally add some indexes...
+                .addIndex("pets_owner_id", DemoContract.Pets.OWNER_ID)
+
+                // Optionally cache the results of identical queries...
+                .setResultCacheEnabled(true);
 
         // Optionally add one or more views...
         addView(DemoContract.OwnersAndPetsView.VIEW_NAME, createQueryBuilderForOwnersAndPets())
             .onEntity(DemoContract.Owners.TABLE_NAME)
-            .onEntity(DemoContract.Pets.TABLE_NAME);
+            .onEntity(DemoContract.Pets.TABLE_NAME)
+            .setResultCacheEnabled(true);
     }
 
     private SQLiteQueryBuilder createQueryBuilderForOwnersAndPets() {
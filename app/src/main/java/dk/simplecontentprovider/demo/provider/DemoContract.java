@@ -14,6 +14,7 @@ public final class DemoContract {
 
         public static final String NAME = "name";
         public static final String ADDRESS = "address";
+        public static final String PET_COUNT = "pet_count";
     }
 
     public static final class Pets implements BaseColumns {
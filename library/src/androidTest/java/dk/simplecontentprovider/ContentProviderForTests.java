@@ -25,12 +25,81 @@ public class ContentProviderForTests extends SimpleContentProvider {
                 .addColumn(ContractForTests.UniqueValues.VALUE, "INTEGER")
                 .addConstraint("UNIQUE (" + ContractForTests.UniqueValues.KEY + ") ON CONFLICT REPLACE");
 
+        addEntity(ContractForTests.CachedItems.TABLE_NAME)
+                .addColumn(ContractForTests.CachedItems._ID, "INTEGER PRIMARY KEY")
+                .addColumn(ContractForTests.CachedItems.NAME, "TEXT")
+                .addColumn(ContractForTests.CachedItems.TYPE, "TEXT")
+                .setRowCacheSize(100);
+
+        addEntity(ContractForTests.ResultCachedValues.TABLE_NAME)
+                .addColumn(ContractForTests.ResultCachedValues._ID, "INTEGER PRIMARY KEY AUTOINCREMENT")
+                .addColumn(ContractForTests.ResultCachedValues.KEY, "TEXT")
+                .addColumn(ContractForTests.ResultCachedValues.VALUE, "INTEGER")
+                .addConstraint("UNIQUE (" + ContractForTests.ResultCachedValues.KEY + ") ON CONFLICT REPLACE")
+                .setResultCacheEnabled(true);
+
+        addEntity(ContractForTests.ShardedValues.TABLE_NAME)
+                .addColumn(ContractForTests.ShardedValues._ID, "INTEGER PRIMARY KEY AUTOINCREMENT")
+                .addColumn(ContractForTests.ShardedValues.KEY, "TEXT")
+                .addColumn(ContractForTests.ShardedValues.VALUE, "INTEGER")
+                .addConstraint("UNIQUE (" + ContractForTests.ShardedValues.KEY + ") ON CONFLICT REPLACE")
+                .setShard("secondary");
+
+        addEntity(ContractForTests.Owners.TABLE_NAME)
+                .addColumn(ContractForTests.Owners._ID, "INTEGER PRIMARY KEY")
+                .addColumn(ContractForTests.Owners.NAME, "TEXT")
+                .addCounterCacheColumn(ContractForTests.Owners.PET_COUNT, ContractForTests.Pets.TABLE_NAME, ContractForTests.Pets.OWNER_ID);
+
+        addEntity(ContractForTests.Pets.TABLE_NAME)
+                .addColumn(ContractForTests.Pets._ID, "INTEGER PRIMARY KEY")
+                .addColumn(ContractForTests.Pets.NAME, "TEXT")
+                .addColumn(ContractForTests.Pets.OWNER_ID, "INTEGER")
+                .addConstraint("UNIQUE (" + ContractForTests.Pets.NAME + ") ON CONFLICT REPLACE")
+                .setRowCountMaintained(true);
+
+        addEntity(ContractForTests.Presence.TABLE_NAME)
+                .addColumn(ContractForTests.Presence._ID, "INTEGER PRIMARY KEY")
+                .addColumn(ContractForTests.Presence.STATUS, "TEXT")
+                .setInMemory(true);
+
+        addEntity(ContractForTests.Events.TABLE_NAME)
+                .addColumn(ContractForTests.Events._ID, "INTEGER PRIMARY KEY AUTOINCREMENT")
+                .addColumn(ContractForTests.Events.MESSAGE, "TEXT")
+                .setMaxRows(10);
+
+        addEntity(ContractForTests.Cached.TABLE_NAME)
+                .addColumn(ContractForTests.Cached._ID, "INTEGER PRIMARY KEY")
+                .addColumn(ContractForTests.Cached.VALUE, "TEXT")
+                .addColumn(ContractForTests.Cached.WRITTEN, "INTEGER")
+                .addIndex("test_cached_written", ContractForTests.Cached.WRITTEN)
+                .setTimeToLive(ContractForTests.Cached.WRITTEN, 60 * 1000);
+
+        addEntity(ContractForTests.Samples.TABLE_NAME)
+                .addColumn(ContractForTests.Samples._ID, "INTEGER PRIMARY KEY")
+                .addColumn(ContractForTests.Samples.VALUE, "REAL")
+                .addColumn(ContractForTests.Samples.TIME, "INTEGER NOT NULL")
+                .addIndex("test_samples_time", ContractForTests.Samples.TIME)
+                .setTimePartitioned(ContractForTests.Samples.TIME, ContractForTests.Samples.PERIOD, ContractForTests.Samples.RETENTION);
+
         // Optionally add one or more views...
-        addView(ContractForTests.View.VIEW_NAME, createQueryBuilderForView())
+        addView(ContractForTests.View.VIEW_NAME, createQueryBuilderForView(ContractForTests.UniqueValues.TABLE_NAME))
                 .onEntity(ContractForTests.UniqueValues.TABLE_NAME);
+
+        addView(ContractForTests.ResultCachedView.VIEW_NAME, createQueryBuilderForView(ContractForTests.ResultCachedValues.TABLE_NAME))
+                .onEntity(ContractForTests.ResultCachedValues.TABLE_NAME)
+                .setResultCacheEnabled(true);
+
+        addView(ContractForTests.ShardedView.VIEW_NAME, createQueryBuilderForView(ContractForTests.ShardedValues.TABLE_NAME))
+                .onEntity(ContractForTests.ShardedValues.TABLE_NAME);
+
+        SQLiteQueryBuilder cachedViewBuilder = new SQLiteQueryBuilder();
+        cachedViewBuilder.setTables(ContractForTests.Cached.TABLE_NAME);
+        addView(ContractForTests.CachedView.VIEW_NAME, cachedViewBuilder)
+                .onEntity(ContractForTests.Cached.TABLE_NAME)
+                .setResultCacheEnabled(true);
     }
 
-    private SQLiteQueryBuilder createQueryBuilderForView() {
+    private SQLiteQueryBuilder createQueryBuilderForView(String valuesTable) {
         // Create a query builder for joining an owner with a summary of the owners pets...
         SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
 
@@ -38,7 +107,7 @@ public class ContentProviderForTests extends SimpleContentProvider {
                             "COUNT(" + ContractForTests.UniqueValues.KEY + ") AS " + ContractForTests.View.NUMBER_OF_KEYS + "," +
                             "MIN(" + ContractForTests.UniqueValues.VALUE + ") AS " + ContractForTests.View.MIN_VALUE + "," +
                             "MAX(" + ContractForTests.UniqueValues.VALUE + ") AS " + ContractForTests.View.MAX_VALUE + " " +
-                       "FROM " + ContractForTests.UniqueValues.TABLE_NAME + ")";
+                       "FROM " + valuesTable + ")";
         builder.setTables(table);
 
         return builder;
@@ -6,6 +6,7 @@ import android.provider.BaseColumns;
 public class ContractForTests {
     public static final String SCHEME = "content://";
     public static final String AUTHORITY = "dk.simplecontentprovider.test";
+    public static final String OPTIMIZED_AUTHORITY = "dk.simplecontentprovider.test.optimized";
 
     public static final class Items implements BaseColumns {
         protected static final String TABLE_NAME = "test_items";
@@ -16,6 +17,24 @@ public class ContractForTests {
         public static final String TYPE = "type";
     }
 
+    public static final class OptimizedItems implements BaseColumns {
+        protected static final String TABLE_NAME = "test_items";
+
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + OPTIMIZED_AUTHORITY + "/" + TABLE_NAME);
+
+        public static final String NAME = "name";
+        public static final String TYPE = "type";
+    }
+
+    public static final class CachedItems implements BaseColumns {
+        protected static final String TABLE_NAME = "test_cached_items";
+
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + "/" + TABLE_NAME);
+
+        public static final String NAME = "name";
+        public static final String TYPE = "type";
+    }
+
     public static final class UniqueValues implements BaseColumns {
         protected static final String TABLE_NAME = "test_values";
 
@@ -25,6 +44,106 @@ public class ContractForTests {
         public static final String VALUE = "value";
     }
 
+    public static final class ResultCachedValues implements BaseColumns {
+        protected static final String TABLE_NAME = "test_result_cached_values";
+
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + "/" + TABLE_NAME);
+
+        public static final String KEY = "key";
+        public static final String VALUE = "value";
+    }
+
+    public static final class ResultCachedView implements BaseColumns {
+        protected static final String VIEW_NAME = "result_cached_view";
+
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + "/" + VIEW_NAME);
+
+        public static final String NUMBER_OF_KEYS = "number_of_keys";
+        public static final String MIN_VALUE = "min_value";
+        public static final String MAX_VALUE = "max_value";
+    }
+
+    public static final class ShardedValues implements BaseColumns {
+        protected static final String TABLE_NAME = "test_sharded_values";
+
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + "/" + TABLE_NAME);
+
+        public static final String KEY = "key";
+        public static final String VALUE = "value";
+    }
+
+    public static final class ShardedView implements BaseColumns {
+        protected static final String VIEW_NAME = "sharded_view";
+
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + "/" + VIEW_NAME);
+
+        public static final String NUMBER_OF_KEYS = "number_of_keys";
+        public static final String MIN_VALUE = "min_value";
+        public static final String MAX_VALUE = "max_value";
+    }
+
+    public static final class Owners implements BaseColumns {
+        protected static final String TABLE_NAME = "test_owners";
+
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + "/" + TABLE_NAME);
+
+        public static final String NAME = "name";
+        public static final String PET_COUNT = "pet_count";
+    }
+
+    public static final class Pets implements BaseColumns {
+        protected static final String TABLE_NAME = "test_pets";
+
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + "/" + TABLE_NAME);
+
+        public static final String NAME = "name";
+        public static final String OWNER_ID = "owner_id";
+    }
+
+    public static final class Presence implements BaseColumns {
+        protected static final String TABLE_NAME = "test_presence";
+
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + "/" + TABLE_NAME);
+
+        public static final String STATUS = "status";
+    }
+
+    public static final class Events implements BaseColumns {
+        protected static final String TABLE_NAME = "test_events";
+
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + "/" + TABLE_NAME);
+
+        public static final String MESSAGE = "message";
+    }
+
+    public static final class Cached implements BaseColumns {
+        protected static final String TABLE_NAME = "test_cached";
+
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + "/" + TABLE_NAME);
+
+        public static final String VALUE = "value";
+        public static final String WRITTEN = "written";
+    }
+
+    public static final class CachedView implements BaseColumns {
+        protected static final String VIEW_NAME = "cached_view";
+
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + "/" + VIEW_NAME);
+
+        public static final String VALUE = "value";
+    }
+
+    public static final class Samples implements BaseColumns {
+        protected static final String TABLE_NAME = "test_samples";
+        protected static final long PERIOD = 24 * 60 * 60 * 1000;
+        protected static final long RETENTION = 7 * PERIOD;
+
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + "/" + TABLE_NAME);
+
+        public static final String VALUE = "value";
+        public static final String TIME = "time";
+    }
+
     public static final class View implements BaseColumns {
         protected static final String VIEW_NAME = "view";
 
@@ -0,0 +1,25 @@
+package dk.simplecontentprovider;
+
+public class OptimizedContentProviderForTests extends SimpleContentProvider {
+    @Override
+    protected void initProvider() {
+        // Set authority...
+        setAuthority(ContractForTests.OPTIMIZED_AUTHORITY);
+
+        // Set database name and version...
+        setDatabaseName("OptimizedContentProviderForTests.db");
+        setDatabaseVersion(1);
+
+        // Open the database in the background...
+        setDatabaseWarmUpEnabled(true);
+
+        // Share identical queries executing at the same time...
+        setQueryDeduplicationEnabled(true);
+
+        // Add entities from the contract...
+        addEntity(ContractForTests.OptimizedItems.TABLE_NAME)
+                .addColumn(ContractForTests.OptimizedItems._ID, "INTEGER PRIMARY KEY")
+                .addColumn(ContractForTests.OptimizedItems.NAME, "TEXT")
+                .addColumn(ContractForTests.OptimizedItems.TYPE, "TEXT");
+    }
+}
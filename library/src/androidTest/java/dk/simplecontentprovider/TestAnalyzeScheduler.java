@@ -0,0 +1,42 @@
+package dk.simplecontentprovider;
+
+import android.test.AndroidTestCase;
+
+import java.util.Collections;
+
+public class TestAnalyzeScheduler extends AndroidTestCase {
+    private final SimpleContentProvider.Entity mEntity = new SimpleContentProvider.Entity("items", "_id", null, null);
+    private final SimpleContentProvider.Entity mOtherEntity = new SimpleContentProvider.Entity("others", "_id", null, null);
+
+    public void testThreshold() {
+        AnalyzeScheduler scheduler = new AnalyzeScheduler(100, 1000);
+        assertFalse(scheduler.recordChanges(mEntity, 99));
+        assertTrue(scheduler.recordChanges(mEntity, 1));
+
+        // An entity is only scheduled once, until it has been analyzed...
+        assertFalse(scheduler.recordChanges(mEntity, 100));
+    }
+
+    public void testIdleEntitiesNeedAMinimumOfChangedRows() {
+        AnalyzeScheduler scheduler = new AnalyzeScheduler(100, 1000);
+        scheduler.recordChanges(mEntity, 5);
+        scheduler.recordChanges(mOtherEntity, 10);
+
+        // Only entities with a tenth of the threshold are analyzed when idle...
+        assertEquals(Collections.singletonList(mOtherEntity.name), scheduler.getIdleEntities());
+
+        // ...and the others keep their count until they pass it...
+        scheduler.recordChanges(mEntity, 5);
+        assertEquals(2, scheduler.getIdleEntities().size());
+    }
+
+    public void testOptimizeOnlyAfterChanges() {
+        AnalyzeScheduler scheduler = new AnalyzeScheduler(100, 1000);
+        assertFalse(scheduler.beginOptimize());
+
+        scheduler.recordChanges(mEntity, 1);
+        assertTrue(scheduler.beginOptimize());
+        assertFalse(scheduler.beginOptimize());
+    }
+
+}
@@ -0,0 +1,189 @@
+package dk.simplecontentprovider;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+
+public class TestCounterCache extends AndroidTestCase {
+
+    @Override
+    public void setUp() {
+        mContext.getContentResolver().delete(
+                ContractForTests.Pets.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().delete(
+                ContractForTests.Owners.CONTENT_URI,
+                null,
+                null
+        );
+    }
+
+    public void testInsertAndDelete() {
+        long owner = insertOwner("Alice");
+        insertPet("Fido", owner);
+        Uri felix = insertPet("Felix", owner);
+        assertEquals(2, getPetCount(owner));
+        assertEquals(2, getRowCount());
+
+        mContext.getContentResolver().delete(felix, null, null);
+        assertEquals(1, getPetCount(owner));
+        assertEquals(1, getRowCount());
+
+        // Pets without an owner are not counted...
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.Pets.NAME, "Stray");
+        mContext.getContentResolver().insert(ContractForTests.Pets.CONTENT_URI, values);
+        assertEquals(1, getPetCount(owner));
+        assertEquals(2, getRowCount());
+    }
+
+    public void testUpdateMovesPetToAnotherOwner() {
+        long alice = insertOwner("Alice");
+        long bob = insertOwner("Bob");
+        Uri fido = insertPet("Fido", alice);
+
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.Pets.OWNER_ID, bob);
+        mContext.getContentResolver().update(fido, values, null, null);
+        assertEquals(0, getPetCount(alice));
+        assertEquals(1, getPetCount(bob));
+
+        // Updates of other columns leave the counts alone...
+        values = new ContentValues();
+        values.put(ContractForTests.Pets.NAME, "Rex");
+        mContext.getContentResolver().update(fido, values, null, null);
+        assertEquals(0, getPetCount(alice));
+        assertEquals(1, getPetCount(bob));
+    }
+
+    public void testReplaceConflict() {
+        long alice = insertOwner("Alice");
+        long bob = insertOwner("Bob");
+        insertPet("Fido", alice);
+
+        // The name is unique, so the pet of Alice is replaced by the pet of Bob...
+        insertPet("Fido", bob);
+        assertEquals(0, getPetCount(alice));
+        assertEquals(1, getPetCount(bob));
+        assertEquals(1, getRowCount());
+    }
+
+    public void testBulkInsert() {
+        long owner = insertOwner("Alice");
+        ContentValues[] values = new ContentValues[] {
+                createPetValues("Fido", owner),
+                createPetValues("Felix", owner),
+                createPetValues("Fido", owner)
+        };
+        assertEquals(3, mContext.getContentResolver().bulkInsert(ContractForTests.Pets.CONTENT_URI, values));
+
+        // The second Fido replaced the first...
+        assertEquals(2, getPetCount(owner));
+        assertEquals(2, getRowCount());
+    }
+
+    public void testApplyBatch() throws RemoteException, OperationApplicationException {
+        long alice = insertOwner("Alice");
+        long bob = insertOwner("Bob");
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(ContractForTests.Pets.CONTENT_URI)
+                .withValues(createPetValues("Fido", alice))
+                .build());
+        operations.add(ContentProviderOperation.newInsert(ContractForTests.Pets.CONTENT_URI)
+                .withValues(createPetValues("Felix", alice))
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(ContractForTests.Pets.CONTENT_URI)
+                .withSelection(ContractForTests.Pets.NAME + " = ?", new String[] {"Felix"})
+                .withValue(ContractForTests.Pets.OWNER_ID, bob)
+                .build());
+        operations.add(ContentProviderOperation.newDelete(ContractForTests.Pets.CONTENT_URI)
+                .withSelection(ContractForTests.Pets.NAME + " = ?", new String[] {"Fido"})
+                .build());
+        mContext.getContentResolver().applyBatch(ContractForTests.AUTHORITY, operations);
+
+        assertEquals(0, getPetCount(alice));
+        assertEquals(1, getPetCount(bob));
+        assertEquals(1, getRowCount());
+    }
+
+    public void testRebuildCounters() {
+        long owner = insertOwner("Alice");
+        insertPet("Fido", owner);
+        insertPet("Felix", owner);
+
+        ContentProviderClient client = mContext.getContentResolver().acquireContentProviderClient(ContractForTests.AUTHORITY);
+        try {
+            ContentProviderForTests provider = (ContentProviderForTests) client.getLocalContentProvider();
+            SQLiteDatabase db = provider.mDatabaseHelper.getWritableDatabase();
+
+            // Change the counts behind the back of the triggers...
+            db.execSQL("UPDATE " + ContractForTests.Owners.TABLE_NAME + " SET " + ContractForTests.Owners.PET_COUNT + "=17");
+            db.execSQL("UPDATE " + SimpleContentProvider.ROW_COUNTS_TABLE + " SET row_count=42");
+            assertEquals(17, getPetCount(owner));
+
+            provider.rebuildCounters(db);
+        } finally {
+            client.release();
+        }
+
+        assertEquals(2, getPetCount(owner));
+        assertEquals(2, getRowCount());
+    }
+
+    private long insertOwner(String name) {
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.Owners.NAME, name);
+        Uri uri = mContext.getContentResolver().insert(ContractForTests.Owners.CONTENT_URI, values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private Uri insertPet(String name, long owner) {
+        Uri uri = mContext.getContentResolver().insert(ContractForTests.Pets.CONTENT_URI, createPetValues(name, owner));
+        assertNotNull(uri);
+        return uri;
+    }
+
+    private int getPetCount(long owner) {
+        Cursor cursor = mContext.getContentResolver().query(
+                ContentUris.withAppendedId(ContractForTests.Owners.CONTENT_URI, owner),
+                new String[] {ContractForTests.Owners.PET_COUNT},
+                null,
+                null,
+                null
+        );
+        assertTrue(cursor.moveToFirst());
+        int petCount = cursor.getInt(0);
+        cursor.close();
+        return petCount;
+    }
+
+    private long getRowCount() {
+        Bundle result = mContext.getContentResolver().call(
+                ContractForTests.Pets.CONTENT_URI,
+                SimpleContentProvider.METHOD_GET_ROW_COUNT,
+                ContractForTests.Pets.TABLE_NAME,
+                null);
+        return result.getLong(SimpleContentProvider.KEY_ROW_COUNT);
+    }
+
+    private ContentValues createPetValues(String name, long owner) {
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.Pets.NAME, name);
+        values.put(ContractForTests.Pets.OWNER_ID, owner);
+        return values;
+    }
+}
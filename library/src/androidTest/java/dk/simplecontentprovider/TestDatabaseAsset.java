@@ -0,0 +1,79 @@
+package dk.simplecontentprovider;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+
+public class TestDatabaseAsset extends AndroidTestCase {
+    private static final String DATABASE_NAME = "TestDatabaseAsset.db";
+
+    @Override
+    public void setUp() {
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Override
+    public void tearDown() {
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    public void testAssetIsCopiedIntoPlace() {
+        DatabaseAsset asset = new DatabaseAsset("test_database.db.gz");
+        asset.install(mContext, DATABASE_NAME, 1);
+
+        Bundle statistics = new Bundle();
+        asset.addStatistics(statistics);
+        assertTrue(statistics.getBoolean(DatabaseAsset.STATISTICS_INSTALLED));
+        assertEquals(12288, statistics.getLong(DatabaseAsset.STATISTICS_BYTES));
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(mContext.getDatabasePath(DATABASE_NAME).getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            Cursor cursor = db.rawQuery("SELECT name FROM items ORDER BY _id", null);
+            assertEquals(3, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("ball", cursor.getString(0));
+            cursor.close();
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testExistingDatabaseIsKept() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(DATABASE_NAME, 0, null);
+        db.execSQL("CREATE TABLE existing (_id INTEGER PRIMARY KEY)");
+        db.close();
+
+        DatabaseAsset asset = new DatabaseAsset("test_database.db.gz");
+        asset.install(mContext, DATABASE_NAME, 1);
+
+        Bundle statistics = new Bundle();
+        asset.addStatistics(statistics);
+        assertFalse(statistics.getBoolean(DatabaseAsset.STATISTICS_INSTALLED));
+    }
+
+    public void testNewerAssetIsRejected() {
+        DatabaseAsset asset = new DatabaseAsset("test_database.db.gz");
+        asset.install(mContext, DATABASE_NAME, 0);
+
+        Bundle statistics = new Bundle();
+        asset.addStatistics(statistics);
+        assertFalse(statistics.getBoolean(DatabaseAsset.STATISTICS_INSTALLED));
+        assertNotNull(statistics.getString(DatabaseAsset.STATISTICS_FAILURE));
+        assertFalse(mContext.getDatabasePath(DATABASE_NAME).exists());
+        assertFalse(new File(mContext.getDatabasePath(DATABASE_NAME).getPath() + ".asset").exists());
+    }
+
+    public void testMissingAssetIsIgnored() {
+        DatabaseAsset asset = new DatabaseAsset("missing.db");
+        asset.install(mContext, DATABASE_NAME, 1);
+
+        Bundle statistics = new Bundle();
+        asset.addStatistics(statistics);
+        assertFalse(statistics.getBoolean(DatabaseAsset.STATISTICS_INSTALLED));
+        assertNotNull(statistics.getString(DatabaseAsset.STATISTICS_FAILURE));
+        assertFalse(mContext.getDatabasePath(DATABASE_NAME).exists());
+    }
+}
@@ -0,0 +1,54 @@
+package dk.simplecontentprovider;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+public class TestInMemoryTable extends AndroidTestCase {
+
+    @Override
+    public void setUp() {
+        mContext.getContentResolver().delete(
+                ContractForTests.Presence.CONTENT_URI,
+                null,
+                null
+        );
+    }
+
+    public void testInsertUpdateAndQuery() {
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.Presence.STATUS, "online");
+        Uri insertedUri = mContext.getContentResolver().insert(ContractForTests.Presence.CONTENT_URI, values);
+        assertNotNull(insertedUri);
+
+        values.put(ContractForTests.Presence.STATUS, "away");
+        assertEquals(1, mContext.getContentResolver().update(insertedUri, values, null, null));
+
+        Cursor cursor = mContext.getContentResolver().query(insertedUri, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(ContentUris.parseId(insertedUri), cursor.getLong(cursor.getColumnIndex(ContractForTests.Presence._ID)));
+        assertEquals("away", cursor.getString(cursor.getColumnIndex(ContractForTests.Presence.STATUS)));
+        cursor.close();
+    }
+
+    public void testRowsAreNotStoredOnDisk() {
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.Presence.STATUS, "online");
+        mContext.getContentResolver().insert(ContractForTests.Presence.CONTENT_URI, values);
+
+        // The table only exists in the in-memory database attached to the provider's connection...
+        String path = mContext.getDatabasePath("ContentProviderForTests.db").getPath();
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            assertEquals(0, DatabaseUtils.longForQuery(db,
+                    "SELECT count(*) FROM sqlite_master WHERE name=?",
+                    new String[]{ContractForTests.Presence.TABLE_NAME}));
+        } finally {
+            db.close();
+        }
+    }
+}
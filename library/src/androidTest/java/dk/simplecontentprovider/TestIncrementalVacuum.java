@@ -0,0 +1,94 @@
+package dk.simplecontentprovider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import java.util.Collections;
+
+public class TestIncrementalVacuum extends AndroidTestCase {
+    private static final String DATABASE_NAME = "test_incremental_vacuum.db";
+
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    public void setUp() {
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDatabase = mContext.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+    }
+
+    @Override
+    public void tearDown() {
+        mDatabase.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    public void testEnableSwitchesAutoVacuum() {
+        assertTrue(getPragma("auto_vacuum") != IncrementalVacuum.AUTO_VACUUM_INCREMENTAL);
+
+        IncrementalVacuum.enable(mDatabase);
+        assertEquals(IncrementalVacuum.AUTO_VACUUM_INCREMENTAL, getPragma("auto_vacuum"));
+    }
+
+    public void testVacuumReleasesFreePages() {
+        IncrementalVacuum.enable(mDatabase);
+        insertAndDeleteRows();
+        long freePages = getPragma("freelist_count");
+        long pageCount = getPragma("page_count");
+        assertTrue(freePages > 0);
+
+        IncrementalVacuum vacuum = new IncrementalVacuum(1);
+        assertEquals(freePages, vacuum.vacuum(Collections.singletonList(mDatabase)));
+        assertEquals(0, getPragma("freelist_count"));
+        assertTrue(getPragma("page_count") < pageCount);
+
+        Bundle statistics = new Bundle();
+        vacuum.addStatistics(statistics);
+        assertEquals(freePages, statistics.getLong(IncrementalVacuum.STATISTICS_RECLAIMED_PAGES));
+        assertEquals(0, statistics.getLong(IncrementalVacuum.STATISTICS_FREELIST_SIZE));
+    }
+
+    public void testVacuumKeepsFreePagesBelowThreshold() {
+        IncrementalVacuum.enable(mDatabase);
+        insertAndDeleteRows();
+        long freePages = getPragma("freelist_count");
+
+        IncrementalVacuum vacuum = new IncrementalVacuum((freePages + 1) * getPragma("page_size"));
+        assertEquals(0, vacuum.vacuum(Collections.singletonList(mDatabase)));
+        assertEquals(freePages, getPragma("freelist_count"));
+    }
+
+    public void testVacuumKeepsFreePagesWithoutIncrementalMode() {
+        insertAndDeleteRows();
+        long freePages = getPragma("freelist_count");
+        assertTrue(freePages > 0);
+
+        // Databases created before incremental vacuum was enabled keep their free pages...
+        IncrementalVacuum vacuum = new IncrementalVacuum(1);
+        assertEquals(0, vacuum.vacuum(Collections.singletonList(mDatabase)));
+        assertEquals(freePages, getPragma("freelist_count"));
+    }
+
+    private void insertAndDeleteRows() {
+        mDatabase.execSQL("CREATE TABLE items (_id INTEGER PRIMARY KEY, data BLOB)");
+        mDatabase.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put("data", new byte[1024]);
+            for (int i = 0; i < 1000; i++) {
+                mDatabase.insert("items", null, values);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        mDatabase.delete("items", null, null);
+    }
+
+    private long getPragma(String pragma) {
+        return DatabaseUtils.longForQuery(mDatabase, "PRAGMA " + pragma, null);
+    }
+}
@@ -5,13 +5,25 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.OperationApplicationException;
+import android.content.res.AssetFileDescriptor;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.test.AndroidTestCase;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -380,6 +392,671 @@ public class TestItemsTable extends AndroidTestCase {
         resultCursor.close();
     }
 
+    public void testIdList() {
+        long id1 = ContentUris.parseId(mContext.getContentResolver().insert(ContractForTests.Items.CONTENT_URI, createValues("ball", "toy")));
+        long id2 = ContentUris.parseId(mContext.getContentResolver().insert(ContractForTests.Items.CONTENT_URI, createValues("hammer", "tool")));
+        long id3 = ContentUris.parseId(mContext.getContentResolver().insert(ContractForTests.Items.CONTENT_URI, createValues("car", "vehicle")));
+
+        // Query a list of ids appended to the path...
+        Uri listUri = Uri.withAppendedPath(ContractForTests.Items.CONTENT_URI, id1 + "," + id3);
+        Cursor cursor = mContext.getContentResolver().query(listUri, null, null, null, ContractForTests.Items._ID);
+        assertEquals(2, cursor.getCount());
+        validateCursor(cursor, createValues("ball", "toy"));
+        validateCursor(cursor, createValues("car", "vehicle"));
+        cursor.close();
+
+        // Update a list of ids given by the ids parameter...
+        Uri idsUri = ContractForTests.Items.CONTENT_URI.buildUpon()
+                .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_IDS, id2 + "," + id3)
+                .build();
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(ContractForTests.Items.TYPE, "thing");
+        assertEquals(2, mContext.getContentResolver().update(idsUri, updatedValues, null, null));
+
+        // Delete a list of ids...
+        assertEquals(2, mContext.getContentResolver().delete(listUri, null, null));
+        cursor = mContext.getContentResolver().query(ContractForTests.Items.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        validateCursor(cursor, createValues("hammer", "thing"));
+        cursor.close();
+    }
+
+    public void testLargeIdList() {
+        ContentValues[] testValues = new ContentValues[2500];
+        for (int i = 0; i < testValues.length; i++) {
+            testValues[i] = createValues("item" + i, "type");
+        }
+        mContext.getContentResolver().bulkInsert(ContractForTests.Items.CONTENT_URI, testValues);
+
+        // Select all the items by id, which exceeds the maximum number of bound variables...
+        StringBuilder ids = new StringBuilder();
+        Cursor cursor = mContext.getContentResolver().query(ContractForTests.Items.CONTENT_URI, new String[] {ContractForTests.Items._ID}, null, null, null);
+        while (cursor.moveToNext()) {
+            ids.append(ids.length() == 0 ? "" : ",").append(cursor.getLong(0));
+        }
+        cursor.close();
+
+        Uri idsUri = ContractForTests.Items.CONTENT_URI.buildUpon()
+                .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_IDS, ids.toString())
+                .build();
+        cursor = mContext.getContentResolver().query(idsUri, null, null, null, null);
+        assertEquals(testValues.length, cursor.getCount());
+        cursor.close();
+
+        // The chunks cannot be sorted or limited together...
+        try {
+            mContext.getContentResolver().query(idsUri, null, null, null, ContractForTests.Items.NAME);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected...
+        }
+
+        Uri limitedIdsUri = idsUri.buildUpon()
+                .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_LIMIT, String.valueOf(10))
+                .build();
+        try {
+            mContext.getContentResolver().query(limitedIdsUri, null, null, null, null);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected...
+        }
+
+        assertEquals(testValues.length, mContext.getContentResolver().delete(idsUri, null, null));
+    }
+
+    public void testChunkedDelete() {
+        ContentValues[] testValues = new ContentValues[2500];
+        for (int i = 0; i < testValues.length; i++) {
+            testValues[i] = createValues("item" + i, (i % 2 == 0) ? "even" : "odd");
+        }
+        mContext.getContentResolver().bulkInsert(ContractForTests.Items.CONTENT_URI, testValues);
+
+        // Delete the odd items in chunks of 100 rows...
+        Uri chunkedUri = ContractForTests.Items.CONTENT_URI.buildUpon()
+                .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_CHUNKED, "100")
+                .build();
+        int rowCount = mContext.getContentResolver().delete(chunkedUri, ContractForTests.Items.TYPE + " = ?", new String[] {"odd"});
+        assertEquals(1250, rowCount);
+        assertEquals(1250, getRowCount());
+
+        // Delete the remaining items in the background...
+        Bundle extras = new Bundle();
+        extras.putBoolean(SimpleContentProvider.KEY_BACKGROUND, true);
+        Bundle result = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_DELETE_CHUNKED,
+                ContractForTests.Items.TABLE_NAME,
+                extras);
+        String taskId = String.valueOf(result.getLong(SimpleContentProvider.KEY_TASK_ID));
+
+        // Wait for the task to finish...
+        Bundle taskExtras = new Bundle();
+        taskExtras.putLong(SimpleContentProvider.KEY_TIMEOUT, 10000);
+        Bundle task = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_GET_TASK,
+                taskId,
+                taskExtras);
+        assertNotNull(task);
+        assertTrue(task.getBoolean(SimpleContentProvider.KEY_TASK_DONE));
+        assertNull(task.getString(SimpleContentProvider.KEY_TASK_ERROR));
+        assertEquals(1250, task.getLong(SimpleContentProvider.KEY_TASK_PROGRESS));
+        assertEquals(0, getRowCount());
+    }
+
+    public void testChunkedDeleteWithInvalidChunkSize() {
+        mContext.getContentResolver().insert(ContractForTests.Items.CONTENT_URI, createValues("ball", "toy"));
+
+        for (String chunked : new String[] {"0", "-1", "many"}) {
+            Uri chunkedUri = ContractForTests.Items.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_CHUNKED, chunked)
+                    .build();
+            try {
+                mContext.getContentResolver().delete(chunkedUri, null, null);
+                fail("Expected an IllegalArgumentException for " + chunked);
+            } catch (IllegalArgumentException e) {
+                // Expected...
+            }
+        }
+
+        Bundle extras = new Bundle();
+        extras.putInt(SimpleContentProvider.KEY_CHUNK_SIZE, 0);
+        try {
+            mContext.getContentResolver().call(
+                    ContractForTests.Items.CONTENT_URI,
+                    SimpleContentProvider.METHOD_DELETE_CHUNKED,
+                    ContractForTests.Items.TABLE_NAME,
+                    extras);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected...
+        }
+        assertEquals(1, getRowCount());
+
+        // A chunked parameter of false deletes the rows as usual...
+        Uri notChunkedUri = ContractForTests.Items.CONTENT_URI.buildUpon()
+                .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_CHUNKED, "false")
+                .build();
+        assertEquals(1, mContext.getContentResolver().delete(notChunkedUri, null, null));
+        assertEquals(0, getRowCount());
+    }
+
+    public void testGetTaskWithInvalidId() {
+        try {
+            mContext.getContentResolver().call(
+                    ContractForTests.Items.CONTENT_URI,
+                    SimpleContentProvider.METHOD_GET_TASK,
+                    null,
+                    null);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected...
+        }
+    }
+
+    public void testBulkInsertColumns() {
+        Bundle extras = new Bundle();
+        extras.putStringArray(ContractForTests.Items.NAME, new String[] {"ball", "hammer", "car"});
+        extras.putStringArray(ContractForTests.Items.TYPE, new String[] {"toy", "tool", null});
+        Bundle result = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_BULK_INSERT_COLUMNS,
+                ContractForTests.Items.TABLE_NAME,
+                extras);
+        assertEquals(3, result.getLong(SimpleContentProvider.KEY_ROW_COUNT));
+        assertEquals(3, getRowCount());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                ContractForTests.Items.CONTENT_URI,
+                null,
+                ContractForTests.Items.TYPE + " IS NULL",
+                null,
+                null);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("car", cursor.getString(cursor.getColumnIndex(ContractForTests.Items.NAME)));
+        cursor.close();
+
+        // All the columns must have the same number of values...
+        extras.putStringArray(ContractForTests.Items.TYPE, new String[] {"toy"});
+        try {
+            mContext.getContentResolver().call(
+                    ContractForTests.Items.CONTENT_URI,
+                    SimpleContentProvider.METHOD_BULK_INSERT_COLUMNS,
+                    ContractForTests.Items.TABLE_NAME,
+                    extras);
+            fail("Inserting columns of different lengths should fail");
+        } catch (IllegalArgumentException e) {
+            // Expected...
+        }
+    }
+
+    public void testMergeImport() {
+        ContentValues[] testValues = new ContentValues[] {
+                createValues("ball", "toy"),
+                createValues("hammer", "tool"),
+                createValues("car", "toy")
+        };
+        mContext.getContentResolver().bulkInsert(ContractForTests.Items.CONTENT_URI, testValues);
+
+        // Keep the ball, change the hammer, drop the car and add a saw...
+        Bundle extras = new Bundle();
+        extras.putString(SimpleContentProvider.KEY_MERGE_KEY, ContractForTests.Items.NAME);
+        extras.putStringArray(ContractForTests.Items.NAME, new String[] {"ball", "hammer", "saw"});
+        extras.putStringArray(ContractForTests.Items.TYPE, new String[] {"toy", "weapon", "tool"});
+        Bundle result = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_MERGE_IMPORT,
+                ContractForTests.Items.TABLE_NAME,
+                extras);
+        assertEquals(1, result.getLong(SimpleContentProvider.KEY_INSERTED_COUNT));
+        assertEquals(1, result.getLong(SimpleContentProvider.KEY_UPDATED_COUNT));
+        assertEquals(1, result.getLong(SimpleContentProvider.KEY_DELETED_COUNT));
+        assertEquals(3, getRowCount());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                ContractForTests.Items.CONTENT_URI,
+                null,
+                null,
+                null,
+                ContractForTests.Items.NAME);
+        assertEquals(3, cursor.getCount());
+        validateCursor(cursor, createValues("ball", "toy"));
+        validateCursor(cursor, createValues("hammer", "weapon"));
+        validateCursor(cursor, createValues("saw", "tool"));
+        cursor.close();
+
+        // Merging the same snapshot again changes nothing...
+        result = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_MERGE_IMPORT,
+                ContractForTests.Items.TABLE_NAME,
+                extras);
+        assertEquals(0, result.getLong(SimpleContentProvider.KEY_INSERTED_COUNT));
+        assertEquals(0, result.getLong(SimpleContentProvider.KEY_UPDATED_COUNT));
+        assertEquals(0, result.getLong(SimpleContentProvider.KEY_DELETED_COUNT));
+    }
+
+    public void testMergeImportKeepsColumnsMissingFromRows() throws IOException {
+        ContentValues[] testValues = new ContentValues[] {
+                createValues("ball", "toy"),
+                createValues("hammer", "tool")
+        };
+        mContext.getContentResolver().bulkInsert(ContractForTests.Items.CONTENT_URI, testValues);
+
+        // The ball leaves out its type, which is kept, while the type of the hammer is cleared...
+        Bundle extras = new Bundle();
+        extras.putString(SimpleContentProvider.KEY_MERGE_KEY, ContractForTests.Items.NAME);
+        extras.putBoolean(SimpleContentProvider.KEY_DELETE_MISSING, false);
+        extras.putParcelable(SimpleContentProvider.KEY_FILE_DESCRIPTOR, openText(
+                "{\"name\":\"ball\"}\n" +
+                "{\"name\":\"hammer\",\"type\":null}\n"));
+        extras.putString(SimpleContentProvider.KEY_FORMAT, "ndjson");
+        Bundle result = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_MERGE_IMPORT,
+                ContractForTests.Items.TABLE_NAME,
+                extras);
+        assertEquals(0, result.getLong(SimpleContentProvider.KEY_ERROR_COUNT));
+        assertEquals(0, result.getLong(SimpleContentProvider.KEY_INSERTED_COUNT));
+        assertEquals(1, result.getLong(SimpleContentProvider.KEY_UPDATED_COUNT));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                ContractForTests.Items.CONTENT_URI,
+                null,
+                null,
+                null,
+                ContractForTests.Items.NAME);
+        assertEquals(2, cursor.getCount());
+        validateCursor(cursor, createValues("ball", "toy"));
+        assertTrue(cursor.moveToNext());
+        assertEquals("hammer", cursor.getString(cursor.getColumnIndex(ContractForTests.Items.NAME)));
+        assertTrue(cursor.isNull(cursor.getColumnIndex(ContractForTests.Items.TYPE)));
+        cursor.close();
+    }
+
+    public void testMergeImportOfTruncatedStream() throws IOException {
+        ContentValues[] testValues = new ContentValues[] {
+                createValues("ball", "toy"),
+                createValues("hammer", "tool"),
+                createValues("car", "toy")
+        };
+        mContext.getContentResolver().bulkInsert(ContractForTests.Items.CONTENT_URI, testValues);
+
+        // The stream is cut short in the middle of the last row...
+        Bundle extras = new Bundle();
+        extras.putString(SimpleContentProvider.KEY_MERGE_KEY, ContractForTests.Items.NAME);
+        extras.putParcelable(SimpleContentProvider.KEY_FILE_DESCRIPTOR, openText(
+                "{\"name\":\"ball\",\"type\":\"toy\"}\n" +
+                "{\"name\":\"hammer\",\"type\":\"weapon\"}\n" +
+                "{\"name\":\"ca"));
+        extras.putString(SimpleContentProvider.KEY_FORMAT, "ndjson");
+        Bundle result = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_MERGE_IMPORT,
+                ContractForTests.Items.TABLE_NAME,
+                extras);
+
+        // ...so nothing is merged, and the car is not deleted...
+        assertEquals(1, result.getLong(SimpleContentProvider.KEY_ERROR_COUNT));
+        assertEquals(0, result.getLong(SimpleContentProvider.KEY_INSERTED_COUNT));
+        assertEquals(0, result.getLong(SimpleContentProvider.KEY_UPDATED_COUNT));
+        assertEquals(0, result.getLong(SimpleContentProvider.KEY_DELETED_COUNT));
+        assertEquals(3, getRowCount());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                ContractForTests.Items.CONTENT_URI,
+                null,
+                null,
+                null,
+                ContractForTests.Items.NAME);
+        assertEquals(3, cursor.getCount());
+        validateCursor(cursor, createValues("ball", "toy"));
+        validateCursor(cursor, createValues("car", "toy"));
+        validateCursor(cursor, createValues("hammer", "tool"));
+        cursor.close();
+    }
+
+    public void testRebuild() {
+        ContentValues[] testValues = new ContentValues[] {
+                createValues("ball", "toy"),
+                createValues("hammer", "tool"),
+                createValues("car", "toy")
+        };
+        mContext.getContentResolver().bulkInsert(ContractForTests.Items.CONTENT_URI, testValues);
+
+        Bundle extras = new Bundle();
+        extras.putStringArray(ContractForTests.Items.NAME, new String[] {"saw", "drill"});
+        extras.putStringArray(ContractForTests.Items.TYPE, new String[] {"tool", "tool"});
+        Bundle result = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_REBUILD,
+                ContractForTests.Items.TABLE_NAME,
+                extras);
+        assertEquals(2, result.getLong(SimpleContentProvider.KEY_ROW_COUNT));
+        assertEquals(2, getRowCount());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                ContractForTests.Items.CONTENT_URI,
+                null,
+                null,
+                null,
+                ContractForTests.Items.NAME);
+        assertEquals(2, cursor.getCount());
+        validateCursor(cursor, createValues("drill", "tool"));
+        validateCursor(cursor, createValues("saw", "tool"));
+        cursor.close();
+
+        // The row count is still maintained after the rebuild...
+        mContext.getContentResolver().insert(ContractForTests.Items.CONTENT_URI, createValues("ball", "toy"));
+        assertEquals(3, getRowCount());
+    }
+
+    public void testRebuildOfTruncatedStream() throws IOException {
+        ContentValues[] testValues = new ContentValues[] {
+                createValues("ball", "toy"),
+                createValues("hammer", "tool")
+        };
+        mContext.getContentResolver().bulkInsert(ContractForTests.Items.CONTENT_URI, testValues);
+
+        // The stream is cut short in the middle of a quoted value...
+        Bundle extras = new Bundle();
+        extras.putParcelable(SimpleContentProvider.KEY_FILE_DESCRIPTOR, openText(
+                ContractForTests.Items.NAME + "," + ContractForTests.Items.TYPE + "\n" +
+                "saw,tool\n" +
+                "\"drill"));
+        extras.putString(SimpleContentProvider.KEY_FORMAT, "csv");
+        Bundle result = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_REBUILD,
+                ContractForTests.Items.TABLE_NAME,
+                extras);
+
+        // ...so the entity is left unchanged...
+        assertEquals(1, result.getLong(SimpleContentProvider.KEY_ERROR_COUNT));
+        assertEquals(2, result.getLong(SimpleContentProvider.KEY_ROW_COUNT));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                ContractForTests.Items.CONTENT_URI,
+                null,
+                null,
+                null,
+                ContractForTests.Items.NAME);
+        assertEquals(2, cursor.getCount());
+        validateCursor(cursor, createValues("ball", "toy"));
+        validateCursor(cursor, createValues("hammer", "tool"));
+        cursor.close();
+    }
+
+    public void testBackup() throws IOException {
+        ContentValues[] testValues = new ContentValues[] {
+                createValues("ball", "toy"),
+                createValues("hammer", "tool"),
+                createValues("car", "toy")
+        };
+        mContext.getContentResolver().bulkInsert(ContractForTests.Items.CONTENT_URI, testValues);
+
+        // Back up the database in steps of a single row...
+        File file = new File(mContext.getCacheDir(), "test_backup.db");
+        Bundle extras = new Bundle();
+        extras.putParcelable(SimpleContentProvider.KEY_FILE_DESCRIPTOR, ParcelFileDescriptor.open(file,
+                ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_TRUNCATE | ParcelFileDescriptor.MODE_WRITE_ONLY));
+        extras.putInt(SimpleContentProvider.KEY_CHUNK_SIZE, 1);
+        Bundle result = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_BACKUP,
+                null,
+                extras);
+        assertTrue(result.getBoolean(SimpleContentProvider.KEY_TASK_DONE));
+        assertEquals(file.length(), result.getLong(SimpleContentProvider.KEY_BACKUP_SIZE));
+
+        SQLiteDatabase backup = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            assertEquals(3, DatabaseUtils.queryNumEntries(backup, ContractForTests.Items.TABLE_NAME));
+        } finally {
+            backup.close();
+            file.delete();
+        }
+    }
+
+    public void testBackupWithInvalidStepSize() throws IOException {
+        File file = new File(mContext.getCacheDir(), "test_backup.db");
+        Bundle extras = new Bundle();
+        extras.putParcelable(SimpleContentProvider.KEY_FILE_DESCRIPTOR, ParcelFileDescriptor.open(file,
+                ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_TRUNCATE | ParcelFileDescriptor.MODE_WRITE_ONLY));
+        extras.putInt(SimpleContentProvider.KEY_CHUNK_SIZE, -1);
+        try {
+            mContext.getContentResolver().call(
+                    ContractForTests.Items.CONTENT_URI,
+                    SimpleContentProvider.METHOD_BACKUP,
+                    null,
+                    extras);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected...
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testConcurrentBackups() throws IOException {
+        ContentValues[] testValues = new ContentValues[] {
+                createValues("ball", "toy"),
+                createValues("hammer", "tool")
+        };
+        mContext.getContentResolver().bulkInsert(ContractForTests.Items.CONTENT_URI, testValues);
+
+        // Start a backup in the background, and another one at the same time...
+        File backgroundFile = new File(mContext.getCacheDir(), "test_backup_background.db");
+        Bundle extras = new Bundle();
+        extras.putParcelable(SimpleContentProvider.KEY_FILE_DESCRIPTOR, ParcelFileDescriptor.open(backgroundFile,
+                ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_TRUNCATE | ParcelFileDescriptor.MODE_WRITE_ONLY));
+        extras.putBoolean(SimpleContentProvider.KEY_BACKGROUND, true);
+        Bundle result = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_BACKUP,
+                null,
+                extras);
+        String taskId = String.valueOf(result.getLong(SimpleContentProvider.KEY_TASK_ID));
+
+        File file = new File(mContext.getCacheDir(), "test_backup.db");
+        extras = new Bundle();
+        extras.putParcelable(SimpleContentProvider.KEY_FILE_DESCRIPTOR, ParcelFileDescriptor.open(file,
+                ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_TRUNCATE | ParcelFileDescriptor.MODE_WRITE_ONLY));
+        result = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_BACKUP,
+                null,
+                extras);
+        assertNull(result.getString(SimpleContentProvider.KEY_TASK_ERROR));
+
+        Bundle taskExtras = new Bundle();
+        taskExtras.putLong(SimpleContentProvider.KEY_TIMEOUT, 10000);
+        Bundle task = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_GET_TASK,
+                taskId,
+                taskExtras);
+        assertTrue(task.getBoolean(SimpleContentProvider.KEY_TASK_DONE));
+        assertNull(task.getString(SimpleContentProvider.KEY_TASK_ERROR));
+
+        // ...and both backups hold all the rows...
+        for (File backupFile : new File[] {backgroundFile, file}) {
+            SQLiteDatabase backup = SQLiteDatabase.openDatabase(backupFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            try {
+                assertEquals(2, DatabaseUtils.queryNumEntries(backup, ContractForTests.Items.TABLE_NAME));
+            } finally {
+                backup.close();
+                backupFile.delete();
+            }
+        }
+    }
+
+    public void testExport() throws IOException {
+        ContentValues[] testValues = new ContentValues[] {
+                createValues("ball", "toy"),
+                createValues("hammer, claw", "tool")
+        };
+        mContext.getContentResolver().bulkInsert(ContractForTests.Items.CONTENT_URI, testValues);
+
+        // Export the items as CSV, quoting values with separators...
+        Uri csvUri = ContractForTests.Items.CONTENT_URI.buildUpon()
+                .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_EXPORT, "csv")
+                .build();
+        List<String> lines = readLines(mContext.getContentResolver().openInputStream(csvUri));
+        assertEquals(3, lines.size());
+        assertEquals(ContractForTests.Items._ID + "," + ContractForTests.Items.NAME + "," + ContractForTests.Items.TYPE, lines.get(0));
+        assertTrue(lines.get(2).endsWith(",\"hammer, claw\",tool"));
+
+        // Export a single column of the tools as JSON...
+        Bundle opts = new Bundle();
+        opts.putStringArray(SimpleContentProvider.KEY_PROJECTION, new String[] {ContractForTests.Items.NAME});
+        opts.putString(SimpleContentProvider.KEY_SELECTION, ContractForTests.Items.TYPE + " = ?");
+        opts.putStringArray(SimpleContentProvider.KEY_SELECTION_ARGS, new String[] {"tool"});
+        AssetFileDescriptor file = mContext.getContentResolver().openTypedAssetFileDescriptor(
+                ContractForTests.Items.CONTENT_URI, SimpleContentProvider.MIME_TYPE_NDJSON, opts);
+        lines = readLines(file.createInputStream());
+        assertEquals(1, lines.size());
+        assertEquals("{\"name\":\"hammer, claw\"}", lines.get(0));
+    }
+
+    public void testImport() throws IOException {
+        final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Writer writer = new OutputStreamWriter(new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]), "UTF-8");
+                    writer.write(ContractForTests.Items.NAME + "," + ContractForTests.Items.TYPE + "\n");
+                    writer.write("ball,toy\n");
+                    writer.write("\"hammer, claw\",tool\n");
+                    writer.write("car\n");
+                    writer.close();
+                } catch (IOException e) {
+                    // The import fails below...
+                }
+            }
+        }).start();
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(SimpleContentProvider.KEY_FILE_DESCRIPTOR, pipe[0]);
+        extras.putString(SimpleContentProvider.KEY_FORMAT, "csv");
+        extras.putInt(SimpleContentProvider.KEY_CHUNK_SIZE, 2);
+        Bundle result = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_IMPORT,
+                ContractForTests.Items.TABLE_NAME,
+                extras);
+
+        // The row with a missing value is reported as an error...
+        assertEquals(2, result.getLong(SimpleContentProvider.KEY_ROW_COUNT));
+        assertEquals(1, result.getLong(SimpleContentProvider.KEY_ERROR_COUNT));
+        assertTrue(result.getStringArray(SimpleContentProvider.KEY_ERRORS)[0].startsWith("Line 4:"));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                ContractForTests.Items.CONTENT_URI,
+                null,
+                ContractForTests.Items.TYPE + " = ?",
+                new String[] {"tool"},
+                null);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("hammer, claw", cursor.getString(cursor.getColumnIndex(ContractForTests.Items.NAME)));
+        cursor.close();
+        assertEquals(2, getRowCount());
+    }
+
+    public void testImportWithInvalidConflictAlgorithm() throws IOException {
+        ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+        pipe[1].close();
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(SimpleContentProvider.KEY_FILE_DESCRIPTOR, pipe[0]);
+        extras.putString(SimpleContentProvider.KEY_FORMAT, "csv");
+        extras.putInt(SimpleContentProvider.PARAMETER_CONFLICT_ALGORITHM, 42);
+        try {
+            mContext.getContentResolver().call(
+                    ContractForTests.Items.CONTENT_URI,
+                    SimpleContentProvider.METHOD_IMPORT,
+                    ContractForTests.Items.TABLE_NAME,
+                    extras);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected...
+        }
+    }
+
+    public void testRowCount() {
+        ContentValues[] testValues = new ContentValues[] {
+                createValues("ball", "toy"),
+                createValues("hammer", "tool"),
+                createValues("car", "vehicle")
+        };
+        mContext.getContentResolver().bulkInsert(ContractForTests.Items.CONTENT_URI, testValues);
+        assertEquals(3, getRowCount());
+
+        // Delete a single item...
+        mContext.getContentResolver().delete(
+                ContractForTests.Items.CONTENT_URI,
+                ContractForTests.Items.NAME + " = ?",
+                new String[] {"hammer"});
+        assertEquals(2, getRowCount());
+
+        // Delete all the items...
+        deleteDatabase();
+        assertEquals(0, getRowCount());
+    }
+
+    public void testStartupTimings() {
+        Cursor cursor = mContext.getContentResolver().query(ContractForTests.Items.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        cursor.close();
+
+        // The database has been opened by the warm-up or the query above...
+        Bundle statistics = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_GET_STATISTICS,
+                null,
+                null);
+        assertTrue(statistics.containsKey(StartupTimings.PROVIDER_CREATE));
+        assertTrue(statistics.getLong(StartupTimings.DATABASE_OPEN, -1) >= 0);
+        assertTrue(statistics.getLong(SimpleContentProvider.STATISTICS_FIRST_QUERY_LATENCY) >= 0);
+    }
+
+    private List<String> readLines(InputStream in) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private ParcelFileDescriptor openText(String text) throws IOException {
+        File file = new File(mContext.getCacheDir(), "test_import.txt");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(text);
+        } finally {
+            writer.close();
+        }
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    private long getRowCount() {
+        Bundle result = mContext.getContentResolver().call(
+                ContractForTests.Items.CONTENT_URI,
+                SimpleContentProvider.METHOD_GET_ROW_COUNT,
+                ContractForTests.Items.TABLE_NAME,
+                null);
+        return result.getLong(SimpleContentProvider.KEY_ROW_COUNT);
+    }
+
     private ContentValues createValues(String name, String type) {
         ContentValues values = new ContentValues();
         values.put(ContractForTests.Items.NAME, name);
@@ -0,0 +1,167 @@
+package dk.simplecontentprovider;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class TestMemoryTrim extends AndroidTestCase {
+    private static final String TAG = "TestMemoryTrim";
+
+    @Override
+    public void setUp() {
+        mContext.getContentResolver().delete(
+                ContractForTests.CachedItems.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().delete(
+                ContractForTests.ResultCachedValues.CONTENT_URI,
+                null,
+                null
+        );
+    }
+
+    public void testTrimMemoryReleasesCaches() {
+        ContentValues[] values = new ContentValues[500];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new ContentValues();
+            values[i].put(ContractForTests.CachedItems.NAME, "item" + i);
+            values[i].put(ContractForTests.CachedItems.TYPE, "type" + (i % 10));
+        }
+        mContext.getContentResolver().bulkInsert(ContractForTests.CachedItems.CONTENT_URI, values);
+
+        // Fill the result cache through queries of values, and the row cache through queries of single items...
+        for (int i = 0; i < 10; i++) {
+            insertValue("key" + i, i);
+            queryValueCount(ContractForTests.ResultCachedValues.VALUE + " <= " + i);
+        }
+        Cursor cursor = mContext.getContentResolver().query(ContractForTests.CachedItems.CONTENT_URI, new String[] {ContractForTests.CachedItems._ID}, null, null, null);
+        while (cursor.moveToNext()) {
+            Cursor itemCursor = mContext.getContentResolver().query(ContentUris.withAppendedId(ContractForTests.CachedItems.CONTENT_URI, cursor.getLong(0)), null, null, null, null);
+            assertEquals(1, itemCursor.getCount());
+            itemCursor.close();
+        }
+        cursor.close();
+
+        Bundle before = getStatistics();
+        assertTrue(before.getLong(QueryResultCache.STATISTICS_ENTRIES) > 0);
+        assertTrue(before.getLong(RowCache.STATISTICS_ROWS) > 0);
+        long heapBefore = getUsedHeap();
+        long nativeHeapBefore = Debug.getNativeHeapAllocatedSize();
+
+        ContentProviderClient client = mContext.getContentResolver().acquireContentProviderClient(ContractForTests.AUTHORITY);
+        try {
+            client.getLocalContentProvider().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        } finally {
+            client.release();
+        }
+
+        // SQLite releases its memory in the background...
+        long releases = before.getLong(SimpleContentProvider.STATISTICS_SQLITE_MEMORY_RELEASES);
+        long timeout = SystemClock.elapsedRealtime() + 5000;
+        Bundle after = getStatistics();
+        while (after.getLong(SimpleContentProvider.STATISTICS_SQLITE_MEMORY_RELEASES) == releases && SystemClock.elapsedRealtime() < timeout) {
+            SystemClock.sleep(50);
+            after = getStatistics();
+        }
+
+        long heapAfter = getUsedHeap();
+        long nativeHeapAfter = Debug.getNativeHeapAllocatedSize();
+        Log.i(TAG, "Heap " + heapBefore + " -> " + heapAfter + " bytes, native heap " + nativeHeapBefore + " -> " + nativeHeapAfter
+                + " bytes, released by SQLite " + after.getLong(SimpleContentProvider.STATISTICS_RELEASED_SQLITE_MEMORY) + " bytes");
+
+        assertEquals(before.getLong(SimpleContentProvider.STATISTICS_MEMORY_TRIMS) + 1, after.getLong(SimpleContentProvider.STATISTICS_MEMORY_TRIMS));
+        assertEquals(ComponentCallbacks2.TRIM_MEMORY_COMPLETE, after.getInt(SimpleContentProvider.STATISTICS_LAST_TRIM_LEVEL));
+        assertEquals(releases + 1, after.getLong(SimpleContentProvider.STATISTICS_SQLITE_MEMORY_RELEASES));
+        assertEquals(0, after.getLong(QueryResultCache.STATISTICS_ENTRIES));
+        assertEquals(0, after.getLong(RowCache.STATISTICS_ROWS));
+
+        // The caches fill up again on demand...
+        assertEquals(50, queryCount(ContractForTests.CachedItems.TYPE + " = 'type0'"));
+        assertEquals(10, queryValueCount(null));
+    }
+
+    public void testUiHiddenKeepsCaches() {
+        insertValue("key", 1);
+        queryValueCount(null);
+        long entries = getStatistics().getLong(QueryResultCache.STATISTICS_ENTRIES);
+
+        ContentProviderClient client = mContext.getContentResolver().acquireContentProviderClient(ContractForTests.AUTHORITY);
+        try {
+            client.getLocalContentProvider().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        } finally {
+            client.release();
+        }
+
+        assertEquals(entries, getStatistics().getLong(QueryResultCache.STATISTICS_ENTRIES));
+    }
+
+    public void testUiHiddenOptimizesAfterChanges() throws InterruptedException {
+        mContext.getContentResolver().insert(ContractForTests.CachedItems.CONTENT_URI, createValues("ball", "toy"));
+        long optimizeRuns = getStatistics().getLong(AnalyzeScheduler.STATISTICS_OPTIMIZE_RUNS);
+
+        ContentProviderClient client = mContext.getContentResolver().acquireContentProviderClient(ContractForTests.AUTHORITY);
+        try {
+            client.getLocalContentProvider().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+
+            // PRAGMA optimize runs in the background...
+            long timeout = SystemClock.elapsedRealtime() + 10000;
+            while (getStatistics().getLong(AnalyzeScheduler.STATISTICS_OPTIMIZE_RUNS) == optimizeRuns && SystemClock.elapsedRealtime() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals(optimizeRuns + 1, getStatistics().getLong(AnalyzeScheduler.STATISTICS_OPTIMIZE_RUNS));
+
+            // ...and not again without new changes...
+            client.getLocalContentProvider().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+            Thread.sleep(100);
+            assertEquals(optimizeRuns + 1, getStatistics().getLong(AnalyzeScheduler.STATISTICS_OPTIMIZE_RUNS));
+        } finally {
+            client.release();
+        }
+    }
+
+    private void insertValue(String key, int value) {
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.ResultCachedValues.KEY, key);
+        values.put(ContractForTests.ResultCachedValues.VALUE, value);
+        mContext.getContentResolver().insert(ContractForTests.ResultCachedValues.CONTENT_URI, values);
+    }
+
+    private int queryValueCount(String selection) {
+        Cursor cursor = mContext.getContentResolver().query(ContractForTests.ResultCachedValues.CONTENT_URI, null, selection, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private int queryCount(String selection) {
+        Cursor cursor = mContext.getContentResolver().query(ContractForTests.CachedItems.CONTENT_URI, null, selection, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private Bundle getStatistics() {
+        return mContext.getContentResolver().call(ContractForTests.CachedItems.CONTENT_URI, SimpleContentProvider.METHOD_GET_STATISTICS, null, null);
+    }
+
+    private ContentValues createValues(String name, String type) {
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.CachedItems.NAME, name);
+        values.put(ContractForTests.CachedItems.TYPE, type);
+        return values;
+    }
+}
@@ -0,0 +1,85 @@
+package dk.simplecontentprovider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestOptimizedProvider extends AndroidTestCase {
+    private static final int CALLERS = 4;
+
+    @Override
+    public void setUp() {
+        mContext.getContentResolver().delete(
+                ContractForTests.OptimizedItems.CONTENT_URI,
+                null,
+                null
+        );
+    }
+
+    public void testQueriesAreDeduplicated() throws InterruptedException {
+        mContext.getContentResolver().insert(ContractForTests.OptimizedItems.CONTENT_URI, createValues("ball", "toy"));
+        mContext.getContentResolver().insert(ContractForTests.OptimizedItems.CONTENT_URI, createValues("hammer", "tool"));
+
+        // A single query is executed on its own...
+        Bundle before = getStatistics();
+        assertEquals(2, queryCount());
+        Bundle after = getStatistics();
+        assertEquals(before.getLong(QueryDeduplicator.STATISTICS_EXECUTIONS) + 1, after.getLong(QueryDeduplicator.STATISTICS_EXECUTIONS));
+
+        // ...and identical queries at the same time execute, share an execution or fall back to their own...
+        before = after;
+        final CountDownLatch finished = new CountDownLatch(CALLERS);
+        final int[] counts = new int[CALLERS];
+        for (int i = 0; i < CALLERS; i++) {
+            final int caller = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    counts[caller] = queryCount();
+                    finished.countDown();
+                }
+            }).start();
+        }
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+
+        after = getStatistics();
+        for (int count : counts) {
+            assertEquals(2, count);
+        }
+        assertEquals(CALLERS, after.getLong(QueryDeduplicator.STATISTICS_EXECUTIONS) - before.getLong(QueryDeduplicator.STATISTICS_EXECUTIONS)
+                + after.getLong(QueryDeduplicator.STATISTICS_SHARED) - before.getLong(QueryDeduplicator.STATISTICS_SHARED)
+                + after.getLong(QueryDeduplicator.STATISTICS_FALLBACKS) - before.getLong(QueryDeduplicator.STATISTICS_FALLBACKS));
+    }
+
+    public void testDatabaseIsWarmedUp() {
+        // The first query waits for the warm-up, if it is still running...
+        assertEquals(0, queryCount());
+
+        Bundle statistics = getStatistics();
+        assertTrue(statistics.getLong(StartupTimings.WARM_UP, -1) >= 0);
+        assertTrue(statistics.getLong(StartupTimings.DATABASE_OPEN, -1) >= 0);
+        assertTrue(statistics.containsKey(DatabaseWarmUp.STATISTICS_WAITS));
+    }
+
+    private int queryCount() {
+        Cursor cursor = mContext.getContentResolver().query(ContractForTests.OptimizedItems.CONTENT_URI, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private Bundle getStatistics() {
+        return mContext.getContentResolver().call(ContractForTests.OptimizedItems.CONTENT_URI, SimpleContentProvider.METHOD_GET_STATISTICS, null, null);
+    }
+
+    private ContentValues createValues(String name, String type) {
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.OptimizedItems.NAME, name);
+        values.put(ContractForTests.OptimizedItems.TYPE, type);
+        return values;
+    }
+}
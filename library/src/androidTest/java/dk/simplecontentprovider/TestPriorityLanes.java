@@ -0,0 +1,192 @@
+package dk.simplecontentprovider;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+public class TestPriorityLanes extends AndroidTestCase {
+    private static final String TAG = "TestPriorityLanes";
+
+    @Override
+    public void setUp() {
+        mContext.getContentResolver().delete(
+                ContractForTests.Items.CONTENT_URI,
+                null,
+                null
+        );
+    }
+
+    public void testQueriesAreTrackedPerLane() {
+        Bundle before = getStatistics();
+
+        queryCount(withPriority(ContractForTests.Items.CONTENT_URI, SimpleContentProvider.PRIORITY_INTERACTIVE));
+        queryCount(withPriority(ContractForTests.Items.CONTENT_URI, SimpleContentProvider.PRIORITY_BACKGROUND));
+        queryCount(withPriority(ContractForTests.Items.CONTENT_URI, SimpleContentProvider.PRIORITY_BACKGROUND));
+
+        Bundle after = getStatistics();
+        assertEquals(before.getLong(PriorityLanes.STATISTICS_QUERIES[PriorityLanes.LANE_INTERACTIVE]) + 1,
+                after.getLong(PriorityLanes.STATISTICS_QUERIES[PriorityLanes.LANE_INTERACTIVE]));
+        assertEquals(before.getLong(PriorityLanes.STATISTICS_QUERIES[PriorityLanes.LANE_BACKGROUND]) + 2,
+                after.getLong(PriorityLanes.STATISTICS_QUERIES[PriorityLanes.LANE_BACKGROUND]));
+    }
+
+    public void testQueriesAreInteractiveByDefault() {
+        Bundle before = getStatistics();
+
+        // Queries from threads at background priority are interactive as well...
+        int threadPriority = Process.getThreadPriority(Process.myTid());
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            queryCount(ContractForTests.Items.CONTENT_URI);
+        } finally {
+            Process.setThreadPriority(threadPriority);
+        }
+
+        Bundle after = getStatistics();
+        assertEquals(before.getLong(PriorityLanes.STATISTICS_QUERIES[PriorityLanes.LANE_INTERACTIVE]) + 1,
+                after.getLong(PriorityLanes.STATISTICS_QUERIES[PriorityLanes.LANE_INTERACTIVE]));
+    }
+
+    public void testInteractiveQueryRunsUntilItsWindowIsFilled() {
+        Bundle before = getStatistics();
+
+        // The cursor is not filled by the provider...
+        Cursor cursor = queryItems();
+        assertEquals(before.getLong(PriorityLanes.STATISTICS_QUERIES[PriorityLanes.LANE_INTERACTIVE]),
+                getStatistics().getLong(PriorityLanes.STATISTICS_QUERIES[PriorityLanes.LANE_INTERACTIVE]));
+
+        cursor.getCount();
+        assertEquals(before.getLong(PriorityLanes.STATISTICS_QUERIES[PriorityLanes.LANE_INTERACTIVE]) + 1,
+                getStatistics().getLong(PriorityLanes.STATISTICS_QUERIES[PriorityLanes.LANE_INTERACTIVE]));
+
+        // ...and the query only ends once...
+        cursor.close();
+        assertEquals(before.getLong(PriorityLanes.STATISTICS_QUERIES[PriorityLanes.LANE_INTERACTIVE]) + 1,
+                getStatistics().getLong(PriorityLanes.STATISTICS_QUERIES[PriorityLanes.LANE_INTERACTIVE]));
+    }
+
+    public void testUnusedInteractiveQueryEnds() {
+        PriorityLanes lanes = new PriorityLanes();
+
+        // A cursor that was just returned keeps the query running...
+        lanes.beginQuery(PriorityLanes.LANE_INTERACTIVE);
+        Cursor cursor = lanes.endQuery(PriorityLanes.LANE_INTERACTIVE, SystemClock.elapsedRealtime(), new MatrixCursor(new String[] {"_id"}));
+        assertTrue(lanes.hasRunningInteractiveQueries());
+        cursor.close();
+        assertFalse(lanes.hasRunningInteractiveQueries());
+
+        // ...but a cursor that has not been used for too long does not...
+        lanes.beginQuery(PriorityLanes.LANE_INTERACTIVE);
+        Cursor leakedCursor = lanes.endQuery(PriorityLanes.LANE_INTERACTIVE,
+                SystemClock.elapsedRealtime() - PriorityLanes.MAX_INTERACTIVE_QUERY_TIME, new MatrixCursor(new String[] {"_id"}));
+        assertFalse(lanes.hasRunningInteractiveQueries());
+
+        // ...and the query is only ended once...
+        Bundle statistics = new Bundle();
+        leakedCursor.close();
+        lanes.addStatistics(statistics);
+        assertEquals(2, statistics.getLong(PriorityLanes.STATISTICS_QUERIES[PriorityLanes.LANE_INTERACTIVE]));
+        assertFalse(lanes.hasRunningInteractiveQueries());
+    }
+
+    public void testBackgroundBulkInsertGivesWayToQueries() throws InterruptedException {
+        final ContentValues[] values = new ContentValues[20000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = createValues("item" + i, "type" + (i % 10));
+        }
+
+        // Hold an interactive query open across the insert...
+        Cursor cursor = queryItems();
+
+        final Bundle before = getStatistics();
+        final int[] rows = new int[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                rows[0] = mContext.getContentResolver().bulkInsert(withPriority(ContractForTests.Items.CONTENT_URI, SimpleContentProvider.PRIORITY_BACKGROUND), values);
+            }
+        });
+        writer.start();
+
+        // ...and fill its window once the insert has begun its transaction, which makes the insert give way...
+        long timeout = SystemClock.elapsedRealtime() + 10000;
+        while (getStatistics().getLong(PriorityLanes.STATISTICS_TRANSACTIONS[PriorityLanes.LANE_BACKGROUND])
+                == before.getLong(PriorityLanes.STATISTICS_TRANSACTIONS[PriorityLanes.LANE_BACKGROUND])
+                && SystemClock.elapsedRealtime() < timeout) {
+            Thread.sleep(1);
+        }
+        cursor.getCount();
+        cursor.close();
+        writer.join();
+        Bundle after = getStatistics();
+
+        assertEquals(values.length, rows[0]);
+        assertEquals(values.length, queryCount(ContractForTests.Items.CONTENT_URI));
+        assertEquals(before.getLong(PriorityLanes.STATISTICS_TRANSACTIONS[PriorityLanes.LANE_BACKGROUND]) + 1,
+                after.getLong(PriorityLanes.STATISTICS_TRANSACTIONS[PriorityLanes.LANE_BACKGROUND]));
+        assertTrue(after.getLong(PriorityLanes.STATISTICS_YIELDS) > before.getLong(PriorityLanes.STATISTICS_YIELDS));
+        Log.i(TAG, "Yields " + (after.getLong(PriorityLanes.STATISTICS_YIELDS) - before.getLong(PriorityLanes.STATISTICS_YIELDS))
+                + ", interactive query time " + after.getLong(PriorityLanes.STATISTICS_MAX_QUERY_TIME[PriorityLanes.LANE_INTERACTIVE]) + " ms (max)");
+    }
+
+    public void testBackgroundBatchIsApplied() throws Exception {
+        Uri uri = withPriority(ContractForTests.Items.CONTENT_URI, SimpleContentProvider.PRIORITY_BACKGROUND);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            operations.add(ContentProviderOperation.newInsert(uri)
+                    .withValues(createValues("item" + i, "toy"))
+                    .withYieldAllowed(i % 10 == 0)
+                    .build());
+        }
+
+        mContext.getContentResolver().applyBatch(ContractForTests.AUTHORITY, operations);
+
+        assertEquals(100, queryCount(ContractForTests.Items.CONTENT_URI));
+    }
+
+    public void testUnknownPriorityIsRejected() {
+        try {
+            queryCount(withPriority(ContractForTests.Items.CONTENT_URI, "urgent"));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected...
+        }
+    }
+
+    private static Uri withPriority(Uri uri, String priority) {
+        return uri.buildUpon()
+                .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_PRIORITY, priority)
+                .build();
+    }
+
+    private Cursor queryItems() {
+        return mContext.getContentResolver().query(ContractForTests.Items.CONTENT_URI, null, null, null, null);
+    }
+
+    private int queryCount(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private Bundle getStatistics() {
+        return mContext.getContentResolver().call(ContractForTests.Items.CONTENT_URI, SimpleContentProvider.METHOD_GET_STATISTICS, null, null);
+    }
+
+    private ContentValues createValues(String name, String type) {
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.Items.NAME, name);
+        values.put(ContractForTests.Items.TYPE, type);
+        return values;
+    }
+}
@@ -0,0 +1,93 @@
+package dk.simplecontentprovider;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestQueryDeduplicator extends AndroidTestCase {
+    private static final int CALLERS = 4;
+
+    public void testConcurrentIdenticalQueriesShareOneExecution() throws InterruptedException {
+        final QueryDeduplicator deduplicator = new QueryDeduplicator();
+        final QueryKey key = new QueryKey(Uri.parse("content://" + ContractForTests.AUTHORITY + "/items"), null, null, null, null);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger executions = new AtomicInteger();
+
+        // The first execution is held until the other callers have arrived...
+        final QueryDeduplicator.Query query = new QueryDeduplicator.Query() {
+            @Override
+            public Cursor execute() {
+                executions.incrementAndGet();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                MatrixCursor cursor = new MatrixCursor(new String[] {"_id", "name"});
+                cursor.addRow(new Object[] {1, "ball"});
+                cursor.addRow(new Object[] {2, "screwdriver"});
+                return cursor;
+            }
+        };
+
+        final CountDownLatch started = new CountDownLatch(CALLERS);
+        final CountDownLatch finished = new CountDownLatch(CALLERS);
+        final int[] counts = new int[CALLERS];
+        for (int i = 0; i < CALLERS; i++) {
+            final int caller = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    Cursor cursor = deduplicator.query(key, query);
+                    counts[caller] = cursor.getCount();
+                    cursor.close();
+                    finished.countDown();
+                }
+            }).start();
+        }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+
+        Bundle statistics = new Bundle();
+        deduplicator.addStatistics(statistics);
+        assertEquals(1, executions.get());
+        assertEquals(1, statistics.getLong(QueryDeduplicator.STATISTICS_EXECUTIONS));
+        assertEquals(CALLERS - 1, statistics.getLong(QueryDeduplicator.STATISTICS_SHARED));
+        for (int count : counts) {
+            assertEquals(2, count);
+        }
+    }
+
+    public void testQueryIsExecutedBeforeReturning() {
+        final AtomicInteger filled = new AtomicInteger();
+        Cursor cursor = new QueryDeduplicator().query(
+                new QueryKey(Uri.parse("content://" + ContractForTests.AUTHORITY + "/items"), null, null, null, null),
+                new QueryDeduplicator.Query() {
+                    @Override
+                    public Cursor execute() {
+                        return new MatrixCursor(new String[] {"_id"}) {
+                            @Override
+                            public int getCount() {
+                                filled.incrementAndGet();
+                                return super.getCount();
+                            }
+                        };
+                    }
+                });
+
+        // The window of the cursor is filled while identical queries can still share it...
+        assertTrue(filled.get() > 0);
+        cursor.close();
+    }
+}
@@ -0,0 +1,128 @@
+package dk.simplecontentprovider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class TestQueryExecutor extends AndroidTestCase {
+    private SimpleQueryExecutor mExecutor;
+
+    @Override
+    public void setUp() {
+        mContext.getContentResolver().delete(
+                ContractForTests.Items.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().insert(ContractForTests.Items.CONTENT_URI, createValues("ball", "toy"));
+        mContext.getContentResolver().insert(ContractForTests.Items.CONTENT_URI, createValues("screwdriver", "tool"));
+
+        mExecutor = new SimpleQueryExecutor(mContext.getContentResolver(), 1, 10);
+    }
+
+    @Override
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    public void testQueryReturnsCursor() throws Exception {
+        Future<Cursor> future = mExecutor.query(SimpleQueryExecutor.PRIORITY_INTERACTIVE, ContractForTests.Items.CONTENT_URI,
+                null, ContractForTests.Items.TYPE + " = ?", new String[] {"toy"}, null, null);
+
+        Cursor cursor = future.get(5, TimeUnit.SECONDS);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("ball", cursor.getString(cursor.getColumnIndex(ContractForTests.Items.NAME)));
+        cursor.close();
+
+        Bundle statistics = mExecutor.getStatistics();
+        assertEquals(1, statistics.getLong(SimpleQueryExecutor.STATISTICS_QUERIES[SimpleQueryExecutor.PRIORITY_INTERACTIVE]));
+        assertEquals(0, statistics.getInt(SimpleQueryExecutor.STATISTICS_QUEUE_DEPTH[SimpleQueryExecutor.PRIORITY_INTERACTIVE]));
+    }
+
+    public void testCallbackIsCalledOnMainThread() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final int[] count = {-1};
+        final boolean[] mainThread = {false};
+
+        mExecutor.query(SimpleQueryExecutor.PRIORITY_BACKGROUND, ContractForTests.Items.CONTENT_URI, null, null, null, null, new SimpleQueryExecutor.Callback() {
+            @Override
+            public void onQueryComplete(Cursor cursor) {
+                count[0] = cursor.getCount();
+                mainThread[0] = (Looper.myLooper() == Looper.getMainLooper());
+                cursor.close();
+                latch.countDown();
+            }
+
+            @Override
+            public void onQueryFailed(Exception e) {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(2, count[0]);
+        assertTrue(mainThread[0]);
+    }
+
+    public void testCancelledQueryHasNoResult() throws Exception {
+        Future<Cursor> future = mExecutor.query(SimpleQueryExecutor.PRIORITY_BACKGROUND, ContractForTests.Items.CONTENT_URI, null, null, null, null, null);
+
+        // The query may have completed before it is cancelled...
+        if (future.cancel(true)) {
+            try {
+                future.get();
+                fail("Expected CancellationException");
+            } catch (CancellationException e) {
+                // Expected...
+            }
+            assertEquals(1, mExecutor.getStatistics().getLong(SimpleQueryExecutor.STATISTICS_CANCELLED_QUERIES));
+        } else {
+            future.get().close();
+        }
+    }
+
+    public void testCancellationSignalIsForwardedToProvider() {
+        CancellationSignal cancellationSignal = new CancellationSignal();
+        cancellationSignal.cancel();
+
+        try {
+            Cursor cursor = mContext.getContentResolver().query(ContractForTests.Items.CONTENT_URI, null, null, null, null, cancellationSignal);
+            if (cursor != null) {
+                cursor.close();
+            }
+            fail("Expected OperationCanceledException");
+        } catch (OperationCanceledException e) {
+            // Expected...
+        }
+    }
+
+    public void testShutdownRejectsQueries() {
+        SimpleQueryExecutor executor = new SimpleQueryExecutor(mContext.getContentResolver(), 1, 1);
+        executor.shutdown();
+
+        try {
+            executor.query(SimpleQueryExecutor.PRIORITY_INTERACTIVE, ContractForTests.Items.CONTENT_URI, null, null, null, null, null);
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+            // Expected...
+        }
+    }
+
+    private ContentValues createValues(String name, String type) {
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.Items.NAME, name);
+        values.put(ContractForTests.Items.TYPE, type);
+        return values;
+    }
+}
@@ -0,0 +1,86 @@
+package dk.simplecontentprovider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+public class TestResultCache extends AndroidTestCase {
+
+    @Override
+    public void setUp() {
+        mContext.getContentResolver().delete(
+                ContractForTests.ResultCachedValues.CONTENT_URI,
+                null,
+                null
+        );
+    }
+
+    public void testIdenticalQueriesAreServedFromCache() {
+        mContext.getContentResolver().insert(ContractForTests.ResultCachedValues.CONTENT_URI, createValues("key1", 10));
+        mContext.getContentResolver().insert(ContractForTests.ResultCachedValues.CONTENT_URI, createValues("key2", 20));
+
+        Cursor cursor1 = queryValues();
+        long hitsBefore = getStatistics().getLong(QueryResultCache.STATISTICS_HITS);
+        Cursor cursor2 = queryValues();
+        long hitsAfter = getStatistics().getLong(QueryResultCache.STATISTICS_HITS);
+
+        // Verify that the second query was a hit, and that both cursors can be read independently...
+        assertEquals(hitsBefore + 1, hitsAfter);
+        assertEquals(2, cursor1.getCount());
+        assertEquals(2, cursor2.getCount());
+        assertTrue(cursor1.moveToLast());
+        assertTrue(cursor2.moveToFirst());
+        assertEquals(20, cursor1.getInt(cursor1.getColumnIndex(ContractForTests.ResultCachedValues.VALUE)));
+        assertEquals(10, cursor2.getInt(cursor2.getColumnIndex(ContractForTests.ResultCachedValues.VALUE)));
+
+        cursor1.close();
+        cursor2.close();
+    }
+
+    public void testChangeToEntityEvictsDependentView() {
+        mContext.getContentResolver().insert(ContractForTests.ResultCachedValues.CONTENT_URI, createValues("key1", 10));
+        assertEquals(1, queryNumberOfKeys());
+
+        // Insert into the entity the view depends on...
+        mContext.getContentResolver().insert(ContractForTests.ResultCachedValues.CONTENT_URI, createValues("key2", 20));
+
+        // Verify that the cached result of the view was evicted...
+        assertEquals(2, queryNumberOfKeys());
+    }
+
+    private Cursor queryValues() {
+        return mContext.getContentResolver().query(
+                ContractForTests.ResultCachedValues.CONTENT_URI,
+                null,
+                null,
+                null,
+                ContractForTests.ResultCachedValues.VALUE
+        );
+    }
+
+    private int queryNumberOfKeys() {
+        Cursor cursor = mContext.getContentResolver().query(
+                ContractForTests.ResultCachedView.CONTENT_URI,
+                new String[] {ContractForTests.ResultCachedView.NUMBER_OF_KEYS},
+                null,
+                null,
+                null
+        );
+        assertTrue(cursor.moveToFirst());
+        int numberOfKeys = cursor.getInt(0);
+        cursor.close();
+        return numberOfKeys;
+    }
+
+    private Bundle getStatistics() {
+        return mContext.getContentResolver().call(ContractForTests.ResultCachedValues.CONTENT_URI, SimpleContentProvider.METHOD_GET_STATISTICS, null, null);
+    }
+
+    private ContentValues createValues(String key, int value) {
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.ResultCachedValues.KEY, key);
+        values.put(ContractForTests.ResultCachedValues.VALUE, value);
+        return values;
+    }
+}
@@ -0,0 +1,58 @@
+package dk.simplecontentprovider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+public class TestRingBuffer extends AndroidTestCase {
+
+    @Override
+    public void setUp() {
+        mContext.getContentResolver().delete(
+                ContractForTests.Events.CONTENT_URI,
+                null,
+                null
+        );
+    }
+
+    public void testBulkInsertEvictsOldestRows() {
+        ContentValues[] values = new ContentValues[25];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = createValues("event " + i);
+        }
+        assertEquals(25, mContext.getContentResolver().bulkInsert(ContractForTests.Events.CONTENT_URI, values));
+
+        Cursor cursor = queryEvents();
+        assertTrue(cursor.getCount() <= 10);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("event 24", cursor.getString(cursor.getColumnIndex(ContractForTests.Events.MESSAGE)));
+        cursor.close();
+    }
+
+    public void testInsertEvictsOldestRows() {
+        for (int i = 0; i < 30; i++) {
+            mContext.getContentResolver().insert(ContractForTests.Events.CONTENT_URI, createValues("event " + i));
+        }
+
+        Cursor cursor = queryEvents();
+        assertTrue(cursor.getCount() <= 10);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("event 29", cursor.getString(cursor.getColumnIndex(ContractForTests.Events.MESSAGE)));
+        cursor.close();
+    }
+
+    private Cursor queryEvents() {
+        return mContext.getContentResolver().query(
+                ContractForTests.Events.CONTENT_URI,
+                null,
+                null,
+                null,
+                ContractForTests.Events._ID + " DESC");
+    }
+
+    private ContentValues createValues(String message) {
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.Events.MESSAGE, message);
+        return values;
+    }
+}
@@ -0,0 +1,87 @@
+package dk.simplecontentprovider;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+public class TestRowCache extends AndroidTestCase {
+
+    @Override
+    public void setUp() {
+        mContext.getContentResolver().delete(
+                ContractForTests.CachedItems.CONTENT_URI,
+                null,
+                null
+        );
+    }
+
+    public void testItemQueryIsServedFromCache() {
+        Uri insertedUri = mContext.getContentResolver().insert(ContractForTests.CachedItems.CONTENT_URI, createValues("ball", "toy"));
+        assertNotNull(insertedUri);
+
+        // The first query misses the cache, the second one should hit it...
+        queryName(insertedUri);
+        long hitsBefore = getStatistics().getLong(RowCache.STATISTICS_HITS);
+        assertEquals("ball", queryName(insertedUri));
+        long hitsAfter = getStatistics().getLong(RowCache.STATISTICS_HITS);
+
+        assertEquals(hitsBefore + 1, hitsAfter);
+    }
+
+    public void testUpdateInvalidatesCachedRow() {
+        Uri insertedUri = mContext.getContentResolver().insert(ContractForTests.CachedItems.CONTENT_URI, createValues("ball", "toy"));
+        long insertedRowId = ContentUris.parseId(insertedUri);
+        assertEquals("ball", queryName(insertedUri));
+
+        // Update the row through the directory Uri...
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(ContractForTests.CachedItems.NAME, "screwdriver");
+        mContext.getContentResolver().update(
+                ContractForTests.CachedItems.CONTENT_URI,
+                updatedValues,
+                ContractForTests.CachedItems._ID + " = ?",
+                new String[] {Long.toString(insertedRowId)});
+
+        // Verify that the cached row was not served...
+        assertEquals("screwdriver", queryName(insertedUri));
+    }
+
+    public void testDeleteInvalidatesCachedRow() {
+        Uri insertedUri = mContext.getContentResolver().insert(ContractForTests.CachedItems.CONTENT_URI, createValues("ball", "toy"));
+        assertEquals("ball", queryName(insertedUri));
+
+        mContext.getContentResolver().delete(insertedUri, null, null);
+
+        Cursor cursor = mContext.getContentResolver().query(insertedUri, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    private String queryName(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(
+                uri,
+                new String[] {ContractForTests.CachedItems.NAME},
+                null,
+                null,
+                null
+        );
+        assertTrue(cursor.moveToFirst());
+        String name = cursor.getString(0);
+        cursor.close();
+        return name;
+    }
+
+    private Bundle getStatistics() {
+        return mContext.getContentResolver().call(ContractForTests.CachedItems.CONTENT_URI, SimpleContentProvider.METHOD_GET_STATISTICS, null, null);
+    }
+
+    private ContentValues createValues(String name, String type) {
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.CachedItems.NAME, name);
+        values.put(ContractForTests.CachedItems.TYPE, type);
+        return values;
+    }
+}
@@ -0,0 +1,103 @@
+package dk.simplecontentprovider;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TestSchemaMigration extends AndroidTestCase {
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    public void setUp() {
+        mDatabase = SQLiteDatabase.create(null);
+    }
+
+    @Override
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    public void testAddColumnKeepsRows() {
+        SimpleContentProvider.Entity original = new SimpleContentProvider.Entity("items", "_id", null, null)
+                .addColumn("_id", "INTEGER PRIMARY KEY")
+                .addColumn("name", "TEXT");
+        create(original);
+        mDatabase.execSQL("INSERT INTO items (name) VALUES ('ball')");
+
+        SimpleContentProvider.Entity changed = new SimpleContentProvider.Entity("items", "_id", null, null)
+                .addColumn("_id", "INTEGER PRIMARY KEY")
+                .addColumn("name", "TEXT")
+                .addColumn("type", "TEXT NOT NULL DEFAULT 'toy'")
+                .addIndex("items_type", "type");
+        migrate(changed);
+
+        assertEquals("ball", DatabaseUtils.stringForQuery(mDatabase, "SELECT name FROM items", null));
+        assertEquals("toy", DatabaseUtils.stringForQuery(mDatabase, "SELECT type FROM items", null));
+        assertEquals(1, DatabaseUtils.longForQuery(mDatabase, "SELECT count(*) FROM sqlite_master WHERE type='index' AND name='items_type'", null));
+    }
+
+    public void testChangedConstraintCopiesRows() {
+        SimpleContentProvider.Entity original = new SimpleContentProvider.Entity("items", "_id", null, null)
+                .addColumn("_id", "INTEGER PRIMARY KEY")
+                .addColumn("name", "TEXT")
+                .addColumn("obsolete", "TEXT")
+                .addIndex("items_name", "name");
+        create(original);
+        mDatabase.execSQL("INSERT INTO items (name, obsolete) VALUES ('ball', 'x')");
+        mDatabase.execSQL("INSERT INTO items (name, obsolete) VALUES ('doll', 'y')");
+
+        // Removing a column and adding a constraint requires the table to be rebuilt...
+        SimpleContentProvider.Entity changed = new SimpleContentProvider.Entity("items", "_id", null, null)
+                .addColumn("_id", "INTEGER PRIMARY KEY")
+                .addColumn("name", "TEXT")
+                .addConstraint("UNIQUE (name)")
+                .addIndex("items_name", "name");
+        migrate(changed);
+
+        assertEquals(2, DatabaseUtils.queryNumEntries(mDatabase, "items"));
+        assertEquals(1, DatabaseUtils.longForQuery(mDatabase, "SELECT count(*) FROM sqlite_master WHERE type='index' AND name='items_name'", null));
+
+        Cursor cursor = mDatabase.rawQuery("SELECT * FROM items", null);
+        assertEquals(-1, cursor.getColumnIndex("obsolete"));
+        cursor.close();
+    }
+
+    public void testRemovedEntityIsDropped() {
+        SimpleContentProvider.Entity items = new SimpleContentProvider.Entity("items", "_id", null, null)
+                .addColumn("_id", "INTEGER PRIMARY KEY");
+        SimpleContentProvider.Entity obsolete = new SimpleContentProvider.Entity("obsolete", "_id", null, null)
+                .addColumn("_id", "INTEGER PRIMARY KEY");
+        List<SimpleContentProvider.Entity> entities = new ArrayList<>();
+        entities.add(items);
+        entities.add(obsolete);
+        mDatabase.execSQL(items.buildCreateTableSql(items.name));
+        mDatabase.execSQL(obsolete.buildCreateTableSql(obsolete.name));
+        SchemaMigrator.storeSchema(mDatabase, entities, Collections.<String>emptyList());
+
+        migrate(items);
+
+        assertEquals(0, DatabaseUtils.longForQuery(mDatabase, "SELECT count(*) FROM sqlite_master WHERE type='table' AND name='obsolete'", null));
+    }
+
+    private void create(SimpleContentProvider.Entity entity) {
+        mDatabase.execSQL(entity.buildCreateTableSql(entity.name));
+        for (SimpleContentProvider.EntityIndex index : entity.indexes) {
+            mDatabase.execSQL(index.buildCreateIndexSql(entity.name));
+        }
+        SchemaMigrator.storeSchema(mDatabase, Collections.singletonList(entity), Collections.<String>emptyList());
+    }
+
+    private void migrate(SimpleContentProvider.Entity entity) {
+        List<SimpleContentProvider.Entity> entities = Collections.singletonList(entity);
+        SchemaMigrator migrator = new SchemaMigrator(mDatabase);
+        migrator.readSchema(entities);
+        migrator.migrate(entities);
+        migrator.storeSchema(entities, Collections.<String>emptyList());
+        migrator.checkForeignKeys();
+    }
+}
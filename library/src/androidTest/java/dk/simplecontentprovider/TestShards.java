@@ -0,0 +1,68 @@
+package dk.simplecontentprovider;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+
+public class TestShards extends AndroidTestCase {
+
+    @Override
+    public void setUp() {
+        mContext.getContentResolver().delete(
+                ContractForTests.ShardedValues.CONTENT_URI,
+                null,
+                null
+        );
+    }
+
+    public void testValuesAreStoredInShard() {
+        mContext.getContentResolver().insert(ContractForTests.ShardedValues.CONTENT_URI, createValues("a", 1));
+        assertTrue(mContext.getDatabasePath("ContentProviderForTests-secondary.db").exists());
+
+        Cursor cursor = mContext.getContentResolver().query(ContractForTests.ShardedValues.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testViewJoinsShard() {
+        mContext.getContentResolver().insert(ContractForTests.ShardedValues.CONTENT_URI, createValues("a", 1));
+        mContext.getContentResolver().insert(ContractForTests.ShardedValues.CONTENT_URI, createValues("b", 5));
+
+        // The values are stored in a shard, which is attached to the main database for the view...
+        Cursor cursor = mContext.getContentResolver().query(ContractForTests.ShardedView.CONTENT_URI, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(2, cursor.getInt(cursor.getColumnIndex(ContractForTests.ShardedView.NUMBER_OF_KEYS)));
+        assertEquals(5, cursor.getInt(cursor.getColumnIndex(ContractForTests.ShardedView.MAX_VALUE)));
+        cursor.close();
+    }
+
+    public void testBatchAcrossShards() throws RemoteException, OperationApplicationException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(ContractForTests.ShardedValues.CONTENT_URI)
+                .withValues(createValues("a", 1))
+                .build());
+        operations.add(ContentProviderOperation.newInsert(ContractForTests.UniqueValues.CONTENT_URI)
+                .withValue(ContractForTests.UniqueValues.KEY, "a")
+                .withValue(ContractForTests.UniqueValues.VALUE, 1)
+                .build());
+        mContext.getContentResolver().applyBatch(ContractForTests.AUTHORITY, operations);
+
+        Cursor cursor = mContext.getContentResolver().query(ContractForTests.ShardedValues.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        mContext.getContentResolver().delete(ContractForTests.UniqueValues.CONTENT_URI, null, null);
+    }
+
+    private ContentValues createValues(String key, int value) {
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.ShardedValues.KEY, key);
+        values.put(ContractForTests.ShardedValues.VALUE, value);
+        return values;
+    }
+}
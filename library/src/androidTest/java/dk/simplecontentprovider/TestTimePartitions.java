@@ -0,0 +1,224 @@
+package dk.simplecontentprovider;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+
+public class TestTimePartitions extends AndroidTestCase {
+    private static final long DAY = ContractForTests.Samples.PERIOD;
+    // Start a few days ago, within the retention of the partitions...
+    private static final long START = (System.currentTimeMillis() / DAY - 3) * DAY;
+
+    @Override
+    public void setUp() {
+        mContext.getContentResolver().delete(
+                ContractForTests.Samples.CONTENT_URI,
+                null,
+                null
+        );
+    }
+
+    public void testInsertAndQueryPartitions() {
+        Uri firstUri = mContext.getContentResolver().insert(ContractForTests.Samples.CONTENT_URI, createValues(1.0, START));
+        mContext.getContentResolver().insert(ContractForTests.Samples.CONTENT_URI, createValues(2.0, START + DAY));
+        mContext.getContentResolver().insert(ContractForTests.Samples.CONTENT_URI, createValues(3.0, START + 2 * DAY + 1));
+
+        // The ids are unique across partitions, and the item Uri finds its partition...
+        Cursor cursor = mContext.getContentResolver().query(firstUri, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(1.0, cursor.getDouble(cursor.getColumnIndex(ContractForTests.Samples.VALUE)));
+        cursor.close();
+
+        // All partitions are read without a time range...
+        cursor = mContext.getContentResolver().query(ContractForTests.Samples.CONTENT_URI, null, null, null, ContractForTests.Samples.TIME);
+        assertEquals(3, cursor.getCount());
+        cursor.close();
+
+        // ...and only the partition of the second day with a time range...
+        long pruned = getStatistics().getLong(TimePartitions.STATISTICS_PARTITIONS_PRUNED);
+        Uri rangeUri = ContractForTests.Samples.CONTENT_URI.buildUpon()
+                .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_FROM_TIME, String.valueOf(START + DAY))
+                .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_TO_TIME, String.valueOf(START + 2 * DAY))
+                .build();
+        cursor = mContext.getContentResolver().query(rangeUri, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(2.0, cursor.getDouble(cursor.getColumnIndex(ContractForTests.Samples.VALUE)));
+        cursor.close();
+        assertEquals(pruned + 2, getStatistics().getLong(TimePartitions.STATISTICS_PARTITIONS_PRUNED));
+
+        // ...or with a time range in the selection...
+        cursor = mContext.getContentResolver().query(
+                ContractForTests.Samples.CONTENT_URI,
+                null,
+                ContractForTests.Samples.TIME + ">=?",
+                new String[] {String.valueOf(START + 2 * DAY)},
+                null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+        assertEquals(pruned + 4, getStatistics().getLong(TimePartitions.STATISTICS_PARTITIONS_PRUNED));
+    }
+
+    public void testUpdateAndDeletePartitions() {
+        Uri firstUri = mContext.getContentResolver().insert(ContractForTests.Samples.CONTENT_URI, createValues(1.0, START));
+        mContext.getContentResolver().insert(ContractForTests.Samples.CONTENT_URI, createValues(2.0, START + DAY));
+
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.Samples.VALUE, 10.0);
+        assertEquals(1, mContext.getContentResolver().update(firstUri, values, null, null));
+        assertEquals(2, mContext.getContentResolver().update(ContractForTests.Samples.CONTENT_URI, values, null, null));
+
+        // The partition of a row cannot change...
+        try {
+            mContext.getContentResolver().update(firstUri, createValues(1.0, START + DAY), null, null);
+            fail("Updating the partition column should fail");
+        } catch (IllegalArgumentException e) {
+            // Expected...
+        }
+
+        int rowCount = mContext.getContentResolver().delete(
+                ContractForTests.Samples.CONTENT_URI,
+                ContractForTests.Samples.TIME + "<?",
+                new String[] {String.valueOf(START + DAY)});
+        assertEquals(1, rowCount);
+
+        Cursor cursor = mContext.getContentResolver().query(ContractForTests.Samples.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testSelectionsThatCannotBePruned() {
+        mContext.getContentResolver().insert(ContractForTests.Samples.CONTENT_URI, createValues(1.0, START));
+        mContext.getContentResolver().insert(ContractForTests.Samples.CONTENT_URI, createValues(2.0, START + DAY));
+
+        // Arithmetic on the argument must not be read as a comparison with the argument...
+        Cursor cursor = mContext.getContentResolver().query(
+                ContractForTests.Samples.CONTENT_URI,
+                null,
+                ContractForTests.Samples.TIME + ">=?-?",
+                new String[] {String.valueOf(START + DAY), String.valueOf(DAY)},
+                null);
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+
+        // ...nor comparisons inside a subquery...
+        cursor = mContext.getContentResolver().query(
+                ContractForTests.Samples.CONTENT_URI,
+                null,
+                "(SELECT " + ContractForTests.Samples.TIME + ">?)=0",
+                new String[] {String.valueOf(START + DAY)},
+                null);
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+
+        // ...and the largest possible time does not overflow the range...
+        cursor = mContext.getContentResolver().query(
+                ContractForTests.Samples.CONTENT_URI,
+                null,
+                ContractForTests.Samples.TIME + "<=?",
+                new String[] {String.valueOf(Long.MAX_VALUE)},
+                null);
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testRolledBackPartitionIsNotCached() throws RemoteException, OperationApplicationException {
+        // The second operation fails, so the partition created by the first is rolled back...
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(ContractForTests.Samples.CONTENT_URI)
+                .withValues(createValues(1.0, START))
+                .build());
+        operations.add(ContentProviderOperation.newInsert(ContractForTests.Samples.CONTENT_URI)
+                .withValue(ContractForTests.Samples.VALUE, 2.0)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(ContractForTests.AUTHORITY, operations);
+            fail("Inserting a row without a time should fail");
+        } catch (IllegalArgumentException e) {
+            // Expected...
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(ContractForTests.Samples.CONTENT_URI, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        // ...and is created again by the next insert...
+        assertNotNull(mContext.getContentResolver().insert(ContractForTests.Samples.CONTENT_URI, createValues(1.0, START)));
+        cursor = mContext.getContentResolver().query(ContractForTests.Samples.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testDropExpiredPartitions() {
+        long droppedBefore = getStatistics().getLong(TimePartitions.STATISTICS_PARTITIONS_DROPPED);
+        mContext.getContentResolver().insert(ContractForTests.Samples.CONTENT_URI, createValues(1.0, START));
+        mContext.getContentResolver().insert(ContractForTests.Samples.CONTENT_URI, createValues(2.0, START - ContractForTests.Samples.RETENTION - DAY));
+        mContext.getContentResolver().insert(ContractForTests.Samples.CONTENT_URI, createValues(3.0, START - ContractForTests.Samples.RETENTION - 2 * DAY));
+
+        ContentProviderClient client = mContext.getContentResolver().acquireContentProviderClient(ContractForTests.AUTHORITY);
+        try {
+            ((SimpleContentProvider) client.getLocalContentProvider()).sweepExpiredRows();
+        } finally {
+            client.release();
+        }
+
+        // The two partitions older than the retention are dropped as a whole...
+        assertEquals(droppedBefore + 2, getStatistics().getLong(TimePartitions.STATISTICS_PARTITIONS_DROPPED));
+
+        Cursor cursor = mContext.getContentResolver().query(ContractForTests.Samples.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(1.0, cursor.getDouble(cursor.getColumnIndex(ContractForTests.Samples.VALUE)));
+        cursor.close();
+    }
+
+    public void testTimeBeforeEpochIsRejected() {
+        mContext.getContentResolver().insert(ContractForTests.Samples.CONTENT_URI, createValues(1.0, START));
+
+        // Rows before the epoch would need a partition with a negative number...
+        try {
+            mContext.getContentResolver().insert(ContractForTests.Samples.CONTENT_URI, createValues(2.0, -3 * DAY + 1));
+            fail("Inserting a row before the epoch should fail");
+        } catch (IllegalArgumentException e) {
+            // Expected...
+        }
+
+        // ...and queries of times before the epoch still work...
+        Uri rangeUri = ContractForTests.Samples.CONTENT_URI.buildUpon()
+                .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_FROM_TIME, String.valueOf(-3 * DAY))
+                .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_TO_TIME, String.valueOf(START))
+                .build();
+        Cursor cursor = mContext.getContentResolver().query(rangeUri, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(ContractForTests.Samples.CONTENT_URI, null,
+                ContractForTests.Samples.TIME + " < ?", new String[] {"0"}, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    private Bundle getStatistics() {
+        return mContext.getContentResolver().call(
+                ContractForTests.Samples.CONTENT_URI,
+                SimpleContentProvider.METHOD_GET_STATISTICS,
+                null,
+                null);
+    }
+
+    private ContentValues createValues(double value, long time) {
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.Samples.VALUE, value);
+        values.put(ContractForTests.Samples.TIME, time);
+        return values;
+    }
+}
@@ -0,0 +1,117 @@
+package dk.simplecontentprovider;
+
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+public class TestTimeToLive extends AndroidTestCase {
+
+    @Override
+    public void setUp() {
+        mContext.getContentResolver().delete(
+                ContractForTests.Cached.CONTENT_URI,
+                null,
+                null
+        );
+    }
+
+    public void testExpiredRowsAreHidden() {
+        long now = System.currentTimeMillis();
+        Uri freshUri = mContext.getContentResolver().insert(ContractForTests.Cached.CONTENT_URI, createValues("fresh", now));
+        Uri expiredUri = mContext.getContentResolver().insert(ContractForTests.Cached.CONTENT_URI, createValues("expired", now - 2 * 60 * 1000));
+
+        // Only the fresh row is returned from the directory Uri...
+        Cursor cursor = mContext.getContentResolver().query(ContractForTests.Cached.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("fresh", cursor.getString(cursor.getColumnIndex(ContractForTests.Cached.VALUE)));
+        cursor.close();
+
+        // ...and the expired row is not returned from its item Uri either...
+        cursor = mContext.getContentResolver().query(expiredUri, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(freshUri, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testExpiredRowsAreHiddenFromViews() {
+        long now = System.currentTimeMillis();
+        mContext.getContentResolver().insert(ContractForTests.Cached.CONTENT_URI, createValues("fresh", now));
+        mContext.getContentResolver().insert(ContractForTests.Cached.CONTENT_URI, createValues("expired", now - 2 * 60 * 1000));
+
+        // Query the view twice, so a cached result would be served the second time...
+        for (int i = 0; i < 2; i++) {
+            Cursor cursor = mContext.getContentResolver().query(ContractForTests.CachedView.CONTENT_URI, null, null, null, null);
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("fresh", cursor.getString(cursor.getColumnIndex(ContractForTests.CachedView.VALUE)));
+            cursor.close();
+        }
+    }
+
+    public void testSweepDeletesExpiredRows() {
+        long now = System.currentTimeMillis();
+        mContext.getContentResolver().insert(ContractForTests.Cached.CONTENT_URI, createValues("fresh", now));
+        mContext.getContentResolver().insert(ContractForTests.Cached.CONTENT_URI, createValues("expired", now - 2 * 60 * 1000));
+        mContext.getContentResolver().insert(ContractForTests.Cached.CONTENT_URI, createValues("expired", now - 3 * 60 * 1000));
+
+        long expiredRowsBefore = getStatistics().getLong(ExpirySweeper.STATISTICS_EXPIRED_ROWS);
+        ContentProviderClient client = mContext.getContentResolver().acquireContentProviderClient(ContractForTests.AUTHORITY);
+        try {
+            ((SimpleContentProvider) client.getLocalContentProvider()).sweepExpiredRows();
+        } finally {
+            client.release();
+        }
+
+        assertEquals(expiredRowsBefore + 2, getStatistics().getLong(ExpirySweeper.STATISTICS_EXPIRED_ROWS));
+
+        // The fresh row is kept...
+        Cursor cursor = mContext.getContentResolver().query(ContractForTests.Cached.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testRowsWithoutTimeAreExpired() {
+        mContext.getContentResolver().insert(ContractForTests.Cached.CONTENT_URI, createValues("fresh", System.currentTimeMillis()));
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.Cached.VALUE, "unknown");
+        mContext.getContentResolver().insert(ContractForTests.Cached.CONTENT_URI, values);
+
+        // The row without a time is hidden from queries...
+        Cursor cursor = mContext.getContentResolver().query(ContractForTests.Cached.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        // ...and deleted by the sweep, so it is not left behind in the table...
+        long expiredRowsBefore = getStatistics().getLong(ExpirySweeper.STATISTICS_EXPIRED_ROWS);
+        ContentProviderClient client = mContext.getContentResolver().acquireContentProviderClient(ContractForTests.AUTHORITY);
+        try {
+            ((SimpleContentProvider) client.getLocalContentProvider()).sweepExpiredRows();
+        } finally {
+            client.release();
+        }
+        assertEquals(expiredRowsBefore + 1, getStatistics().getLong(ExpirySweeper.STATISTICS_EXPIRED_ROWS));
+
+        // ...nor in views on the entity...
+        cursor = mContext.getContentResolver().query(ContractForTests.CachedView.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    private Bundle getStatistics() {
+        return mContext.getContentResolver().call(ContractForTests.Cached.CONTENT_URI, SimpleContentProvider.METHOD_GET_STATISTICS, null, null);
+    }
+
+    private ContentValues createValues(String value, long written) {
+        ContentValues values = new ContentValues();
+        values.put(ContractForTests.Cached.VALUE, value);
+        values.put(ContractForTests.Cached.WRITTEN, written);
+        return values;
+    }
+}
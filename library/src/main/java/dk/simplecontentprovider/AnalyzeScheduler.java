@@ -0,0 +1,172 @@
+package dk.simplecontentprovider;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the statistics of the query planner fresh by counting the rows changed in each entity
+ * through the provider, and running ANALYZE on the tables of an entity when the count passes
+ * a threshold, or when the provider has been idle for a while after a tenth of the threshold
+ * has been changed. Entities with fewer changes keep their count until they pass it, so a few
+ * changes now and then do not make every idle period scan the tables.
+ *
+ * PRAGMA optimize is run when the process goes to the background after changes, and when the
+ * provider is shut down.
+ *
+ * Without statistics, or with statistics gathered before a large import, SQLite may pick a
+ * poor index for queries on several columns.
+ */
+class AnalyzeScheduler {
+    static final String STATISTICS_ANALYZE_RUNS = "analyzeRuns";
+    static final String STATISTICS_ANALYZE_DURATION = "analyzeDuration";
+    static final String STATISTICS_LAST_ANALYZE_DURATION = "lastAnalyzeDuration";
+    static final String STATISTICS_OPTIMIZE_RUNS = "optimizeRuns";
+
+    private final long mThreshold;
+    private final long mIdleThreshold;
+    private final long mIdleDelay;
+
+    private final Map<String, Long> mChangedRows = new HashMap<>();
+    private final Set<String> mScheduledEntities = new HashSet<>();
+    private long mLastChangeTime;
+    private boolean mIdleCheckScheduled;
+    private boolean mChangedSinceOptimize;
+
+    private long mAnalyzeRuns;
+    private long mAnalyzeDuration;
+    private long mLastAnalyzeDuration;
+    private long mOptimizeRuns;
+
+    /**
+     * @param threshold the number of changed rows that makes an entity analyzed right away
+     * @param idleDelay the time without changes in milliseconds before changed entities are analyzed
+     */
+    AnalyzeScheduler(long threshold, long idleDelay) {
+        mThreshold = threshold;
+        mIdleThreshold = Math.max(1, threshold / 10);
+        mIdleDelay = idleDelay;
+    }
+
+    long getIdleDelay() {
+        return mIdleDelay;
+    }
+
+    /**
+     * Counts rows changed in the entity.
+     *
+     * @return true if the entity has passed the threshold, and should be analyzed now
+     */
+    synchronized boolean recordChanges(SimpleContentProvider.Entity entity, long rows) {
+        if (rows <= 0) {
+            return false;
+        }
+
+        Long changedRows = mChangedRows.get(entity.name);
+        changedRows = (changedRows == null) ? rows : changedRows + rows;
+        mChangedRows.put(entity.name, changedRows);
+        mLastChangeTime = SystemClock.elapsedRealtime();
+        mChangedSinceOptimize = true;
+
+        return changedRows >= mThreshold && mScheduledEntities.add(entity.name);
+    }
+
+    /**
+     * Returns true if no idle check is scheduled, and marks the idle check as scheduled.
+     */
+    synchronized boolean scheduleIdleCheck() {
+        if (mIdleCheckScheduled) {
+            return false;
+        }
+        mIdleCheckScheduled = true;
+        return true;
+    }
+
+    /**
+     * Returns the time left until the provider has been idle for the idle delay, or 0 if it
+     * has. When it has, the idle check is no longer scheduled.
+     */
+    synchronized long getTimeUntilIdle() {
+        long timeLeft = mLastChangeTime + mIdleDelay - SystemClock.elapsedRealtime();
+        if (timeLeft <= 0) {
+            mIdleCheckScheduled = false;
+            return 0;
+        }
+        return timeLeft;
+    }
+
+    /**
+     * Returns the names of the entities that should be analyzed when the provider is idle,
+     * which are the entities with at least a tenth of the threshold of changed rows.
+     */
+    synchronized List<String> getIdleEntities() {
+        List<String> entities = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : mChangedRows.entrySet()) {
+            if (entry.getValue() >= mIdleThreshold) {
+                entities.add(entry.getKey());
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Returns true if rows have been changed since PRAGMA optimize was last started, and
+     * marks the changes as optimized.
+     */
+    synchronized boolean beginOptimize() {
+        boolean changed = mChangedSinceOptimize;
+        mChangedSinceOptimize = false;
+        return changed;
+    }
+
+    /**
+     * Runs ANALYZE on the tables of an entity, and resets its count of changed rows.
+     */
+    void analyze(SQLiteDatabase db, SimpleContentProvider.Entity entity, List<String> tables) {
+        synchronized (this) {
+            mChangedRows.remove(entity.name);
+            mScheduledEntities.remove(entity.name);
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        for (String table : tables) {
+            db.execSQL("ANALYZE " + table);
+        }
+        long duration = SystemClock.elapsedRealtime() - start;
+
+        synchronized (this) {
+            mAnalyzeRuns += 1;
+            mAnalyzeDuration += duration;
+            mLastAnalyzeDuration = duration;
+        }
+    }
+
+    /**
+     * Runs PRAGMA optimize, which analyzes the tables whose statistics may be stale. Older
+     * versions of SQLite ignore the pragma.
+     */
+    void optimize(SQLiteDatabase db) {
+        long start = SystemClock.elapsedRealtime();
+        db.execSQL("PRAGMA optimize");
+        long duration = SystemClock.elapsedRealtime() - start;
+
+        synchronized (this) {
+            mOptimizeRuns += 1;
+            mAnalyzeDuration += duration;
+        }
+    }
+
+    synchronized void addStatistics(Bundle statistics) {
+        statistics.putLong(STATISTICS_ANALYZE_RUNS, mAnalyzeRuns);
+        statistics.putLong(STATISTICS_ANALYZE_DURATION, mAnalyzeDuration);
+        statistics.putLong(STATISTICS_LAST_ANALYZE_DURATION, mLastAnalyzeDuration);
+        statistics.putLong(STATISTICS_OPTIMIZE_RUNS, mOptimizeRuns);
+    }
+}
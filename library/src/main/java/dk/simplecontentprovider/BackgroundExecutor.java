@@ -0,0 +1,30 @@
+package dk.simplecontentprovider;
+
+import android.os.Process;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Single background thread running the maintenance tasks of a provider, such as
+ * warming up the database and sweeping expired rows. The thread runs at background
+ * priority and does not keep the process alive.
+ */
+class BackgroundExecutor extends ScheduledThreadPoolExecutor {
+    BackgroundExecutor() {
+        super(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "SimpleContentProvider background");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
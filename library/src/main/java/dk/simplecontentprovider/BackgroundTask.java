@@ -0,0 +1,91 @@
+package dk.simplecontentprovider;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+
+/**
+ * Progress of a long running task, such as a chunked delete, which is reported to
+ * callers through METHOD_GET_TASK and may be cancelled through METHOD_CANCEL_TASK.
+ */
+class BackgroundTask {
+    final long id;
+    final String name;
+
+    private final long mStartTime = SystemClock.elapsedRealtime();
+    private long mProgress;
+    private long mTotal = -1;
+    private long mDuration = -1;
+    private long mFinishTime;
+    private boolean mDone;
+    private boolean mCancelled;
+    private String mError;
+
+    BackgroundTask(long id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    synchronized void setProgress(long progress, long total) {
+        mProgress = progress;
+        mTotal = total;
+    }
+
+    synchronized long getProgress() {
+        return mProgress;
+    }
+
+    synchronized void cancel() {
+        mCancelled = true;
+    }
+
+    synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    synchronized void finish(String error) {
+        mDone = true;
+        mError = error;
+        mFinishTime = SystemClock.elapsedRealtime();
+        mDuration = mFinishTime - mStartTime;
+        notifyAll();
+    }
+
+    synchronized boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * Waits for the task to finish, for at most the given number of milliseconds.
+     *
+     * @return true if the task is done
+     */
+    synchronized boolean awaitDone(long timeout) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeout;
+        long remaining = timeout;
+        while (!mDone && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - SystemClock.elapsedRealtime();
+        }
+        return mDone;
+    }
+
+    /**
+     * Returns true if the task finished more than the given number of milliseconds ago.
+     */
+    synchronized boolean isExpired(long expiryTime) {
+        return mDone && SystemClock.elapsedRealtime() - mFinishTime > expiryTime;
+    }
+
+    synchronized Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putLong(SimpleContentProvider.KEY_TASK_ID, id);
+        bundle.putString(SimpleContentProvider.KEY_TASK_NAME, name);
+        bundle.putLong(SimpleContentProvider.KEY_TASK_PROGRESS, mProgress);
+        bundle.putLong(SimpleContentProvider.KEY_TASK_TOTAL, mTotal);
+        bundle.putBoolean(SimpleContentProvider.KEY_TASK_DONE, mDone);
+        bundle.putBoolean(SimpleContentProvider.KEY_TASK_CANCELLED, mCancelled);
+        bundle.putString(SimpleContentProvider.KEY_TASK_ERROR, mError);
+        bundle.putLong(SimpleContentProvider.KEY_TASK_DURATION, mDone ? mDuration : SystemClock.elapsedRealtime() - mStartTime);
+        return bundle;
+    }
+}
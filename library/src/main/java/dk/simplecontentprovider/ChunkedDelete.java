@@ -0,0 +1,90 @@
+package dk.simplecontentprovider;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Deletes the rows matching a selection in chunks bounded by rowid, each in its own short
+ * transaction, so that deleting a large number of rows neither holds the write lock of the
+ * database nor grows the journal for long. Other readers and writers get the lock between
+ * the chunks.
+ *
+ * The upper rowid of each chunk is found by walking the rowid order from the end of the
+ * previous chunk, so the whole table is scanned only once, however many chunks it takes.
+ */
+class ChunkedDelete {
+    static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private final SQLiteDatabase mDatabase;
+    private final String mTable;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final int mChunkSize;
+
+    ChunkedDelete(SQLiteDatabase db, String table, String selection, String[] selectionArgs, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be positive: " + chunkSize);
+        }
+
+        mDatabase = db;
+        mTable = table;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Deletes the matching rows, reporting the number of deleted rows to the task after
+     * each chunk. Stops early if the task is cancelled.
+     *
+     * @param task the task to report progress to, or null
+     * @return the number of deleted rows
+     */
+    long execute(BackgroundTask task) {
+        String where = (mSelection == null) ? "" : " AND (" + mSelection + ")";
+
+        long lowerRowId = Long.MIN_VALUE;
+        long deletedRows = 0;
+        boolean lastChunk = false;
+        while (!lastChunk && (task == null || !task.isCancelled())) {
+            // Find the rowid of the last matching row in the chunk...
+            Long upperRowId = null;
+            Cursor cursor = mDatabase.rawQuery(
+                    "SELECT rowid FROM " + mTable + " WHERE rowid>" + lowerRowId + where + " ORDER BY rowid LIMIT 1 OFFSET " + (mChunkSize - 1),
+                    mSelectionArgs);
+            try {
+                if (cursor.moveToFirst()) {
+                    upperRowId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            // ...and delete the chunk, or the remaining rows if there are less than a chunk left...
+            String chunkWhere = "rowid>" + lowerRowId + where;
+            if (upperRowId != null) {
+                chunkWhere = "rowid>" + lowerRowId + " AND rowid<=" + upperRowId + where;
+            } else {
+                lastChunk = true;
+            }
+
+            mDatabase.beginTransactionNonExclusive();
+            try {
+                deletedRows += mDatabase.delete(mTable, chunkWhere, mSelectionArgs);
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+
+            if (upperRowId != null) {
+                lowerRowId = upperRowId;
+            }
+
+            if (task != null) {
+                task.setProgress(deletedRows, -1);
+            }
+        }
+
+        return deletedRows;
+    }
+}
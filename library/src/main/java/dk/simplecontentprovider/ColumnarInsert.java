@@ -0,0 +1,140 @@
+package dk.simplecontentprovider;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Inserts rows given as one array of values per column, binding the values straight from
+ * the arrays into a single compiled statement. Unlike bulkInsert, no ContentValues or
+ * boxed values are allocated per row, on either side of the call.
+ *
+ * Each column is a long[], int[], double[], String[] or byte[][] in the Bundle, keyed by
+ * the name of the column. All the arrays must have the same length. Null values can only
+ * be given in String[] and byte[][] columns.
+ */
+class ColumnarInsert {
+    private final String[] mColumns;
+    private final Object[] mValues;
+    private final int mRowCount;
+
+    /**
+     * @throws IllegalArgumentException if a column is unknown, has an unsupported type,
+     *         or has a different number of values than the other columns
+     */
+    ColumnarInsert(SimpleContentProvider.Entity entity, Bundle columns, Set<String> ignoredKeys) {
+        Set<String> columnNames = new HashSet<>();
+        for (SimpleContentProvider.EntityColumn column : entity.columns) {
+            columnNames.add(column.name);
+        }
+
+        List<String> names = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        int rowCount = -1;
+        for (String key : columns.keySet()) {
+            if (ignoredKeys.contains(key)) {
+                continue;
+            }
+
+            if (!columnNames.contains(key)) {
+                throw new IllegalArgumentException("Unknown column '" + key + "' for entity '" + entity.name + "'");
+            }
+
+            Object value = columns.get(key);
+            int length = getLength(value);
+            if (length < 0) {
+                throw new IllegalArgumentException("Unsupported type of values for column '" + key + "' - use long[], int[], double[], String[] or byte[][]");
+            }
+
+            if (rowCount >= 0 && length != rowCount) {
+                throw new IllegalArgumentException("Column '" + key + "' has " + length + " values, expected " + rowCount);
+            }
+
+            rowCount = length;
+            names.add(key);
+            values.add(value);
+        }
+
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("No columns to insert into entity '" + entity.name + "'");
+        }
+
+        mColumns = names.toArray(new String[names.size()]);
+        mValues = values.toArray();
+        mRowCount = rowCount;
+    }
+
+    String[] getColumns() {
+        return mColumns;
+    }
+
+    /**
+     * Inserts the rows. The caller should hold a transaction.
+     *
+     * @param table the table to insert the rows into, usually the table of the entity
+     * @param conflictAlgorithm one of the SQLiteDatabase.CONFLICT_* constants, or null
+     * @return the number of inserted rows
+     */
+    int insert(SQLiteDatabase db, String table, Integer conflictAlgorithm) {
+        SQLiteStatement statement = db.compileStatement(StreamImporter.buildInsertSql(table, mColumns, conflictAlgorithm));
+        int insertedRows = 0;
+        try {
+            for (int row = 0; row < mRowCount; row++) {
+                for (int column = 0; column < mValues.length; column++) {
+                    bind(statement, column + 1, mValues[column], row);
+                }
+
+                if (statement.executeInsert() != -1) {
+                    insertedRows += 1;
+                }
+            }
+        } finally {
+            statement.close();
+        }
+        return insertedRows;
+    }
+
+    private static void bind(SQLiteStatement statement, int index, Object values, int row) {
+        if (values instanceof long[]) {
+            statement.bindLong(index, ((long[]) values)[row]);
+        } else if (values instanceof int[]) {
+            statement.bindLong(index, ((int[]) values)[row]);
+        } else if (values instanceof double[]) {
+            statement.bindDouble(index, ((double[]) values)[row]);
+        } else if (values instanceof String[]) {
+            String value = ((String[]) values)[row];
+            if (value == null) {
+                statement.bindNull(index);
+            } else {
+                statement.bindString(index, value);
+            }
+        } else {
+            byte[] value = ((byte[][]) values)[row];
+            if (value == null) {
+                statement.bindNull(index);
+            } else {
+                statement.bindBlob(index, value);
+            }
+        }
+    }
+
+    private static int getLength(Object values) {
+        if (values instanceof long[]) {
+            return ((long[]) values).length;
+        } else if (values instanceof int[]) {
+            return ((int[]) values).length;
+        } else if (values instanceof double[]) {
+            return ((double[]) values).length;
+        } else if (values instanceof String[]) {
+            return ((String[]) values).length;
+        } else if (values instanceof byte[][]) {
+            return ((byte[][]) values).length;
+        }
+        return -1;
+    }
+}
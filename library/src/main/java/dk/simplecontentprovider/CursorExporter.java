@@ -0,0 +1,145 @@
+package dk.simplecontentprovider;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Base64;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes the rows of a cursor into a pipe as CSV or newline delimited JSON, one row at a time,
+ * so the memory used by an export does not depend on the number of rows. The cursor is
+ * filled one window at a time while writing, and closed when the export is done.
+ *
+ * CSV exports start with a header of column names. Blobs are written as Base64 strings.
+ */
+class CursorExporter implements ContentProvider.PipeDataWriter<Cursor> {
+    private static final String TAG = "SimpleContentProvider";
+
+    private final boolean mJson;
+
+    CursorExporter(boolean json) {
+        mJson = json;
+    }
+
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType, Bundle opts, Cursor cursor) {
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new ParcelFileDescriptor.AutoCloseOutputStream(output), "UTF-8"));
+            String[] columnNames = cursor.getColumnNames();
+            if (!mJson) {
+                for (int i = 0; i < columnNames.length; i++) {
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+                    writeCsvValue(writer, columnNames[i]);
+                }
+                writer.write('\n');
+            }
+
+            while (cursor.moveToNext()) {
+                if (mJson) {
+                    writeJsonRow(writer, cursor, columnNames);
+                } else {
+                    writeCsvRow(writer, cursor);
+                }
+            }
+            writer.flush();
+        } catch (IOException e) {
+            // The reader closed the pipe before the export was done...
+            Log.w(TAG, "Export of " + uri + " was interrupted", e);
+        } finally {
+            cursor.close();
+            closeQuietly(writer, output);
+        }
+    }
+
+    private static void writeCsvRow(Writer writer, Cursor cursor) throws IOException {
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                case Cursor.FIELD_TYPE_FLOAT:
+                    writer.write(cursor.getString(i));
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    writer.write(Base64.encodeToString(cursor.getBlob(i), Base64.NO_WRAP));
+                    break;
+                default:
+                    writeCsvValue(writer, cursor.getString(i));
+                    break;
+            }
+        }
+        writer.write('\n');
+    }
+
+    private static void writeCsvValue(Writer writer, String value) throws IOException {
+        // Quote values with separators, quotes or line breaks, doubling the quotes...
+        boolean quoted = value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+        if (quoted) {
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        } else {
+            writer.write(value);
+        }
+    }
+
+    private static void writeJsonRow(Writer writer, Cursor cursor, String[] columnNames) throws IOException {
+        writer.write('{');
+        for (int i = 0; i < columnNames.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(JSONObject.quote(columnNames[i]));
+            writer.write(':');
+
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    writer.write("null");
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    writer.write(Long.toString(cursor.getLong(i)));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    double value = cursor.getDouble(i);
+                    writer.write(Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value));
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    writer.write(JSONObject.quote(Base64.encodeToString(cursor.getBlob(i), Base64.NO_WRAP)));
+                    break;
+                default:
+                    writer.write(JSONObject.quote(cursor.getString(i)));
+                    break;
+            }
+        }
+        writer.write("}\n");
+    }
+
+    private static void closeQuietly(Writer writer, ParcelFileDescriptor output) {
+        try {
+            if (writer != null) {
+                writer.close();
+            } else {
+                output.close();
+            }
+        } catch (IOException e) {
+            // Ignore exception
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package dk.simplecontentprovider;
+
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.os.Build;
+
+/**
+ * Immutable copy of a query result held in a single CursorWindow.
+ *
+ * Any number of cursors can be created on the snapshot with newCursor. The cursors share
+ * the window of the snapshot, which is reference counted, so creating a cursor is cheap
+ * and the window is only freed once the snapshot and all its cursors have been closed.
+ */
+class CursorSnapshot {
+    private final CursorWindow mWindow;
+    private final String[] mColumns;
+    private final long mSize;
+
+    private CursorSnapshot(CursorWindow window, String[] columns, long size) {
+        mWindow = window;
+        mColumns = columns;
+        mSize = size;
+    }
+
+    /**
+     * Copies all rows of the cursor into a new snapshot. If the rows do not fit in a
+     * window or exceed the given maximum size, null is returned and the cursor is
+     * moved back before the first row, so that it can still be used by the caller.
+     *
+     * @param cursor the cursor to copy
+     * @param maxSize the maximum size of the snapshot in bytes
+     * @return the new snapshot, or null if the result is too large
+     */
+    static CursorSnapshot create(Cursor cursor, long maxSize) {
+        String[] columns = cursor.getColumnNames();
+        CursorWindow window = newWindow();
+        long size = 0;
+        boolean complete = false;
+
+        try {
+            if (!window.setNumColumns(columns.length)) {
+                return null;
+            }
+
+            int row = 0;
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                if (!window.allocRow()) {
+                    return null;
+                }
+
+                for (int column = 0; column < columns.length; column++) {
+                    boolean success;
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_NULL:
+                            success = window.putNull(row, column);
+                            size += 4;
+                            break;
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            success = window.putLong(cursor.getLong(column), row, column);
+                            size += 8;
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            success = window.putDouble(cursor.getDouble(column), row, column);
+                            size += 8;
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            byte[] blob = cursor.getBlob(column);
+                            success = window.putBlob(blob, row, column);
+                            size += 8 + blob.length;
+                            break;
+                        default:
+                            String string = cursor.getString(column);
+                            success = window.putString(string, row, column);
+                            size += 8 + 3 * string.length();
+                            break;
+                    }
+
+                    if (!success || size > maxSize) {
+                        return null;
+                    }
+                }
+
+                row += 1;
+            }
+
+            complete = true;
+            return new CursorSnapshot(window, columns, size);
+        } finally {
+            if (!complete) {
+                window.close();
+                cursor.moveToPosition(-1);
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static CursorWindow newWindow() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+            return new CursorWindow(CursorSnapshot.class.getSimpleName());
+        } else {
+            return new CursorWindow(false);
+        }
+    }
+
+    long getSize() {
+        return mSize;
+    }
+
+    int getCount() {
+        return mWindow.getNumRows();
+    }
+
+    /**
+     * Creates a new cursor on the snapshot. The cursor must be closed by the caller.
+     */
+    Cursor newCursor() {
+        mWindow.acquireReference();
+        return new SnapshotCursor(mWindow, mColumns);
+    }
+
+    /**
+     * Releases the snapshot's reference to the window. Cursors created
+     * on the snapshot remain valid until they are closed.
+     */
+    void release() {
+        mWindow.releaseReference();
+    }
+
+    private static class SnapshotCursor extends AbstractWindowedCursor {
+        private final String[] mColumns;
+        private final int mCount;
+
+        SnapshotCursor(CursorWindow window, String[] columns) {
+            mColumns = columns;
+            mCount = window.getNumRows();
+            setWindow(window);
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumns;
+        }
+
+        @Override
+        public boolean requery() {
+            // The window is released when the cursor is deactivated,
+            // so the cursor cannot be re-queried...
+            return false;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package dk.simplecontentprovider;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Prebuilt database shipped as an asset, which is copied into place the first time
+ * the database is opened instead of creating empty tables.
+ *
+ * Assets ending with ".gz" or ".zip" are decompressed while they are copied. The asset
+ * is copied into a temporary file, and its version is checked before the file is
+ * renamed to the database file. If anything fails, the temporary file is deleted and
+ * the database is created as usual.
+ */
+class DatabaseAsset {
+    static final String STATISTICS_INSTALLED = "assetInstalled";
+    static final String STATISTICS_COPY_DURATION = "assetCopyDuration";
+    static final String STATISTICS_BYTES = "assetBytes";
+    static final String STATISTICS_FAILURE = "assetFailure";
+
+    private static final String TAG = "SimpleContentProvider";
+    private static final String TEMPORARY_FILE_SUFFIX = ".asset";
+
+    private final String mAssetPath;
+    private volatile boolean mChecked;
+    private boolean mInstalled;
+    private long mCopyDuration;
+    private long mBytes;
+    private String mFailure;
+
+    DatabaseAsset(String assetPath) {
+        mAssetPath = assetPath;
+    }
+
+    /**
+     * Copies the asset into place, unless the database already exists or the asset has already
+     * been checked. Must be called before the database helper opens the database. Once the asset
+     * has been checked, the method returns without locking.
+     *
+     * @param context the context of the provider
+     * @param databaseName the name of the database
+     * @param databaseVersion the version of the database expected by the provider
+     */
+    void install(Context context, String databaseName, int databaseVersion) {
+        if (mChecked) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!mChecked) {
+                try {
+                    installAsset(context, databaseName, databaseVersion);
+                } finally {
+                    mChecked = true;
+                }
+            }
+        }
+    }
+
+    private void installAsset(Context context, String databaseName, int databaseVersion) {
+        File databaseFile = context.getDatabasePath(databaseName);
+        if (databaseFile.exists()) {
+            return;
+        }
+
+        File temporaryFile = new File(databaseFile.getPath() + TEMPORARY_FILE_SUFFIX);
+        long start = SystemClock.elapsedRealtime();
+        try {
+            File directory = databaseFile.getParentFile();
+            if (directory != null && !directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Unable to create directory " + directory);
+            }
+
+            mBytes = copy(context, temporaryFile);
+            checkVersion(temporaryFile, databaseVersion);
+
+            if (!temporaryFile.renameTo(databaseFile)) {
+                throw new IOException("Unable to rename " + temporaryFile + " to " + databaseFile);
+            }
+
+            mInstalled = true;
+        } catch (Exception e) {
+            mFailure = e.getMessage();
+            Log.w(TAG, "Unable to install database asset '" + mAssetPath + "', creating the database instead", e);
+        } finally {
+            mCopyDuration = SystemClock.elapsedRealtime() - start;
+            if (!mInstalled) {
+                //noinspection ResultOfMethodCallIgnored
+                temporaryFile.delete();
+            }
+        }
+    }
+
+    synchronized void addStatistics(Bundle statistics) {
+        statistics.putBoolean(STATISTICS_INSTALLED, mInstalled);
+        statistics.putLong(STATISTICS_COPY_DURATION, mCopyDuration);
+        statistics.putLong(STATISTICS_BYTES, mBytes);
+        statistics.putString(STATISTICS_FAILURE, mFailure);
+    }
+
+    private long copy(Context context, File file) throws IOException {
+        InputStream input = openAsset(context);
+        try {
+            OutputStream output = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                long bytes = 0;
+                int count;
+                while ((count = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, count);
+                    bytes += count;
+                }
+                return bytes;
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private InputStream openAsset(Context context) throws IOException {
+        InputStream input = context.getAssets().open(mAssetPath);
+        if (mAssetPath.endsWith(".gz")) {
+            return new GZIPInputStream(input, 64 * 1024);
+        }
+
+        if (mAssetPath.endsWith(".zip")) {
+            ZipInputStream zipInput = new ZipInputStream(input);
+            if (zipInput.getNextEntry() == null) {
+                zipInput.close();
+                throw new IOException("No database in asset '" + mAssetPath + "'");
+            }
+            return zipInput;
+        }
+
+        return input;
+    }
+
+    /**
+     * Verifies that the copied database has a version between 1 and the expected version.
+     * Older versions are accepted, since they are upgraded when the database is opened.
+     */
+    private void checkVersion(File file, int databaseVersion) throws IOException {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            int version = db.getVersion();
+            if (version < 1 || version > databaseVersion) {
+                throw new IOException("Database asset '" + mAssetPath + "' has version " + version + ", expected " + databaseVersion);
+            }
+        } finally {
+            db.close();
+        }
+    }
+}
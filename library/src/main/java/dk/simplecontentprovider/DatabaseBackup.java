@@ -0,0 +1,309 @@
+package dk.simplecontentprovider;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Copies a live database into a backup file while the provider keeps running. The rows of each
+ * table are copied in steps bounded by rowid, each in its own short transaction, so writers are
+ * only paused for the duration of a single step.
+ *
+ * Like the SQLite online backup API, the copy starts over if the database is written between two
+ * steps, so the backup is always a consistent snapshot. Writes are detected by the total number of
+ * changes of the connection, which sees all writes through the provider, and changes of the schema
+ * by the schema version of the database. Each restart doubles the size of the steps, so the copy
+ * has fewer gaps for writes to fall into, while every step stays bounded. If the database is still
+ * written during the last attempt, the backup fails rather than blocking writers for a whole copy.
+ *
+ * Indexes, triggers and views are created on the backup when all the rows have been copied.
+ */
+class DatabaseBackup {
+    static final int DEFAULT_STEP_SIZE = 1000;
+
+    private static final String BACKUP_DATABASE = "simple_content_provider_backup";
+    private static final int MAX_RESTARTS = 3;
+
+    private final SQLiteDatabase mDatabase;
+    private final File mFile;
+    private final int mStepSize;
+
+    private final List<String> mTables = new ArrayList<>();
+    private final List<String> mTableSql = new ArrayList<>();
+    private final List<String> mOtherSql = new ArrayList<>();
+
+    private long mCopiedRows;
+    private long mTotalRows;
+    private long mTotalChanges;
+    private long mSchemaVersion;
+    private int mRestarts;
+
+    DatabaseBackup(SQLiteDatabase db, File file, int stepSize) {
+        if (stepSize < 1) {
+            throw new IllegalArgumentException("The step size must be positive: " + stepSize);
+        }
+
+        mDatabase = db;
+        mFile = file;
+        mStepSize = stepSize;
+    }
+
+    /**
+     * Writes the backup file, reporting the copied and total number of rows to the task after
+     * each step.
+     *
+     * @param task the task to report progress to, or null
+     * @return true if the backup was written, or false if the task was cancelled
+     * @throws IllegalStateException if the database was written during every attempt
+     */
+    boolean execute(BackgroundTask task) {
+        while (true) {
+            Boolean completed = attempt(task);
+            if (completed != null) {
+                return completed;
+            }
+
+            // The schema changed during the copy, so read it again and start over...
+            deleteFile();
+            mTables.clear();
+            mTableSql.clear();
+            mOtherSql.clear();
+            mRestarts += 1;
+            checkRestarts();
+        }
+    }
+
+    /**
+     * Writes the backup file once.
+     *
+     * @return true if the backup was written, false if the task was cancelled, or null if the schema changed
+     */
+    private Boolean attempt(BackgroundTask task) {
+        deleteFile();
+        mSchemaVersion = count("PRAGMA main.schema_version");
+        readSchema();
+
+        // Create the tables in the backup file, before attaching it...
+        SQLiteDatabase backup = SQLiteDatabase.openDatabase(mFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.CREATE_IF_NECESSARY);
+        Set<String> existingTables = new HashSet<>();
+        try {
+            // Android creates android_metadata when opening the file, and SQLite creates
+            // sqlite_sequence along with the first AUTOINCREMENT table...
+            existingTables.addAll(getTableNames(backup, "main"));
+            for (int i = 0; i < mTables.size(); i++) {
+                if (!existingTables.contains(mTables.get(i)) && !mTables.get(i).startsWith("sqlite_")) {
+                    backup.execSQL(mTableSql.get(i));
+                }
+            }
+        } finally {
+            backup.close();
+        }
+
+        Boolean completed;
+        mDatabase.execSQL("ATTACH DATABASE ? AS " + BACKUP_DATABASE, new Object[]{mFile.getPath()});
+        try {
+            List<String> tables = new ArrayList<>(getTableNames(mDatabase, BACKUP_DATABASE));
+            tables.removeAll(existingTables);
+            tables.retainAll(mTables);
+            completed = copyTables(tables, task);
+        } finally {
+            mDatabase.execSQL("DETACH DATABASE " + BACKUP_DATABASE);
+        }
+
+        if (completed == null || !completed) {
+            deleteFile();
+            return completed;
+        }
+
+        // ...and create the indexes, triggers and views when the rows are in place...
+        backup = SQLiteDatabase.openDatabase(mFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            for (String sql : mOtherSql) {
+                backup.execSQL(sql);
+            }
+            backup.setVersion(mDatabase.getVersion());
+        } finally {
+            backup.close();
+        }
+        return true;
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Deletes the backup file and its journal.
+     */
+    void deleteFile() {
+        mFile.delete();
+        new File(mFile.getPath() + "-journal").delete();
+    }
+
+    /**
+     * Copies the rows of the tables, starting over with larger steps whenever the database is
+     * written between two steps.
+     *
+     * @return true if the rows were copied, false if the task was cancelled, or null if the schema changed
+     */
+    private Boolean copyTables(List<String> tables, BackgroundTask task) {
+        mTotalRows = 0;
+        for (String table : tables) {
+            mTotalRows += count("SELECT count(*) FROM main." + table);
+        }
+
+        while (true) {
+            mCopiedRows = 0;
+            mTotalChanges = -1;
+            int stepSize = (int) Math.min(Integer.MAX_VALUE, (long) mStepSize << mRestarts);
+            boolean restart = false;
+            for (int i = 0; i < tables.size() && !restart; i++) {
+                if (!copyTable(tables.get(i), stepSize, task)) {
+                    if (task != null && task.isCancelled()) {
+                        return false;
+                    }
+                    if (count("PRAGMA main.schema_version") != mSchemaVersion) {
+                        return null;
+                    }
+                    restart = true;
+                }
+            }
+
+            if (!restart) {
+                return true;
+            }
+
+            // The database was written between two steps, so start over...
+            mRestarts += 1;
+            checkRestarts();
+            for (String table : tables) {
+                mDatabase.execSQL("DELETE FROM " + BACKUP_DATABASE + "." + table);
+            }
+        }
+    }
+
+    private void checkRestarts() {
+        if (mRestarts > MAX_RESTARTS) {
+            throw new IllegalStateException("The database was written during each of the " + mRestarts + " attempts to back it up");
+        }
+    }
+
+    /**
+     * Copies the rows of a table in steps.
+     *
+     * @return false if the database was written between two steps, or the task was cancelled
+     */
+    private boolean copyTable(String table, int stepSize, BackgroundTask task) {
+        String columns = "rowid";
+        for (String column : getColumnNames(table)) {
+            columns += "," + column;
+        }
+
+        long lowerRowId = Long.MIN_VALUE;
+        boolean lastStep = false;
+        while (!lastStep) {
+            if (task != null && task.isCancelled()) {
+                return false;
+            }
+
+            mDatabase.beginTransaction();
+            try {
+                // Writes and schema changes since the previous step invalidate the rows copied so far...
+                long totalChanges = count("SELECT total_changes()");
+                if ((mTotalChanges >= 0 && totalChanges != mTotalChanges) || count("PRAGMA main.schema_version") != mSchemaVersion) {
+                    return false;
+                }
+
+                Long upperRowId = null;
+                Cursor cursor = mDatabase.rawQuery("SELECT rowid FROM main." + table + " WHERE rowid>" + lowerRowId
+                        + " ORDER BY rowid LIMIT 1 OFFSET " + (stepSize - 1), null);
+                try {
+                    if (cursor.moveToFirst()) {
+                        upperRowId = cursor.getLong(0);
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                String where = "rowid>" + lowerRowId;
+                if (upperRowId != null) {
+                    where += " AND rowid<=" + upperRowId;
+                    lowerRowId = upperRowId;
+                } else {
+                    lastStep = true;
+                }
+
+                mDatabase.execSQL("INSERT INTO " + BACKUP_DATABASE + "." + table + " (" + columns + ") SELECT " + columns
+                        + " FROM main." + table + " WHERE " + where);
+                mCopiedRows += count("SELECT changes()");
+                mTotalChanges = count("SELECT total_changes()");
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+
+            if (task != null) {
+                task.setProgress(mCopiedRows, Math.max(mCopiedRows, mTotalRows));
+            }
+        }
+        return true;
+    }
+
+    private void readSchema() {
+        Cursor cursor = mDatabase.rawQuery("SELECT type, name, sql FROM main.sqlite_master WHERE sql IS NOT NULL ORDER BY rowid", null);
+        try {
+            while (cursor.moveToNext()) {
+                String type = cursor.getString(0);
+                if ("table".equals(type)) {
+                    mTables.add(cursor.getString(1));
+                    mTableSql.add(cursor.getString(2));
+                } else if (!cursor.getString(1).startsWith("sqlite_")) {
+                    mOtherSql.add(cursor.getString(2));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static List<String> getTableNames(SQLiteDatabase db, String database) {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT name FROM " + database + ".sqlite_master WHERE type='table'", null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    private List<String> getColumnNames(String table) {
+        List<String> columnNames = new ArrayList<>();
+        Cursor cursor = mDatabase.rawQuery("PRAGMA main.table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columnNames.add(cursor.getString(nameIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columnNames;
+    }
+
+    private long count(String sql) {
+        Cursor cursor = mDatabase.rawQuery(sql, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
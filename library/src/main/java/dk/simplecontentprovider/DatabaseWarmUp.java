@@ -0,0 +1,126 @@
+package dk.simplecontentprovider;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Opens the database on the background executor right after the provider is created, so that
+ * opening, configuring, creating or upgrading the database does not happen on the thread
+ * of the first caller. After opening the database, the schema is loaded and the first
+ * pages of each entity are read into the page cache.
+ *
+ * Callers arriving while the warm-up is running wait for it to finish rather than
+ * opening the database themselves. If the warm-up fails, callers open the database
+ * as usual and get the error from there.
+ */
+class DatabaseWarmUp {
+    static final String STATISTICS_WAITS = "startupWarmUpWaits";
+    static final String STATISTICS_WAIT_TIME = "startupWarmUpWaitTime";
+
+    private static final int PRIMED_ROWS = 256;
+
+    private final FutureTask<Void> mTask;
+    private final StartupTimings mTimings;
+
+    private long mWaits;
+    private long mWaitTime;
+
+    /**
+     * @param helpers the helpers of the databases to open in order, and the entities in each database
+     * @param timings the timings to record the durations of the warm-up in
+     */
+    DatabaseWarmUp(final Map<SQLiteOpenHelper, List<SimpleContentProvider.Entity>> helpers, StartupTimings timings) {
+        mTimings = timings;
+        mTask = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                warmUp(helpers);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Starts the warm-up on the background executor of the provider. It must be the first task
+     * of the executor, since tasks opening the database wait for the warm-up to finish.
+     */
+    void start(Executor executor) {
+        executor.execute(mTask);
+    }
+
+    /**
+     * Waits for the warm-up to finish, if it is still running.
+     */
+    void await() {
+        if (mTask.isDone()) {
+            return;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mTask.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                // The caller opens the database itself and gets the error from there...
+                break;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            mWaits += 1;
+            mWaitTime += SystemClock.elapsedRealtime() - start;
+        }
+    }
+
+    synchronized void addStatistics(Bundle statistics) {
+        statistics.putLong(STATISTICS_WAITS, mWaits);
+        statistics.putLong(STATISTICS_WAIT_TIME, mWaitTime);
+    }
+
+    private void warmUp(Map<SQLiteOpenHelper, List<SimpleContentProvider.Entity>> helpers) {
+        long start = SystemClock.elapsedRealtime();
+        long openDuration = 0;
+        long primeDuration = 0;
+
+        for (Map.Entry<SQLiteOpenHelper, List<SimpleContentProvider.Entity>> helper : helpers.entrySet()) {
+            long opening = SystemClock.elapsedRealtime();
+            SQLiteDatabase db = helper.getKey().getWritableDatabase();
+            long opened = SystemClock.elapsedRealtime();
+
+            // Load the schema and read the first pages of each entity...
+            for (SimpleContentProvider.Entity entity : helper.getValue()) {
+                Cursor cursor = db.rawQuery("SELECT * FROM " + entity.name + " LIMIT " + PRIMED_ROWS, null);
+                try {
+                    cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            openDuration += opened - opening;
+            primeDuration += SystemClock.elapsedRealtime() - opened;
+        }
+
+        mTimings.record(StartupTimings.DATABASE_OPEN, openDuration);
+        mTimings.record(StartupTimings.WARM_UP_PRIME, primeDuration);
+        mTimings.record(StartupTimings.WARM_UP, SystemClock.elapsedRealtime() - start);
+    }
+}
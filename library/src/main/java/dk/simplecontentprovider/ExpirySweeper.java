@@ -0,0 +1,74 @@
+package dk.simplecontentprovider;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+
+/**
+ * Deletes expired rows of entities with a time to live.
+ *
+ * Rows are deleted in small chunks, each in its own transaction, so the sweep never
+ * holds the write lock of the database for long, and readers and writers waiting for
+ * the lock get it between the chunks.
+ */
+class ExpirySweeper {
+    static final String STATISTICS_SWEEPS = "expirySweeps";
+    static final String STATISTICS_EXPIRED_ROWS = "expiredRows";
+
+    private static final int CHUNK_SIZE = 500;
+
+    private long mSweeps;
+    private long mExpiredRows;
+
+    /**
+     * Returns the selection of the expired rows of the entity, with the expiry time as its
+     * argument. Rows without a time are expired too, since queries never return them.
+     */
+    static String getExpiredSelection(SimpleContentProvider.Entity entity) {
+        return entity.timeToLiveColumn + " IS NULL OR " + entity.timeToLiveColumn + "<?";
+    }
+
+    /**
+     * Deletes the rows of the entity that expired before the given time.
+     *
+     * @param db the database of the entity
+     * @param entity the entity to sweep
+     * @param now the current time in milliseconds since the epoch
+     * @return the number of deleted rows
+     */
+    int sweep(SQLiteDatabase db, SimpleContentProvider.Entity entity, long now) {
+        SQLiteStatement statement = db.compileStatement(
+                "DELETE FROM " + entity.name + " WHERE rowid IN " +
+                "(SELECT rowid FROM " + entity.name + " WHERE " + getExpiredSelection(entity) + " LIMIT " + CHUNK_SIZE + ")");
+        int deletedRows = 0;
+        try {
+            statement.bindLong(1, now - entity.timeToLive);
+
+            int chunkRows;
+            do {
+                db.beginTransactionNonExclusive();
+                try {
+                    chunkRows = statement.executeUpdateDelete();
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                deletedRows += chunkRows;
+            } while (chunkRows == CHUNK_SIZE);
+        } finally {
+            statement.close();
+        }
+
+        synchronized (this) {
+            mSweeps += 1;
+            mExpiredRows += deletedRows;
+        }
+
+        return deletedRows;
+    }
+
+    synchronized void addStatistics(Bundle statistics) {
+        statistics.putLong(STATISTICS_SWEEPS, mSweeps);
+        statistics.putLong(STATISTICS_EXPIRED_ROWS, mExpiredRows);
+    }
+}
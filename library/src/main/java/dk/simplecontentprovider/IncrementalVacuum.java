@@ -0,0 +1,106 @@
+package dk.simplecontentprovider;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+/**
+ * Returns the free pages of databases with auto_vacuum=INCREMENTAL to the file system, so the
+ * database files shrink after rows have been deleted, instead of keeping their peak size.
+ *
+ * Free pages are only released when they pass a threshold, and then in small steps, each in
+ * its own short transaction, so writers are only paused briefly.
+ */
+class IncrementalVacuum {
+    static final String STATISTICS_DATABASE_SIZE = "databaseSize";
+    static final String STATISTICS_FREELIST_SIZE = "freelistSize";
+    static final String STATISTICS_RECLAIMED_PAGES = "reclaimedPages";
+
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private static final int PAGES_PER_STEP = 128;
+
+    private final long mThreshold;
+
+    private long mDatabaseSize;
+    private long mFreelistSize;
+    private long mReclaimedPages;
+
+    /**
+     * @param threshold the size of the free pages in bytes that makes them released
+     */
+    IncrementalVacuum(long threshold) {
+        mThreshold = threshold;
+    }
+
+    /**
+     * Switches a new database to auto_vacuum=INCREMENTAL. Android creates a table for the
+     * locale of the database when opening it, so the database must be vacuumed for the
+     * mode to take effect, which takes no time while the database is still empty.
+     */
+    static void enable(SQLiteDatabase db) {
+        if (getPragma(db, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            db.execSQL("PRAGMA auto_vacuum=INCREMENTAL");
+            db.execSQL("VACUUM");
+        }
+    }
+
+    /**
+     * Releases the free pages of the databases, if they have passed the threshold.
+     *
+     * @param databases the databases to check
+     * @return the number of released pages
+     */
+    long vacuum(Iterable<SQLiteDatabase> databases) {
+        long databaseSize = 0;
+        long freelistSize = 0;
+        long reclaimedPages = 0;
+        for (SQLiteDatabase db : databases) {
+            long pageSize = getPragma(db, "page_size");
+            long freePages = getPragma(db, "freelist_count");
+            if (freePages * pageSize >= mThreshold && getPragma(db, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL) {
+                while (freePages > 0) {
+                    // Each step of the pragma releases a single page...
+                    Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + PAGES_PER_STEP + ")", null);
+                    try {
+                        cursor.getCount();
+                    } finally {
+                        cursor.close();
+                    }
+
+                    long remainingPages = getPragma(db, "freelist_count");
+                    if (remainingPages >= freePages) {
+                        break;
+                    }
+                    reclaimedPages += freePages - remainingPages;
+                    freePages = remainingPages;
+                }
+            }
+
+            databaseSize += getPragma(db, "page_count") * pageSize;
+            freelistSize += freePages * pageSize;
+        }
+
+        synchronized (this) {
+            mDatabaseSize = databaseSize;
+            mFreelistSize = freelistSize;
+            mReclaimedPages += reclaimedPages;
+        }
+        return reclaimedPages;
+    }
+
+    synchronized void addStatistics(Bundle statistics) {
+        statistics.putLong(STATISTICS_DATABASE_SIZE, mDatabaseSize);
+        statistics.putLong(STATISTICS_FREELIST_SIZE, mFreelistSize);
+        statistics.putLong(STATISTICS_RECLAIMED_PAGES, mReclaimedPages);
+    }
+
+    private static long getPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package dk.simplecontentprovider;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges a snapshot of the rows of an entity into the entity. The snapshot is loaded into a
+ * temporary staging table, and the entity is then changed with a few set-based statements:
+ * rows whose values differ from the snapshot are updated, rows missing from the snapshot are
+ * deleted and rows only in the snapshot are inserted. Rows that are the same in the entity and
+ * the snapshot are not written at all, so unchanged rows keep their cached values.
+ *
+ * Rows are matched on the key columns, which should be unique in the snapshot. Rows with a
+ * NULL key never match. Columns missing from the snapshot are left unchanged by updates, and
+ * so are the columns missing from a single row, if the row lists its columns in the
+ * PRESENT_COLUMNS column of the staging table.
+ *
+ * The snapshot is loaded before the merge, and the caller must hold a transaction around the
+ * merge only, so readers never see a half merged entity. Each merge has staging tables of
+ * its own, so merges into the same entity do not interfere.
+ */
+class MergeImport {
+    static final String STAGING_SUFFIX = "__staging";
+    static final String CHANGED_SUFFIX = "__changed";
+
+    /**
+     * The column of the staging table holding the columns of each row, such as ",name,type,",
+     * or NULL if the row has all the columns of the snapshot.
+     */
+    static final String PRESENT_COLUMNS = "__present_columns";
+
+    private static final AtomicLong sNextMergeId = new AtomicLong(1);
+
+    private final SQLiteDatabase mDatabase;
+    private final SimpleContentProvider.Entity mEntity;
+    private final String[] mKeyColumns;
+    private final String mStagingName;
+    private final String mChangedName;
+    private final String mStagingTable;
+    private final String mChangedTable;
+
+    private int mInsertedRows;
+    private int mUpdatedRows;
+    private int mDeletedRows;
+
+    /**
+     * @param keyColumns the columns identifying the rows of the snapshot
+     * @throws IllegalArgumentException if a key column is unknown
+     */
+    MergeImport(SQLiteDatabase db, SimpleContentProvider.Entity entity, String[] keyColumns) {
+        Set<String> columnNames = new HashSet<>();
+        for (SimpleContentProvider.EntityColumn column : entity.columns) {
+            columnNames.add(column.name);
+        }
+
+        if (keyColumns.length == 0) {
+            throw new IllegalArgumentException("No key columns for merging into entity '" + entity.name + "'");
+        }
+
+        for (String column : keyColumns) {
+            if (!columnNames.contains(column)) {
+                throw new IllegalArgumentException("Unknown key column '" + column + "' for entity '" + entity.name + "'");
+            }
+        }
+
+        mDatabase = db;
+        mEntity = entity;
+        mKeyColumns = keyColumns;
+        long mergeId = sNextMergeId.getAndIncrement();
+        mStagingName = entity.name + STAGING_SUFFIX + mergeId;
+        mChangedName = entity.name + CHANGED_SUFFIX + mergeId;
+        mStagingTable = "temp." + mStagingName;
+        mChangedTable = "temp." + mChangedName;
+    }
+
+    /**
+     * Creates the empty staging table, with the columns of the entity. Load the snapshot
+     * into the table returned by getStagingTable() afterwards.
+     */
+    void createStagingTable() {
+        dropTables();
+        mDatabase.execSQL("CREATE TEMP TABLE " + mStagingName + " AS SELECT * FROM " + mEntity.name + " WHERE 0");
+        mDatabase.execSQL("ALTER TABLE " + mStagingTable + " ADD COLUMN " + PRESENT_COLUMNS + " TEXT");
+        mDatabase.execSQL("CREATE TEMP TABLE " + mChangedName + " (id INTEGER PRIMARY KEY, deleted INTEGER)");
+    }
+
+    String getStagingTable() {
+        return mStagingTable;
+    }
+
+    /**
+     * Merges the loaded snapshot into the entity, and drops the staging table.
+     *
+     * @param columns the columns of the snapshot
+     * @param deleteMissing true to delete rows of the entity that are missing from the snapshot
+     * @throws IllegalArgumentException if the snapshot is missing a key column
+     */
+    void merge(Collection<String> columns, boolean deleteMissing) {
+        for (String column : mKeyColumns) {
+            if (!columns.contains(column)) {
+                throw new IllegalArgumentException("Missing key column '" + column + "' in snapshot of entity '" + mEntity.name + "'");
+            }
+        }
+
+        List<String> keyColumns = new ArrayList<>();
+        List<String> valueColumns = new ArrayList<>();
+        for (SimpleContentProvider.EntityColumn column : mEntity.columns) {
+            if (columns.contains(column.name)) {
+                (isKeyColumn(column.name) ? keyColumns : valueColumns).add(column.name);
+            }
+        }
+
+        mDatabase.execSQL("CREATE INDEX temp." + mStagingName + "_key ON " + mStagingName + " (" + join(keyColumns, "") + ")");
+
+        String matchingRow = "SELECT 1 FROM " + mStagingTable + " AS s WHERE " + buildMatch("e");
+
+        // Update the rows with values that differ from the snapshot...
+        if (!valueColumns.isEmpty()) {
+            StringBuilder differs = new StringBuilder();
+            for (String column : valueColumns) {
+                differs.append(differs.length() == 0 ? "" : " OR ").append("(").append(buildPresent(column))
+                        .append(" AND e.").append(column).append(" IS NOT s.").append(column).append(")");
+            }
+            mDatabase.execSQL("INSERT INTO " + mChangedTable + " SELECT e." + mEntity.idColumn + ",0 FROM " + mEntity.name + " AS e JOIN "
+                    + mStagingTable + " AS s ON " + buildMatch("e") + " WHERE " + differs);
+
+            StringBuilder assignments = new StringBuilder();
+            for (String column : valueColumns) {
+                assignments.append(assignments.length() == 0 ? "" : ",").append(column).append("=(SELECT CASE WHEN ").append(buildPresent(column))
+                        .append(" THEN s.").append(column).append(" ELSE ").append(mEntity.name).append(".").append(column).append(" END")
+                        .append(" FROM ").append(mStagingTable).append(" AS s WHERE ").append(buildMatch(mEntity.name)).append(")");
+            }
+            mUpdatedRows = executeUpdateDelete("UPDATE " + mEntity.name + " SET " + assignments
+                    + " WHERE " + mEntity.idColumn + " IN (SELECT id FROM " + mChangedTable + ")");
+        }
+
+        // ...delete the rows missing from the snapshot...
+        if (deleteMissing) {
+            mDatabase.execSQL("INSERT INTO " + mChangedTable + " SELECT e." + mEntity.idColumn + ",1 FROM " + mEntity.name + " AS e WHERE NOT EXISTS (" + matchingRow + ")");
+            mDeletedRows = executeUpdateDelete("DELETE FROM " + mEntity.name
+                    + " WHERE " + mEntity.idColumn + " IN (SELECT id FROM " + mChangedTable + " WHERE deleted)");
+        }
+
+        // ...and insert the rows only in the snapshot...
+        List<String> insertedColumns = new ArrayList<>(keyColumns);
+        insertedColumns.addAll(valueColumns);
+        mInsertedRows = executeUpdateDelete("INSERT INTO " + mEntity.name + " (" + join(insertedColumns, "") + ") SELECT " + join(insertedColumns, "s.")
+                + " FROM " + mStagingTable + " AS s WHERE NOT EXISTS (SELECT 1 FROM " + mEntity.name + " AS e WHERE " + buildMatch("e") + ")");
+
+        mDatabase.execSQL("DROP TABLE IF EXISTS " + mStagingTable);
+    }
+
+    /**
+     * Returns the ids of the updated and deleted rows, or null if there are more than the given number.
+     */
+    long[] getChangedIds(int maxIds) {
+        Cursor cursor = mDatabase.rawQuery("SELECT id FROM " + mChangedTable + " LIMIT " + (maxIds + 1), null);
+        try {
+            if (cursor.getCount() > maxIds) {
+                return null;
+            }
+
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Drops the temporary tables of the merge, if they exist.
+     */
+    void dropTables() {
+        mDatabase.execSQL("DROP TABLE IF EXISTS " + mStagingTable);
+        mDatabase.execSQL("DROP TABLE IF EXISTS " + mChangedTable);
+    }
+
+    int getInsertedRows() {
+        return mInsertedRows;
+    }
+
+    int getUpdatedRows() {
+        return mUpdatedRows;
+    }
+
+    int getDeletedRows() {
+        return mDeletedRows;
+    }
+
+    private boolean isKeyColumn(String column) {
+        for (String keyColumn : mKeyColumns) {
+            if (keyColumn.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the condition that the row of the staging table has a value for the column.
+     */
+    private static String buildPresent(String column) {
+        return "(s." + PRESENT_COLUMNS + " IS NULL OR s." + PRESENT_COLUMNS + " GLOB '*," + column + ",*')";
+    }
+
+    private String buildMatch(String table) {
+        StringBuilder match = new StringBuilder();
+        for (String column : mKeyColumns) {
+            match.append(match.length() == 0 ? "" : " AND ").append("s.").append(column).append("=").append(table).append(".").append(column);
+        }
+        return match.toString();
+    }
+
+    private int executeUpdateDelete(String sql) {
+        SQLiteStatement statement = mDatabase.compileStatement(sql);
+        try {
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static String join(List<String> columns, String prefix) {
+        StringBuilder joined = new StringBuilder();
+        for (String column : columns) {
+            joined.append(joined.length() == 0 ? "" : ",").append(prefix).append(column);
+        }
+        return joined.toString();
+    }
+}
@@ -0,0 +1,286 @@
+package dk.simplecontentprovider;
+
+import android.database.CrossProcessCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Separates the work of the provider into an interactive and a background lane, so large
+ * background writes, such as the bulk inserts and batches of a sync, give way to queries
+ * the user is waiting for.
+ *
+ * The lane of a call is given by the priority query parameter of its Uri. Without it, queries
+ * are interactive, and writes are in the lane given by the priority of the calling thread.
+ * Binder threads run at the priority of the calling thread, so writes from background threads
+ * of other processes end up in the background lane as well.
+ *
+ * Writes in the background lane commit their transaction and let waiting readers use the
+ * database, whenever interactive queries are running. SQLite reads the rows of a cursor when
+ * it is first moved, often after query has returned, so an interactive query is running until
+ * the first window of its cursor has been filled, or the cursor is closed. A cursor that is
+ * never used, or leaked, stops counting as running after MAX_INTERACTIVE_QUERY_TIME, so
+ * background writes do not give way to it forever. The time queries take, and the time
+ * writes wait to begin their transaction, are tracked for each lane.
+ */
+class PriorityLanes {
+    static final int LANE_INTERACTIVE = 0;
+    static final int LANE_BACKGROUND = 1;
+
+    static final String[] STATISTICS_QUERIES = {"interactiveLaneQueries", "backgroundLaneQueries"};
+    static final String[] STATISTICS_QUERY_TIME = {"interactiveLaneQueryTime", "backgroundLaneQueryTime"};
+    static final String[] STATISTICS_MAX_QUERY_TIME = {"interactiveLaneMaxQueryTime", "backgroundLaneMaxQueryTime"};
+    static final String[] STATISTICS_TRANSACTIONS = {"interactiveLaneTransactions", "backgroundLaneTransactions"};
+    static final String[] STATISTICS_TRANSACTION_WAIT_TIME = {"interactiveLaneTransactionWaitTime", "backgroundLaneTransactionWaitTime"};
+    static final String[] STATISTICS_MAX_TRANSACTION_WAIT_TIME = {"interactiveLaneMaxTransactionWaitTime", "backgroundLaneMaxTransactionWaitTime"};
+    static final String STATISTICS_YIELDS = "backgroundLaneYields";
+
+    // The time after which an interactive query counts as ended, if its window is not filled...
+    static final long MAX_INTERACTIVE_QUERY_TIME = 5000;
+
+    private int mRunningInteractiveQueries;
+    private final List<InteractiveQueryCursor> mInteractiveQueryCursors = new ArrayList<>();
+
+    private final long[] mQueries = new long[2];
+    private final long[] mQueryTime = new long[2];
+    private final long[] mMaxQueryTime = new long[2];
+    private final long[] mTransactions = new long[2];
+    private final long[] mTransactionWaitTime = new long[2];
+    private final long[] mMaxTransactionWaitTime = new long[2];
+    private long mYields;
+
+    /**
+     * Returns the lane of a query with the given Uri. Queries without the priority query
+     * parameter are interactive, since a query on a background thread is often one the user
+     * is waiting for.
+     *
+     * @throws IllegalArgumentException if the priority query parameter is unknown
+     */
+    static int getQueryLane(Uri uri) {
+        return getLane(uri, false);
+    }
+
+    /**
+     * Returns the lane of a write with the given Uri. Writes without the priority query
+     * parameter are in the lane given by the priority of the calling thread.
+     *
+     * @throws IllegalArgumentException if the priority query parameter is unknown
+     */
+    static int getWriteLane(Uri uri) {
+        return getLane(uri, true);
+    }
+
+    private static int getLane(Uri uri, boolean write) {
+        String priority = uri.getQueryParameter(SimpleContentProvider.QUERY_PARAMETER_PRIORITY);
+        if (priority == null || priority.isEmpty()) {
+            if (!write) {
+                return LANE_INTERACTIVE;
+            }
+            return (Process.getThreadPriority(Process.myTid()) >= Process.THREAD_PRIORITY_BACKGROUND) ? LANE_BACKGROUND : LANE_INTERACTIVE;
+        } else if (SimpleContentProvider.PRIORITY_INTERACTIVE.equals(priority)) {
+            return LANE_INTERACTIVE;
+        } else if (SimpleContentProvider.PRIORITY_BACKGROUND.equals(priority)) {
+            return LANE_BACKGROUND;
+        }
+        throw new IllegalArgumentException("Unknown priority in Uri: " + uri);
+    }
+
+    synchronized void beginQuery(int lane) {
+        if (lane == LANE_INTERACTIVE) {
+            mRunningInteractiveQueries += 1;
+        }
+    }
+
+    synchronized void endQuery(int lane, long queryTime) {
+        if (lane == LANE_INTERACTIVE) {
+            mRunningInteractiveQueries -= 1;
+        }
+        mQueries[lane] += 1;
+        mQueryTime[lane] += queryTime;
+        mMaxQueryTime[lane] = Math.max(mMaxQueryTime[lane], queryTime);
+    }
+
+    /**
+     * Ends a query started with beginQuery, once its cursor has been returned. Interactive
+     * queries end when the first window of the cursor has been filled, or the cursor is
+     * closed, so the returned cursor wraps the cursor of the query. They end after
+     * MAX_INTERACTIVE_QUERY_TIME at the latest.
+     *
+     * @param start the time the query started, in elapsed realtime
+     * @return the cursor to return from the query
+     */
+    Cursor endQuery(int lane, long start, Cursor cursor) {
+        // Only cursors that can be sent to other processes can be wrapped without losing that...
+        if (lane == LANE_INTERACTIVE && cursor instanceof CrossProcessCursor) {
+            InteractiveQueryCursor interactiveQueryCursor = new InteractiveQueryCursor((CrossProcessCursor) cursor, start);
+            synchronized (this) {
+                mInteractiveQueryCursors.add(interactiveQueryCursor);
+            }
+            return interactiveQueryCursor;
+        }
+        endQuery(lane, SystemClock.elapsedRealtime() - start);
+        return cursor;
+    }
+
+    /**
+     * Returns true if interactive queries are running, which background writes should give way to.
+     */
+    synchronized boolean hasRunningInteractiveQueries() {
+        // End the queries whose cursors have not been used for too long...
+        long now = SystemClock.elapsedRealtime();
+        for (int i = mInteractiveQueryCursors.size() - 1; i >= 0; i--) {
+            InteractiveQueryCursor cursor = mInteractiveQueryCursors.get(i);
+            if (now - cursor.mStart >= MAX_INTERACTIVE_QUERY_TIME) {
+                cursor.end();
+            }
+        }
+        return mRunningInteractiveQueries > 0;
+    }
+
+    synchronized void recordTransaction(int lane, long waitTime) {
+        mTransactions[lane] += 1;
+        mTransactionWaitTime[lane] += waitTime;
+        mMaxTransactionWaitTime[lane] = Math.max(mMaxTransactionWaitTime[lane], waitTime);
+    }
+
+    synchronized void recordYield() {
+        mYields += 1;
+    }
+
+    synchronized void addStatistics(Bundle statistics) {
+        for (int lane = LANE_INTERACTIVE; lane <= LANE_BACKGROUND; lane++) {
+            statistics.putLong(STATISTICS_QUERIES[lane], mQueries[lane]);
+            statistics.putLong(STATISTICS_QUERY_TIME[lane], mQueryTime[lane]);
+            statistics.putLong(STATISTICS_MAX_QUERY_TIME[lane], mMaxQueryTime[lane]);
+            statistics.putLong(STATISTICS_TRANSACTIONS[lane], mTransactions[lane]);
+            statistics.putLong(STATISTICS_TRANSACTION_WAIT_TIME[lane], mTransactionWaitTime[lane]);
+            statistics.putLong(STATISTICS_MAX_TRANSACTION_WAIT_TIME[lane], mMaxTransactionWaitTime[lane]);
+        }
+        statistics.putLong(STATISTICS_YIELDS, mYields);
+    }
+
+    /**
+     * Keeps an interactive query running until the first window of its cursor has been
+     * filled, which is done by the first call moving the cursor or counting its rows, or
+     * until the cursor is closed, or MAX_INTERACTIVE_QUERY_TIME has passed.
+     */
+    private class InteractiveQueryCursor extends CursorWrapper implements CrossProcessCursor {
+        private final CrossProcessCursor mCrossProcessCursor;
+        private final long mStart;
+        private boolean mEnded;
+
+        InteractiveQueryCursor(CrossProcessCursor cursor, long start) {
+            super(cursor);
+            mCrossProcessCursor = cursor;
+            mStart = start;
+        }
+
+        private void end() {
+            synchronized (PriorityLanes.this) {
+                if (!mEnded) {
+                    mEnded = true;
+                    mInteractiveQueryCursors.remove(this);
+                    endQuery(LANE_INTERACTIVE, SystemClock.elapsedRealtime() - mStart);
+                }
+            }
+        }
+
+        @Override
+        public int getCount() {
+            try {
+                return super.getCount();
+            } finally {
+                end();
+            }
+        }
+
+        @Override
+        public boolean move(int offset) {
+            try {
+                return super.move(offset);
+            } finally {
+                end();
+            }
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            try {
+                return super.moveToPosition(position);
+            } finally {
+                end();
+            }
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            try {
+                return super.moveToFirst();
+            } finally {
+                end();
+            }
+        }
+
+        @Override
+        public boolean moveToLast() {
+            try {
+                return super.moveToLast();
+            } finally {
+                end();
+            }
+        }
+
+        @Override
+        public boolean moveToNext() {
+            try {
+                return super.moveToNext();
+            } finally {
+                end();
+            }
+        }
+
+        @Override
+        public boolean moveToPrevious() {
+            try {
+                return super.moveToPrevious();
+            } finally {
+                end();
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                super.close();
+            } finally {
+                end();
+            }
+        }
+
+        @Override
+        public CursorWindow getWindow() {
+            return mCrossProcessCursor.getWindow();
+        }
+
+        @Override
+        public void fillWindow(int position, CursorWindow window) {
+            try {
+                mCrossProcessCursor.fillWindow(position, window);
+            } finally {
+                end();
+            }
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            return mCrossProcessCursor.onMove(oldPosition, newPosition);
+        }
+    }
+}
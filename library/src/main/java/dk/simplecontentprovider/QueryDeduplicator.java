@@ -0,0 +1,156 @@
+package dk.simplecontentprovider;
+
+import android.database.Cursor;
+import android.os.Bundle;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Single-flight execution of identical queries.
+ *
+ * The first caller of a query executes it, and fills the first window of the cursor,
+ * so the rows are actually read from the database while identical queries can join. Callers arriving with an identical query while
+ * the first one is still executing wait for it to finish and share its result. The result
+ * is only copied into a CursorSnapshot if somebody is actually waiting for it, so queries
+ * without concurrent duplicates return the original cursor at no extra cost.
+ *
+ * If the shared result does not fit in a cursor window, or the first execution fails,
+ * the waiting callers execute the query themselves.
+ */
+class QueryDeduplicator {
+    static final String STATISTICS_EXECUTIONS = "deduplicationExecutions";
+    static final String STATISTICS_SHARED = "deduplicationShared";
+    static final String STATISTICS_FALLBACKS = "deduplicationFallbacks";
+
+    private final Map<QueryKey, Execution> mExecutions = new HashMap<>();
+
+    private long mExecutionCount;
+    private long mSharedCount;
+    private long mFallbackCount;
+
+    interface Query {
+        Cursor execute();
+    }
+
+    Cursor query(QueryKey key, Query query) {
+        Execution execution;
+        boolean shared;
+        synchronized (this) {
+            execution = mExecutions.get(key);
+            shared = (execution != null);
+            if (shared) {
+                execution.waiters += 1;
+            } else {
+                execution = new Execution();
+                mExecutions.put(key, execution);
+                mExecutionCount += 1;
+            }
+        }
+
+        if (shared) {
+            return awaitShared(execution, query);
+        } else {
+            return executeShared(key, execution, query);
+        }
+    }
+
+    private Cursor executeShared(QueryKey key, Execution execution, Query query) {
+        Cursor cursor = null;
+        int waiters;
+        try {
+            cursor = query.execute();
+
+            // The cursor is lazy, so run the query by filling its first window while
+            // identical queries can still join, rather than when the caller reads it...
+            if (cursor != null) {
+                try {
+                    cursor.getCount();
+                } catch (RuntimeException e) {
+                    cursor.close();
+                    cursor = null;
+                    throw e;
+                }
+            }
+        } finally {
+            // Remove the execution before publishing the result. Callers arriving
+            // from now on may have been notified of later changes, so they must
+            // not get this result...
+            synchronized (this) {
+                mExecutions.remove(key);
+                waiters = execution.waiters;
+            }
+
+            if (waiters > 0) {
+                CursorSnapshot snapshot = (cursor != null) ? CursorSnapshot.create(cursor, Long.MAX_VALUE) : null;
+                if (snapshot != null) {
+                    for (int i = 0; i < waiters; i++) {
+                        execution.results.add(snapshot.newCursor());
+                    }
+
+                    cursor.close();
+                    cursor = snapshot.newCursor();
+                    snapshot.release();
+                }
+            }
+
+            execution.complete();
+        }
+
+        return cursor;
+    }
+
+    private Cursor awaitShared(Execution execution, Query query) {
+        Cursor cursor = execution.await();
+        if (cursor != null) {
+            synchronized (this) {
+                mSharedCount += 1;
+            }
+            return cursor;
+        }
+
+        synchronized (this) {
+            mFallbackCount += 1;
+        }
+        return query.execute();
+    }
+
+    synchronized void addStatistics(Bundle statistics) {
+        statistics.putLong(STATISTICS_EXECUTIONS, mExecutionCount);
+        statistics.putLong(STATISTICS_SHARED, mSharedCount);
+        statistics.putLong(STATISTICS_FALLBACKS, mFallbackCount);
+    }
+
+    private static class Execution {
+        final ArrayDeque<Cursor> results = new ArrayDeque<>();
+        int waiters;
+        boolean completed;
+
+        synchronized void complete() {
+            completed = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the execution to complete, and returns a cursor on the shared
+         * result, or null if the result could not be shared.
+         */
+        synchronized Cursor await() {
+            boolean interrupted = false;
+            while (!completed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            return results.poll();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package dk.simplecontentprovider;
+
+import android.net.Uri;
+
+import java.util.Arrays;
+
+/**
+ * Identifies a query by its Uri, projection, selection, selection arguments and sort order.
+ * The Uri includes the id of item queries as well as the limit and offset query parameters.
+ */
+class QueryKey {
+    private final String uri;
+    private final String[] projection;
+    private final String selection;
+    private final String[] selectionArgs;
+    private final String sortOrder;
+
+    QueryKey(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        this.uri = uri.toString();
+        this.projection = projection;
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+        this.sortOrder = sortOrder;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof QueryKey)) {
+            return false;
+        }
+
+        QueryKey other = (QueryKey) o;
+        return uri.equals(other.uri) &&
+                Arrays.equals(projection, other.projection) &&
+                equals(selection, other.selection) &&
+                Arrays.equals(selectionArgs, other.selectionArgs) &&
+                equals(sortOrder, other.sortOrder);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = uri.hashCode();
+        hash = 31 * hash + Arrays.hashCode(projection);
+        hash = 31 * hash + (selection != null ? selection.hashCode() : 0);
+        hash = 31 * hash + Arrays.hashCode(selectionArgs);
+        hash = 31 * hash + (sortOrder != null ? sortOrder.hashCode() : 0);
+        return hash;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,169 @@
+package dk.simplecontentprovider;
+
+import android.database.Cursor;
+import android.os.Bundle;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Byte bounded LRU cache of query results, keyed by the Uri, projection, selection,
+ * selection arguments and sort order of the query.
+ *
+ * Results are stored as immutable CursorSnapshots, so every hit returns a cheap
+ * cursor sharing the window of the cached result. Each result is tagged with the
+ * name of the entity or view it was queried from, and is invalidated by name.
+ * Like RowCache, a generation counter per name is used to avoid caching
+ * results read concurrently with a write.
+ */
+class QueryResultCache {
+    static final String STATISTICS_HITS = "resultCacheHits";
+    static final String STATISTICS_MISSES = "resultCacheMisses";
+    static final String STATISTICS_EVICTIONS = "resultCacheEvictions";
+    static final String STATISTICS_INVALIDATIONS = "resultCacheInvalidations";
+    static final String STATISTICS_UNCACHEABLE = "resultCacheUncacheable";
+    static final String STATISTICS_ENTRIES = "resultCacheEntries";
+    static final String STATISTICS_BYTES = "resultCacheBytes";
+    static final String STATISTICS_MEMORY_BUDGET = "resultCacheMemoryBudget";
+
+    private final LinkedHashMap<QueryKey, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> mGenerations = new HashMap<>();
+    private long mMemoryBudget;
+    private long mBytes;
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+    private long mInvalidations;
+    private long mUncacheable;
+
+    QueryResultCache(long memoryBudget) {
+        mMemoryBudget = memoryBudget;
+    }
+
+    synchronized void setMemoryBudget(long memoryBudget) {
+        mMemoryBudget = memoryBudget;
+        trimToBudget();
+    }
+
+    /**
+     * Returns a new cursor on the cached result for the key, or null if the result is not cached.
+     */
+    synchronized Cursor get(QueryKey key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMisses += 1;
+            return null;
+        }
+
+        mHits += 1;
+        return entry.snapshot.newCursor();
+    }
+
+    synchronized long getGeneration(String name) {
+        Long generation = mGenerations.get(name);
+        return generation == null ? 0 : generation;
+    }
+
+    /**
+     * Caches the result of the cursor, if it is small enough and the entity or view has not
+     * been invalidated since the given generation was fetched. Returns the cursor to hand
+     * to the caller - either a cursor on the cached result, in which case the given cursor
+     * is closed, or the given cursor itself.
+     */
+    Cursor put(QueryKey key, String name, long generation, Cursor cursor) {
+        // Results larger than a quarter of the budget would evict too many other results...
+        CursorSnapshot snapshot = CursorSnapshot.create(cursor, getMemoryBudget() / 4);
+        if (snapshot == null) {
+            synchronized (this) {
+                mUncacheable += 1;
+            }
+            return cursor;
+        }
+
+        cursor.close();
+        Cursor result = snapshot.newCursor();
+
+        synchronized (this) {
+            if (generation != getGeneration(name)) {
+                snapshot.release();
+                return result;
+            }
+
+            Entry previous = mEntries.put(key, new Entry(name, snapshot));
+            if (previous != null) {
+                removed(previous);
+            }
+            mBytes += snapshot.getSize();
+            trimToBudget();
+        }
+
+        return result;
+    }
+
+    synchronized void invalidate(String name) {
+        mGenerations.put(name, getGeneration(name) + 1);
+
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.name.equals(name)) {
+                iterator.remove();
+                removed(entry);
+                mInvalidations += 1;
+            }
+        }
+    }
+
+    synchronized void clear() {
+        for (Entry entry : mEntries.values()) {
+            mGenerations.put(entry.name, getGeneration(entry.name) + 1);
+            removed(entry);
+        }
+
+        mEvictions += mEntries.size();
+        mEntries.clear();
+    }
+
+    synchronized void addStatistics(Bundle statistics) {
+        statistics.putLong(STATISTICS_HITS, mHits);
+        statistics.putLong(STATISTICS_MISSES, mMisses);
+        statistics.putLong(STATISTICS_EVICTIONS, mEvictions);
+        statistics.putLong(STATISTICS_INVALIDATIONS, mInvalidations);
+        statistics.putLong(STATISTICS_UNCACHEABLE, mUncacheable);
+        statistics.putInt(STATISTICS_ENTRIES, mEntries.size());
+        statistics.putLong(STATISTICS_BYTES, mBytes);
+        statistics.putLong(STATISTICS_MEMORY_BUDGET, mMemoryBudget);
+    }
+
+    private synchronized long getMemoryBudget() {
+        return mMemoryBudget;
+    }
+
+    private void trimToBudget() {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mBytes > mMemoryBudget && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            removed(eldest);
+            mEvictions += 1;
+        }
+    }
+
+    private void removed(Entry entry) {
+        mBytes -= entry.snapshot.getSize();
+        entry.snapshot.release();
+    }
+
+    private static class Entry {
+        final String name;
+        final CursorSnapshot snapshot;
+
+        Entry(String name, CursorSnapshot snapshot) {
+            this.name = name;
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package dk.simplecontentprovider;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps entities with a maximum number of rows or bytes under their limits by evicting
+ * the oldest rows after inserts.
+ *
+ * Counting the rows of a table is expensive, so the number of rows of each entity is
+ * estimated from the number of inserted rows, and only counted when the entity is first
+ * used and after evictions that found nothing to delete. When the estimate exceeds the
+ * limit, the oldest rows are deleted in a single statement, leaving room for a tenth of
+ * the limit before the next eviction.
+ *
+ * A byte budget is converted into a number of rows using the average size of the newest
+ * rows, which is measured again at every eviction.
+ */
+class RingBuffer {
+    static final String STATISTICS_EVICTIONS = "ringBufferEvictions";
+    static final String STATISTICS_EVICTED_ROWS = "ringBufferEvictedRows";
+
+    private static final int SAMPLED_ROWS = 256;
+
+    private final Map<String, Long> mEstimatedRows = new HashMap<>();
+    private final Map<String, Double> mAverageRowSizes = new HashMap<>();
+
+    private long mEvictions;
+    private long mEvictedRows;
+
+    /**
+     * Evicts the oldest rows of the entity, if the inserted rows make it exceed its limit.
+     *
+     * @param db the database of the entity
+     * @param entity the entity the rows were inserted into
+     * @param insertedRows the number of inserted rows
+     * @return the number of evicted rows
+     */
+    int afterInsert(SQLiteDatabase db, SimpleContentProvider.Entity entity, int insertedRows) {
+        Long estimatedRows;
+        synchronized (this) {
+            estimatedRows = mEstimatedRows.get(entity.name);
+        }
+
+        if (estimatedRows == null) {
+            estimatedRows = DatabaseUtils.queryNumEntries(db, entity.name);
+        } else {
+            estimatedRows += insertedRows;
+        }
+
+        long maxRows = getMaxRows(db, entity);
+        if (estimatedRows <= maxRows) {
+            synchronized (this) {
+                mEstimatedRows.put(entity.name, estimatedRows);
+            }
+            return 0;
+        }
+
+        // Keep the newest rows and leave room for inserting a tenth of the limit before the next eviction...
+        long keptRows = maxRows - Math.max(1, maxRows / 10);
+        String orderBy = "rowid".equalsIgnoreCase(entity.evictionOrderColumn) ? "rowid DESC" : entity.evictionOrderColumn + " DESC, rowid DESC";
+        SQLiteStatement statement = db.compileStatement(
+                "DELETE FROM " + entity.name + " WHERE rowid IN " +
+                "(SELECT rowid FROM " + entity.name + " ORDER BY " + orderBy + " LIMIT -1 OFFSET " + keptRows + ")");
+        int evictedRows;
+        try {
+            evictedRows = statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+
+        // If nothing was evicted, the estimate was off because of deletes, so count the rows instead...
+        long remainingRows = (evictedRows > 0) ? keptRows : DatabaseUtils.queryNumEntries(db, entity.name);
+
+        synchronized (this) {
+            mEstimatedRows.put(entity.name, remainingRows);
+            mAverageRowSizes.remove(entity.name);
+            if (evictedRows > 0) {
+                mEvictions += 1;
+                mEvictedRows += evictedRows;
+            }
+        }
+
+        return evictedRows;
+    }
+
+    /**
+     * Forgets the estimated number of rows of the entity, after its rows have been replaced.
+     */
+    synchronized void reset(SimpleContentProvider.Entity entity) {
+        mEstimatedRows.remove(entity.name);
+        mAverageRowSizes.remove(entity.name);
+    }
+
+    synchronized void addStatistics(Bundle statistics) {
+        statistics.putLong(STATISTICS_EVICTIONS, mEvictions);
+        statistics.putLong(STATISTICS_EVICTED_ROWS, mEvictedRows);
+    }
+
+    /**
+     * Returns the maximum number of rows of the entity, taking its byte budget into account.
+     */
+    private long getMaxRows(SQLiteDatabase db, SimpleContentProvider.Entity entity) {
+        long maxRows = (entity.maxRows > 0) ? entity.maxRows : Long.MAX_VALUE;
+        if (entity.maxBytes <= 0) {
+            return maxRows;
+        }
+
+        Double averageRowSize;
+        synchronized (this) {
+            averageRowSize = mAverageRowSizes.get(entity.name);
+        }
+
+        if (averageRowSize == null) {
+            averageRowSize = measureAverageRowSize(db, entity);
+            synchronized (this) {
+                mAverageRowSizes.put(entity.name, averageRowSize);
+            }
+        }
+
+        if (averageRowSize <= 0) {
+            return maxRows;
+        }
+
+        return Math.min(maxRows, Math.max(1, (long) (entity.maxBytes / averageRowSize)));
+    }
+
+    private double measureAverageRowSize(SQLiteDatabase db, SimpleContentProvider.Entity entity) {
+        String size = null;
+        String columns = null;
+        for (SimpleContentProvider.EntityColumn column : entity.columns) {
+            String columnSize = "ifnull(length(CAST(" + column.name + " AS BLOB)),0)";
+            size = (size == null) ? columnSize : size + "+" + columnSize;
+            columns = (columns == null) ? column.name : columns + "," + column.name;
+        }
+
+        String average = DatabaseUtils.stringForQuery(db,
+                "SELECT avg(" + size + ") FROM " +
+                "(SELECT " + columns + " FROM " + entity.name + " ORDER BY " + entity.evictionOrderColumn + " DESC LIMIT " + SAMPLED_ROWS + ")",
+                null);
+        return (average == null) ? 0 : Double.parseDouble(average);
+    }
+}
@@ -0,0 +1,303 @@
+package dk.simplecontentprovider;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Size-bounded LRU cache of complete entity rows keyed by entity name and id.
+ *
+ * Each entity has its own maximum number of cached rows, while all entities
+ * share a common memory budget. When either limit is exceeded, the least
+ * recently used rows are evicted.
+ *
+ * Invalidation uses a generation counter per entity. A reader must fetch the
+ * generation before reading a row from the database and pass it to put, so
+ * that a row read concurrently with a write is never cached after the write
+ * has invalidated the entity.
+ */
+class RowCache {
+    static final String STATISTICS_HITS = "rowCacheHits";
+    static final String STATISTICS_MISSES = "rowCacheMisses";
+    static final String STATISTICS_EVICTIONS = "rowCacheEvictions";
+    static final String STATISTICS_INVALIDATIONS = "rowCacheInvalidations";
+    static final String STATISTICS_ROWS = "rowCacheRows";
+    static final String STATISTICS_BYTES = "rowCacheBytes";
+    static final String STATISTICS_MEMORY_BUDGET = "rowCacheMemoryBudget";
+
+    private static final Pattern PLAIN_COLUMN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final LinkedHashMap<Key, Row> mRows = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Integer> mRowCounts = new HashMap<>();
+    private final Map<String, Long> mGenerations = new HashMap<>();
+    private long mMemoryBudget;
+    private long mBytes;
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+    private long mInvalidations;
+
+    RowCache(long memoryBudget) {
+        mMemoryBudget = memoryBudget;
+    }
+
+    synchronized void setMemoryBudget(long memoryBudget) {
+        mMemoryBudget = memoryBudget;
+        trimToBudget();
+    }
+
+    synchronized Row get(String entityName, long id) {
+        Row row = mRows.get(new Key(entityName, id));
+        if (row != null) {
+            mHits += 1;
+        } else {
+            mMisses += 1;
+        }
+        return row;
+    }
+
+    synchronized long getGeneration(String entityName) {
+        Long generation = mGenerations.get(entityName);
+        return generation == null ? 0 : generation;
+    }
+
+    synchronized void put(String entityName, long id, Row row, int maxRows, long generation) {
+        if (generation != getGeneration(entityName) || row.size > mMemoryBudget) {
+            return;
+        }
+
+        Key key = new Key(entityName, id);
+        Row previous = mRows.put(key, row);
+        if (previous != null) {
+            mBytes -= previous.size;
+        } else {
+            mRowCounts.put(entityName, getRowCount(entityName) + 1);
+        }
+        mBytes += row.size;
+
+        // Evict the least recently used rows of the entity, if the entity exceeds its maximum...
+        Iterator<Map.Entry<Key, Row>> iterator = mRows.entrySet().iterator();
+        while (getRowCount(entityName) > maxRows && iterator.hasNext()) {
+            Map.Entry<Key, Row> eldest = iterator.next();
+            if (eldest.getKey().entityName.equals(entityName)) {
+                iterator.remove();
+                removed(eldest.getKey(), eldest.getValue());
+                mEvictions += 1;
+            }
+        }
+
+        trimToBudget();
+    }
+
+    synchronized void invalidate(String entityName, long id) {
+        bumpGeneration(entityName);
+
+        Key key = new Key(entityName, id);
+        Row row = mRows.remove(key);
+        if (row != null) {
+            removed(key, row);
+            mInvalidations += 1;
+        }
+    }
+
+    synchronized void invalidate(String entityName) {
+        bumpGeneration(entityName);
+
+        if (getRowCount(entityName) == 0) {
+            return;
+        }
+
+        Iterator<Map.Entry<Key, Row>> iterator = mRows.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Row> entry = iterator.next();
+            if (entry.getKey().entityName.equals(entityName)) {
+                iterator.remove();
+                removed(entry.getKey(), entry.getValue());
+                mInvalidations += 1;
+            }
+        }
+    }
+
+    synchronized void clear() {
+        for (String entityName : mRowCounts.keySet()) {
+            bumpGeneration(entityName);
+        }
+
+        mEvictions += mRows.size();
+        mRows.clear();
+        mRowCounts.clear();
+        mBytes = 0;
+    }
+
+    synchronized void addStatistics(Bundle statistics) {
+        statistics.putLong(STATISTICS_HITS, mHits);
+        statistics.putLong(STATISTICS_MISSES, mMisses);
+        statistics.putLong(STATISTICS_EVICTIONS, mEvictions);
+        statistics.putLong(STATISTICS_INVALIDATIONS, mInvalidations);
+        statistics.putInt(STATISTICS_ROWS, mRows.size());
+        statistics.putLong(STATISTICS_BYTES, mBytes);
+        statistics.putLong(STATISTICS_MEMORY_BUDGET, mMemoryBudget);
+    }
+
+    /**
+     * Returns true if every column in the projection can be served from a cached row,
+     * that is, if the projection is null or only contains plain column names.
+     */
+    static boolean canServe(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+
+        for (String column : projection) {
+            if (column == null || !PLAIN_COLUMN.matcher(column).matches()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void trimToBudget() {
+        Iterator<Map.Entry<Key, Row>> iterator = mRows.entrySet().iterator();
+        while (mBytes > mMemoryBudget && iterator.hasNext()) {
+            Map.Entry<Key, Row> eldest = iterator.next();
+            iterator.remove();
+            removed(eldest.getKey(), eldest.getValue());
+            mEvictions += 1;
+        }
+    }
+
+    private void removed(Key key, Row row) {
+        mBytes -= row.size;
+        int count = getRowCount(key.entityName) - 1;
+        if (count > 0) {
+            mRowCounts.put(key.entityName, count);
+        } else {
+            mRowCounts.remove(key.entityName);
+        }
+    }
+
+    private int getRowCount(String entityName) {
+        Integer count = mRowCounts.get(entityName);
+        return count == null ? 0 : count;
+    }
+
+    private void bumpGeneration(String entityName) {
+        mGenerations.put(entityName, getGeneration(entityName) + 1);
+    }
+
+    private static class Key {
+        final String entityName;
+        final long id;
+
+        Key(String entityName, long id) {
+            this.entityName = entityName;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return id == other.id && entityName.equals(other.entityName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * entityName.hashCode() + (int) (id ^ (id >>> 32));
+        }
+    }
+
+    static class Row {
+        final String[] columns;
+        final Object[] values;
+        final int size;
+
+        private Row(String[] columns, Object[] values, int size) {
+            this.columns = columns;
+            this.values = values;
+            this.size = size;
+        }
+
+        /**
+         * Copies the current row of the cursor.
+         */
+        static Row fromCursor(Cursor cursor) {
+            String[] columns = cursor.getColumnNames();
+            Object[] values = new Object[columns.length];
+            int size = 32 + 8 * columns.length;
+
+            for (int i = 0; i < columns.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        values[i] = null;
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        values[i] = cursor.getLong(i);
+                        size += 16;
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        values[i] = cursor.getDouble(i);
+                        size += 16;
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        byte[] blob = cursor.getBlob(i);
+                        values[i] = blob;
+                        size += 16 + blob.length;
+                        break;
+                    default:
+                        String string = cursor.getString(i);
+                        values[i] = string;
+                        size += 40 + 2 * string.length();
+                        break;
+                }
+            }
+
+            return new Row(columns, values, size);
+        }
+
+        /**
+         * Creates a single row cursor with the given projection,
+         * or returns null if the projection contains unknown columns.
+         */
+        Cursor toCursor(String[] projection) {
+            if (projection == null) {
+                MatrixCursor cursor = new MatrixCursor(columns, 1);
+                cursor.addRow(values);
+                return cursor;
+            }
+
+            Object[] projected = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                int index = indexOf(projection[i]);
+                if (index == -1) {
+                    return null;
+                }
+                projected[i] = values[index];
+            }
+
+            MatrixCursor cursor = new MatrixCursor(projection, 1);
+            cursor.addRow(projected);
+            return cursor;
+        }
+
+        private int indexOf(String column) {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equalsIgnoreCase(column)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
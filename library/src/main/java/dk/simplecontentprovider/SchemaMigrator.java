@@ -0,0 +1,348 @@
+package dk.simplecontentprovider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Migrates the tables of a database to the entities of a provider without dropping data.
+ *
+ * The definitions of the entities are stored in a schema table whenever the database is
+ * created or migrated. On upgrade, the stored definitions are compared with the current
+ * entities and the tables are changed accordingly:
+ *
+ * - New entities are created, and tables of removed entities are dropped.
+ * - Columns appended to an entity are added with ALTER TABLE ADD COLUMN, if possible.
+ * - Other changes to columns or constraints are applied by copying the rows into a new
+ *   table in a single pass and swapping it with the old table.
+ * - Indexes are dropped and created as needed.
+ *
+ * Databases created before the schema table was introduced have no stored definitions.
+ * For those, the columns of the existing tables are used and the definitions of the
+ * columns and constraints are assumed to be unchanged.
+ *
+ * The migration must run in a transaction with foreign key constraints disabled,
+ * which is the case for SimpleDatabaseHelper.onUpgrade.
+ */
+class SchemaMigrator {
+    static final String SCHEMA_TABLE = "simple_content_provider_schema";
+
+    private static final String TYPE_COLUMN = "column";
+    private static final String TYPE_CONSTRAINT = "constraint";
+    private static final String TYPE_INDEX = "index";
+    private static final String TYPE_TRIGGER = "trigger";
+
+    private static final String MIGRATION_TABLE_SUFFIX = "__migration";
+
+    private final SQLiteDatabase mDatabase;
+    private final Map<String, StoredEntity> mStoredEntities = new HashMap<>();
+    private final List<String> mStoredTriggers = new ArrayList<>();
+    private boolean mDefinitionsStored;
+
+    SchemaMigrator(SQLiteDatabase db) {
+        mDatabase = db;
+    }
+
+    /**
+     * Reads the stored schema, or the schema of the existing tables if no schema is stored.
+     */
+    void readSchema(List<SimpleContentProvider.Entity> entities) {
+        mDefinitionsStored = tableExists(SCHEMA_TABLE);
+        if (mDefinitionsStored) {
+            Cursor cursor = mDatabase.query(SCHEMA_TABLE, new String[]{"entity", "type", "name", "definition"}, null, null, null, null, "position");
+            try {
+                while (cursor.moveToNext()) {
+                    String entityName = cursor.getString(0);
+                    String type = cursor.getString(1);
+                    String name = cursor.getString(2);
+                    String definition = cursor.getString(3);
+
+                    if (TYPE_TRIGGER.equals(type)) {
+                        mStoredTriggers.add(name);
+                        continue;
+                    }
+
+                    StoredEntity storedEntity = mStoredEntities.get(entityName);
+                    if (storedEntity == null) {
+                        storedEntity = new StoredEntity();
+                        mStoredEntities.put(entityName, storedEntity);
+                    }
+
+                    if (TYPE_COLUMN.equals(type)) {
+                        storedEntity.columnNames.add(name);
+                        storedEntity.columnDefinitions.add(definition);
+                    } else if (TYPE_CONSTRAINT.equals(type)) {
+                        storedEntity.constraints.add(definition);
+                    } else if (TYPE_INDEX.equals(type)) {
+                        storedEntity.indexes.put(name, definition);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } else {
+            for (SimpleContentProvider.Entity entity : entities) {
+                if (tableExists(entity.name)) {
+                    StoredEntity storedEntity = new StoredEntity();
+                    storedEntity.columnNames.addAll(getColumnNames(entity.name));
+                    mStoredEntities.put(entity.name, storedEntity);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the triggers in the stored schema, as well as the given triggers. Triggers must be
+     * dropped before migrating, since triggers referring to a table being swapped would
+     * otherwise break the swap.
+     */
+    void dropTriggers(List<String> triggerNames) {
+        Set<String> names = new HashSet<>(mStoredTriggers);
+        names.addAll(triggerNames);
+        for (String name : names) {
+            mDatabase.execSQL("DROP TRIGGER IF EXISTS " + name);
+        }
+    }
+
+    /**
+     * Migrates the tables to the given entities.
+     */
+    void migrate(List<SimpleContentProvider.Entity> entities) {
+        Set<String> entityNames = new HashSet<>();
+
+        for (SimpleContentProvider.Entity entity : entities) {
+            entityNames.add(entity.name);
+
+            StoredEntity storedEntity = mStoredEntities.get(entity.name);
+            if (storedEntity == null || !tableExists(entity.name)) {
+                createTable(entity);
+            } else if (canAddColumns(storedEntity, entity)) {
+                addColumns(storedEntity, entity);
+                migrateIndexes(storedEntity, entity);
+            } else {
+                copyAndSwapTable(storedEntity, entity);
+            }
+        }
+
+        // Drop the tables of entities that no longer exist...
+        for (String storedEntityName : mStoredEntities.keySet()) {
+            if (!entityNames.contains(storedEntityName)) {
+                mDatabase.execSQL("DROP TABLE IF EXISTS " + storedEntityName);
+            }
+        }
+    }
+
+    /**
+     * Stores the schema of the given entities and triggers, replacing any previously stored schema.
+     */
+    void storeSchema(List<SimpleContentProvider.Entity> entities, List<String> triggerNames) {
+        storeSchema(mDatabase, entities, triggerNames);
+    }
+
+    static void storeSchema(SQLiteDatabase db, List<SimpleContentProvider.Entity> entities, List<String> triggerNames) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + SCHEMA_TABLE + " (entity TEXT, type TEXT NOT NULL, name TEXT, definition TEXT, position INTEGER NOT NULL)");
+        db.delete(SCHEMA_TABLE, null, null);
+
+        int position = 0;
+        for (SimpleContentProvider.Entity entity : entities) {
+            for (SimpleContentProvider.EntityColumn column : entity.columns) {
+                insertSchemaRow(db, entity.name, TYPE_COLUMN, column.name, column.definition, position++);
+            }
+
+            for (String constraint : entity.constraints) {
+                insertSchemaRow(db, entity.name, TYPE_CONSTRAINT, null, constraint, position++);
+            }
+
+            for (SimpleContentProvider.EntityIndex index : entity.indexes) {
+                insertSchemaRow(db, entity.name, TYPE_INDEX, index.name, index.buildCreateIndexSql(entity.name), position++);
+            }
+        }
+
+        for (String triggerName : triggerNames) {
+            insertSchemaRow(db, null, TYPE_TRIGGER, triggerName, null, position++);
+        }
+    }
+
+    /**
+     * Verifies that the migrated tables do not violate any foreign key constraints.
+     *
+     * @throws SQLiteConstraintException if a foreign key constraint is violated
+     */
+    void checkForeignKeys() {
+        Cursor cursor = mDatabase.rawQuery("PRAGMA foreign_key_check", null);
+        try {
+            if (cursor.moveToFirst()) {
+                throw new SQLiteConstraintException("Foreign key constraint violated in table '" + cursor.getString(0) + "' after migrating the database");
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void insertSchemaRow(SQLiteDatabase db, String entityName, String type, String name, String definition, int position) {
+        ContentValues values = new ContentValues();
+        values.put("entity", entityName);
+        values.put("type", type);
+        values.put("name", name);
+        values.put("definition", definition);
+        values.put("position", position);
+        db.insertOrThrow(SCHEMA_TABLE, null, values);
+    }
+
+    private void createTable(SimpleContentProvider.Entity entity) {
+        mDatabase.execSQL(entity.buildCreateTableSql(entity.name));
+        for (SimpleContentProvider.EntityIndex index : entity.indexes) {
+            mDatabase.execSQL(index.buildCreateIndexSql(entity.name));
+        }
+    }
+
+    /**
+     * Returns true if the stored columns of the entity are unchanged, apart from new columns
+     * that can be appended using ALTER TABLE ADD COLUMN, and the constraints are unchanged.
+     */
+    private boolean canAddColumns(StoredEntity storedEntity, SimpleContentProvider.Entity entity) {
+        if (mDefinitionsStored && !storedEntity.constraints.equals(entity.constraints)) {
+            return false;
+        }
+
+        if (storedEntity.columnNames.size() > entity.columns.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < entity.columns.size(); i++) {
+            SimpleContentProvider.EntityColumn column = entity.columns.get(i);
+            if (i < storedEntity.columnNames.size()) {
+                if (!storedEntity.columnNames.get(i).equalsIgnoreCase(column.name)) {
+                    return false;
+                }
+
+                if (mDefinitionsStored && !storedEntity.columnDefinitions.get(i).equals(column.definition)) {
+                    return false;
+                }
+            } else if (!canAddColumn(column.definition)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns true if a column with the given definition can be added using ALTER TABLE ADD COLUMN.
+     * See the SQLite documentation for the restrictions on such columns.
+     */
+    private static boolean canAddColumn(String definition) {
+        String upperCaseDefinition = definition.toUpperCase(Locale.US);
+        if (upperCaseDefinition.contains("PRIMARY KEY") || upperCaseDefinition.contains("UNIQUE")) {
+            return false;
+        }
+
+        if (upperCaseDefinition.contains("CURRENT_TIME") || upperCaseDefinition.contains("CURRENT_DATE") || upperCaseDefinition.matches(".*DEFAULT\\s*\\(.*")) {
+            return false;
+        }
+
+        return !upperCaseDefinition.contains("NOT NULL") || upperCaseDefinition.contains("DEFAULT");
+    }
+
+    private void addColumns(StoredEntity storedEntity, SimpleContentProvider.Entity entity) {
+        for (int i = storedEntity.columnNames.size(); i < entity.columns.size(); i++) {
+            SimpleContentProvider.EntityColumn column = entity.columns.get(i);
+            mDatabase.execSQL("ALTER TABLE " + entity.name + " ADD COLUMN " + column.name + " " + column.definition);
+        }
+    }
+
+    private void migrateIndexes(StoredEntity storedEntity, SimpleContentProvider.Entity entity) {
+        Map<String, String> indexes = new HashMap<>();
+        for (SimpleContentProvider.EntityIndex index : entity.indexes) {
+            indexes.put(index.name, index.buildCreateIndexSql(entity.name));
+        }
+
+        // Drop removed or changed indexes, which may have the shadow name after a rebuild...
+        for (Map.Entry<String, String> storedIndex : storedEntity.indexes.entrySet()) {
+            if (!storedIndex.getValue().equals(indexes.get(storedIndex.getKey()))) {
+                mDatabase.execSQL("DROP INDEX IF EXISTS " + storedIndex.getKey());
+                mDatabase.execSQL("DROP INDEX IF EXISTS " + storedIndex.getKey() + ShadowRebuild.SHADOW_SUFFIX);
+            }
+        }
+
+        // Create new or changed indexes...
+        for (SimpleContentProvider.EntityIndex index : entity.indexes) {
+            String sql = index.buildCreateIndexSql(entity.name);
+            if (!sql.equals(storedEntity.indexes.get(index.name))) {
+                mDatabase.execSQL(sql);
+            }
+        }
+    }
+
+    /**
+     * Copies the rows of the existing table into a new table with the current definition of the
+     * entity, in a single pass, and replaces the existing table with the new table. Only columns
+     * existing in both tables are copied. Indexes are dropped with the existing table and
+     * created on the new table.
+     */
+    private void copyAndSwapTable(StoredEntity storedEntity, SimpleContentProvider.Entity entity) {
+        String migrationTable = entity.name + MIGRATION_TABLE_SUFFIX;
+        mDatabase.execSQL("DROP TABLE IF EXISTS " + migrationTable);
+        mDatabase.execSQL(entity.buildCreateTableSql(migrationTable));
+
+        String commonColumns = null;
+        for (SimpleContentProvider.EntityColumn column : entity.columns) {
+            for (String storedColumnName : storedEntity.columnNames) {
+                if (storedColumnName.equalsIgnoreCase(column.name)) {
+                    commonColumns = (commonColumns == null) ? column.name : commonColumns + "," + column.name;
+                    break;
+                }
+            }
+        }
+
+        if (commonColumns != null) {
+            mDatabase.execSQL("INSERT INTO " + migrationTable + " (" + commonColumns + ") SELECT " + commonColumns + " FROM " + entity.name);
+        }
+
+        mDatabase.execSQL("DROP TABLE " + entity.name);
+        mDatabase.execSQL("ALTER TABLE " + migrationTable + " RENAME TO " + entity.name);
+
+        for (SimpleContentProvider.EntityIndex index : entity.indexes) {
+            mDatabase.execSQL(index.buildCreateIndexSql(entity.name));
+        }
+    }
+
+    private boolean tableExists(String tableName) {
+        Cursor cursor = mDatabase.rawQuery("SELECT 1 FROM sqlite_master WHERE type='table' AND name=?", new String[]{tableName});
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private List<String> getColumnNames(String tableName) {
+        List<String> columnNames = new ArrayList<>();
+        Cursor cursor = mDatabase.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columnNames.add(cursor.getString(nameIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columnNames;
+    }
+
+    private static class StoredEntity {
+        final List<String> columnNames = new ArrayList<>();
+        final List<String> columnDefinitions = new ArrayList<>();
+        final List<String> constraints = new ArrayList<>();
+        final Map<String, String> indexes = new HashMap<>();
+    }
+}
@@ -0,0 +1,77 @@
+package dk.simplecontentprovider;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Rebuilds an entity from scratch in a shadow table, while readers and writers keep using the
+ * live table of the entity. When the shadow table has been filled and indexed, it replaces the
+ * live table in a short transaction that drops the live table and renames the shadow table, so
+ * readers see either all of the old rows or all of the new rows.
+ *
+ * SQLite cannot rename indexes, so the indexes of the shadow table alternate between the names
+ * of the entity indexes and the same names with SHADOW_SUFFIX, whichever are not in use by the
+ * live table.
+ */
+class ShadowRebuild {
+    static final String SHADOW_SUFFIX = "__shadow";
+
+    private final SQLiteDatabase mDatabase;
+    private final SimpleContentProvider.Entity mEntity;
+    private final String mShadowTable;
+
+    ShadowRebuild(SQLiteDatabase db, SimpleContentProvider.Entity entity) {
+        mDatabase = db;
+        mEntity = entity;
+        mShadowTable = entity.name + SHADOW_SUFFIX;
+    }
+
+    /**
+     * Creates the empty shadow table, replacing any shadow table left by an interrupted rebuild.
+     */
+    String createShadowTable() {
+        mDatabase.execSQL("DROP TABLE IF EXISTS " + mShadowTable);
+        mDatabase.execSQL(mEntity.buildCreateTableSql(mShadowTable));
+        return mShadowTable;
+    }
+
+    /**
+     * Creates the indexes of the entity on the filled shadow table. Building the indexes after
+     * inserting the rows is faster than updating them for each inserted row.
+     */
+    void createShadowIndexes() {
+        Set<String> liveIndexes = new HashSet<>();
+        Cursor cursor = mDatabase.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND tbl_name=?", new String[]{mEntity.name});
+        try {
+            while (cursor.moveToNext()) {
+                liveIndexes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (SimpleContentProvider.EntityIndex index : mEntity.indexes) {
+            String name = liveIndexes.contains(index.name) ? index.name + SHADOW_SUFFIX : index.name;
+            mDatabase.execSQL(new SimpleContentProvider.EntityIndex(name, index.columns, index.unique).buildCreateIndexSql(mShadowTable));
+        }
+    }
+
+    /**
+     * Replaces the live table with the shadow table. The caller must hold a transaction, and
+     * recreate the triggers of the live table afterwards.
+     */
+    void swap() {
+        mDatabase.execSQL("DROP TABLE " + mEntity.name);
+        mDatabase.execSQL("ALTER TABLE " + mShadowTable + " RENAME TO " + mEntity.name);
+    }
+
+    /**
+     * Drops the shadow table after a failed rebuild.
+     */
+    void dropShadowTable() {
+        mDatabase.execSQL("DROP TABLE IF EXISTS " + mShadowTable);
+    }
+}
@@ -1,5 +1,7 @@
 package dk.simplecontentprovider;
 
+import android.content.ClipDescription;
+import android.content.ComponentCallbacks2;
 import android.content.ContentProvider;
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
@@ -7,21 +9,47 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.OperationApplicationException;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.SystemClock;
 import android.provider.BaseColumns;
 import android.support.annotation.NonNull;
-
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
  * General purpose {@link ContentProvider} base class that uses SQLiteDatabase for storage,
@@ -49,17 +77,360 @@ public abstract class SimpleContentProvider extends ContentProvider {
      */
     public static final String QUERY_PARAMETER_OFFSET = "offset";
 
+    /**
+     * Append the ids parameter to an entity or view Uri to query, update or delete a list of
+     * items in a single statement. The ids are separated by commas. Example:
+     *
+     * Uri uri = CONTENT_URI.buildUpon()
+     *    .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_IDS, "1,2,3")
+     *    .build();
+     *
+     * Alternatively, the list of ids can be appended to the path of the Uri, for example
+     * content://authority/entity/1,2,3. Lists larger than SQLite's limit on bound variables
+     * are split into chunks of ids, which are queried one at a time, so a query of such a
+     * list cannot have a sort order or limit, and throws an IllegalArgumentException.
+     */
+    public static final String QUERY_PARAMETER_IDS = "ids";
+
     /**
      * Use the given conflict algorithm for resolving conflict when inserting or updating.
      * See SQLiteDatabase.insertWithOnConflict() and SQLiteDatabase.updateWithOnConflict().
      */
     public static final String PARAMETER_CONFLICT_ALGORITHM = "conflictAlgorithm";
 
+    /**
+     * Append the chunked parameter to an entity Uri to delete the matching rows in chunks,
+     * each in its own short transaction, instead of in a single statement. The value is the
+     * number of rows in each chunk, or "true" for the default of 1000 rows. "false" deletes the
+     * rows in a single statement as usual, and any other value that is not a positive number
+     * is rejected with an IllegalArgumentException. Example:
+     *
+     * Uri uri = CONTENT_URI.buildUpon()
+     *    .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_CHUNKED, "true")
+     *    .build();
+     *
+     * Listeners are notified once, when all the chunks are deleted.
+     */
+    public static final String QUERY_PARAMETER_CHUNKED = "chunked";
+
+    /**
+     * Append the fromTime and toTime parameters to the Uri of a time-partitioned entity to query,
+     * update or delete the rows in a time range, from fromTime (inclusive) to toTime (exclusive),
+     * in milliseconds since the epoch. Only the partitions in the range are read. Example:
+     *
+     * Uri uri = CONTENT_URI.buildUpon()
+     *    .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_FROM_TIME, String.valueOf(from))
+     *    .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_TO_TIME, String.valueOf(to))
+     *    .build();
+     *
+     * Comparisons of the partition column with constants or arguments in the selection narrow
+     * the partitions that are read in the same way.
+     */
+    public static final String QUERY_PARAMETER_FROM_TIME = "fromTime";
+    public static final String QUERY_PARAMETER_TO_TIME = "toTime";
+
+    /**
+     * Append the export parameter to an entity or view Uri and open it with
+     * ContentResolver.openInputStream() to stream the rows as CSV ("csv") or newline
+     * delimited JSON ("ndjson"). The rows are written on a worker thread, one at a time,
+     * so the export uses the same amount of memory however many rows are exported. Example:
+     *
+     * Uri uri = CONTENT_URI.buildUpon()
+     *    .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_EXPORT, "csv")
+     *    .build();
+     * InputStream in = getContentResolver().openInputStream(uri);
+     *
+     * Alternatively, use ContentResolver.openTypedAssetFileDescriptor() with MIME_TYPE_CSV or
+     * MIME_TYPE_NDJSON, and pass the KEY_PROJECTION, KEY_SELECTION, KEY_SELECTION_ARGS and
+     * KEY_SORT_ORDER of the export in the options. The limit, offset and ids parameters
+     * of the Uri apply to exports as well.
+     */
+    public static final String QUERY_PARAMETER_EXPORT = "export";
+
+    /**
+     * Append the import parameter to an entity Uri and open it for writing with
+     * ContentResolver.openOutputStream() to insert rows written as CSV ("csv") or newline
+     * delimited JSON ("ndjson"). The rows are inserted on a background thread while they are
+     * written. The number of imported rows and errors are included in the statistics. Example:
+     *
+     * Uri uri = CONTENT_URI.buildUpon()
+     *    .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_IMPORT, "ndjson")
+     *    .build();
+     * OutputStream out = getContentResolver().openOutputStream(uri);
+     *
+     * Use METHOD_IMPORT instead to get the number of imported rows and errors of each import.
+     */
+    public static final String QUERY_PARAMETER_IMPORT = "import";
+
+    /**
+     * Append the priority parameter to a Uri to run a call in the interactive lane
+     * (PRIORITY_INTERACTIVE) or the background lane (PRIORITY_BACKGROUND). Without the
+     * parameter, queries are in the interactive lane, and writes from threads running at
+     * background priority, such as sync adapters, are in the background lane. Example:
+     *
+     * Uri uri = CONTENT_URI.buildUpon()
+     *    .appendQueryParameter(SimpleContentProvider.QUERY_PARAMETER_PRIORITY, SimpleContentProvider.PRIORITY_BACKGROUND)
+     *    .build();
+     *
+     * Bulk inserts in the background lane commit the inserted rows and give way to waiting
+     * readers whenever interactive queries are running, so they are not atomic. An interactive
+     * query is running until the first window of its cursor has been filled, or the cursor
+     * is closed. Batches in
+     * the background lane give way at the operations that allow it, see
+     * ContentProviderOperation.Builder.withYieldAllowed(). A batch is in the background
+     * lane if the Uri of any of its operations has the parameter.
+     */
+    public static final String QUERY_PARAMETER_PRIORITY = "priority";
+    public static final String PRIORITY_INTERACTIVE = "interactive";
+    public static final String PRIORITY_BACKGROUND = "background";
+
+    public static final String MIME_TYPE_CSV = "text/csv";
+    public static final String MIME_TYPE_NDJSON = "application/x-ndjson";
+
+    /**
+     * Use this method with ContentResolver.call() to retrieve a Bundle with statistics
+     * from the provider, such as hits and misses of the row cache. Getting the statistics
+     * requires the read permission of the provider. Example:
+     *
+     * Bundle statistics = getContentResolver().call(CONTENT_URI, SimpleContentProvider.METHOD_GET_STATISTICS, null, null);
+     */
+    public static final String METHOD_GET_STATISTICS = "getStatistics";
+
+    /**
+     * Use this method with ContentResolver.call() to get the number of rows in an entity.
+     * The count is read in constant time for entities with setRowCountMaintained(true).
+     * Getting the row count requires the read permission of the provider. Example:
+     *
+     * Bundle result = getContentResolver().call(CONTENT_URI, SimpleContentProvider.METHOD_GET_ROW_COUNT, TABLE_NAME, null);
+     * long rowCount = result.getLong(SimpleContentProvider.KEY_ROW_COUNT);
+     */
+    public static final String METHOD_GET_ROW_COUNT = "getRowCount";
+
+    /**
+     * The key of the row count in the result of METHOD_GET_ROW_COUNT.
+     */
+    public static final String KEY_ROW_COUNT = "rowCount";
+
+    /**
+     * Use this method with ContentResolver.call() to delete the rows of an entity in chunks,
+     * like QUERY_PARAMETER_CHUNKED. The selection, selection arguments and chunk size are
+     * passed in the extras, and a KEY_CHUNK_SIZE that is not positive is rejected with an
+     * IllegalArgumentException. If KEY_BACKGROUND is true, the rows are deleted on a background
+     * thread and the result holds the KEY_TASK_ID of the task, which can be passed to
+     * METHOD_GET_TASK and METHOD_CANCEL_TASK. Otherwise the result holds the KEY_ROW_COUNT
+     * of deleted rows. Example:
+     *
+     * Bundle extras = new Bundle();
+     * extras.putString(SimpleContentProvider.KEY_SELECTION, "created<?");
+     * extras.putStringArray(SimpleContentProvider.KEY_SELECTION_ARGS, new String[]{"" + time});
+     * extras.putBoolean(SimpleContentProvider.KEY_BACKGROUND, true);
+     * Bundle result = getContentResolver().call(CONTENT_URI, SimpleContentProvider.METHOD_DELETE_CHUNKED, TABLE_NAME, extras);
+     * long taskId = result.getLong(SimpleContentProvider.KEY_TASK_ID);
+     */
+    public static final String METHOD_DELETE_CHUNKED = "deleteChunked";
+
+    /**
+     * Use this method with ContentResolver.call() to get the progress of a background task,
+     * passing the task id as the argument. The result holds the KEY_TASK_* values of the task,
+     * or is null if the task is unknown. A finished task is reported only once, and is
+     * forgotten if it is not reported within a few minutes. If the extras hold a KEY_TIMEOUT
+     * in milliseconds, the call waits up to that long for the task to finish.
+     */
+    public static final String METHOD_GET_TASK = "getTask";
+
+    /**
+     * Use this method with ContentResolver.call() to insert rows of CSV or newline delimited
+     * JSON, read from the file descriptor in the extras, into an entity. Chunks of KEY_CHUNK_SIZE
+     * rows are parsed and then inserted in a transaction each, so the rows never have to fit in
+     * memory, and the database is not held while reading the stream. CSV must start with a header of column names. The result holds
+     * the KEY_ROW_COUNT of imported rows, the KEY_ERROR_COUNT of rows that could not be
+     * imported and the first few KEY_ERRORS. Example:
+     *
+     * ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+     * // Write the rows to pipe[1] on another thread...
+     * Bundle extras = new Bundle();
+     * extras.putParcelable(SimpleContentProvider.KEY_FILE_DESCRIPTOR, pipe[0]);
+     * extras.putString(SimpleContentProvider.KEY_FORMAT, "csv");
+     * Bundle result = getContentResolver().call(CONTENT_URI, SimpleContentProvider.METHOD_IMPORT, TABLE_NAME, extras);
+     */
+    public static final String METHOD_IMPORT = "import";
+
+    /**
+     * Use this method with ContentResolver.call() to insert rows given as one array of values
+     * per column, instead of one ContentValues per row. The extras hold a long[], int[],
+     * double[], String[] or byte[][] for each column, keyed by the name of the column, and
+     * optionally the PARAMETER_CONFLICT_ALGORITHM. The values are bound straight from the
+     * arrays into a single compiled statement, so no objects are allocated per row. The rows
+     * are inserted in a single transaction, like bulkInsert, and the result holds the
+     * KEY_ROW_COUNT of inserted rows. Example:
+     *
+     * Bundle extras = new Bundle();
+     * extras.putStringArray(NAME, new String[] {"Fido", "Felix"});
+     * extras.putLongArray(AGE, new long[] {3, 5});
+     * Bundle result = getContentResolver().call(CONTENT_URI, SimpleContentProvider.METHOD_BULK_INSERT_COLUMNS, TABLE_NAME, extras);
+     *
+     * Use Bundle.putSerializable() for byte[][] columns. Null values can only be given in
+     * String[] and byte[][] columns.
+     */
+    public static final String METHOD_BULK_INSERT_COLUMNS = "bulkInsertColumns";
+
+    /**
+     * Use this method with ContentResolver.call() to replace the rows of an entity with a
+     * snapshot, such as the latest response of a server, changing only the rows that really
+     * differ. The snapshot is given either as columns of values, like METHOD_BULK_INSERT_COLUMNS,
+     * or as CSV or newline delimited JSON read from the KEY_FILE_DESCRIPTOR, like METHOD_IMPORT.
+     * Rows are matched on the comma separated KEY_MERGE_KEY columns, which default to the id
+     * column of the entity. Matching rows with other values are updated, rows only in the
+     * snapshot are inserted and, unless KEY_DELETE_MISSING is false, rows missing from the
+     * snapshot are deleted, all in a single transaction. Rows of JSON that leave out columns
+     * only update the columns they have. If any row of the stream cannot be read, such as when
+     * the stream is cut short, nothing is merged. Listeners are only notified if rows were
+     * changed. The result holds the KEY_INSERTED_COUNT, KEY_UPDATED_COUNT and KEY_DELETED_COUNT
+     * of rows, and the KEY_ERROR_COUNT and KEY_ERRORS of rows in the stream that could not be
+     * read. Merging requires the write permission of the provider. Example:
+     *
+     * Bundle extras = new Bundle();
+     * extras.putString(SimpleContentProvider.KEY_MERGE_KEY, SERVER_ID);
+     * extras.putLongArray(SERVER_ID, new long[] {17, 42});
+     * extras.putStringArray(NAME, new String[] {"Fido", "Felix"});
+     * Bundle result = getContentResolver().call(CONTENT_URI, SimpleContentProvider.METHOD_MERGE_IMPORT, TABLE_NAME, extras);
+     */
+    public static final String METHOD_MERGE_IMPORT = "mergeImport";
+
+    /**
+     * Use this method with ContentResolver.call() to rebuild an entity from scratch, replacing
+     * all of its rows. The rows are given either as columns of values, like
+     * METHOD_BULK_INSERT_COLUMNS, or as CSV or newline delimited JSON read from the
+     * KEY_FILE_DESCRIPTOR, like METHOD_IMPORT. They are inserted into a shadow copy of the
+     * table of the entity, while readers keep using the live table, and the indexes of the
+     * copy are built. The copy then replaces the live table in a short transaction, and
+     * listeners are notified once. Rows written to the entity during the rebuild are lost.
+     * If any row of the stream cannot be read, the entity is left unchanged. Rebuilds of the
+     * same entity run one at a time. The result holds the KEY_ROW_COUNT of rows in the entity,
+     * and the KEY_ERROR_COUNT and KEY_ERRORS of rows in the stream that could not be read.
+     * Rebuilding requires the write permission of the provider.
+     *
+     * Entities that are in-memory, time-partitioned, referenced by other entities or part of
+     * counter caches cannot be rebuilt.
+     */
+    public static final String METHOD_REBUILD = "rebuild";
+
+    /**
+     * Use this method with ContentResolver.call() to write a consistent backup of the database
+     * to the KEY_FILE_DESCRIPTOR in the extras, while the provider keeps running. Pass the name
+     * of a shard as the argument to back up the database of the shard instead. The rows are
+     * copied in steps of KEY_CHUNK_SIZE rows, which must be positive, each in a short
+     * transaction, so writers are only paused briefly, and the copy starts over with larger
+     * steps if the database is written between two steps. If the database is written during
+     * every attempt, the backup fails with an IllegalStateException, or the error of the task.
+     * Backups run one at a time, and require the read permission of the provider.
+     * If KEY_BACKGROUND is true, the backup is written on a background thread and the result
+     * holds the KEY_TASK_ID of the task, which reports the number of copied rows as progress.
+     * Otherwise the result holds the KEY_TASK_* values of the finished backup and its
+     * KEY_BACKUP_SIZE in bytes. Example:
+     *
+     * ParcelFileDescriptor fd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_WRITE_ONLY);
+     * Bundle extras = new Bundle();
+     * extras.putParcelable(SimpleContentProvider.KEY_FILE_DESCRIPTOR, fd);
+     * Bundle result = getContentResolver().call(CONTENT_URI, SimpleContentProvider.METHOD_BACKUP, null, extras);
+     */
+    public static final String METHOD_BACKUP = "backup";
+
+    /**
+     * Use this method with ContentResolver.call() to cancel a background task, passing the
+     * task id as the argument. A cancelled chunked delete stops after the current chunk.
+     */
+    public static final String METHOD_CANCEL_TASK = "cancelTask";
+
+    // The keys of the extras of METHOD_DELETE_CHUNKED and the options of exports...
+    public static final String KEY_PROJECTION = "projection";
+    public static final String KEY_SELECTION = "selection";
+    public static final String KEY_SELECTION_ARGS = "selectionArgs";
+    public static final String KEY_SORT_ORDER = "sortOrder";
+
+    // The keys of the extras and result of METHOD_IMPORT...
+    public static final String KEY_FILE_DESCRIPTOR = "fileDescriptor";
+    public static final String KEY_FORMAT = "format";
+    public static final String KEY_ERROR_COUNT = "errorCount";
+    public static final String KEY_ERRORS = "errors";
+    public static final String KEY_CHUNK_SIZE = "chunkSize";
+    public static final String KEY_BACKGROUND = "background";
+
+    // The keys of the extras and result of METHOD_MERGE_IMPORT...
+    public static final String KEY_MERGE_KEY = "mergeKey";
+    public static final String KEY_DELETE_MISSING = "deleteMissing";
+    public static final String KEY_INSERTED_COUNT = "insertedCount";
+    public static final String KEY_UPDATED_COUNT = "updatedCount";
+    public static final String KEY_DELETED_COUNT = "deletedCount";
+
+    // The key of the result of METHOD_BACKUP...
+    public static final String KEY_BACKUP_SIZE = "backupSize";
+
+    // The keys of the result of METHOD_GET_TASK...
+    public static final String KEY_TASK_ID = "taskId";
+    public static final String KEY_TASK_NAME = "taskName";
+    public static final String KEY_TASK_PROGRESS = "taskProgress";
+    public static final String KEY_TASK_TOTAL = "taskTotal";
+    public static final String KEY_TASK_DONE = "taskDone";
+    public static final String KEY_TASK_CANCELLED = "taskCancelled";
+    public static final String KEY_TASK_ERROR = "taskError";
+    public static final String KEY_TASK_DURATION = "taskDuration";
+
+    // The key of the extras of METHOD_GET_TASK...
+    public static final String KEY_TIMEOUT = "timeout";
+
+    /**
+     * The name of the table holding the row counts of entities with setRowCountMaintained(true).
+     */
+    protected static final String ROW_COUNTS_TABLE = "simple_content_provider_row_counts";
+
+    /**
+     * The name of the in-memory database holding the entities with setInMemory(true),
+     * attached to the main database.
+     */
+    protected static final String MEMORY_DATABASE = "memory";
+
+    /**
+     * The maximum number of variables that can be bound in a single SQLite statement.
+     */
+    private static final int MAX_BOUND_VARIABLES = 999;
+
+    /**
+     * The maximum number of rows changed by a merge import that are invalidated one by one
+     * in the row cache, rather than invalidating all the rows of the entity.
+     */
+    private static final int MAX_MERGE_INVALIDATIONS = 100;
+
+    /**
+     * The time in milliseconds a finished background task is kept for METHOD_GET_TASK.
+     */
+    private static final long TASK_EXPIRY_TIME = 5 * 60 * 1000;
+
+    private static final String TAG = "SimpleContentProvider";
+
+    static final String STATISTICS_FIRST_QUERY_LATENCY = "firstQueryLatency";
+    static final String STATISTICS_IMPORTED_ROWS = "importedRows";
+    static final String STATISTICS_IMPORT_ERRORS = "importErrors";
+    static final String STATISTICS_MEMORY_TRIMS = "memoryTrims";
+    static final String STATISTICS_LAST_TRIM_LEVEL = "lastTrimLevel";
+    static final String STATISTICS_SQLITE_MEMORY_RELEASES = "sqliteMemoryReleases";
+    static final String STATISTICS_RELEASED_SQLITE_MEMORY = "releasedSqliteMemory";
+
     protected String mAuthority;
 
     protected String mDatabaseName;
     protected int mDatabaseVersion = 1;
     protected boolean mForeignKeyConstraintsEnabled;
+    protected long mRowCacheMemoryBudget = 1024 * 1024;
+    protected long mResultCacheMemoryBudget = 2 * 1024 * 1024;
+    protected boolean mQueryDeduplicationEnabled;
+    protected String mDatabaseAssetPath;
+    protected boolean mDatabaseWarmUpEnabled;
+    protected long mExpirySweepInterval = 60 * 1000;
+    protected long mAnalyzeThreshold = 1000;
+    protected long mAnalyzeIdleDelay = 30 * 1000;
+    protected long mIncrementalVacuumThreshold;
+    protected long mIncrementalVacuumInterval = 5 * 60 * 1000;
 
     protected List<Entity> mEntities = new ArrayList<>();
     protected List<EntityView> mViews = new ArrayList<>();
@@ -70,10 +441,42 @@ public abstract class SimpleContentProvider extends ContentProvider {
 
     private final ThreadLocal<Boolean> mApplyingBatchOperations = new ThreadLocal<>();
     private final Set<Uri> mChangedUris = new HashSet<>();
+    private final Map<String, List<Entity>> mReferencingEntities = new HashMap<>();
+    private final Set<String> mEntitiesReplacingOnConflict = new HashSet<>();
+    private final Map<String, List<Entity>> mCounterCacheParents = new HashMap<>();
+    private RowCache mRowCache;
+    private QueryResultCache mResultCache;
+    private QueryDeduplicator mQueryDeduplicator;
+    private final RingBuffer mRingBuffer = new RingBuffer();
+    private final ExpirySweeper mExpirySweeper = new ExpirySweeper();
+    private final TimePartitions mTimePartitions = new TimePartitions();
+    private final PriorityLanes mPriorityLanes = new PriorityLanes();
+    private AnalyzeScheduler mAnalyzeScheduler;
+    private IncrementalVacuum mIncrementalVacuum;
+    private BackgroundExecutor mBackgroundExecutor;
+    private final Map<Long, BackgroundTask> mTasks = new HashMap<>();
+    private long mNextTaskId = 1;
+    private final Map<String, Object> mRebuildLocks = new HashMap<>();
+    private final Object mBackupLock = new Object();
+    private DatabaseAsset mDatabaseAsset;
+    private volatile long mFirstQueryLatency = -1;
+    private long mImportedRows;
+    private long mImportErrors;
+    private long mMemoryTrims;
+    private int mLastTrimLevel = -1;
+    private long mSqliteMemoryReleases;
+    private long mReleasedSqliteMemory;
+    private final StartupTimings mStartupTimings = new StartupTimings();
+    private DatabaseWarmUp mDatabaseWarmUp;
+    private final Map<String, SQLiteOpenHelper> mShardHelpers = new LinkedHashMap<>();
+    private final Set<SQLiteOpenHelper> mOpenedHelpers = new HashSet<>();
 
     @Override
     public boolean onCreate() {
+        long start = SystemClock.elapsedRealtime();
         initProvider();
+        mAnalyzeScheduler = new AnalyzeScheduler(mAnalyzeThreshold, mAnalyzeIdleDelay);
+        mIncrementalVacuum = new IncrementalVacuum(mIncrementalVacuumThreshold);
 
         if (mAuthority == null) {
             throw new IllegalStateException("Authority was not set in initProvider - override initProvider and use setAuthority to set an authority for the provider");
@@ -91,6 +494,99 @@ public abstract class SimpleContentProvider extends ContentProvider {
             if (entity.columns.isEmpty()) {
                 throw new IllegalStateException("No columns for entity '" + entity.name + "' - use addColumn to add columns for each entity in the provider");
             }
+
+            if (MEMORY_DATABASE.equals(entity.shard)) {
+                throw new IllegalStateException("Invalid shard name for entity '" + entity.name + "' - the name '" + MEMORY_DATABASE + "' is reserved for in-memory entities");
+            }
+
+            if (entity.inMemory && (entity.shard != null || entity.rowCountMaintained || !entity.counterCaches.isEmpty())) {
+                throw new IllegalStateException("In-memory entity '" + entity.name + "' cannot be sharded, maintain a row count or have counter cache columns");
+            }
+
+            if (entity.isPartitioned() && (entity.inMemory || entity.rowCountMaintained || !entity.counterCaches.isEmpty() || entity.hasMaximumSize() || entity.timeToLive > 0 || entity.rowCacheSize > 0)) {
+                throw new IllegalStateException("Time-partitioned entity '" + entity.name + "' cannot be in-memory, maintain a row count, have counter cache columns, a maximum size, a time to live or a row cache");
+            }
+
+            if (entity.partitionPeriod < 0 || entity.partitionRetention < 0) {
+                throw new IllegalStateException("Invalid partition period or retention for entity '" + entity.name + "' - the period must be positive and the retention must not be negative");
+            }
+
+            // The partition is held by the upper 32 bits of the ids of the rows, which must fit the current time...
+            if (entity.isPartitioned() && !TimePartitions.isValidPartition(TimePartitions.getPartition(entity, System.currentTimeMillis()))) {
+                throw new IllegalStateException("The partition period of entity '" + entity.name + "' is too short - use a period of at least a few seconds");
+            }
+
+            if (entity.isPartitioned()) {
+                Set<String> views = mEntityToViewsMap.get(entity.name);
+                if (views != null && !views.isEmpty()) {
+                    throw new IllegalStateException("View '" + views.iterator().next() + "' is on the time-partitioned entity '" + entity.name + "' - views cannot use partitioned entities");
+                }
+
+                Pattern tableName = Pattern.compile("(?<![\\w$])" + Pattern.quote(entity.name) + "(?![\\w$])", Pattern.CASE_INSENSITIVE);
+                for (EntityView view : mViews) {
+                    if (view.queryBuilder.getTables() != null && tableName.matcher(view.queryBuilder.getTables()).find()) {
+                        throw new IllegalStateException("View '" + view.name + "' reads the time-partitioned entity '" + entity.name + "' - views cannot use partitioned entities");
+                    }
+                }
+            }
+        }
+
+        // Find the entities that may change rows in other entities...
+        for (Entity entity : mEntities) {
+            List<Entity> referencing = new ArrayList<>();
+            for (Entity other : mEntities) {
+                if (other != entity && other.references(entity.name)) {
+                    referencing.add(other);
+                }
+            }
+            mReferencingEntities.put(entity.name, referencing);
+
+            if (entity.replacesOnConflict()) {
+                mEntitiesReplacingOnConflict.add(entity.name);
+            }
+
+            mCounterCacheParents.put(entity.name, new ArrayList<Entity>());
+        }
+
+        // Find the parents of entities with counter caches...
+        for (Entity entity : mEntities) {
+            for (CounterCache counterCache : entity.counterCaches) {
+                List<Entity> parents = mCounterCacheParents.get(counterCache.childEntity);
+                if (parents == null) {
+                    throw new IllegalStateException("Unknown entity '" + counterCache.childEntity + "' for counter cache column '" + counterCache.column + "' - use addEntity to add the entity to the provider");
+                }
+
+                if (!parents.contains(entity)) {
+                    parents.add(entity);
+                }
+
+                Entity child = getEntity(counterCache.childEntity);
+                if (child.isPartitioned()) {
+                    throw new IllegalStateException("Counter cache column '" + counterCache.column + "' counts rows of the time-partitioned entity '" + child.name + "' - counter caches cannot count rows of partitioned entities");
+                }
+
+                if (!isSameShard(entity, child)) {
+                    throw new IllegalStateException("Counter cache column '" + counterCache.column + "' and entity '" + child.name + "' are in different shards - counter caches can only count rows in the same shard");
+                }
+            }
+
+            for (Entity referencing : mReferencingEntities.get(entity.name)) {
+                if (entity.isPartitioned()) {
+                    throw new IllegalStateException("Entity '" + referencing.name + "' references the time-partitioned entity '" + entity.name + "' - constraints cannot refer to partitioned entities");
+                }
+
+                if (!isSameShard(entity, referencing)) {
+                    throw new IllegalStateException("Entity '" + referencing.name + "' references entity '" + entity.name + "' in a different shard - constraints can only refer to entities in the same shard");
+                }
+            }
+        }
+
+        mRowCache = new RowCache(mRowCacheMemoryBudget);
+        mResultCache = new QueryResultCache(mResultCacheMemoryBudget);
+        mQueryDeduplicator = new QueryDeduplicator();
+
+        if (mDatabaseAssetPath != null) {
+            mDatabaseAsset = new DatabaseAsset(mDatabaseAssetPath);
         }
 
         if (mMatcher == null) {
@@ -105,6 +601,54 @@ public abstract class SimpleContentProvider extends ContentProvider {
             }
         }
 
+        // Create a database helper for each shard...
+        for (Entity entity : mEntities) {
+            if (entity.shard != null && !mShardHelpers.containsKey(entity.shard)) {
+                String shardDatabaseName = getShardDatabaseName(entity.shard);
+                if (mForeignKeyConstraintsEnabled) {
+                    mShardHelpers.put(entity.shard, new SimpleDatabaseHelper.ForeignKeyConstraintDatabaseHelper(this, shardDatabaseName, mDatabaseVersion, entity.shard));
+                } else {
+                    mShardHelpers.put(entity.shard, new SimpleDatabaseHelper(this, shardDatabaseName, mDatabaseVersion, entity.shard));
+                }
+            }
+        }
+
+        if (mDatabaseWarmUpEnabled) {
+            // Warm up the shards first, so their tables exist when they are attached to the main database...
+            Map<SQLiteOpenHelper, List<Entity>> helpers = new LinkedHashMap<>();
+            for (Map.Entry<String, SQLiteOpenHelper> shardHelper : mShardHelpers.entrySet()) {
+                helpers.put(shardHelper.getValue(), getShardEntities(shardHelper.getKey()));
+            }
+            helpers.put(mDatabaseHelper, getShardEntities(null));
+
+            mDatabaseWarmUp = new DatabaseWarmUp(helpers, mStartupTimings);
+            mDatabaseWarmUp.start(getBackgroundExecutor());
+        }
+
+        // Sweep expired rows and partitions in the background...
+        for (Entity entity : mEntities) {
+            if (entity.timeToLive > 0 || entity.partitionRetention > 0) {
+                getBackgroundExecutor().scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        sweepExpiredRows();
+                    }
+                }, mExpirySweepInterval, mExpirySweepInterval, TimeUnit.MILLISECONDS);
+                break;
+            }
+        }
+
+        // Release free pages of the databases in the background...
+        if (mIncrementalVacuumThreshold > 0) {
+            getBackgroundExecutor().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    vacuumDatabases();
+                }
+            }, mIncrementalVacuumInterval, mIncrementalVacuumInterval, TimeUnit.MILLISECONDS);
+        }
+
+        mStartupTimings.record(StartupTimings.PROVIDER_CREATE, SystemClock.elapsedRealtime() - start);
         return true;
     }
 
@@ -131,16 +675,108 @@ public abstract class SimpleContentProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Queries an entity or a view. Results of identical queries executing at the same time
+     * are shared, so only the first of the queries is executed by the database.
+     * Queries on entities or views with the result cache enabled are served
+     * from the cache, whenever possible.
+     */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
-        Cursor cursor = null;
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Queries an entity or a view, like query without a cancellation signal. The signal is
+     * forwarded to SQLite, which stops executing the query when it is cancelled, and throws
+     * an OperationCanceledException. Cancellable queries are served from the result cache,
+     * but are not shared with identical queries, since cancelling one of them would fail the
+     * others.
+     *
+     * @see ContentProvider#query(Uri, String[], String, String[], String, CancellationSignal)
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
+        if (cancellationSignal != null) {
+            cancellationSignal.throwIfCanceled();
+        }
+
+        // Let background writes know that an interactive query is waiting for the database,
+        // until the first window of its cursor has been filled...
+        int lane = PriorityLanes.getQueryLane(uri);
+        mPriorityLanes.beginQuery(lane);
+        long start = SystemClock.elapsedRealtime();
+        Cursor cursor;
+        try {
+            cursor = queryCached(uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        } catch (RuntimeException e) {
+            mPriorityLanes.endQuery(lane, SystemClock.elapsedRealtime() - start);
+            throw e;
+        }
+        return mPriorityLanes.endQuery(lane, start, cursor);
+    }
 
+    private Cursor queryCached(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
         SimpleUriMatcher.Match match = mMatcher.match(uri);
         if (match == null) {
             throw new IllegalArgumentException("Unknown Uri: " + uri);
         }
 
-        // Parse the limit query parameters...
+        // Measure the latency of the first query, which includes opening the database...
+        boolean firstQuery = (mFirstQueryLatency < 0);
+        long start = firstQuery ? SystemClock.elapsedRealtime() : 0;
+
+        String limit = parseLimit(uri);
+
+        Cursor cursor;
+        // The results of entities with a time to live, and views on them, change as time passes, so they are not cached...
+        boolean resultCacheEnabled = (match.entity != null) ? match.entity.resultCacheEnabled && match.entity.timeToLive == 0
+                : match.view.resultCacheEnabled && getExpiringEntities(match.view).isEmpty();
+        if (resultCacheEnabled) {
+            String name = (match.entity != null) ? match.entity.name : match.view.name;
+            QueryKey key = new QueryKey(uri, projection, selection, selectionArgs, sortOrder);
+
+            cursor = mResultCache.get(key);
+            if (cursor == null) {
+                // Fetch the generation before querying, so a result
+                // changed while being queried is not put in the cache...
+                long generation = mResultCache.getGeneration(name);
+                if (cancellationSignal != null) {
+                    cursor = queryDatabase(match, uri, projection, selection, selectionArgs, sortOrder, limit, cancellationSignal);
+                } else {
+                    cursor = queryDeduplicated(key, match, uri, projection, selection, selectionArgs, sortOrder, limit);
+                }
+                if (cursor != null) {
+                    cursor = mResultCache.put(key, name, generation, cursor);
+                }
+            }
+        } else if (mQueryDeduplicationEnabled && cancellationSignal == null) {
+            QueryKey key = new QueryKey(uri, projection, selection, selectionArgs, sortOrder);
+            cursor = queryDeduplicated(key, match, uri, projection, selection, selectionArgs, sortOrder, limit);
+        } else {
+            cursor = queryDatabase(match, uri, projection, selection, selectionArgs, sortOrder, limit, cancellationSignal);
+        }
+
+        if (cursor != null) {
+            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        }
+
+        if (firstQuery) {
+            synchronized (this) {
+                if (mFirstQueryLatency < 0) {
+                    mFirstQueryLatency = SystemClock.elapsedRealtime() - start;
+                }
+            }
+        }
+
+        return cursor;
+    }
+
+    /**
+     * Parses the limit and offset query parameters into the limit clause of a query,
+     * or returns null if the Uri has no limit.
+     */
+    private static String parseLimit(Uri uri) {
         String limit = null;
         String limitQueryParam = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
         String offsetQueryParam = uri.getQueryParameter(QUERY_PARAMETER_OFFSET);
@@ -150,69 +786,103 @@ public abstract class SimpleContentProvider extends ContentProvider {
                 limit = offsetQueryParam + "," + limitQueryParam;
             }
         }
+        return limit;
+    }
 
-        // Query an entity...
-        if (match.entity != null) {
-            SQLiteDatabase db = mDatabaseHelper.getReadableDatabase();
-            String table = match.entity.name;
-            String idColumn = match.entity.idColumn;
+    /**
+     * Returns the MIME types the rows of an entity or view can be exported as.
+     *
+     * @see ContentProvider#getStreamTypes(Uri, String)
+     */
+    @Override
+    public String[] getStreamTypes(@NonNull Uri uri, @NonNull String mimeTypeFilter) {
+        SimpleUriMatcher.Match match = mMatcher.match(uri);
+        if (match == null) {
+            return null;
+        }
 
-            if (match.isItem) {
-                long id  = ContentUris.parseId(uri);
-                String where = table + "." + idColumn + "=?";
-                String[] whereArgs = new String[]{"" + id};
-                selection = DatabaseUtils.concatenateWhere(selection, where);
-                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, whereArgs);
-                cursor = db.query(table, projection, selection, selectionArgs, null, null, sortOrder, limit);
-            } else {
-                cursor = db.query(table, projection, selection, selectionArgs, null, null, sortOrder, limit);
+        List<String> types = new ArrayList<>();
+        for (String mimeType : new String[]{MIME_TYPE_CSV, MIME_TYPE_NDJSON}) {
+            if (ClipDescription.compareMimeTypes(mimeType, mimeTypeFilter)) {
+                types.add(mimeType);
             }
         }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
 
-        // Query a view...
-        else if (match.view != null) {
-            SQLiteDatabase db = mDatabaseHelper.getReadableDatabase();
-            SQLiteQueryBuilder builder = match.view.queryBuilder;
-            String idColumn = match.view.idColumn;
+    /**
+     * Opens a pipe streaming the rows of an entity or view, when the Uri has the export
+     * query parameter, or a pipe for importing rows into an entity, when the Uri has the
+     * import query parameter. See QUERY_PARAMETER_EXPORT and QUERY_PARAMETER_IMPORT.
+     *
+     * @see ContentProvider#openFile(Uri, String)
+     */
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        String importFormat = uri.getQueryParameter(QUERY_PARAMETER_IMPORT);
+        if (importFormat != null && mode.startsWith("w")) {
+            return openImport(uri, importFormat);
+        }
 
-            if (match.isItem) {
-                long id  = ContentUris.parseId(uri);
-                String where = idColumn + "=?";
-                String[] whereArgs = new String[]{"" + id};
-                selection = DatabaseUtils.concatenateWhere(selection, where);
-                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, whereArgs);
-                cursor = builder.query(db, projection, selection, selectionArgs, null, null, sortOrder, limit);
-            } else {
-                cursor = builder.query(db, projection, selection, selectionArgs, null, null, sortOrder, limit);
+        String format = uri.getQueryParameter(QUERY_PARAMETER_EXPORT);
+        if (format != null && "r".equals(mode)) {
+            if ("csv".equals(format)) {
+                return openExport(uri, MIME_TYPE_CSV, null);
+            } else if ("ndjson".equals(format)) {
+                return openExport(uri, MIME_TYPE_NDJSON, null);
             }
+            throw new IllegalArgumentException("Unknown export format in Uri: " + uri);
         }
 
-        if (cursor != null) {
-            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        return super.openFile(uri, mode);
+    }
+
+    /**
+     * Opens a pipe streaming the rows of an entity or view as CSV or newline delimited JSON,
+     * with the projection, selection and sort order given in the options.
+     * See QUERY_PARAMETER_EXPORT.
+     *
+     * @see ContentProvider#openTypedAssetFile(Uri, String, Bundle)
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(@NonNull Uri uri, @NonNull String mimeTypeFilter, Bundle opts) throws FileNotFoundException {
+        String[] mimeTypes = getStreamTypes(uri, mimeTypeFilter);
+        if (mimeTypes == null) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
         }
 
-        return cursor;
+        ParcelFileDescriptor pipe = openExport(uri, mimeTypes[0], opts);
+        return new AssetFileDescriptor(pipe, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
     }
 
-    @Override
-    public Uri insert(Uri uri, ContentValues values) {
+    private ParcelFileDescriptor openExport(Uri uri, String mimeType, Bundle opts) throws FileNotFoundException {
         SimpleUriMatcher.Match match = mMatcher.match(uri);
-
         if (match == null) {
             throw new IllegalArgumentException("Unknown Uri: " + uri);
         }
 
-        if (match.view != null) {
-            throw new IllegalArgumentException("Cannot use insert with a view Uri: " + uri);
+        if (opts == null) {
+            opts = new Bundle();
         }
 
-        if (match.isItem) {
-            throw new IllegalArgumentException("Cannot use insert with an item Uri: " + uri);
+        // Bypass the caches, so the rows are read from the database one window at a time while writing...
+        Cursor cursor = queryDatabase(match, uri, opts.getStringArray(KEY_PROJECTION),
+                opts.getString(KEY_SELECTION), opts.getStringArray(KEY_SELECTION_ARGS),
+                opts.getString(KEY_SORT_ORDER), parseLimit(uri), null);
+        try {
+            return openPipeHelper(uri, mimeType, opts, cursor, new CursorExporter(MIME_TYPE_NDJSON.equals(mimeType)));
+        } catch (FileNotFoundException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+
+    private ParcelFileDescriptor openImport(Uri uri, final String format) throws FileNotFoundException {
+        final SimpleUriMatcher.Match match = mMatcher.match(uri);
+        if (match == null || match.entity == null || match.isItem || match.isItemList) {
+            throw new IllegalArgumentException("Cannot import rows with Uri: " + uri);
         }
 
-        // Parse the conflict algorithm parameter. If no conflict algorithm
-        // was specified then use the "normal" insert method,
-        // which handles SQL exceptions by logging them...
         Integer conflictAlgorithm = match.entity.defaultConflictAlgorithm;
         String conflictAlgorithmParam = uri.getQueryParameter(PARAMETER_CONFLICT_ALGORITHM);
         if (conflictAlgorithmParam != null && !conflictAlgorithmParam.isEmpty()) {
@@ -222,22 +892,486 @@ public abstract class SimpleContentProvider extends ContentProvider {
                 // Ignore exception
             }
         }
+        StreamImporter.checkConflictAlgorithm(conflictAlgorithm);
 
-        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
-        String table = match.entity.name;
-        String nullColumnHack = match.entity.nullColumnHack;
-        long insertedId = (conflictAlgorithm == null) ?
-                db.insert(table, nullColumnHack, values) :
-                db.insertWithOnConflict(table, nullColumnHack, values, conflictAlgorithm);
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Unable to create pipe for import: " + e.getMessage());
+        }
 
-        Uri insertedUri = null;
+        // Read the pipe on a thread of its own, since a slow writer would hold up the background executor...
+        final Integer importConflictAlgorithm = conflictAlgorithm;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    importRows(match.entity, format, pipe[0], importConflictAlgorithm, StreamImporter.DEFAULT_CHUNK_SIZE);
+                } catch (IllegalArgumentException | SQLiteException e) {
+                    Log.w(TAG, "Unable to import rows into entity '" + match.entity.name + "'", e);
+                }
+            }
+        }, "SimpleContentProvider import " + match.entity.name).start();
+        return pipe[1];
+    }
+
+    /**
+     * Imports rows of CSV or newline delimited JSON into an entity, and notifies its
+     * Uri's once when the import is done. The file descriptor is closed.
+     */
+    private StreamImporter importRows(Entity entity, String format, ParcelFileDescriptor input, Integer conflictAlgorithm, int chunkSize) {
+        BufferedReader reader = null;
+        try {
+            if (entity == null) {
+                throw new IllegalArgumentException("Unknown entity for import");
+            }
+
+            if (entity.isPartitioned()) {
+                throw new IllegalArgumentException("Cannot import rows into the time-partitioned entity: " + entity.name);
+            }
+
+            if (!"csv".equals(format) && !"ndjson".equals(format)) {
+                throw new IllegalArgumentException("Unknown import format: " + format);
+            }
+
+            SQLiteDatabase db = getWritableDatabase(entity);
+            StreamImporter importer = new StreamImporter(db, entity, entity.name, conflictAlgorithm, chunkSize);
+            try {
+                reader = new BufferedReader(new InputStreamReader(new ParcelFileDescriptor.AutoCloseInputStream(input), "UTF-8"));
+                if ("csv".equals(format)) {
+                    importer.importCsv(reader);
+                } else {
+                    importer.importJson(reader);
+                }
+            } catch (IOException e) {
+                importer.addError(e.getMessage());
+            }
+
+            if (importer.getImportedRows() > 0) {
+                // Evict the oldest rows once for all the imported rows, if the entity has a maximum size...
+                int evictedRows = 0;
+                if (entity.hasMaximumSize()) {
+                    evictedRows = mRingBuffer.afterInsert(db, entity, (int) importer.getImportedRows());
+                }
+                recordChangedRows(entity, importer.getImportedRows() + evictedRows);
+                notifyChangedRows(entity);
+            }
+
+            synchronized (this) {
+                mImportedRows += importer.getImportedRows();
+                mImportErrors += importer.getErrorCount();
+            }
+            return importer;
+        } finally {
+            try {
+                if (reader != null) {
+                    reader.close();
+                } else {
+                    input.close();
+                }
+            } catch (IOException e) {
+                // Ignore exception
+            }
+        }
+    }
+
+    private Cursor queryDeduplicated(QueryKey key, final SimpleUriMatcher.Match match, final Uri uri, final String[] projection, final String selection, final String[] selectionArgs, final String sortOrder, final String limit) {
+        if (!mQueryDeduplicationEnabled) {
+            return queryDatabase(match, uri, projection, selection, selectionArgs, sortOrder, limit, null);
+        }
+
+        return mQueryDeduplicator.query(key, new QueryDeduplicator.Query() {
+            @Override
+            public Cursor execute() {
+                return queryDatabase(match, uri, projection, selection, selectionArgs, sortOrder, limit, null);
+            }
+        });
+    }
+
+    private Cursor queryDatabase(SimpleUriMatcher.Match match, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit, CancellationSignal cancellationSignal) {
+        Cursor cursor = null;
+
+        long[] ids = parseIds(match, uri);
+
+        // Query an entity...
+        if (match.entity != null) {
+            SQLiteDatabase db = getReadableDatabase(match.entity);
+
+            // Hide expired rows that have not been swept yet...
+            if (match.entity.timeToLive > 0) {
+                long expired = System.currentTimeMillis() - match.entity.timeToLive;
+                selection = DatabaseUtils.concatenateWhere(selection, match.entity.name + "." + match.entity.timeToLiveColumn + ">=" + expired);
+            }
+            String table = match.entity.name;
+            String idColumn = match.entity.idColumn;
+
+            // Read only the partitions that may hold matching rows, named after the entity...
+            String tables = table;
+            if (match.entity.isPartitioned()) {
+                selection = DatabaseUtils.concatenateWhere(selection, buildTimeRangeSelection(match.entity, uri));
+                tables = TimePartitions.buildUnionTable(match.entity, getPartitionTables(db, match, uri, ids, selection, selectionArgs));
+            }
+
+            if (ids != null) {
+                cursor = queryIds(db, match, tables, ids, projection, selection, selectionArgs, sortOrder, limit, cancellationSignal);
+            } else if (match.isItem) {
+                long id  = ContentUris.parseId(uri);
+                if (selection == null && limit == null && match.entity.rowCacheSize > 0 && RowCache.canServe(projection)) {
+                    cursor = queryRowCache(db, match.entity, id, projection);
+                }
+
+                if (cursor == null) {
+                    String where = table + "." + idColumn + "=?";
+                    String[] whereArgs = new String[]{"" + id};
+                    selection = DatabaseUtils.concatenateWhere(selection, where);
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, whereArgs);
+                    cursor = queryTables(db, tables, projection, selection, selectionArgs, sortOrder, limit, cancellationSignal);
+                }
+            } else {
+                cursor = queryTables(db, tables, projection, selection, selectionArgs, sortOrder, limit, cancellationSignal);
+            }
+        }
+
+        // Query a view...
+        else if (match.view != null) {
+            // Views read the tables of their entities directly, so delete the expired rows they would see...
+            for (Entity entity : getExpiringEntities(match.view)) {
+                sweepExpiredRowsBeforeRead(entity);
+            }
+
+            SQLiteDatabase db = getReadableDatabase();
+            SQLiteQueryBuilder builder = match.view.queryBuilder;
+            String idColumn = match.view.idColumn;
+
+            if (ids != null) {
+                cursor = queryIds(db, match, null, ids, projection, selection, selectionArgs, sortOrder, limit, cancellationSignal);
+            } else if (match.isItem) {
+                long id  = ContentUris.parseId(uri);
+                String where = idColumn + "=?";
+                String[] whereArgs = new String[]{"" + id};
+                selection = DatabaseUtils.concatenateWhere(selection, where);
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, whereArgs);
+                cursor = queryView(db, builder, projection, selection, selectionArgs, sortOrder, limit, cancellationSignal);
+            } else {
+                cursor = queryView(db, builder, projection, selection, selectionArgs, sortOrder, limit, cancellationSignal);
+            }
+        }
+
+        return cursor;
+    }
+
+    /**
+     * Queries the tables of an entity. The cancellation signal is only given on Android 4.1
+     * and later, where the provider is queried with one.
+     */
+    private static Cursor queryTables(SQLiteDatabase db, String tables, String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit, CancellationSignal cancellationSignal) {
+        if (cancellationSignal != null) {
+            return db.query(false, tables, projection, selection, selectionArgs, null, null, sortOrder, limit, cancellationSignal);
+        }
+        return db.query(tables, projection, selection, selectionArgs, null, null, sortOrder, limit);
+    }
+
+    private static Cursor queryView(SQLiteDatabase db, SQLiteQueryBuilder builder, String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit, CancellationSignal cancellationSignal) {
+        if (cancellationSignal != null) {
+            return builder.query(db, projection, selection, selectionArgs, null, null, sortOrder, limit, cancellationSignal);
+        }
+        return builder.query(db, projection, selection, selectionArgs, null, null, sortOrder, limit);
+    }
+
+    /**
+     * Queries a list of items of an entity or a view, using a single IN (...) query
+     * per chunk of ids. The cursors of multiple chunks are merged, so the rows cannot be
+     * sorted or limited across the chunks. The rows of an entity are queried from the given
+     * tables, which are named after the entity.
+     *
+     * @throws IllegalArgumentException if there are multiple chunks and a sort order or limit
+     */
+    private Cursor queryIds(SQLiteDatabase db, SimpleUriMatcher.Match match, String tables, long[] ids, String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit, CancellationSignal cancellationSignal) {
+        String idColumn = (match.entity != null) ? match.entity.name + "." + match.entity.idColumn : match.view.idColumn;
+
+        List<String[]> chunks = chunkIds(ids, selectionArgs);
+        if (chunks.size() > 1 && ((sortOrder != null && !sortOrder.isEmpty()) || limit != null)) {
+            throw new IllegalArgumentException("Cannot sort or limit a query of more than " + chunks.get(0).length + " ids");
+        }
+
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            for (String[] chunk : chunks) {
+                String chunkSelection = DatabaseUtils.concatenateWhere(selection, buildInClause(idColumn, chunk.length));
+                String[] chunkSelectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, chunk);
+                if (match.entity != null) {
+                    cursors.add(queryTables(db, tables, projection, chunkSelection, chunkSelectionArgs, sortOrder, limit, cancellationSignal));
+                } else {
+                    cursors.add(queryView(db, match.view.queryBuilder, projection, chunkSelection, chunkSelectionArgs, sortOrder, limit, cancellationSignal));
+                }
+            }
+        } catch (RuntimeException e) {
+            // Close the chunks queried before a query of a later chunk was cancelled or failed...
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+            throw e;
+        }
+
+        if (cursors.size() == 1) {
+            return cursors.get(0);
+        } else {
+            return new MergeCursor(cursors.toArray(new Cursor[cursors.size()]));
+        }
+    }
+
+    /**
+     * Parses the list of ids of an item list Uri, or the ids query parameter
+     * of a directory Uri. Returns null if the Uri has no list of ids.
+     */
+    private long[] parseIds(SimpleUriMatcher.Match match, Uri uri) {
+        String idList;
+        if (match.isItemList) {
+            idList = uri.getLastPathSegment();
+        } else if (!match.isItem) {
+            idList = uri.getQueryParameter(QUERY_PARAMETER_IDS);
+        } else {
+            idList = null;
+        }
+
+        if (idList == null) {
+            return null;
+        }
+
+        String[] parts = idList.split(",");
+        long[] ids = new long[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                ids[i] = Long.parseLong(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid list of ids in Uri: " + uri);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Splits a list of ids into chunks, so that each chunk and the selection arguments
+     * can be bound in a single statement without exceeding SQLite's limit.
+     */
+    private static List<String[]> chunkIds(long[] ids, String[] selectionArgs) {
+        int chunkSize = MAX_BOUND_VARIABLES - (selectionArgs != null ? selectionArgs.length : 0);
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Too many selection arguments to select a list of ids");
+        }
+
+        List<String[]> chunks = new ArrayList<>();
+        for (int start = 0; start < ids.length; start += chunkSize) {
+            String[] chunk = new String[Math.min(chunkSize, ids.length - start)];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = "" + ids[start + i];
+            }
+            chunks.add(chunk);
+        }
+
+        return chunks;
+    }
+
+    private static String buildInClause(String column, int count) {
+        StringBuilder builder = new StringBuilder(column.length() + 6 + 2 * count);
+        builder.append(column).append(" IN (");
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "?" : ",?");
+        }
+        builder.append(")");
+        return builder.toString();
+    }
+
+    /**
+     * Returns the selection of the time range given by the QUERY_PARAMETER_FROM_TIME and
+     * QUERY_PARAMETER_TO_TIME parameters of a Uri of a time-partitioned entity, or null.
+     */
+    private static String buildTimeRangeSelection(Entity entity, Uri uri) {
+        String selection = null;
+        String fromTime = uri.getQueryParameter(QUERY_PARAMETER_FROM_TIME);
+        String toTime = uri.getQueryParameter(QUERY_PARAMETER_TO_TIME);
+        try {
+            if (fromTime != null && !fromTime.isEmpty()) {
+                selection = entity.partitionColumn + ">=" + Long.parseLong(fromTime);
+            }
+            if (toTime != null && !toTime.isEmpty()) {
+                selection = DatabaseUtils.concatenateWhere(selection, entity.partitionColumn + "<" + Long.parseLong(toTime));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time range in Uri: " + uri);
+        }
+        return selection;
+    }
+
+    /**
+     * Returns the tables of the partitions of a time-partitioned entity that may hold the
+     * rows matched by a Uri and a selection.
+     */
+    private List<String> getPartitionTables(SQLiteDatabase db, SimpleUriMatcher.Match match, Uri uri, long[] ids, String selection, String[] selectionArgs) {
+        if (ids == null && match.isItem) {
+            ids = new long[]{ContentUris.parseId(uri)};
+        }
+
+        if (ids != null) {
+            return new ArrayList<>(mTimePartitions.getTablesOfIds(db, match.entity, ids).keySet());
+        }
+
+        long[] range = new long[]{Long.MIN_VALUE, Long.MAX_VALUE};
+        TimePartitions.narrowTimeRange(match.entity, selection, selectionArgs, range);
+        return mTimePartitions.getTables(db, match.entity, range[0], range[1]);
+    }
+
+    /**
+     * Inserts a row into the partition of a time-partitioned entity holding the time of the row,
+     * creating the partition if needed. Rows without an id get the next id of the partition.
+     */
+    private long insertPartitioned(SQLiteDatabase db, Entity entity, ContentValues values, Integer conflictAlgorithm) {
+        Long time = values.getAsLong(entity.partitionColumn);
+        if (time == null) {
+            throw new IllegalArgumentException("Missing value of the partition column '" + entity.partitionColumn + "' for entity '" + entity.name + "'");
+        }
+
+        long partition = TimePartitions.getPartition(entity, time);
+        Long id = values.getAsLong(entity.idColumn);
+        if (id != null && TimePartitions.getPartitionOfId(id) != partition) {
+            throw new IllegalArgumentException("The id " + id + " does not belong to the partition of the row in entity '" + entity.name + "'");
+        }
+
+        try {
+            db.beginTransaction();
+            String table = mTimePartitions.createPartition(db, entity, partition);
+            if (id == null) {
+                values = new ContentValues(values);
+                values.put(entity.idColumn, mTimePartitions.nextId(db, entity, partition));
+            }
+
+            long insertedId = (conflictAlgorithm == null) ?
+                    db.insert(table, entity.nullColumnHack, values) :
+                    db.insertWithOnConflict(table, entity.nullColumnHack, values, conflictAlgorithm);
+            db.setTransactionSuccessful();
+            return insertedId;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Updates or deletes the rows of a time-partitioned entity in each partition that may
+     * hold matching rows, in a single transaction. Rows cannot be moved to other partitions,
+     * so the partition column cannot be updated.
+     *
+     * @param values the values to update, or null to delete the rows
+     */
+    private int changePartitions(SQLiteDatabase db, SimpleUriMatcher.Match match, Uri uri, long[] ids, ContentValues values, String selection, String[] selectionArgs, Integer conflictAlgorithm) {
+        Entity entity = match.entity;
+        if (values != null && values.containsKey(entity.partitionColumn)) {
+            throw new IllegalArgumentException("Cannot update the partition column '" + entity.partitionColumn + "' of entity '" + entity.name + "'");
+        }
+
+        selection = DatabaseUtils.concatenateWhere(selection, buildTimeRangeSelection(entity, uri));
+
+        int rowCount = 0;
+        try {
+            db.beginTransaction();
+            for (String table : getPartitionTables(db, match, uri, ids, selection, selectionArgs)) {
+                List<String> tableSelections = new ArrayList<>();
+                List<String[]> tableSelectionArgs = new ArrayList<>();
+                if (ids != null) {
+                    for (String[] chunk : chunkIds(ids, selectionArgs)) {
+                        tableSelections.add(DatabaseUtils.concatenateWhere(selection, buildInClause(table + "." + entity.idColumn, chunk.length)));
+                        tableSelectionArgs.add(DatabaseUtils.appendSelectionArgs(selectionArgs, chunk));
+                    }
+                } else if (match.isItem) {
+                    tableSelections.add(DatabaseUtils.concatenateWhere(selection, table + "." + entity.idColumn + "=?"));
+                    tableSelectionArgs.add(DatabaseUtils.appendSelectionArgs(selectionArgs, new String[]{"" + ContentUris.parseId(uri)}));
+                } else {
+                    tableSelections.add(selection);
+                    tableSelectionArgs.add(selectionArgs);
+                }
+
+                for (int i = 0; i < tableSelections.size(); i++) {
+                    if (values == null) {
+                        rowCount += db.delete(table, tableSelections.get(i), tableSelectionArgs.get(i));
+                    } else {
+                        rowCount += (conflictAlgorithm == null) ?
+                                db.update(table, values, tableSelections.get(i), tableSelectionArgs.get(i)) :
+                                db.updateWithOnConflict(table, values, tableSelections.get(i), tableSelectionArgs.get(i), conflictAlgorithm);
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return rowCount;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        SimpleUriMatcher.Match match = mMatcher.match(uri);
+
+        if (match == null) {
+            throw new IllegalArgumentException("Unknown Uri: " + uri);
+        }
+
+        if (match.view != null) {
+            throw new IllegalArgumentException("Cannot use insert with a view Uri: " + uri);
+        }
+
+        if (match.isItem || match.isItemList) {
+            throw new IllegalArgumentException("Cannot use insert with an item Uri: " + uri);
+        }
+
+        // Parse the conflict algorithm parameter. If no conflict algorithm
+        // was specified then use the "normal" insert method,
+        // which handles SQL exceptions by logging them...
+        Integer conflictAlgorithm = match.entity.defaultConflictAlgorithm;
+        String conflictAlgorithmParam = uri.getQueryParameter(PARAMETER_CONFLICT_ALGORITHM);
+        if (conflictAlgorithmParam != null && !conflictAlgorithmParam.isEmpty()) {
+            try {
+                conflictAlgorithm = Integer.parseInt(conflictAlgorithmParam);
+            } catch (NumberFormatException e) {
+                // Ignore exception
+            }
+        }
+
+        SQLiteDatabase db = getWritableDatabase(match.entity);
+        String table = match.entity.name;
+        String nullColumnHack = match.entity.nullColumnHack;
+        long insertedId;
+        if (match.entity.isPartitioned()) {
+            insertedId = insertPartitioned(db, match.entity, values, conflictAlgorithm);
+        } else {
+            insertedId = (conflictAlgorithm == null) ?
+                    db.insert(table, nullColumnHack, values) :
+                    db.insertWithOnConflict(table, nullColumnHack, values, conflictAlgorithm);
+        }
+
+        Uri insertedUri = null;
         if (insertedId != -1) {
+            // Evict the oldest rows, if the entity has a maximum size...
+            int evictedRows = 0;
+            if (match.entity.hasMaximumSize()) {
+                evictedRows = mRingBuffer.afterInsert(db, match.entity, 1);
+            }
+
             // Clear the query parameters before using the uri to build
             // the return value and to notify listeners...
             uri = uri.buildUpon().clearQuery().build();
             insertedUri = ContentUris.withAppendedId(uri, insertedId);
+            if (evictedRows > 0 || mayReplaceRows(match.entity, conflictAlgorithm)) {
+                invalidateChangedRows(match.entity);
+            } else {
+                invalidateInsertedRow(match.entity, insertedId);
+            }
+            recordChangedRows(match.entity, 1 + evictedRows);
             postNotifyChangedUri(uri);
             postNotifyChangedViews(match.entity.name);
+            postNotifyChangedCounterCaches(match.entity, null);
             notifyChangedUris();
         }
 
@@ -269,12 +1403,31 @@ public abstract class SimpleContentProvider extends ContentProvider {
             }
         }
 
-        SQLiteDatabase db = mDatabaseHelper.getReadableDatabase();
+        SQLiteDatabase db = getWritableDatabase(match.entity);
         String table = match.entity.name;
         String idColumn = match.entity.idColumn;
 
+        long[] ids = parseIds(match, uri);
+
         int rowCount;
-        if (match.isItem) {
+        if (match.entity.isPartitioned()) {
+            rowCount = changePartitions(db, match, uri, ids, values, selection, selectionArgs, conflictAlgorithm);
+        } else if (ids != null) {
+            rowCount = 0;
+            try {
+                db.beginTransaction();
+                for (String[] chunk : chunkIds(ids, selectionArgs)) {
+                    String chunkSelection = DatabaseUtils.concatenateWhere(selection, buildInClause(table + "." + idColumn, chunk.length));
+                    String[] chunkSelectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, chunk);
+                    rowCount += (conflictAlgorithm == null) ?
+                            db.update(table, values, chunkSelection, chunkSelectionArgs) :
+                            db.updateWithOnConflict(table, values, chunkSelection, chunkSelectionArgs, conflictAlgorithm);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } else if (match.isItem) {
             long id  = ContentUris.parseId(uri);
             String where = table + "." + idColumn + "=?";
             String[] whereArgs = new String[]{"" + id};
@@ -290,10 +1443,20 @@ public abstract class SimpleContentProvider extends ContentProvider {
         }
 
         if (rowCount > 0) {
+            recordChangedRows(match.entity, rowCount);
+            if (ids != null && !mayReplaceRows(match.entity, conflictAlgorithm)) {
+                invalidateChangedRows(match.entity, ids);
+            } else if (match.isItem && !mayReplaceRows(match.entity, conflictAlgorithm)) {
+                invalidateChangedRow(match.entity, ContentUris.parseId(uri));
+            } else {
+                invalidateChangedRows(match.entity);
+            }
+
             // Clear the query parameters before using the uri to notify listeners...
             uri = uri.buildUpon().clearQuery().build();
             postNotifyChangedUri(uri);
             postNotifyChangedViews(match.entity.name);
+            postNotifyChangedCounterCaches(match.entity, values);
             notifyChangedUris();
         }
 
@@ -312,12 +1475,55 @@ public abstract class SimpleContentProvider extends ContentProvider {
             throw new IllegalArgumentException("Cannot use delete with a view Uri: " + uri);
         }
 
-        SQLiteDatabase db = mDatabaseHelper.getReadableDatabase();
+        SQLiteDatabase db = getWritableDatabase(match.entity);
         String table = match.entity.name;
         String idColumn = match.entity.idColumn;
 
+        long[] ids = parseIds(match, uri);
+
+        String chunked = uri.getQueryParameter(QUERY_PARAMETER_CHUNKED);
+        if (chunked != null && !"false".equals(chunked)) {
+            if (match.isItem || ids != null) {
+                throw new IllegalArgumentException("Cannot use chunked delete with an item Uri: " + uri);
+            }
+
+            if (match.entity.isPartitioned()) {
+                throw new IllegalArgumentException("Cannot use chunked delete with a time-partitioned entity: " + uri);
+            }
+
+            int chunkSize = ChunkedDelete.DEFAULT_CHUNK_SIZE;
+            if (!"true".equals(chunked)) {
+                try {
+                    chunkSize = Integer.parseInt(chunked);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid chunk size: " + uri);
+                }
+            }
+            long deletedRows = new ChunkedDelete(db, table, selection, selectionArgs, chunkSize).execute(null);
+            if (deletedRows > 0) {
+                recordChangedRows(match.entity, deletedRows);
+                notifyChangedRows(match.entity);
+            }
+            return (int) deletedRows;
+        }
+
         int rowCount;
-        if (match.isItem) {
+        if (match.entity.isPartitioned()) {
+            rowCount = changePartitions(db, match, uri, ids, null, selection, selectionArgs, null);
+        } else if (ids != null) {
+            rowCount = 0;
+            try {
+                db.beginTransaction();
+                for (String[] chunk : chunkIds(ids, selectionArgs)) {
+                    String chunkSelection = DatabaseUtils.concatenateWhere(selection, buildInClause(table + "." + idColumn, chunk.length));
+                    String[] chunkSelectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, chunk);
+                    rowCount += db.delete(table, chunkSelection, chunkSelectionArgs);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } else if (match.isItem) {
             long id  = ContentUris.parseId(uri);
             String where = table + "." + idColumn + "=?";
             String[] whereArgs = new String[]{"" + id};
@@ -331,11 +1537,21 @@ public abstract class SimpleContentProvider extends ContentProvider {
         // If the selection is null then all the rows in the table are deleted,
         // but the delete method will not return a row count. Yet we still
         // want to notify listeners...
-        if (selection == null || rowCount > 0) {
+        if ((selection == null && ids == null) || rowCount > 0) {
+            recordChangedRows(match.entity, rowCount);
+            if (ids != null) {
+                invalidateChangedRows(match.entity, ids);
+            } else if (match.isItem) {
+                invalidateChangedRow(match.entity, ContentUris.parseId(uri));
+            } else {
+                invalidateChangedRows(match.entity);
+            }
+
             // Clear the query parameters before using the uri to notify listeners...
             uri = uri.buildUpon().clearQuery().build();
             postNotifyChangedUri(uri);
             postNotifyChangedViews(match.entity.name);
+            postNotifyChangedCounterCaches(match.entity, null);
             notifyChangedUris();
         }
 
@@ -348,6 +1564,10 @@ public abstract class SimpleContentProvider extends ContentProvider {
      *
      * A single notifications of change is sent out only when all the inserts are done.
      *
+     * Inserts in the background lane commit the rows inserted so far whenever interactive
+     * queries are running, so they are not rolled back if a later insert fails.
+     * See QUERY_PARAMETER_PRIORITY.
+     *
      * @param uri The content:// URI of the insertion request.
      * @param values An array of sets of column_name/value pairs to add to the database. This must not be {@code null}.
      * @return The number of values that were inserted.
@@ -364,7 +1584,7 @@ public abstract class SimpleContentProvider extends ContentProvider {
             throw new IllegalArgumentException("Cannot use insert with a view Uri: " + uri);
         }
 
-        if (match.isItem) {
+        if (match.isItem || match.isItemList) {
             throw new IllegalArgumentException("Cannot use insert with an item Uri: " + uri);
         }
 
@@ -383,18 +1603,47 @@ public abstract class SimpleContentProvider extends ContentProvider {
 
         String table = match.entity.name;
         String nullColumnHack = match.entity.nullColumnHack;
-        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        SQLiteDatabase db = getWritableDatabase(match.entity);
+
+        // Background inserts give way to interactive queries, unless they are part of an outer transaction...
+        int lane = PriorityLanes.getWriteLane(uri);
+        boolean yieldAllowed = (lane == PriorityLanes.LANE_BACKGROUND) && !db.inTransaction();
 
         int rows = 0;
+        int chunkRows = 0;
+        int evictedRows = 0;
         try {
-            db.beginTransaction();
+            beginTransaction(db, lane);
             for (ContentValues value : values) {
-                long id = (conflictAlgorithm == null) ?
-                        db.insert(table, nullColumnHack, value) :
-                        db.insertWithOnConflict(table, nullColumnHack, value, conflictAlgorithm);
+                long id;
+                if (match.entity.isPartitioned()) {
+                    id = insertPartitioned(db, match.entity, value, conflictAlgorithm);
+                } else {
+                    id = (conflictAlgorithm == null) ?
+                            db.insert(table, nullColumnHack, value) :
+                            db.insertWithOnConflict(table, nullColumnHack, value, conflictAlgorithm);
+                }
                 if (id != -1) {
                     rows += 1;
+                    chunkRows += 1;
                 }
+
+                if (yieldAllowed && chunkRows > 0 && mPriorityLanes.hasRunningInteractiveQueries() && db.yieldIfContendedSafely()) {
+                    mPriorityLanes.recordYield();
+
+                    // Evict the oldest rows for the rows committed by the yield, so readers may
+                    // briefly have seen more rows than the maximum...
+                    if (match.entity.hasMaximumSize()) {
+                        evictedRows += mRingBuffer.afterInsert(db, match.entity, chunkRows);
+                    }
+                    chunkRows = 0;
+                    invalidateChangedRows(match.entity);
+                }
+            }
+
+            // Evict the oldest rows once for all the inserted rows, if the entity has a maximum size...
+            if (chunkRows > 0 && match.entity.hasMaximumSize()) {
+                evictedRows += mRingBuffer.afterInsert(db, match.entity, chunkRows);
             }
             db.setTransactionSuccessful();
         } finally {
@@ -402,10 +1651,21 @@ public abstract class SimpleContentProvider extends ContentProvider {
         }
 
         if (rows > 0) {
+            recordChangedRows(match.entity, rows + evictedRows);
+
+            // Inserted rows are never in the row cache, but rows replaced
+            // by conflicting inserts or evicted rows may well be...
+            if (evictedRows > 0 || mayReplaceRows(match.entity, conflictAlgorithm)) {
+                invalidateChangedRows(match.entity);
+            } else {
+                invalidateResultCache(match.entity);
+            }
+
             // Clear the query parameters before using the uri to notify listeners...
             uri = uri.buildUpon().clearQuery().build();
             postNotifyChangedUri(uri);
             postNotifyChangedViews(match.entity.name);
+            postNotifyChangedCounterCaches(match.entity, null);
             notifyChangedUris();
         }
 
@@ -416,6 +1676,14 @@ public abstract class SimpleContentProvider extends ContentProvider {
      * Applies a list of operations in a single batch. The batch is running in a transaction.
      * If one of the operations fails, then all of them are rolled back.
      *
+     * If the operations change entities in different shards, the batch is running in a
+     * transaction in each of the shards. The transactions are committed one after another,
+     * so the batch is only atomic as long as it changes entities in a single shard.
+     *
+     * Batches in the background lane commit the operations applied so far at operations
+     * that allow it to yield, whenever interactive queries are running.
+     * See QUERY_PARAMETER_PRIORITY.
+     *
      * Notifications of changes are batched and sent out only when all the operations are done.
      * The content provider always sends a maximum of one notification per URI,
      * even if multiple operations were applied to the same URI.
@@ -428,21 +1696,1209 @@ public abstract class SimpleContentProvider extends ContentProvider {
      */
     @Override
     public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
-        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
-
+        // Find the shards changed by the operations...
+        Set<Entity> entities = new HashSet<>();
+        Set<String> shards = new TreeSet<>();
+        boolean mainDatabase = false;
+        for (ContentProviderOperation operation : operations) {
+            SimpleUriMatcher.Match match = mMatcher.match(operation.getUri());
+            if (match != null && match.entity != null && entities.add(match.entity)) {
+                if (match.entity.shard != null) {
+                    shards.add(match.entity.shard);
+                } else {
+                    mainDatabase = true;
+                }
+            }
+        }
+
+        // ...and begin their transactions in a stable order, the main database first and then the
+        // shards by name, so concurrent batches changing the same shards cannot deadlock...
+        List<SQLiteDatabase> databases = new ArrayList<>();
+        if (mainDatabase || shards.isEmpty()) {
+            databases.add(openDatabase(mDatabaseHelper, true));
+        }
+        for (String shard : shards) {
+            databases.add(openDatabase(mShardHelpers.get(shard), true));
+        }
+
+        // The batch is in the background lane if any of its operations are...
+        int lane = PriorityLanes.LANE_INTERACTIVE;
+        for (ContentProviderOperation operation : operations) {
+            lane = Math.max(lane, PriorityLanes.getWriteLane(operation.getUri()));
+        }
+        boolean yieldAllowed = (lane == PriorityLanes.LANE_BACKGROUND);
+        for (SQLiteDatabase db : databases) {
+            yieldAllowed &= !db.inTransaction();
+        }
+
         ContentProviderResult[] results = null;
+        int transactions = 0;
         try {
             mApplyingBatchOperations.set(true);
+            for (SQLiteDatabase db : databases) {
+                beginTransaction(db, lane);
+                transactions += 1;
+            }
+            results = yieldAllowed ? applyYieldingBatch(operations, databases, entities) : super.applyBatch(operations);
+            for (SQLiteDatabase db : databases) {
+                db.setTransactionSuccessful();
+            }
+        } finally {
+            mApplyingBatchOperations.set(false);
+            for (int i = 0; i < transactions; i++) {
+                databases.get(i).endTransaction();
+            }
+
+            // Invalidate the caches again once the transaction has ended, in case a
+            // concurrent reader cached a result before the changes were committed...
+            for (Entity entity : entities) {
+                invalidateChangedRows(entity);
+            }
+
+            notifyChangedUris();
+        }
+
+        return results;
+    }
+
+    /**
+     * Applies the operations of a batch in the background lane, like ContentProvider.applyBatch,
+     * committing the operations applied so far at the operations that allow it, if interactive
+     * queries are running.
+     */
+    private ContentProviderResult[] applyYieldingBatch(List<ContentProviderOperation> operations, List<SQLiteDatabase> databases, Set<Entity> entities) throws OperationApplicationException {
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        for (int i = 0; i < operations.size(); i++) {
+            ContentProviderOperation operation = operations.get(i);
+            if (i > 0 && operation.isYieldAllowed() && mPriorityLanes.hasRunningInteractiveQueries()) {
+                boolean yielded = false;
+                for (SQLiteDatabase db : databases) {
+                    yielded |= db.yieldIfContendedSafely();
+                }
+
+                if (yielded) {
+                    mPriorityLanes.recordYield();
+                    for (Entity entity : entities) {
+                        invalidateChangedRows(entity);
+                    }
+                }
+            }
+            results[i] = operation.apply(this, results, i);
+        }
+        return results;
+    }
+
+    /**
+     * Begins a transaction, tracking the time spent waiting for the database in the given lane.
+     */
+    private void beginTransaction(SQLiteDatabase db, int lane) {
+        long start = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        mPriorityLanes.recordTransaction(lane, SystemClock.elapsedRealtime() - start);
+    }
+
+    /**
+     * Handles the METHOD_GET_STATISTICS, METHOD_GET_ROW_COUNT, METHOD_BULK_INSERT_COLUMNS,
+     * METHOD_IMPORT, METHOD_MERGE_IMPORT, METHOD_REBUILD, METHOD_DELETE_CHUNKED, METHOD_BACKUP,
+     * METHOD_GET_TASK and METHOD_CANCEL_TASK methods.
+     * Other methods are passed on to the super class.
+     *
+     * @see ContentProvider#call(String, String, Bundle)
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (METHOD_GET_STATISTICS.equals(method)) {
+            enforceReadPermission();
+            return getStatistics();
+        }
+
+        if (METHOD_GET_ROW_COUNT.equals(method)) {
+            enforceReadPermission();
+            Bundle result = new Bundle();
+            result.putLong(KEY_ROW_COUNT, getRowCount(arg));
+            return result;
+        }
+
+        if (METHOD_BULK_INSERT_COLUMNS.equals(method)) {
+            enforceWritePermission();
+            Bundle result = new Bundle();
+            result.putLong(KEY_ROW_COUNT, bulkInsertColumns(arg, (extras != null) ? extras : new Bundle()));
+            return result;
+        }
+
+        if (METHOD_IMPORT.equals(method)) {
+            enforceWritePermission();
+            if (extras == null || extras.getParcelable(KEY_FILE_DESCRIPTOR) == null) {
+                throw new IllegalArgumentException("Missing file descriptor for import");
+            }
+
+            Integer conflictAlgorithm = extras.containsKey(PARAMETER_CONFLICT_ALGORITHM) ? extras.getInt(PARAMETER_CONFLICT_ALGORITHM) : null;
+            StreamImporter importer = importRows(getEntity(arg), extras.getString(KEY_FORMAT), (ParcelFileDescriptor) extras.getParcelable(KEY_FILE_DESCRIPTOR),
+                    conflictAlgorithm, extras.getInt(KEY_CHUNK_SIZE, StreamImporter.DEFAULT_CHUNK_SIZE));
+            Bundle result = new Bundle();
+            importer.addResult(result, KEY_ROW_COUNT, KEY_ERROR_COUNT, KEY_ERRORS);
+            return result;
+        }
+
+        if (METHOD_MERGE_IMPORT.equals(method)) {
+            enforceWritePermission();
+            return mergeImport(arg, (extras != null) ? extras : new Bundle());
+        }
+
+        if (METHOD_REBUILD.equals(method)) {
+            enforceWritePermission();
+            return rebuild(arg, (extras != null) ? extras : new Bundle());
+        }
+
+        if (METHOD_DELETE_CHUNKED.equals(method)) {
+            enforceWritePermission();
+            return deleteChunked(arg, (extras != null) ? extras : new Bundle());
+        }
+
+        if (METHOD_BACKUP.equals(method)) {
+            enforceReadPermission();
+            return backup(arg, (extras != null) ? extras : new Bundle());
+        }
+
+        if (METHOD_GET_TASK.equals(method)) {
+            BackgroundTask task = getTask(arg);
+            if (task == null) {
+                return null;
+            }
+
+            long timeout = (extras != null) ? extras.getLong(KEY_TIMEOUT) : 0;
+            if (timeout > 0) {
+                try {
+                    task.awaitDone(timeout);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            Bundle result = task.toBundle();
+            if (result.getBoolean(KEY_TASK_DONE)) {
+                synchronized (mTasks) {
+                    mTasks.remove(task.id);
+                }
+            }
+            return result;
+        }
+
+        if (METHOD_CANCEL_TASK.equals(method)) {
+            BackgroundTask task = getTask(arg);
+            if (task != null) {
+                task.cancel();
+            }
+            return null;
+        }
+
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Returns statistics for the provider, such as the number of hits, misses
+     * and evictions of the row cache ("rowCacheHits", "rowCacheMisses", "rowCacheEvictions")
+     * and the result cache ("resultCacheHits", "resultCacheMisses", "resultCacheEvictions"),
+     * and the number of queries executed and shared by query deduplication
+     * ("deduplicationExecutions", "deduplicationShared").
+     *
+     * @return a Bundle with the statistics
+     */
+    public Bundle getStatistics() {
+        Bundle statistics = new Bundle();
+        mRowCache.addStatistics(statistics);
+        mResultCache.addStatistics(statistics);
+        mQueryDeduplicator.addStatistics(statistics);
+        mRingBuffer.addStatistics(statistics);
+        mExpirySweeper.addStatistics(statistics);
+        mTimePartitions.addStatistics(statistics);
+        mPriorityLanes.addStatistics(statistics);
+        mAnalyzeScheduler.addStatistics(statistics);
+        mIncrementalVacuum.addStatistics(statistics);
+        statistics.putLong(STATISTICS_FIRST_QUERY_LATENCY, mFirstQueryLatency);
+        synchronized (this) {
+            statistics.putLong(STATISTICS_IMPORTED_ROWS, mImportedRows);
+            statistics.putLong(STATISTICS_IMPORT_ERRORS, mImportErrors);
+            statistics.putLong(STATISTICS_MEMORY_TRIMS, mMemoryTrims);
+            statistics.putInt(STATISTICS_LAST_TRIM_LEVEL, mLastTrimLevel);
+            statistics.putLong(STATISTICS_SQLITE_MEMORY_RELEASES, mSqliteMemoryReleases);
+            statistics.putLong(STATISTICS_RELEASED_SQLITE_MEMORY, mReleasedSqliteMemory);
+        }
+        if (mDatabaseAsset != null) {
+            mDatabaseAsset.addStatistics(statistics);
+        }
+        if (mDatabaseWarmUp != null) {
+            mDatabaseWarmUp.addStatistics(statistics);
+        }
+        mStartupTimings.addStatistics(statistics);
+        return statistics;
+    }
+
+    /**
+     * Returns the main database for reading, with the databases of all shards attached,
+     * waiting for the warm-up to finish if it is running.
+     */
+    private SQLiteDatabase getReadableDatabase() {
+        // Open the shards first, so their tables exist when they are attached...
+        for (SQLiteOpenHelper shardHelper : mShardHelpers.values()) {
+            openDatabase(shardHelper, false);
+        }
+        return openDatabase(mDatabaseHelper, false);
+    }
+
+    /**
+     * Returns the database of the entity for reading.
+     */
+    private SQLiteDatabase getReadableDatabase(Entity entity) {
+        // In-memory entities are attached to the main database...
+        return (entity.shard == null) ? getReadableDatabase() : openDatabase(mShardHelpers.get(entity.shard), false);
+    }
+
+    /**
+     * Returns the database of the entity for writing.
+     */
+    private SQLiteDatabase getWritableDatabase(Entity entity) {
+        return (entity.shard == null) ? openDatabase(mDatabaseHelper, true) : openDatabase(mShardHelpers.get(entity.shard), true);
+    }
+
+    private SQLiteDatabase openDatabase(SQLiteOpenHelper helper, boolean writable) {
+        if (mDatabaseWarmUp != null) {
+            mDatabaseWarmUp.await();
+        }
+
+        synchronized (mOpenedHelpers) {
+            if (mOpenedHelpers.contains(helper)) {
+                return writable ? helper.getWritableDatabase() : helper.getReadableDatabase();
+            }
+        }
+
+        // Measure the time spent opening the database, if it was not opened by the warm-up...
+        long start = SystemClock.elapsedRealtime();
+        SQLiteDatabase db = writable ? helper.getWritableDatabase() : helper.getReadableDatabase();
+        mStartupTimings.record(StartupTimings.DATABASE_OPEN, SystemClock.elapsedRealtime() - start);
+        synchronized (mOpenedHelpers) {
+            mOpenedHelpers.add(helper);
+        }
+        return db;
+    }
+
+    private Entity getEntity(String entityName) {
+        for (Entity entity : mEntities) {
+            if (entity.name.equals(entityName)) {
+                return entity;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSameShard(Entity entity, Entity other) {
+        if (entity.inMemory != other.inMemory) {
+            return false;
+        }
+        return (entity.shard == null) ? other.shard == null : entity.shard.equals(other.shard);
+    }
+
+    /**
+     * Deletes the expired rows of all entities with a time to live, drops the expired
+     * partitions of time-partitioned entities with a retention, and notifies the Uri's
+     * of entities with deleted rows. This method is called periodically on a background
+     * thread, at the interval set with setExpirySweepInterval.
+     */
+    protected void sweepExpiredRows() {
+        for (Entity entity : mEntities) {
+            if (entity.timeToLive > 0 || entity.partitionRetention > 0) {
+                try {
+                    long now = System.currentTimeMillis();
+                    int deletedRows = (entity.timeToLive > 0) ?
+                            mExpirySweeper.sweep(getWritableDatabase(entity), entity, now) :
+                            mTimePartitions.dropExpired(getWritableDatabase(entity), entity, now);
+                    if (deletedRows > 0) {
+                        recordChangedRows(entity, deletedRows);
+                        notifyChangedRows(entity);
+                    }
+                } catch (SQLiteException e) {
+                    // Try again at the next sweep...
+                    Log.w(TAG, "Unable to sweep expired rows of entity '" + entity.name + "'", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the entities with a time to live that the view is on.
+     */
+    private List<Entity> getExpiringEntities(EntityView view) {
+        List<Entity> entities = new ArrayList<>();
+        for (Entity entity : mEntities) {
+            Set<String> views = mEntityToViewsMap.get(entity.name);
+            if (entity.timeToLive > 0 && views != null && views.contains(view.name)) {
+                entities.add(entity);
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Deletes the expired rows of the entity, if it has any. The rows are looked up first,
+     * so the write lock is only taken when there are rows to delete.
+     */
+    private void sweepExpiredRowsBeforeRead(Entity entity) {
+        long now = System.currentTimeMillis();
+        long expiredRows = DatabaseUtils.longForQuery(getReadableDatabase(entity),
+                "SELECT EXISTS (SELECT 1 FROM " + entity.name + " WHERE " + ExpirySweeper.getExpiredSelection(entity) + ")",
+                new String[]{Long.toString(now - entity.timeToLive)});
+        if (expiredRows > 0) {
+            int deletedRows = mExpirySweeper.sweep(getWritableDatabase(entity), entity, now);
+            if (deletedRows > 0) {
+                recordChangedRows(entity, deletedRows);
+                notifyChangedRows(entity);
+            }
+        }
+    }
+
+    /**
+     * Counts rows changed in an entity, and analyzes the entity in the background when it has
+     * passed the analyze threshold, or when no rows have been changed for the idle delay.
+     */
+    private void recordChangedRows(final Entity entity, long rows) {
+        if (mAnalyzeThreshold <= 0) {
+            return;
+        }
+
+        if (mAnalyzeScheduler.recordChanges(entity, rows)) {
+            getBackgroundExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    analyzeEntity(entity);
+                }
+            });
+        }
+
+        if (rows > 0 && mAnalyzeScheduler.scheduleIdleCheck()) {
+            scheduleIdleAnalyze(mAnalyzeScheduler.getIdleDelay());
+        }
+    }
+
+    private void scheduleIdleAnalyze(long delay) {
+        getBackgroundExecutor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                long timeUntilIdle = mAnalyzeScheduler.getTimeUntilIdle();
+                if (timeUntilIdle > 0) {
+                    scheduleIdleAnalyze(timeUntilIdle);
+                    return;
+                }
+
+                for (String entityName : mAnalyzeScheduler.getIdleEntities()) {
+                    analyzeEntity(getEntity(entityName));
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void analyzeEntity(Entity entity) {
+        try {
+            SQLiteDatabase db = getWritableDatabase(entity);
+            List<String> tables = new ArrayList<>();
+            if (entity.isPartitioned()) {
+                for (long partition : mTimePartitions.getPartitions(db, entity)) {
+                    tables.add(TimePartitions.getTableName(entity, partition));
+                }
+            } else {
+                tables.add(entity.name);
+            }
+            mAnalyzeScheduler.analyze(db, entity, tables);
+        } catch (SQLiteException e) {
+            // Try again after the next changes...
+            Log.w(TAG, "Unable to analyze entity '" + entity.name + "'", e);
+        }
+    }
+
+    /**
+     * Releases the free pages of the opened databases, if they have passed the threshold set
+     * with setIncrementalVacuum. This method is called periodically on a background thread.
+     */
+    protected void vacuumDatabases() {
+        List<SQLiteDatabase> databases = new ArrayList<>();
+        synchronized (mOpenedHelpers) {
+            for (SQLiteOpenHelper helper : mOpenedHelpers) {
+                databases.add(helper.getWritableDatabase());
+            }
+        }
+
+        try {
+            mIncrementalVacuum.vacuum(databases);
+        } catch (SQLiteException e) {
+            // Try again at the next interval...
+            Log.w(TAG, "Unable to vacuum databases", e);
+        }
+    }
+
+    /**
+     * Releases memory when the system runs low on memory, or the process is in the background.
+     * Cached query results are dropped first, since they are cheap to rebuild. Under more
+     * pressure, cached rows are dropped as well, and SQLite releases the page caches of the
+     * connections and other memory it does not need. The caches fill up again on demand.
+     *
+     * When the process goes to the background after rows have been changed, PRAGMA optimize
+     * is run on the opened databases, since shutdown is not called on a running device.
+     *
+     * @see ComponentCallbacks2#onTrimMemory(int)
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        trimMemory(level);
+    }
+
+    /**
+     * Releases as much memory as possible, like onTrimMemory with TRIM_MEMORY_COMPLETE.
+     */
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    private void trimMemory(int level) {
+        boolean releaseResults = level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+                || level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+        boolean releaseAll = level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+                || level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN && mAnalyzeThreshold > 0 && mAnalyzeScheduler.beginOptimize()) {
+            getBackgroundExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    optimizeDatabases();
+                }
+            });
+        }
+        if (!releaseResults) {
+            return;
+        }
+
+        mResultCache.clear();
+        if (releaseAll) {
+            mRowCache.clear();
+
+            // Waiting for a connection to the database may take a while, so release the memory of SQLite in the background...
+            getBackgroundExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    releaseSqliteMemory();
+                }
+            });
+        }
+
+        synchronized (this) {
+            mMemoryTrims += 1;
+            mLastTrimLevel = level;
+        }
+    }
+
+    private void releaseSqliteMemory() {
+        List<SQLiteOpenHelper> helpers;
+        synchronized (mOpenedHelpers) {
+            helpers = new ArrayList<>(mOpenedHelpers);
+        }
+
+        for (SQLiteOpenHelper helper : helpers) {
+            try {
+                helper.getWritableDatabase().execSQL("PRAGMA shrink_memory");
+            } catch (SQLiteException e) {
+                Log.w(TAG, "Unable to release memory of database", e);
+            }
+        }
+
+        long releasedMemory = SQLiteDatabase.releaseMemory();
+        synchronized (this) {
+            mSqliteMemoryReleases += 1;
+            mReleasedSqliteMemory += releasedMemory;
+        }
+    }
+
+    private void optimizeDatabases() {
+        List<SQLiteOpenHelper> helpers;
+        synchronized (mOpenedHelpers) {
+            helpers = new ArrayList<>(mOpenedHelpers);
+        }
+
+        for (SQLiteOpenHelper helper : helpers) {
+            try {
+                mAnalyzeScheduler.optimize(helper.getWritableDatabase());
+            } catch (SQLiteException e) {
+                Log.w(TAG, "Unable to optimize database", e);
+            }
+        }
+    }
+
+    /**
+     * Runs PRAGMA optimize on the opened databases, refreshing stale statistics of the query
+     * planner, and closes the databases.
+     */
+    @Override
+    public void shutdown() {
+        List<SQLiteOpenHelper> helpers;
+        synchronized (mOpenedHelpers) {
+            helpers = new ArrayList<>(mOpenedHelpers);
+            mOpenedHelpers.clear();
+        }
+
+        for (SQLiteOpenHelper helper : helpers) {
+            try {
+                mAnalyzeScheduler.optimize(helper.getWritableDatabase());
+            } catch (SQLiteException e) {
+                Log.w(TAG, "Unable to optimize database", e);
+            }
+            helper.close();
+        }
+    }
+
+    /**
+     * Invalidates the caches of an entity and notifies its Uri's after rows have been
+     * changed by the provider itself, rather than through a call to insert, update or delete.
+     */
+    private void notifyChangedRows(Entity entity) {
+        invalidateChangedRows(entity);
+        postNotifyChangedUri(Uri.parse("content://" + mAuthority + "/" + entity.name));
+        postNotifyChangedViews(entity.name);
+        postNotifyChangedCounterCaches(entity, null);
+        notifyChangedUris();
+    }
+
+    /**
+     * Inserts rows given as one array of values per column in a single transaction,
+     * and notifies listeners once. See METHOD_BULK_INSERT_COLUMNS.
+     */
+    private int bulkInsertColumns(String entityName, Bundle extras) {
+        Entity entity = getEntity(entityName);
+        if (entity == null) {
+            throw new IllegalArgumentException("Unknown entity: " + entityName);
+        }
+
+        if (entity.isPartitioned()) {
+            throw new IllegalArgumentException("Cannot insert columns into the time-partitioned entity: " + entityName);
+        }
+
+        Integer conflictAlgorithm = extras.containsKey(PARAMETER_CONFLICT_ALGORITHM) ? extras.getInt(PARAMETER_CONFLICT_ALGORITHM) : entity.defaultConflictAlgorithm;
+        ColumnarInsert columnarInsert = new ColumnarInsert(entity, extras, Collections.singleton(PARAMETER_CONFLICT_ALGORITHM));
+
+        SQLiteDatabase db = getWritableDatabase(entity);
+        int rows;
+        int evictedRows = 0;
+        try {
             db.beginTransaction();
-            results = super.applyBatch(operations);
+            rows = columnarInsert.insert(db, entity.name, conflictAlgorithm);
+
+            // Evict the oldest rows once for all the inserted rows, if the entity has a maximum size...
+            if (rows > 0 && entity.hasMaximumSize()) {
+                evictedRows = mRingBuffer.afterInsert(db, entity, rows);
+            }
             db.setTransactionSuccessful();
         } finally {
-            mApplyingBatchOperations.set(false);
             db.endTransaction();
+        }
+
+        if (rows > 0) {
+            recordChangedRows(entity, rows + evictedRows);
+            if (evictedRows > 0 || mayReplaceRows(entity, conflictAlgorithm)) {
+                invalidateChangedRows(entity);
+            } else {
+                invalidateResultCache(entity);
+            }
+
+            postNotifyChangedUri(Uri.parse("content://" + mAuthority + "/" + entity.name));
+            postNotifyChangedViews(entity.name);
+            postNotifyChangedCounterCaches(entity, null);
             notifyChangedUris();
         }
 
-        return results;
+        return rows;
+    }
+
+    /**
+     * Merges a snapshot of rows into an entity in a single transaction, and notifies
+     * listeners once if any rows were changed. See METHOD_MERGE_IMPORT.
+     */
+    private Bundle mergeImport(String entityName, Bundle extras) {
+        Entity entity = getEntity(entityName);
+        if (entity == null) {
+            throw new IllegalArgumentException("Unknown entity: " + entityName);
+        }
+
+        if (entity.isPartitioned()) {
+            throw new IllegalArgumentException("Cannot merge rows into the time-partitioned entity: " + entityName);
+        }
+
+        String mergeKey = extras.getString(KEY_MERGE_KEY, entity.idColumn);
+        checkSnapshotFormat(extras);
+
+        SQLiteDatabase db = getWritableDatabase(entity);
+        MergeImport mergeImport = new MergeImport(db, entity, mergeKey.split("\\s*,\\s*"));
+        StreamImporter importer;
+        long[] changedIds = null;
+        int evictedRows = 0;
+        try {
+            // Load the snapshot into the staging table, reading the stream outside of the merge transaction...
+            mergeImport.createStagingTable();
+            Collection<String> columns = new HashSet<>();
+            importer = loadSnapshot(db, entity, mergeImport.getStagingTable(), extras,
+                    new HashSet<>(Arrays.asList(KEY_MERGE_KEY, KEY_DELETE_MISSING)), columns, MergeImport.PRESENT_COLUMNS);
+
+            // ...and apply the differences to the entity, unless the snapshot could not be read in full...
+            if (importer == null || importer.getErrorCount() == 0) {
+                try {
+                    db.beginTransaction();
+                    mergeImport.merge(columns, extras.getBoolean(KEY_DELETE_MISSING, true));
+                    changedIds = mergeImport.getChangedIds(MAX_MERGE_INVALIDATIONS);
+
+                    // Evict the oldest rows once for all the inserted rows, if the entity has a maximum size...
+                    if (mergeImport.getInsertedRows() > 0 && entity.hasMaximumSize()) {
+                        evictedRows = mRingBuffer.afterInsert(db, entity, mergeImport.getInsertedRows());
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } finally {
+            mergeImport.dropTables();
+        }
+
+        int changedRows = mergeImport.getInsertedRows() + mergeImport.getUpdatedRows() + mergeImport.getDeletedRows();
+        if (changedRows > 0) {
+            recordChangedRows(entity, changedRows + evictedRows);
+            if (changedIds == null || evictedRows > 0 || mayReplaceRows(entity, null)) {
+                invalidateChangedRows(entity);
+            } else {
+                invalidateChangedRows(entity, changedIds);
+            }
+
+            postNotifyChangedUri(Uri.parse("content://" + mAuthority + "/" + entity.name));
+            postNotifyChangedViews(entity.name);
+            postNotifyChangedCounterCaches(entity, null);
+            notifyChangedUris();
+        }
+
+        Bundle result = new Bundle();
+        result.putLong(KEY_INSERTED_COUNT, mergeImport.getInsertedRows());
+        result.putLong(KEY_UPDATED_COUNT, mergeImport.getUpdatedRows());
+        result.putLong(KEY_DELETED_COUNT, mergeImport.getDeletedRows());
+        if (importer != null) {
+            importer.addResult(result, KEY_ROW_COUNT, KEY_ERROR_COUNT, KEY_ERRORS);
+            synchronized (this) {
+                mImportedRows += importer.getImportedRows();
+                mImportErrors += importer.getErrorCount();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rebuilds an entity in a shadow table, and swaps it with the live table of the entity
+     * in a short transaction. See METHOD_REBUILD.
+     */
+    private Bundle rebuild(String entityName, Bundle extras) {
+        Entity entity = getEntity(entityName);
+        if (entity == null) {
+            throw new IllegalArgumentException("Unknown entity: " + entityName);
+        }
+
+        if (entity.inMemory || entity.isPartitioned() || !entity.counterCaches.isEmpty()
+                || !mCounterCacheParents.get(entity.name).isEmpty() || !mReferencingEntities.get(entity.name).isEmpty()) {
+            throw new IllegalArgumentException("Cannot rebuild the entity '" + entityName + "' - it is in-memory, time-partitioned, referenced by other entities or part of a counter cache");
+        }
+        checkSnapshotFormat(extras);
+
+        // Fill and index the shadow table, while readers and writers use the live table...
+        SQLiteDatabase db = getWritableDatabase(entity);
+        StreamImporter importer;
+        boolean swapped = false;
+        synchronized (getRebuildLock(entity)) {
+            ShadowRebuild shadowRebuild = new ShadowRebuild(db, entity);
+            try {
+                String shadowTable = shadowRebuild.createShadowTable();
+                importer = loadSnapshot(db, entity, shadowTable, extras, Collections.<String>emptySet(), new HashSet<String>(), null);
+
+                // ...and unless the rows could not be read in full, swap the tables, restoring the row count of the entity...
+                if (importer == null || importer.getErrorCount() == 0) {
+                    shadowRebuild.createShadowIndexes();
+                    try {
+                        db.beginTransaction();
+                        shadowRebuild.swap();
+                        createCounterTriggers(db, Collections.singletonList(entity));
+                        db.setTransactionSuccessful();
+                        swapped = true;
+                    } finally {
+                        db.endTransaction();
+                    }
+                }
+            } finally {
+                if (!swapped) {
+                    shadowRebuild.dropShadowTable();
+                }
+            }
+        }
+
+        // Evict the oldest rows, if the entity has a maximum size...
+        if (swapped && entity.hasMaximumSize()) {
+            mRingBuffer.reset(entity);
+            mRingBuffer.afterInsert(db, entity, 0);
+        }
+
+        long rowCount = DatabaseUtils.queryNumEntries(db, entity.name);
+        if (swapped) {
+            recordChangedRows(entity, rowCount);
+            notifyChangedRows(entity);
+        }
+
+        Bundle result = new Bundle();
+        if (importer != null) {
+            importer.addResult(result, KEY_ROW_COUNT, KEY_ERROR_COUNT, KEY_ERRORS);
+            synchronized (this) {
+                mImportedRows += importer.getImportedRows();
+                mImportErrors += importer.getErrorCount();
+            }
+        }
+        result.putLong(KEY_ROW_COUNT, rowCount);
+        return result;
+    }
+
+    /**
+     * Returns the lock serializing the rebuilds of an entity, which share the shadow table
+     * and the names of its indexes.
+     */
+    private Object getRebuildLock(Entity entity) {
+        synchronized (mRebuildLocks) {
+            Object lock = mRebuildLocks.get(entity.name);
+            if (lock == null) {
+                lock = new Object();
+                mRebuildLocks.put(entity.name, lock);
+            }
+            return lock;
+        }
+    }
+
+    private static void checkSnapshotFormat(Bundle extras) {
+        ParcelFileDescriptor input = extras.getParcelable(KEY_FILE_DESCRIPTOR);
+        String format = extras.getString(KEY_FORMAT);
+        if (input != null && !"csv".equals(format) && !"ndjson".equals(format)) {
+            closeQuietly(input);
+            throw new IllegalArgumentException("Unknown import format: " + format);
+        }
+    }
+
+    /**
+     * Inserts a snapshot of rows, given as columns of values or as a stream in the
+     * KEY_FILE_DESCRIPTOR of the extras, into a table with the columns of the entity.
+     * Columns are inserted in a single transaction, and streams in chunks of rows.
+     *
+     * @param ignoredKeys keys of the extras that are not columns
+     * @param columns receives the names of the columns of the snapshot
+     * @param presentColumnsColumn the column of the table receiving the columns of each row of JSON, or null
+     * @return the importer of a streamed snapshot, or null if the snapshot was given as columns
+     */
+    private StreamImporter loadSnapshot(SQLiteDatabase db, Entity entity, String table, Bundle extras, Set<String> ignoredKeys, Collection<String> columns, String presentColumnsColumn) {
+        ParcelFileDescriptor input = extras.getParcelable(KEY_FILE_DESCRIPTOR);
+        if (input == null) {
+            ColumnarInsert columnarInsert = new ColumnarInsert(entity, extras, ignoredKeys);
+            try {
+                db.beginTransactionNonExclusive();
+                columnarInsert.insert(db, table, null);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Collections.addAll(columns, columnarInsert.getColumns());
+            return null;
+        }
+
+        StreamImporter importer = new StreamImporter(db, entity, table, null, StreamImporter.DEFAULT_CHUNK_SIZE);
+        importer.setPresentColumnsColumn(presentColumnsColumn);
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new ParcelFileDescriptor.AutoCloseInputStream(input), "UTF-8"));
+            if ("csv".equals(extras.getString(KEY_FORMAT))) {
+                importer.importCsv(reader);
+            } else {
+                importer.importJson(reader);
+            }
+        } catch (IOException e) {
+            importer.addError(e.getMessage());
+        } finally {
+            closeQuietly((reader != null) ? reader : input);
+        }
+        columns.addAll(importer.getImportedColumns());
+        return importer;
+    }
+
+    private Bundle backup(final String shard, Bundle extras) {
+        final ParcelFileDescriptor output = extras.getParcelable(KEY_FILE_DESCRIPTOR);
+        if (output == null) {
+            throw new IllegalArgumentException("Missing file descriptor for backup");
+        }
+
+        SQLiteOpenHelper helper = (shard == null) ? mDatabaseHelper : mShardHelpers.get(shard);
+        if (helper == null) {
+            closeQuietly(output);
+            throw new IllegalArgumentException("Unknown shard: " + shard);
+        }
+
+        String databaseName = (shard == null) ? mDatabaseName : getShardDatabaseName(shard);
+        File file = new File(getContext().getCacheDir(), databaseName + ".backup");
+        final DatabaseBackup backup;
+        try {
+            backup = new DatabaseBackup(openDatabase(helper, true), file, extras.getInt(KEY_CHUNK_SIZE, DatabaseBackup.DEFAULT_STEP_SIZE));
+        } catch (IllegalArgumentException e) {
+            closeQuietly(output);
+            throw e;
+        }
+
+        final BackgroundTask task = createTask(METHOD_BACKUP + " " + databaseName);
+        if (!extras.getBoolean(KEY_BACKGROUND)) {
+            try {
+                long size = writeBackup(backup, task, output);
+                task.finish(null);
+                Bundle result = task.toBundle();
+                result.putLong(KEY_BACKUP_SIZE, size);
+                return result;
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to write backup of database '" + databaseName + "'", e);
+            } finally {
+                synchronized (mTasks) {
+                    mTasks.remove(task.id);
+                }
+            }
+        }
+
+        getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                String error = null;
+                try {
+                    writeBackup(backup, task, output);
+                } catch (IOException | SQLiteException | IllegalStateException e) {
+                    Log.w(TAG, "Unable to write backup of database", e);
+                    error = e.toString();
+                }
+                task.finish(error);
+            }
+        });
+
+        Bundle result = new Bundle();
+        result.putLong(KEY_TASK_ID, task.id);
+        return result;
+    }
+
+    /**
+     * Writes a backup of the database to a file, and copies the file to the output, which is closed.
+     *
+     * @return the size of the backup in bytes, or 0 if the task was cancelled
+     */
+    private long writeBackup(DatabaseBackup backup, BackgroundTask task, ParcelFileDescriptor output) throws IOException {
+        InputStream in = null;
+        OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(output);
+
+        // Backups share the name of the attached backup database, and the backup file of each database...
+        synchronized (mBackupLock) {
+            try {
+                if (!backup.execute(task)) {
+                    return 0;
+                }
+
+                in = new FileInputStream(backup.getFile());
+                byte[] buffer = new byte[64 * 1024];
+                long size = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+                return size;
+            } finally {
+                if (in != null) {
+                    closeQuietly(in);
+                }
+                closeQuietly(out);
+                backup.deleteFile();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Ignore exception
+        }
+    }
+
+    private Bundle deleteChunked(String entityName, Bundle extras) {
+        final Entity entity = getEntity(entityName);
+        if (entity == null) {
+            throw new IllegalArgumentException("Unknown entity: " + entityName);
+        }
+
+        if (entity.isPartitioned()) {
+            throw new IllegalArgumentException("Cannot use chunked delete with the time-partitioned entity: " + entityName);
+        }
+
+        final ChunkedDelete chunkedDelete = new ChunkedDelete(getWritableDatabase(entity), entity.name,
+                extras.getString(KEY_SELECTION), extras.getStringArray(KEY_SELECTION_ARGS),
+                extras.getInt(KEY_CHUNK_SIZE, ChunkedDelete.DEFAULT_CHUNK_SIZE));
+
+        Bundle result = new Bundle();
+        if (!extras.getBoolean(KEY_BACKGROUND)) {
+            long deletedRows = chunkedDelete.execute(null);
+            if (deletedRows > 0) {
+                recordChangedRows(entity, deletedRows);
+                notifyChangedRows(entity);
+            }
+            result.putLong(KEY_ROW_COUNT, deletedRows);
+            return result;
+        }
+
+        final BackgroundTask task = createTask(METHOD_DELETE_CHUNKED + " " + entity.name);
+
+        getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                String error = null;
+                try {
+                    chunkedDelete.execute(task);
+                } catch (SQLiteException e) {
+                    Log.w(TAG, "Unable to delete rows of entity '" + entity.name + "'", e);
+                    error = e.toString();
+                }
+
+                // Notify listeners once, also of the rows deleted before a failure or cancellation...
+                if (task.getProgress() > 0) {
+                    recordChangedRows(entity, task.getProgress());
+                    notifyChangedRows(entity);
+                }
+                task.finish(error);
+            }
+        });
+
+        result.putLong(KEY_TASK_ID, task.id);
+        return result;
+    }
+
+    /**
+     * Creates a background task, which can be followed through METHOD_GET_TASK.
+     * Finished tasks that have not been reported for a while are forgotten.
+     */
+    private BackgroundTask createTask(String name) {
+        synchronized (mTasks) {
+            Iterator<BackgroundTask> iterator = mTasks.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().isExpired(TASK_EXPIRY_TIME)) {
+                    iterator.remove();
+                }
+            }
+
+            BackgroundTask task = new BackgroundTask(mNextTaskId++, name);
+            mTasks.put(task.id, task);
+            return task;
+        }
+    }
+
+    /**
+     * Returns the background task with the id given as the argument of METHOD_GET_TASK
+     * or METHOD_CANCEL_TASK, or null if the task is unknown.
+     *
+     * @throws IllegalArgumentException if the argument is not a task id
+     */
+    private BackgroundTask getTask(String taskId) {
+        long id;
+        try {
+            id = Long.parseLong(taskId);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid task id: " + taskId);
+        }
+
+        synchronized (mTasks) {
+            return mTasks.get(id);
+        }
+    }
+
+    /**
+     * Enforces the read permission of the provider on callers of methods through call(),
+     * which unlike query() is not checked by the system.
+     */
+    private void enforceReadPermission() {
+        String permission = getReadPermission();
+        if (permission != null) {
+            getContext().enforceCallingOrSelfPermission(permission, "Permission denial: reading " + getClass().getName() + " requires " + permission);
+        }
+    }
+
+    /**
+     * Enforces the write permission of the provider on callers of methods through call(),
+     * which unlike insert(), update() and delete() is not checked by the system.
+     */
+    private void enforceWritePermission() {
+        String permission = getWritePermission();
+        if (permission != null) {
+            getContext().enforceCallingOrSelfPermission(permission, "Permission denial: writing " + getClass().getName() + " requires " + permission);
+        }
+    }
+
+    private synchronized BackgroundExecutor getBackgroundExecutor() {
+        if (mBackgroundExecutor == null) {
+            mBackgroundExecutor = new BackgroundExecutor();
+        }
+        return mBackgroundExecutor;
+    }
+
+    /**
+     * Sets up a new database, after the tables have been created. This method is called by
+     * the default database helper, SimpleDatabaseHelper, when a new database is opened for
+     * the first time. It switches the database to auto_vacuum=INCREMENTAL, if incremental
+     * vacuum is enabled with setIncrementalVacuum.
+     */
+    void onDatabaseCreated(SQLiteDatabase db) {
+        if (mIncrementalVacuumThreshold > 0) {
+            IncrementalVacuum.enable(db);
+        }
+    }
+
+    /**
+     * Records the duration of a phase of starting the provider. This method is called by the
+     * default database helper, SimpleDatabaseHelper, when creating or upgrading the database.
+     */
+    void recordStartupPhase(String phase, long duration) {
+        mStartupTimings.record(phase, duration);
+    }
+
+    /**
+     * Returns the number of rows in an entity. For entities with setRowCountMaintained(true)
+     * the count is read from the row counts table in constant time. For other entities
+     * the rows are counted.
+     *
+     * @param entityName the name of the entity
+     * @return the number of rows in the entity
+     */
+    public long getRowCount(String entityName) {
+        Entity entity = getEntity(entityName);
+        if (entity == null) {
+            throw new IllegalArgumentException("Unknown entity: " + entityName);
+        }
+
+        SQLiteDatabase db = getReadableDatabase(entity);
+        if (entity.rowCountMaintained) {
+            return DatabaseUtils.longForQuery(db, "SELECT row_count FROM " + ROW_COUNTS_TABLE + " WHERE table_name=?", new String[]{entity.name});
+        } else if (entity.isPartitioned()) {
+            long rowCount = 0;
+            for (long partition : mTimePartitions.getPartitions(db, entity)) {
+                rowCount += DatabaseUtils.queryNumEntries(db, TimePartitions.getTableName(entity, partition));
+            }
+            return rowCount;
+        } else {
+            return DatabaseUtils.queryNumEntries(db, entity.name);
+        }
+    }
+
+    private Cursor queryRowCache(SQLiteDatabase db, Entity entity, long id, String[] projection) {
+        RowCache.Row row = mRowCache.get(entity.name, id);
+        if (row == null) {
+            // Fetch the generation before reading the row, so a row
+            // changed while being read is not put in the cache...
+            long generation = mRowCache.getGeneration(entity.name);
+
+            Cursor rowCursor = db.query(entity.name, null, entity.name + "." + entity.idColumn + "=?", new String[]{"" + id}, null, null, null);
+            try {
+                if (!rowCursor.moveToFirst()) {
+                    return null;
+                }
+                row = RowCache.Row.fromCursor(rowCursor);
+            } finally {
+                rowCursor.close();
+            }
+
+            mRowCache.put(entity.name, id, row, entity.rowCacheSize, generation);
+        }
+
+        return row.toCursor(projection);
+    }
+
+    private boolean mayReplaceRows(Entity entity, Integer conflictAlgorithm) {
+        if (conflictAlgorithm != null) {
+            return conflictAlgorithm == SQLiteDatabase.CONFLICT_REPLACE;
+        }
+
+        return mEntitiesReplacingOnConflict.contains(entity.name);
+    }
+
+    /**
+     * Invalidates cached results after a new row has been inserted into the entity.
+     */
+    private void invalidateInsertedRow(Entity entity, long id) {
+        mRowCache.invalidate(entity.name, id);
+        invalidateResultCache(entity);
+    }
+
+    /**
+     * Invalidates cached rows and results after an existing row of the entity has been changed.
+     */
+    private void invalidateChangedRow(Entity entity, long id) {
+        mRowCache.invalidate(entity.name, id);
+        invalidateResultCache(entity);
+
+        // Rows in other entities may be changed through foreign key actions...
+        invalidateReferencingEntities(entity, new HashSet<Entity>());
+    }
+
+    /**
+     * Invalidates cached rows and results after a list of existing rows of the entity have been changed.
+     */
+    private void invalidateChangedRows(Entity entity, long[] ids) {
+        for (long id : ids) {
+            mRowCache.invalidate(entity.name, id);
+        }
+        invalidateResultCache(entity);
+        invalidateReferencingEntities(entity, new HashSet<Entity>());
+    }
+
+    /**
+     * Invalidates cached rows and results after any number of rows of the entity have been changed.
+     */
+    private void invalidateChangedRows(Entity entity) {
+        mRowCache.invalidate(entity.name);
+        invalidateResultCache(entity);
+        invalidateReferencingEntities(entity, new HashSet<Entity>());
+
+        for (Entity parent : mCounterCacheParents.get(entity.name)) {
+            mRowCache.invalidate(parent.name);
+            invalidateResultCache(parent);
+        }
+    }
+
+    /**
+     * Invalidates cached results of the entity and the views that depend on it.
+     */
+    private void invalidateResultCache(Entity entity) {
+        mResultCache.invalidate(entity.name);
+
+        Set<String> viewNames = mEntityToViewsMap.get(entity.name);
+        if (viewNames != null) {
+            for (String view : viewNames) {
+                mResultCache.invalidate(view);
+            }
+        }
+    }
+
+    private void invalidateReferencingEntities(Entity entity, Set<Entity> invalidated) {
+        invalidated.add(entity);
+
+        for (Entity other : mReferencingEntities.get(entity.name)) {
+            if (!invalidated.contains(other)) {
+                mRowCache.invalidate(other.name);
+                invalidateResultCache(other);
+                invalidateReferencingEntities(other, invalidated);
+            }
+        }
     }
 
     private void postNotifyChangedUri(Uri uri) {
@@ -463,6 +2919,30 @@ public abstract class SimpleContentProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Invalidates and notifies parent entities with counter caches that are changed by
+     * inserting, deleting or updating rows of the given entity. When rows are updated,
+     * only counter caches on the updated columns are changed.
+     *
+     * @param entity the changed entity
+     * @param values the updated values, or null if rows were inserted or deleted
+     */
+    private void postNotifyChangedCounterCaches(Entity entity, ContentValues values) {
+        for (Entity parent : mCounterCacheParents.get(entity.name)) {
+            for (CounterCache counterCache : parent.counterCaches) {
+                if (counterCache.childEntity.equals(entity.name) && (values == null || values.containsKey(counterCache.foreignKeyColumn))) {
+                    mRowCache.invalidate(parent.name);
+                    invalidateResultCache(parent);
+
+                    Uri uri = Uri.parse("content://" + mAuthority + "/" + parent.name);
+                    postNotifyChangedUri(uri);
+                    postNotifyChangedViews(parent.name);
+                    break;
+                }
+            }
+        }
+    }
+
     private void notifyChangedUris() {
         boolean isApplyingBatch = mApplyingBatchOperations.get() != null && mApplyingBatchOperations.get();
         if (isApplyingBatch) {
@@ -488,44 +2968,239 @@ public abstract class SimpleContentProvider extends ContentProvider {
      * @param db the SQL database
      */
     protected void onCreateDatabase(SQLiteDatabase db) {
-        for (SimpleContentProvider.Entity entity : mEntities) {
-            String entitySql = null;
+        createTables(db, getShardEntities(null));
+    }
 
-            for (SimpleContentProvider.EntityColumn column : entity.columns) {
-                if (entitySql == null) {
-                    entitySql = column.name + " " + column.definition;
-                } else {
-                    entitySql += "," + column.name + " " + column.definition;
-                }
+    /**
+     * Creates the tables of the entities assigned to a shard. This method is called by
+     * the default database helper, SimpleDatabaseHelper, for the database of each shard.
+     * @param db the SQL database of the shard
+     * @param shard the name of the shard
+     */
+    protected void onCreateShardDatabase(SQLiteDatabase db, String shard) {
+        createTables(db, getShardEntities(shard));
+    }
+
+    private void createTables(SQLiteDatabase db, List<Entity> entities) {
+        for (SimpleContentProvider.Entity entity : entities) {
+            db.execSQL(entity.buildCreateTableSql(entity.name));
+            for (SimpleContentProvider.EntityIndex index : entity.indexes) {
+                db.execSQL(index.buildCreateIndexSql(entity.name));
             }
+        }
 
-            for (String constraint : entity.constraints) {
-                if (entitySql == null) {
-                    entitySql = constraint;
-                } else {
-                    entitySql += "," + constraint;
+        List<String> triggerNames = createCounterTriggers(db, entities);
+        SchemaMigrator.storeSchema(db, entities, triggerNames);
+    }
+
+    /**
+     * Configures a connection to the database. This method is called by the default database helper,
+     * SimpleDatabaseHelper, whenever a connection is opened. It enables recursive triggers when the
+     * provider maintains counter caches or row counts, so counts are also updated when rows are
+     * deleted by the REPLACE conflict resolution algorithm.
+     *
+     * @param db the SQL database
+     */
+    protected void onConfigureDatabase(SQLiteDatabase db) {
+        for (Entity entity : mEntities) {
+            if (entity.rowCountMaintained || !entity.counterCaches.isEmpty()) {
+                db.execSQL("PRAGMA recursive_triggers=ON");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Attaches the databases of all shards to a connection to the main database, so that
+     * views can join entities in different shards, and creates the tables of the in-memory
+     * entities in an attached in-memory database. This method is called by the default
+     * database helper, SimpleDatabaseHelper, whenever a connection to the main database is opened.
+     */
+    void attachDatabases(SQLiteDatabase db) {
+        for (String shard : mShardHelpers.keySet()) {
+            String path = getContext().getDatabasePath(getShardDatabaseName(shard)).getPath();
+            db.execSQL("ATTACH DATABASE ? AS " + shard, new Object[]{path});
+        }
+
+        // Create the tables of in-memory entities, which only live as long as the connection...
+        boolean memoryDatabaseAttached = false;
+        for (Entity entity : mEntities) {
+            if (entity.inMemory) {
+                if (!memoryDatabaseAttached) {
+                    db.execSQL("ATTACH DATABASE ':memory:' AS " + MEMORY_DATABASE);
+                    memoryDatabaseAttached = true;
                 }
+
+                db.execSQL(entity.buildCreateTableSql(MEMORY_DATABASE + "." + entity.name));
+                for (EntityIndex index : entity.indexes) {
+                    db.execSQL(index.buildCreateIndexSql(MEMORY_DATABASE, entity.name));
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the triggers maintaining counter cache columns and row counts of the given entities,
+     * and returns the names of the triggers.
+     */
+    private List<String> createCounterTriggers(SQLiteDatabase db, List<Entity> entities) {
+        for (Entity entity : entities) {
+            if (entity.rowCountMaintained) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS " + ROW_COUNTS_TABLE + " (table_name TEXT PRIMARY KEY, row_count INTEGER NOT NULL)");
+                break;
             }
+        }
 
-            db.execSQL("CREATE TABLE " + entity.name + " (" + entitySql + ")");
+        Map<String, String> triggers = buildCounterTriggers(entities);
+        for (String sql : triggers.values()) {
+            db.execSQL(sql);
         }
+
+        rebuildCounters(db, entities);
+        return new ArrayList<>(triggers.keySet());
     }
 
     /**
-     * Upgrades the database by dropping existing tables and re-creating the new tables.
-     * This method is called by the default database helper, SimpleDatabaseHelper.
-     * Override the method to provide an alternative algorithm for upgrading the database tables,
-     * or call setDatabaseHelper(helper) to substitute a completely custom database helper instead.
+     * Returns the SQL statements creating the triggers maintaining counter cache columns
+     * and row counts of the given entities, keyed by the names of the triggers.
+     */
+    private Map<String, String> buildCounterTriggers(List<Entity> entities) {
+        Map<String, String> triggers = new LinkedHashMap<>();
+
+        for (Entity entity : entities) {
+            if (entity.rowCountMaintained) {
+                String update = "UPDATE " + ROW_COUNTS_TABLE + " SET row_count=row_count%s1 WHERE table_name='" + entity.name + "'";
+                triggers.put(entity.name + "_row_count_insert", "CREATE TRIGGER " + entity.name + "_row_count_insert AFTER INSERT ON " + entity.name + " " +
+                        "BEGIN " + String.format(update, "+") + "; END");
+                triggers.put(entity.name + "_row_count_delete", "CREATE TRIGGER " + entity.name + "_row_count_delete AFTER DELETE ON " + entity.name + " " +
+                        "BEGIN " + String.format(update, "-") + "; END");
+            }
+
+            for (CounterCache counterCache : entity.counterCaches) {
+                String trigger = entity.name + "_" + counterCache.column;
+                String child = counterCache.childEntity;
+                String foreignKey = counterCache.foreignKeyColumn;
+                String increment = "UPDATE " + entity.name + " SET " + counterCache.column + "=" + counterCache.column + "+1 WHERE " + entity.idColumn + "=NEW." + foreignKey;
+                String decrement = "UPDATE " + entity.name + " SET " + counterCache.column + "=" + counterCache.column + "-1 WHERE " + entity.idColumn + "=OLD." + foreignKey;
+
+                triggers.put(trigger + "_insert", "CREATE TRIGGER " + trigger + "_insert AFTER INSERT ON " + child + " " +
+                        "WHEN NEW." + foreignKey + " IS NOT NULL BEGIN " + increment + "; END");
+                triggers.put(trigger + "_delete", "CREATE TRIGGER " + trigger + "_delete AFTER DELETE ON " + child + " " +
+                        "WHEN OLD." + foreignKey + " IS NOT NULL BEGIN " + decrement + "; END");
+                triggers.put(trigger + "_update", "CREATE TRIGGER " + trigger + "_update AFTER UPDATE OF " + foreignKey + " ON " + child + " " +
+                        "WHEN OLD." + foreignKey + " IS NOT NEW." + foreignKey + " BEGIN " + decrement + "; " + increment + "; END");
+            }
+        }
+
+        return triggers;
+    }
+
+    /**
+     * Recomputes all counter cache columns and row counts of the entities in the main database
+     * from scratch. Use this method after changing the tables of the provider in ways that bypass
+     * the triggers maintaining the counts, for example after attaching or importing a database file.
+     *
+     * @param db the SQL database
+     */
+    protected void rebuildCounters(SQLiteDatabase db) {
+        rebuildCounters(db, getShardEntities(null));
+    }
+
+    private void rebuildCounters(SQLiteDatabase db, List<Entity> entities) {
+        for (Entity entity : entities) {
+            if (entity.rowCountMaintained) {
+                db.execSQL("INSERT OR REPLACE INTO " + ROW_COUNTS_TABLE + " (table_name, row_count) " +
+                        "VALUES ('" + entity.name + "', (SELECT count(*) FROM " + entity.name + "))");
+            }
+
+            for (CounterCache counterCache : entity.counterCaches) {
+                db.execSQL("UPDATE " + entity.name + " SET " + counterCache.column + "=" +
+                        "(SELECT count(*) FROM " + counterCache.childEntity + " " +
+                        "WHERE " + counterCache.childEntity + "." + counterCache.foreignKeyColumn + "=" + entity.name + "." + entity.idColumn + ")");
+            }
+        }
+    }
+
+    /**
+     * Upgrades the database by migrating the existing tables to the current entities without
+     * dropping any data. New entities, columns and indexes are created, removed entities and
+     * indexes are dropped, and tables with changed columns or constraints are rebuilt by copying
+     * the existing rows into a new table. Columns are matched by name, so renaming a column
+     * loses its data.
+     *
+     * The definitions of the entities are stored in the database whenever it is created or
+     * upgraded, and compared with the current entities on the next upgrade.
+     *
+     * This method is called by the default database helper, SimpleDatabaseHelper, in a single
+     * transaction. Override the method to provide an alternative algorithm for upgrading the
+     * database tables, or call setDatabaseHelper(helper) to substitute a completely custom
+     * database helper instead.
      * @param db the SQL database
      * @param oldVersion the database version of the existing database
      * @param newVersion the database version to upgrade to
      */
     @SuppressWarnings("UnusedParameters")
     protected void onUpgradeDatabase(SQLiteDatabase db, int oldVersion, int newVersion) {
-        for (SimpleContentProvider.Entity entity : mEntities) {
-            db.execSQL("DROP TABLE IF EXISTS " + entity.name);
+        migrateTables(db, getShardEntities(null));
+    }
+
+    /**
+     * Upgrades the database of a shard by migrating the existing tables, like onUpgradeDatabase.
+     * This method is called by the default database helper, SimpleDatabaseHelper, for the
+     * database of each shard.
+     * @param db the SQL database of the shard
+     * @param shard the name of the shard
+     * @param oldVersion the database version of the existing database
+     * @param newVersion the database version to upgrade to
+     */
+    @SuppressWarnings("UnusedParameters")
+    protected void onUpgradeShardDatabase(SQLiteDatabase db, String shard, int oldVersion, int newVersion) {
+        migrateTables(db, getShardEntities(shard));
+    }
+
+    private void migrateTables(SQLiteDatabase db, List<Entity> entities) {
+        SchemaMigrator migrator = new SchemaMigrator(db);
+        migrator.readSchema(entities);
+        migrator.dropTriggers(new ArrayList<>(buildCounterTriggers(entities).keySet()));
+        migrator.migrate(entities);
+        for (Entity entity : entities) {
+            if (entity.isPartitioned()) {
+                mTimePartitions.migrate(db, entity);
+            }
+        }
+
+        List<String> triggerNames = createCounterTriggers(db, entities);
+        migrator.storeSchema(entities, triggerNames);
+        migrator.checkForeignKeys();
+    }
+
+    /**
+     * Returns the entities assigned to a shard. In-memory entities are not part of any shard.
+     *
+     * @param shard the name of the shard, or null for the main database
+     */
+    protected List<Entity> getShardEntities(String shard) {
+        List<Entity> entities = new ArrayList<>();
+        for (Entity entity : mEntities) {
+            if (!entity.inMemory && (shard == null ? entity.shard == null : shard.equals(entity.shard))) {
+                entities.add(entity);
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Returns the name of the database file of a shard. By default the name of the
+     * shard is appended to the name of the main database, for example
+     * "DemoContentProvider-telemetry.db".
+     *
+     * @param shard the name of the shard
+     */
+    protected String getShardDatabaseName(String shard) {
+        if (mDatabaseName.endsWith(".db")) {
+            return mDatabaseName.substring(0, mDatabaseName.length() - 3) + "-" + shard + ".db";
         }
-        onCreateDatabase(db);
+        return mDatabaseName + "-" + shard;
     }
 
     /**
@@ -589,6 +3264,92 @@ public abstract class SimpleContentProvider extends ContentProvider {
         this.mDatabaseVersion = databaseVersion;
     }
 
+    /**
+     * Set a prebuilt database, shipped as an asset, which is copied into place
+     * the first time the database is opened instead of creating empty tables.
+     * Assets ending with ".gz" or ".zip" are decompressed while being copied.
+     *
+     * The version of the prebuilt database must not be higher than the version set
+     * with setDatabaseVersion. Older versions are upgraded as usual. If the asset
+     * cannot be copied, the database is created as usual.
+     *
+     * The prebuilt database should be created by the provider itself, for example
+     * by copying the database file from a device, so that it contains the triggers
+     * and schema information maintained by the provider.
+     *
+     * @param assetPath the path of the database asset, relative to the assets directory
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    protected void setDatabaseAsset(String assetPath) {
+        this.mDatabaseAssetPath = assetPath;
+    }
+
+    /**
+     * Enables opening the database on a background thread right after the provider is
+     * created, so that the first caller does not pay for opening, creating or upgrading
+     * the database. The schema and the first rows of each entity are read into memory
+     * as well. Callers arriving while the warm-up is running wait for it to finish.
+     *
+     * @param databaseWarmUpEnabled true to open the database in the background
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    protected void setDatabaseWarmUpEnabled(boolean databaseWarmUpEnabled) {
+        this.mDatabaseWarmUpEnabled = databaseWarmUpEnabled;
+    }
+
+    /**
+     * Sets how often expired rows of entities with a time to live are deleted in the background.
+     * The default interval is one minute. Expired rows are hidden from queries until they are deleted.
+     *
+     * @param interval the interval between sweeps in milliseconds
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    protected void setExpirySweepInterval(long interval) {
+        this.mExpirySweepInterval = interval;
+    }
+
+    /**
+     * Sets the number of rows changed in an entity through the provider before the entity is
+     * analyzed in the background, updating the statistics used by the query planner. Entities
+     * with at least a tenth of the threshold of changed rows are also analyzed when no rows
+     * have been changed for the idle delay. The default threshold is 1000 rows and the
+     * default idle delay is 30 seconds. A threshold of 0 disables analyzing entities.
+     *
+     * @param changedRows the number of changed rows, or 0 to disable
+     * @param idleDelay the time without changes in milliseconds
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    protected void setAnalyzeThreshold(long changedRows, long idleDelay) {
+        this.mAnalyzeThreshold = changedRows;
+        this.mAnalyzeIdleDelay = idleDelay;
+    }
+
+    /**
+     * Enables incremental vacuum, which shrinks the database files after rows have been
+     * deleted. New databases are created with auto_vacuum=INCREMENTAL, and their free pages
+     * are released in small steps in the background when they pass the threshold. Existing
+     * databases keep their auto_vacuum mode. Incremental vacuum is disabled by default.
+     *
+     * @param freeBytes the size of the free pages in bytes before they are released, or 0 to disable
+     * @param interval the interval between checks of the free pages in milliseconds
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    protected void setIncrementalVacuum(long freeBytes, long interval) {
+        this.mIncrementalVacuumThreshold = freeBytes;
+        this.mIncrementalVacuumInterval = interval;
+    }
+
+    /**
+     * Installs the prebuilt database asset set with setDatabaseAsset, if the database
+     * does not exist yet. This method is called by the default database helper,
+     * SimpleDatabaseHelper, before the database is opened.
+     */
+    protected void onOpeningDatabase() {
+        if (mDatabaseAsset != null) {
+            mDatabaseAsset.install(getContext(), mDatabaseName, mDatabaseVersion);
+        }
+    }
+
     /**
      * Sets whether foreign key constraints should be enabled for the database.
      * By default, foreign key constraints are not enforced by the database.
@@ -599,6 +3360,49 @@ public abstract class SimpleContentProvider extends ContentProvider {
         this.mForeignKeyConstraintsEnabled = foreignKeyConstraintsEnabled;
     }
 
+    /**
+     * Sets the total amount of memory, in bytes, that may be used for caching rows
+     * of entities with a row cache. The default budget is 1 MB. Row caches are
+     * enabled for individual entities using Entity.setRowCacheSize().
+     *
+     * @param memoryBudget the memory budget of the row cache in bytes
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    protected void setRowCacheMemoryBudget(long memoryBudget) {
+        this.mRowCacheMemoryBudget = memoryBudget;
+        if (mRowCache != null) {
+            mRowCache.setMemoryBudget(memoryBudget);
+        }
+    }
+
+    /**
+     * Sets the total amount of memory, in bytes, that may be used for caching query
+     * results of entities and views with the result cache enabled. The default budget
+     * is 2 MB. Results larger than a quarter of the budget are never cached.
+     *
+     * @param memoryBudget the memory budget of the result cache in bytes
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    protected void setResultCacheMemoryBudget(long memoryBudget) {
+        this.mResultCacheMemoryBudget = memoryBudget;
+        if (mResultCache != null) {
+            mResultCache.setMemoryBudget(memoryBudget);
+        }
+    }
+
+    /**
+     * Sets whether identical queries executing at the same time should share a single
+     * execution. Deduplication is disabled by default. Results shared between queries
+     * are copied into a single cursor window, which is only done when identical
+     * queries are actually waiting for the result.
+     *
+     * @param queryDeduplicationEnabled true to deduplicate concurrent queries
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    protected void setQueryDeduplicationEnabled(boolean queryDeduplicationEnabled) {
+        this.mQueryDeduplicationEnabled = queryDeduplicationEnabled;
+    }
+
     /**
      * Optionally set a custom database helper. If no custom helper
      * is specified then the default SimpleDatabaseHelper
@@ -658,7 +3462,22 @@ public abstract class SimpleContentProvider extends ContentProvider {
         public final String nullColumnHack;
         public final List<EntityColumn> columns;
         public final List<String> constraints;
+        public final List<CounterCache> counterCaches;
+        public final List<EntityIndex> indexes;
         public Integer defaultConflictAlgorithm;
+        public int rowCacheSize;
+        public boolean resultCacheEnabled;
+        public boolean rowCountMaintained;
+        public String shard;
+        public boolean inMemory;
+        public int maxRows;
+        public long maxBytes;
+        public String evictionOrderColumn = "rowid";
+        public String timeToLiveColumn;
+        public long timeToLive;
+        public String partitionColumn;
+        public long partitionPeriod;
+        public long partitionRetention;
 
         public Entity(String name, String idColumn, String nullColumnHack, Integer defaultConflictAlgorithm) {
             this.name = name;
@@ -666,6 +3485,8 @@ public abstract class SimpleContentProvider extends ContentProvider {
             this.nullColumnHack = nullColumnHack;
             this.columns = new ArrayList<>();
             this.constraints = new ArrayList<>();
+            this.counterCaches = new ArrayList<>();
+            this.indexes = new ArrayList<>();
             this.defaultConflictAlgorithm = defaultConflictAlgorithm;
         }
 
@@ -681,11 +3502,315 @@ public abstract class SimpleContentProvider extends ContentProvider {
             return this;
         }
 
+        /**
+         * Adds an index on one or more columns of the entity, for example:
+         *
+         * addEntity(Pets.TABLE_NAME)
+         *     .addIndex("pets_owner_id", Pets.OWNER_ID);
+         *
+         * @param name the name of the index, which must be unique in the database
+         * @param columns the indexed columns, separated by commas
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Entity addIndex(String name, String columns) {
+            indexes.add(new EntityIndex(name, columns, false));
+            return this;
+        }
+
+        /**
+         * Adds a unique index on one or more columns of the entity.
+         *
+         * @param name the name of the index, which must be unique in the database
+         * @param columns the indexed columns, separated by commas
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Entity addUniqueIndex(String name, String columns) {
+            indexes.add(new EntityIndex(name, columns, true));
+            return this;
+        }
+
         @SuppressWarnings("UnusedDeclaration")
         public Entity setDefaultConflictAlgorithm(int defaultConflictAlgorithm) {
             this.defaultConflictAlgorithm = defaultConflictAlgorithm;
             return this;
         }
+
+        /**
+         * Adds a counter cache column, which holds the number of rows in a child entity
+         * referencing each row of this entity. For example, the number of pets for
+         * each owner:
+         *
+         * addEntity(Owners.TABLE_NAME)
+         *     .addCounterCacheColumn(Owners.PET_COUNT, Pets.TABLE_NAME, Pets.OWNER_ID);
+         *
+         * The column is kept up to date by triggers on the child entity, and changes
+         * to the child entity are notified on the Uri's of this entity as well.
+         *
+         * @param name the name of the counter column
+         * @param childEntityName the name of the child entity
+         * @param foreignKeyColumn the column of the child entity holding the id of the row in this entity
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Entity addCounterCacheColumn(String name, String childEntityName, String foreignKeyColumn) {
+            columns.add(new EntityColumn(name, "INTEGER NOT NULL DEFAULT 0"));
+            counterCaches.add(new CounterCache(name, childEntityName, foreignKeyColumn));
+            return this;
+        }
+
+        /**
+         * Maintains the total number of rows of the entity in a separate table,
+         * so that it can be read in constant time using METHOD_GET_ROW_COUNT.
+         *
+         * @param rowCountMaintained true to maintain the row count of the entity
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Entity setRowCountMaintained(boolean rowCountMaintained) {
+            this.rowCountMaintained = rowCountMaintained;
+            return this;
+        }
+
+        /**
+         * Stores the entity in a separate database file, the shard, rather than in the main
+         * database. Entities in different shards are written in parallel, since SQLite only
+         * allows one writer per database file. Entities may share a shard.
+         *
+         * Views can still join entities in different shards, since the shards are attached
+         * to the main database. Counter caches and foreign key constraints can only refer to
+         * entities in the same shard. Moving an entity to another shard does not move its rows.
+         *
+         * @param shard the name of the shard, which must be a valid SQL identifier, or null for the main database
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Entity setShard(String shard) {
+            this.shard = shard;
+            return this;
+        }
+
+        /**
+         * Limits the number of rows of the entity, like a ring buffer. When rows are inserted
+         * through the provider, the oldest rows are evicted in batches to keep the entity under
+         * the limit. Use this for event logs and lists of recent items.
+         *
+         * @param maxRows the maximum number of rows, or 0 for no limit
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Entity setMaxRows(int maxRows) {
+            this.maxRows = maxRows;
+            return this;
+        }
+
+        /**
+         * Limits the approximate size of the rows of the entity, like a ring buffer. When rows
+         * are inserted through the provider, the oldest rows are evicted in batches to keep
+         * the entity under the limit. The size is estimated from the average size of the
+         * values in the newest rows, not including the overhead of the database.
+         *
+         * @param maxBytes the maximum size of the rows in bytes, or 0 for no limit
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Entity setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Sets the column deciding which rows are the oldest, when evicting rows from entities
+         * with a maximum number of rows or bytes. The rows with the lowest values are evicted
+         * first. By default rows are evicted in the order of their rowid, which is the order
+         * they were inserted in for entities with an INTEGER PRIMARY KEY AUTOINCREMENT column.
+         * The column should be indexed.
+         *
+         * @param column the column to order rows by when evicting them
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Entity setEvictionOrderColumn(String column) {
+            this.evictionOrderColumn = column;
+            return this;
+        }
+
+        /**
+         * Expires rows of the entity a fixed time after they were written. The time a row
+         * was written is held by the given column, in milliseconds since the epoch, for
+         * example System.currentTimeMillis(). The column should be indexed. Rows with no time
+         * in the column are treated as expired.
+         *
+         * Expired rows are hidden from queries on the entity and deleted in the background,
+         * at the interval set with setExpirySweepInterval. Results of queries on the entity
+         * are not cached, since they change as rows expire.
+         *
+         * @param column the column holding the time each row was written
+         * @param duration the time to live of each row in milliseconds
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Entity setTimeToLive(String column, long duration) {
+            this.timeToLiveColumn = column;
+            this.timeToLive = duration;
+            return this;
+        }
+
+        /**
+         * Spreads the rows of the entity across one table per period of time, for time series
+         * such as samples or logs. The time of each row is held by the given column, in
+         * milliseconds since the epoch, which must have a value in every inserted row. The
+         * partition of a row is created when the first row of its period is inserted.
+         *
+         * Queries only read the partitions that may hold rows in the range given by the
+         * QUERY_PARAMETER_FROM_TIME and QUERY_PARAMETER_TO_TIME parameters, or by comparisons
+         * of the column with constants or arguments in the selection. Partitions older than the
+         * retention are dropped in the background, at the interval set with setExpirySweepInterval,
+         * rather than deleting their rows one by one.
+         *
+         * The ids of the rows are assigned by the provider, and the id column should be declared
+         * as INTEGER PRIMARY KEY. Rows with times before the epoch are rejected with an
+         * IllegalArgumentException. The partition column cannot be updated, and selections of updates
+         * and deletes cannot qualify columns with the name of the entity. Time-partitioned entities
+         * cannot be used in views, counter caches or foreign key constraints, which onCreate checks.
+         *
+         * @param column the column holding the time of each row
+         * @param period the length of the period of each partition in milliseconds, for example a day,
+         *               which must be long enough to number the partitions in 32 bits
+         * @param retention the time to keep each partition after its period in milliseconds, or 0 to keep all partitions
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Entity setTimePartitioned(String column, long period, long retention) {
+            this.partitionColumn = column;
+            this.partitionPeriod = period;
+            this.partitionRetention = retention;
+            return this;
+        }
+
+        /**
+         * Returns true if the rows of the entity are spread across partitions by time.
+         */
+        public boolean isPartitioned() {
+            return partitionPeriod > 0;
+        }
+
+        /**
+         * Returns true if the entity has a maximum number of rows or bytes.
+         */
+        public boolean hasMaximumSize() {
+            return maxRows > 0 || maxBytes > 0;
+        }
+
+        /**
+         * Keeps the rows of the entity in memory only, for ephemeral data that is changed
+         * often and does not need to survive a restart of the process, such as presence
+         * or progress. The rows are stored in an in-memory database attached to the main
+         * database, so writes skip the journal and the disk entirely.
+         *
+         * In-memory entities are queried and notified like other entities, and views can
+         * join them with entities on disk. They cannot be sharded, maintain a row count or
+         * take part in counter caches or foreign key constraints with entities on disk.
+         *
+         * @param inMemory true to keep the rows of the entity in memory only
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Entity setInMemory(boolean inMemory) {
+            this.inMemory = inMemory;
+            return this;
+        }
+
+        /**
+         * Enables an LRU cache of rows for the entity, which is used to serve
+         * queries on item Uri's without a selection or limit. Rows are
+         * invalidated whenever the provider changes the entity.
+         *
+         * The total memory used by all row caches is limited by the budget
+         * set with setRowCacheMemoryBudget.
+         *
+         * @param maxRows the maximum number of rows to cache, or 0 to disable the cache
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Entity setRowCacheSize(int maxRows) {
+            this.rowCacheSize = maxRows;
+            return this;
+        }
+
+        /**
+         * Enables caching of query results for the entity. Identical queries are
+         * served from the cache until the entity is changed through the provider.
+         *
+         * The total memory used for cached results is limited by the budget
+         * set with setResultCacheMemoryBudget.
+         *
+         * @param resultCacheEnabled true to cache query results for the entity
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Entity setResultCacheEnabled(boolean resultCacheEnabled) {
+            this.resultCacheEnabled = resultCacheEnabled;
+            return this;
+        }
+
+        /**
+         * Returns the SQL statement creating a table with the columns and constraints of the entity.
+         *
+         * @param tableName the name of the table, usually the name of the entity
+         */
+        public String buildCreateTableSql(String tableName) {
+            String entitySql = null;
+
+            for (EntityColumn column : columns) {
+                if (entitySql == null) {
+                    entitySql = column.name + " " + column.definition;
+                } else {
+                    entitySql += "," + column.name + " " + column.definition;
+                }
+            }
+
+            for (String constraint : constraints) {
+                if (entitySql == null) {
+                    entitySql = constraint;
+                } else {
+                    entitySql += "," + constraint;
+                }
+            }
+
+            return "CREATE TABLE " + tableName + " (" + entitySql + ")";
+        }
+
+        /**
+         * Returns true if a column or constraint of the entity uses the REPLACE
+         * conflict resolution algorithm, in which case inserts and updates
+         * may delete other rows than the ones being changed.
+         */
+        public boolean replacesOnConflict() {
+            Pattern pattern = Pattern.compile("\\bON\\s+CONFLICT\\s+REPLACE\\b", Pattern.CASE_INSENSITIVE);
+            for (EntityColumn column : columns) {
+                if (pattern.matcher(column.definition).find()) {
+                    return true;
+                }
+            }
+
+            for (String constraint : constraints) {
+                if (pattern.matcher(constraint).find()) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Returns true if a column or constraint of the entity references the given entity,
+         * typically as part of a foreign key constraint.
+         */
+        public boolean references(String entityName) {
+            Pattern pattern = Pattern.compile("\\bREFERENCES\\s+" + Pattern.quote(entityName) + "\\b", Pattern.CASE_INSENSITIVE);
+            for (EntityColumn column : columns) {
+                if (pattern.matcher(column.definition).find()) {
+                    return true;
+                }
+            }
+
+            for (String constraint : constraints) {
+                if (pattern.matcher(constraint).find()) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
     }
 
     protected static class EntityColumn {
@@ -698,10 +3823,43 @@ public abstract class SimpleContentProvider extends ContentProvider {
         }
     }
 
+    protected static class EntityIndex {
+        public final String name;
+        public final String columns;
+        public final boolean unique;
+
+        public EntityIndex(String name, String columns, boolean unique) {
+            this.name = name;
+            this.columns = columns;
+            this.unique = unique;
+        }
+
+        public String buildCreateIndexSql(String tableName) {
+            return "CREATE " + (unique ? "UNIQUE " : "") + "INDEX IF NOT EXISTS " + name + " ON " + tableName + " (" + columns + ")";
+        }
+
+        public String buildCreateIndexSql(String databaseName, String tableName) {
+            return "CREATE " + (unique ? "UNIQUE " : "") + "INDEX IF NOT EXISTS " + databaseName + "." + name + " ON " + tableName + " (" + columns + ")";
+        }
+    }
+
+    protected static class CounterCache {
+        public final String column;
+        public final String childEntity;
+        public final String foreignKeyColumn;
+
+        public CounterCache(String column, String childEntity, String foreignKeyColumn) {
+            this.column = column;
+            this.childEntity = childEntity;
+            this.foreignKeyColumn = foreignKeyColumn;
+        }
+    }
+
     protected class EntityView {
         public final String name;
         public final String idColumn;
         public final SQLiteQueryBuilder queryBuilder;
+        public boolean resultCacheEnabled;
 
         public EntityView(String name, String idColumn, SQLiteQueryBuilder queryBuilder) {
             this.name = name;
@@ -720,5 +3878,18 @@ public abstract class SimpleContentProvider extends ContentProvider {
 
             return this;
         }
+
+        /**
+         * Enables caching of query results for the view. Cached results are
+         * invalidated when one of the entities added with onEntity is changed,
+         * so only enable the cache for views that list all their entities.
+         *
+         * @param resultCacheEnabled true to cache query results for the view
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public EntityView setResultCacheEnabled(boolean resultCacheEnabled) {
+            this.resultCacheEnabled = resultCacheEnabled;
+            return this;
+        }
     }
 }
@@ -3,34 +3,117 @@ package dk.simplecontentprovider;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Build;
+import android.os.SystemClock;
 
 public class SimpleDatabaseHelper extends SQLiteOpenHelper {
     private final SimpleContentProvider simpleContentProvider;
+    private final String shard;
+    private boolean created;
 
     public SimpleDatabaseHelper(SimpleContentProvider simpleContentProvider, String databaseName, int databaseVersion) {
+        this(simpleContentProvider, databaseName, databaseVersion, null);
+    }
+
+    /**
+     * Creates a helper for the database of a shard, holding the entities
+     * assigned to the shard with Entity.setShard.
+     *
+     * @param shard the name of the shard, or null for the main database
+     */
+    public SimpleDatabaseHelper(SimpleContentProvider simpleContentProvider, String databaseName, int databaseVersion, String shard) {
         super(simpleContentProvider.getContext(), databaseName, null, databaseVersion);
         this.simpleContentProvider = simpleContentProvider;
+        this.shard = shard;
+    }
+
+    @Override
+    public SQLiteDatabase getWritableDatabase() {
+        simpleContentProvider.onOpeningDatabase();
+        return super.getWritableDatabase();
+    }
+
+    @Override
+    public SQLiteDatabase getReadableDatabase() {
+        simpleContentProvider.onOpeningDatabase();
+        return super.getReadableDatabase();
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        simpleContentProvider.onCreateDatabase(db);
+        long start = SystemClock.elapsedRealtime();
+        if (shard == null) {
+            simpleContentProvider.onCreateDatabase(db);
+        } else {
+            simpleContentProvider.onCreateShardDatabase(db, shard);
+        }
+        created = true;
+        simpleContentProvider.recordStartupPhase(StartupTimings.DATABASE_CREATE, SystemClock.elapsedRealtime() - start);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        simpleContentProvider.onUpgradeDatabase(db, oldVersion, newVersion);
+        long start = SystemClock.elapsedRealtime();
+        if (shard == null) {
+            simpleContentProvider.onUpgradeDatabase(db, oldVersion, newVersion);
+        } else {
+            simpleContentProvider.onUpgradeShardDatabase(db, shard, oldVersion, newVersion);
+        }
+        simpleContentProvider.recordStartupPhase(StartupTimings.DATABASE_UPGRADE, SystemClock.elapsedRealtime() - start);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        simpleContentProvider.onConfigureDatabase(db);
+        if (shard == null) {
+            simpleContentProvider.attachDatabases(db);
+        }
     }
 
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (created && !db.isReadOnly()) {
+            // Set up the new database outside the transaction of onCreate...
+            created = false;
+            simpleContentProvider.onDatabaseCreated(db);
+        }
+        if (!db.isReadOnly() && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // onConfigure is not called before Jelly Bean
+            simpleContentProvider.onConfigureDatabase(db);
+            if (shard == null) {
+                simpleContentProvider.attachDatabases(db);
+            }
+        }
+    }
+
+    /**
+     * Database helper enforcing foreign key constraints.
+     *
+     * Foreign key constraints are not enforced while the database is upgraded, since
+     * migrating the tables temporarily breaks the references between them. The migrated
+     * tables are checked for violations before the upgrade is committed.
+     */
     public static class ForeignKeyConstraintDatabaseHelper extends SimpleDatabaseHelper {
+        private final int databaseVersion;
+        private boolean foreignKeyConstraintsDeferred;
+
         public ForeignKeyConstraintDatabaseHelper(SimpleContentProvider simpleContentProvider, String databaseName, int databaseVersion) {
-            super(simpleContentProvider, databaseName, databaseVersion);
+            this(simpleContentProvider, databaseName, databaseVersion, null);
+        }
+
+        public ForeignKeyConstraintDatabaseHelper(SimpleContentProvider simpleContentProvider, String databaseName, int databaseVersion, String shard) {
+            super(simpleContentProvider, databaseName, databaseVersion, shard);
+            this.databaseVersion = databaseVersion;
         }
 
         public void onConfigure(SQLiteDatabase db) {
             super.onConfigure(db);
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                db.setForeignKeyConstraintsEnabled(true);
+                foreignKeyConstraintsDeferred = isUpgradePending(db);
+                if (!foreignKeyConstraintsDeferred) {
+                    db.setForeignKeyConstraintsEnabled(true);
+                }
             }
         }
 
@@ -40,7 +123,16 @@ public class SimpleDatabaseHelper extends SQLiteOpenHelper {
             if (!db.isReadOnly() && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
                 // Enable foreign key constraints
                 db.execSQL("PRAGMA foreign_keys=ON;");
+            } else if (foreignKeyConstraintsDeferred) {
+                // Enable foreign key constraints after the upgrade
+                foreignKeyConstraintsDeferred = false;
+                db.setForeignKeyConstraintsEnabled(true);
             }
         }
+
+        private boolean isUpgradePending(SQLiteDatabase db) {
+            int version = db.getVersion();
+            return version != 0 && version != databaseVersion;
+        }
     }
 }
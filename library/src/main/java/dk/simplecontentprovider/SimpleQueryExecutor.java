@@ -0,0 +1,304 @@
+package dk.simplecontentprovider;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs queries of a content provider off the main thread, on a bounded pool of threads.
+ * Each query returns a future, and may call back on the main thread when it completes.
+ *
+ * Queries have one of two priorities. Interactive queries, which the user is waiting for,
+ * are started before any queued background queries, such as the queries of a sync, and run
+ * at the default thread priority, while background queries run at background priority.
+ *
+ * Cancelling the future of a query cancels the query in SQLite on Android 4.1 and later,
+ * through a CancellationSignal. The rows of the cursor are loaded by the executor, so
+ * reading the first window of the cursor does not block the main thread.
+ *
+ * The number of queued queries and the time they wait before being started are included
+ * in the statistics, see getStatistics.
+ */
+public class SimpleQueryExecutor {
+    public static final int PRIORITY_INTERACTIVE = 0;
+    public static final int PRIORITY_BACKGROUND = 1;
+
+    static final String[] STATISTICS_QUEUE_DEPTH = {"interactiveQueueDepth", "backgroundQueueDepth"};
+    static final String[] STATISTICS_QUERIES = {"interactiveQueries", "backgroundQueries"};
+    static final String[] STATISTICS_WAIT_TIME = {"interactiveWaitTime", "backgroundWaitTime"};
+    static final String[] STATISTICS_MAX_WAIT_TIME = {"interactiveMaxWaitTime", "backgroundMaxWaitTime"};
+    static final String STATISTICS_CANCELLED_QUERIES = "cancelledQueries";
+    static final String STATISTICS_REJECTED_QUERIES = "rejectedQueries";
+
+    private static final long KEEP_ALIVE_TIME = 30 * 1000;
+
+    /**
+     * Receives the result of a query on the main thread.
+     */
+    public interface Callback {
+        /**
+         * Called with the cursor of a completed query. The callback owns the cursor, and
+         * must close it.
+         */
+        void onQueryComplete(Cursor cursor);
+
+        /**
+         * Called if the query failed. Cancelled queries do not call back.
+         */
+        void onQueryFailed(Exception e);
+    }
+
+    private final ContentResolver mResolver;
+    private final int mMaxQueuedQueries;
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Set<QueryTask> mTasks = new HashSet<>();
+    private long mNextSequence;
+
+    private final int[] mQueueDepth = new int[2];
+    private final long[] mQueries = new long[2];
+    private final long[] mWaitTime = new long[2];
+    private final long[] mMaxWaitTime = new long[2];
+    private long mCancelledQueries;
+    private long mRejectedQueries;
+
+    /**
+     * @param resolver the content resolver to query
+     * @param threads the maximum number of queries running at the same time
+     * @param maxQueuedQueries the maximum number of queries waiting to be started
+     */
+    public SimpleQueryExecutor(ContentResolver resolver, int threads, int maxQueuedQueries) {
+        if (threads < 1 || maxQueuedQueries < 1) {
+            throw new IllegalArgumentException("The number of threads and queued queries must be positive");
+        }
+
+        mResolver = resolver;
+        mMaxQueuedQueries = maxQueuedQueries;
+        mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_TIME, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int mThreadCount;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                mThreadCount += 1;
+                Thread thread = new Thread(runnable, "SimpleQueryExecutor #" + mThreadCount);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queries the given Uri, like ContentResolver.query.
+     *
+     * @param priority PRIORITY_INTERACTIVE or PRIORITY_BACKGROUND
+     * @param callback the callback receiving the cursor on the main thread, or null to get it from the future
+     * @return the future of the cursor, which can be cancelled
+     * @throws RejectedExecutionException if too many queries are queued already, or the executor has been shut down
+     */
+    public Future<Cursor> query(int priority, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, Callback callback) {
+        if (priority != PRIORITY_INTERACTIVE && priority != PRIORITY_BACKGROUND) {
+            throw new IllegalArgumentException("Unknown priority: " + priority);
+        }
+
+        QueryTask task;
+        synchronized (this) {
+            if (mExecutor.isShutdown()) {
+                throw new RejectedExecutionException("The query executor has been shut down");
+            }
+            if (mQueueDepth[PRIORITY_INTERACTIVE] + mQueueDepth[PRIORITY_BACKGROUND] >= mMaxQueuedQueries) {
+                mRejectedQueries += 1;
+                throw new RejectedExecutionException("Too many queued queries: " + mMaxQueuedQueries);
+            }
+
+            task = new QueryTask(new Query(priority, uri, projection, selection, selectionArgs, sortOrder), mNextSequence++, callback);
+            mQueueDepth[priority] += 1;
+            mTasks.add(task);
+            mExecutor.execute(task);
+        }
+        return task;
+    }
+
+    /**
+     * Returns the statistics of the executor: the number of queued queries, the number of
+     * started queries and the total and maximum time they waited in the queue in milliseconds,
+     * for each priority, as well as the number of cancelled and rejected queries.
+     */
+    public synchronized Bundle getStatistics() {
+        Bundle statistics = new Bundle();
+        for (int priority = PRIORITY_INTERACTIVE; priority <= PRIORITY_BACKGROUND; priority++) {
+            statistics.putInt(STATISTICS_QUEUE_DEPTH[priority], mQueueDepth[priority]);
+            statistics.putLong(STATISTICS_QUERIES[priority], mQueries[priority]);
+            statistics.putLong(STATISTICS_WAIT_TIME[priority], mWaitTime[priority]);
+            statistics.putLong(STATISTICS_MAX_WAIT_TIME[priority], mMaxWaitTime[priority]);
+        }
+        statistics.putLong(STATISTICS_CANCELLED_QUERIES, mCancelledQueries);
+        statistics.putLong(STATISTICS_REJECTED_QUERIES, mRejectedQueries);
+        return statistics;
+    }
+
+    /**
+     * Cancels the queued and running queries, and stops the threads of the executor.
+     * Queries can no longer be started afterwards.
+     */
+    public void shutdown() {
+        QueryTask[] tasks;
+        synchronized (this) {
+            mExecutor.shutdown();
+            tasks = mTasks.toArray(new QueryTask[mTasks.size()]);
+        }
+
+        for (QueryTask task : tasks) {
+            task.cancel(true);
+        }
+    }
+
+    private class Query implements Callable<Cursor> {
+        final int priority;
+        final Uri uri;
+        final String[] projection;
+        final String selection;
+        final String[] selectionArgs;
+        final String sortOrder;
+        final long queuedTime = SystemClock.elapsedRealtime();
+
+        // CancellationSignal was added in Android 4.1...
+        final CancellationSignal cancellationSignal = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) ? new CancellationSignal() : null;
+        boolean started;
+
+        Query(int priority, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            this.priority = priority;
+            this.uri = uri;
+            this.projection = projection;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.sortOrder = sortOrder;
+        }
+
+        @Override
+        public Cursor call() {
+            long waitTime = SystemClock.elapsedRealtime() - queuedTime;
+            synchronized (SimpleQueryExecutor.this) {
+                started = true;
+                mQueueDepth[priority] -= 1;
+                mQueries[priority] += 1;
+                mWaitTime[priority] += waitTime;
+                mMaxWaitTime[priority] = Math.max(mMaxWaitTime[priority], waitTime);
+            }
+
+            Process.setThreadPriority((priority == PRIORITY_INTERACTIVE) ? Process.THREAD_PRIORITY_DEFAULT : Process.THREAD_PRIORITY_BACKGROUND);
+
+            Cursor cursor;
+            if (cancellationSignal != null) {
+                cursor = mResolver.query(uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+            } else {
+                cursor = mResolver.query(uri, projection, selection, selectionArgs, sortOrder);
+            }
+
+            // Fill the first window of the cursor here, rather than on the thread reading it...
+            if (cursor != null) {
+                try {
+                    cursor.getCount();
+                } catch (RuntimeException e) {
+                    cursor.close();
+                    throw e;
+                }
+            }
+            return cursor;
+        }
+    }
+
+    private class QueryTask extends FutureTask<Cursor> implements Comparable<QueryTask> {
+        private final Query mQuery;
+        private final long mSequence;
+        private final Callback mCallback;
+
+        QueryTask(Query query, long sequence, Callback callback) {
+            super(query);
+            mQuery = query;
+            mSequence = sequence;
+            mCallback = callback;
+        }
+
+        @Override
+        public int compareTo(QueryTask another) {
+            if (mQuery.priority != another.mQuery.priority) {
+                return (mQuery.priority < another.mQuery.priority) ? -1 : 1;
+            }
+            return (mSequence < another.mSequence) ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && mQuery.cancellationSignal != null) {
+                mQuery.cancellationSignal.cancel();
+            }
+            return cancelled;
+        }
+
+        @Override
+        protected void set(Cursor cursor) {
+            super.set(cursor);
+
+            // Nobody gets the cursor of a query cancelled while running...
+            if (isCancelled() && cursor != null) {
+                cursor.close();
+            }
+        }
+
+        @Override
+        protected void done() {
+            synchronized (SimpleQueryExecutor.this) {
+                mTasks.remove(this);
+                if (!mQuery.started) {
+                    mQueueDepth[mQuery.priority] -= 1;
+                }
+                if (isCancelled()) {
+                    mCancelledQueries += 1;
+                }
+            }
+
+            if (mCallback == null || isCancelled()) {
+                return;
+            }
+
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Cursor cursor;
+                    try {
+                        cursor = get();
+                    } catch (ExecutionException e) {
+                        mCallback.onQueryFailed(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                        return;
+                    } catch (InterruptedException e) {
+                        mCallback.onQueryFailed(e);
+                        return;
+                    }
+                    mCallback.onQueryComplete(cursor);
+                }
+            });
+        }
+    }
+}
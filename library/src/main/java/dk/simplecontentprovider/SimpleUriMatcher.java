@@ -11,29 +11,39 @@ public class SimpleUriMatcher {
     private List<Match> mMatches;
 
     public SimpleUriMatcher(String authority, List<SimpleContentProvider.Entity> entities, List<SimpleContentProvider.EntityView> views) {
-        int numberOfMatches = 2 * (entities.size() + views.size());
+        int numberOfMatches = 3 * (entities.size() + views.size());
 
         mUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         mMatches = new ArrayList<Match>(numberOfMatches);
         int location = 0;
 
+        // Item list paths, such as entity/1,2,3, must be added after the
+        // item paths, so single ids are still matched as items...
         for (SimpleContentProvider.Entity entity : entities) {
             mUriMatcher.addURI(authority, entity.name, location);
-            mMatches.add(new Match(entity, false));
+            mMatches.add(new Match(entity, false, false));
             location += 1;
 
             mUriMatcher.addURI(authority, entity.name + "/#", location);
-            mMatches.add(new Match(entity, true));
+            mMatches.add(new Match(entity, true, false));
+            location += 1;
+
+            mUriMatcher.addURI(authority, entity.name + "/*", location);
+            mMatches.add(new Match(entity, false, true));
             location += 1;
         }
 
         for (SimpleContentProvider.EntityView view : views) {
             mUriMatcher.addURI(authority, view.name, location);
-            mMatches.add(new Match(view, false));
+            mMatches.add(new Match(view, false, false));
             location += 1;
 
             mUriMatcher.addURI(authority, view.name + "/#", location);
-            mMatches.add(new Match(view, true));
+            mMatches.add(new Match(view, true, false));
+            location += 1;
+
+            mUriMatcher.addURI(authority, view.name + "/*", location);
+            mMatches.add(new Match(view, false, true));
             location += 1;
         }
     }
@@ -51,21 +61,36 @@ public class SimpleUriMatcher {
         protected final SimpleContentProvider.Entity entity;
         protected final SimpleContentProvider.EntityView view;
         protected final boolean isItem;
+        protected final boolean isItemList;
 
         public Match(SimpleContentProvider.Entity entity, boolean isItem) {
+            this(entity, isItem, false);
+        }
+
+        public Match(SimpleContentProvider.Entity entity, boolean isItem, boolean isItemList) {
             this.entity = entity;
             this.view = null;
             this.isItem = isItem;
+            this.isItemList = isItemList;
         }
 
         public Match(SimpleContentProvider.EntityView view, boolean isItem) {
+            this(view, isItem, false);
+        }
+
+        public Match(SimpleContentProvider.EntityView view, boolean isItem, boolean isItemList) {
             this.entity = null;
             this.view = view;
             this.isItem = isItem;
+            this.isItemList = isItemList;
         }
 
         public boolean isItem() {
             return isItem;
         }
+
+        public boolean isItemList() {
+            return isItemList;
+        }
     }
 }
@@ -0,0 +1,34 @@
+package dk.simplecontentprovider;
+
+import android.os.Bundle;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Durations, in milliseconds, of the phases of starting the provider and opening the
+ * database. Only the first duration of each phase is kept, since later occurrences,
+ * such as reopening the database, are not part of the startup.
+ */
+class StartupTimings {
+    static final String PROVIDER_CREATE = "startupProviderCreate";
+    static final String DATABASE_OPEN = "startupDatabaseOpen";
+    static final String DATABASE_CREATE = "startupDatabaseCreate";
+    static final String DATABASE_UPGRADE = "startupDatabaseUpgrade";
+    static final String WARM_UP_PRIME = "startupWarmUpPrime";
+    static final String WARM_UP = "startupWarmUp";
+
+    private final Map<String, Long> mDurations = new LinkedHashMap<>();
+
+    synchronized void record(String phase, long duration) {
+        if (!mDurations.containsKey(phase)) {
+            mDurations.put(phase, duration);
+        }
+    }
+
+    synchronized void addStatistics(Bundle statistics) {
+        for (Map.Entry<String, Long> duration : mDurations.entrySet()) {
+            statistics.putLong(duration.getKey(), duration.getValue());
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package dk.simplecontentprovider;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inserts rows read from a stream of CSV or newline delimited JSON into an entity, a chunk
+ * of rows at a time, so the memory used by an import does not depend on the number of rows.
+ *
+ * Each chunk of rows is parsed into memory before its transaction begins, so a slow writer
+ * of the stream never holds up other readers and writers of the database. The rows of a chunk
+ * are inserted through compiled statements that are reused for all rows with the same columns.
+ * Rows that cannot be parsed or inserted are counted as errors and skipped, and the first few
+ * error messages are kept with the line number of the row.
+ *
+ * CSV must start with a header of column names. Empty values are imported as NULL, and
+ * quoted empty values as empty strings.
+ */
+class StreamImporter {
+    static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private static final int MAX_ERROR_MESSAGES = 10;
+    private static final String[] CONFLICT_CLAUSES = {"", "OR ROLLBACK ", "OR ABORT ", "OR FAIL ", "OR IGNORE ", "OR REPLACE "};
+
+    private final SQLiteDatabase mDatabase;
+    private final SimpleContentProvider.Entity mEntity;
+    private final String mTable;
+    private final Integer mConflictAlgorithm;
+    private final int mChunkSize;
+    private final Set<String> mColumnNames = new HashSet<>();
+    private final Map<String, SQLiteStatement> mStatements = new HashMap<>();
+    private final Set<String> mImportedColumns = new HashSet<>();
+    private String mPresentColumnsColumn;
+
+    private long mLine;
+    private final List<Row> mChunk = new ArrayList<>();
+    private long mImportedRows;
+    private long mErrorCount;
+    private final List<String> mErrors = new ArrayList<>();
+
+    /**
+     * @param table the table to insert the rows into, usually the table of the entity
+     */
+    StreamImporter(SQLiteDatabase db, SimpleContentProvider.Entity entity, String table, Integer conflictAlgorithm, int chunkSize) {
+        checkConflictAlgorithm(conflictAlgorithm);
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be positive: " + chunkSize);
+        }
+
+        mDatabase = db;
+        mEntity = entity;
+        mTable = table;
+        mConflictAlgorithm = conflictAlgorithm;
+        mChunkSize = chunkSize;
+        for (SimpleContentProvider.EntityColumn column : entity.columns) {
+            mColumnNames.add(column.name);
+        }
+    }
+
+    /**
+     * Sets a column of the table receiving the columns of each row of newline delimited JSON,
+     * such as ",name,type,", since rows of JSON may leave out columns. The column is not set
+     * for rows of CSV, which all have the columns of the header.
+     */
+    void setPresentColumnsColumn(String column) {
+        mPresentColumnsColumn = column;
+    }
+
+    long getImportedRows() {
+        return mImportedRows;
+    }
+
+    long getErrorCount() {
+        return mErrorCount;
+    }
+
+    /**
+     * Returns the names of the columns of the imported rows.
+     */
+    Set<String> getImportedColumns() {
+        return mImportedColumns;
+    }
+
+    /**
+     * Adds the number of imported rows, the number of errors and the first error messages
+     * to a result Bundle, using the given keys.
+     */
+    void addResult(Bundle result, String rowCountKey, String errorCountKey, String errorsKey) {
+        result.putLong(rowCountKey, mImportedRows);
+        result.putLong(errorCountKey, mErrorCount);
+        result.putStringArray(errorsKey, mErrors.toArray(new String[mErrors.size()]));
+    }
+
+    /**
+     * Imports rows of CSV. Reading stops at the end of the stream.
+     *
+     * @throws IllegalArgumentException if the header names a column the entity does not have
+     */
+    void importCsv(BufferedReader reader) throws IOException {
+        try {
+            List<String> header = readCsvRecord(reader);
+            if (header == null) {
+                return;
+            }
+
+            String[] columns = header.toArray(new String[header.size()]);
+            for (String column : columns) {
+                if (!mColumnNames.contains(column)) {
+                    throw new IllegalArgumentException("Unknown column '" + column + "' for entity '" + mEntity.name + "'");
+                }
+            }
+
+            List<String> values;
+            while ((values = readCsvRecord(reader)) != null) {
+                if (values.size() == 1 && values.get(0) == null && columns.length > 1) {
+                    // Skip empty lines...
+                    continue;
+                }
+
+                if (values.size() != columns.length) {
+                    addError("Expected " + columns.length + " values, found " + values.size());
+                    continue;
+                }
+
+                addRow(new Row(mLine, columns, values.toArray()));
+            }
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * Imports rows of newline delimited JSON objects. The rows may have different columns.
+     * Reading stops at the end of the stream.
+     */
+    void importJson(BufferedReader reader) throws IOException {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                mLine += 1;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                JSONObject row;
+                List<String> columns = new ArrayList<>();
+                try {
+                    row = new JSONObject(line);
+                    Iterator<String> keys = row.keys();
+                    while (keys.hasNext()) {
+                        columns.add(keys.next());
+                    }
+                } catch (JSONException e) {
+                    addError(e.getMessage());
+                    continue;
+                }
+
+                if (!mColumnNames.containsAll(columns) || columns.isEmpty()) {
+                    addError("Unknown columns for entity '" + mEntity.name + "' in " + columns);
+                    continue;
+                }
+
+                Object[] values = new Object[columns.size() + (mPresentColumnsColumn != null ? 1 : 0)];
+                StringBuilder presentColumns = new StringBuilder(",");
+                for (int i = 0; i < columns.size(); i++) {
+                    values[i] = row.opt(columns.get(i));
+                    presentColumns.append(columns.get(i)).append(',');
+                }
+                if (mPresentColumnsColumn != null) {
+                    values[columns.size()] = presentColumns.toString();
+                    columns.add(mPresentColumnsColumn);
+                }
+                addRow(new Row(mLine, columns.toArray(new String[columns.size()]), values));
+            }
+        } finally {
+            finish();
+        }
+    }
+
+    private static void bindValue(SQLiteStatement statement, int index, Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            statement.bindNull(index);
+        } else if (value instanceof Integer || value instanceof Long) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Number) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, ((Boolean) value) ? 1 : 0);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    private SQLiteStatement getStatement(String[] columns) {
+        StringBuilder key = new StringBuilder();
+        for (String column : columns) {
+            key.append(column).append(',');
+        }
+
+        SQLiteStatement statement = mStatements.get(key.toString());
+        if (statement == null) {
+            statement = mDatabase.compileStatement(buildInsertSql(mTable, columns, mConflictAlgorithm));
+            mStatements.put(key.toString(), statement);
+            for (String column : columns) {
+                if (mColumnNames.contains(column)) {
+                    mImportedColumns.add(column);
+                }
+            }
+        }
+        return statement;
+    }
+
+    /**
+     * Returns the SQL statement inserting a row with the given columns into a table,
+     * with a placeholder for the value of each column.
+     *
+     * @param conflictAlgorithm one of the SQLiteDatabase.CONFLICT_* constants, or null
+     */
+    static String buildInsertSql(String table, String[] columns, Integer conflictAlgorithm) {
+        checkConflictAlgorithm(conflictAlgorithm);
+        StringBuilder sql = new StringBuilder("INSERT ");
+        if (conflictAlgorithm != null) {
+            sql.append(CONFLICT_CLAUSES[conflictAlgorithm]);
+        }
+        sql.append("INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ",").append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        return sql.append(")").toString();
+    }
+
+    /**
+     * Throws an IllegalArgumentException unless the conflict algorithm is null or one of the
+     * SQLiteDatabase.CONFLICT_* constants.
+     */
+    static void checkConflictAlgorithm(Integer conflictAlgorithm) {
+        if (conflictAlgorithm != null && (conflictAlgorithm < 0 || conflictAlgorithm >= CONFLICT_CLAUSES.length)) {
+            throw new IllegalArgumentException("Unknown conflict algorithm: " + conflictAlgorithm);
+        }
+    }
+
+    private void addRow(Row row) {
+        mChunk.add(row);
+        if (mChunk.size() == mChunkSize) {
+            insertChunk();
+        }
+    }
+
+    /**
+     * Inserts the parsed rows of the chunk in a single transaction.
+     */
+    private void insertChunk() {
+        try {
+            mDatabase.beginTransactionNonExclusive();
+            for (Row row : mChunk) {
+                SQLiteStatement statement = getStatement(row.columns);
+                statement.clearBindings();
+                for (int i = 0; i < row.values.length; i++) {
+                    bindValue(statement, i + 1, row.values[i]);
+                }
+
+                try {
+                    if (statement.executeInsert() != -1) {
+                        mImportedRows += 1;
+                    }
+                } catch (SQLiteException e) {
+                    addError(row.line, e.getMessage());
+                }
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            mChunk.clear();
+        }
+    }
+
+    private void finish() {
+        try {
+            if (!mChunk.isEmpty()) {
+                insertChunk();
+            }
+        } finally {
+            for (SQLiteStatement statement : mStatements.values()) {
+                statement.close();
+            }
+            mStatements.clear();
+        }
+    }
+
+    void addError(String message) {
+        addError(mLine, message);
+    }
+
+    private void addError(long line, String message) {
+        mErrorCount += 1;
+        if (mErrors.size() < MAX_ERROR_MESSAGES) {
+            mErrors.add("Line " + line + ": " + message);
+        }
+    }
+
+    private static class Row {
+        final long line;
+        final String[] columns;
+        final Object[] values;
+
+        Row(long line, String[] columns, Object[] values) {
+            this.line = line;
+            this.columns = columns;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Reads the values of the next CSV record, which may span several lines if values are
+     * quoted, or returns null at the end of the stream. Unquoted empty values are returned as null.
+     */
+    private List<String> readCsvRecord(BufferedReader reader) throws IOException {
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+
+        mLine += 1;
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        boolean inQuotes = false;
+        while (true) {
+            if (inQuotes) {
+                if (c == -1) {
+                    throw new IOException("Unterminated quoted value at line " + mLine);
+                } else if (c == '"') {
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        value.append('"');
+                    } else {
+                        reader.reset();
+                        inQuotes = false;
+                    }
+                } else {
+                    if (c == '\n') {
+                        mLine += 1;
+                    }
+                    value.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+                inQuotes = true;
+            } else if (c == ',' || c == '\n' || c == -1) {
+                values.add((value.length() == 0 && !quoted) ? null : value.toString());
+                value.setLength(0);
+                quoted = false;
+                if (c != ',') {
+                    return values;
+                }
+            } else if (c != '\r') {
+                value.append((char) c);
+            }
+            c = reader.read();
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package dk.simplecontentprovider;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Spreads the rows of time-partitioned entities across one table per period, such as one
+ * table per day, which are created when the first row of the period is inserted.
+ *
+ * Queries only read the partitions that may hold rows in the time range of the query, and
+ * retention drops whole partitions instead of deleting rows one by one. The ids of rows are
+ * unique across the partitions, since the upper 32 bits of each id hold the partition of the
+ * row, so the partition of an item Uri is found without looking at the other partitions.
+ *
+ * The table of the entity itself is kept as an empty template of the partitions.
+ *
+ * The partitions of each entity are cached along with the schema version of the database,
+ * and are read again from sqlite_master when the schema version changes, so partitions
+ * created in transactions that are rolled back do not linger in the cache.
+ */
+class TimePartitions {
+    static final String STATISTICS_PARTITIONS_CREATED = "partitionsCreated";
+    static final String STATISTICS_PARTITIONS_DROPPED = "partitionsDropped";
+    static final String STATISTICS_PARTITIONS_PRUNED = "partitionsPruned";
+
+    static final String PARTITION_SUFFIX = "__p";
+
+    private static final int PARTITION_ID_SHIFT = 32;
+    private static final Pattern UNPRUNABLE_SELECTION = Pattern.compile("\\b(?:OR|BETWEEN|CASE)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern UNPRUNABLE_ARGUMENTS = Pattern.compile("\\?\\d|[:@$]");
+
+    private final Map<String, TreeSet<Long>> mPartitions = new HashMap<>();
+    private final Map<String, Long> mSchemaVersions = new HashMap<>();
+
+    private long mPartitionsCreated;
+    private long mPartitionsDropped;
+    private long mPartitionsPruned;
+
+    /**
+     * Returns the partition holding rows written at the given time.
+     */
+    static long getPartition(SimpleContentProvider.Entity entity, long time) {
+        long partition = time / entity.partitionPeriod;
+        return (time < 0 && time % entity.partitionPeriod != 0) ? partition - 1 : partition;
+    }
+
+    /**
+     * Returns true if rows can be written to the partition. The partition is held by the
+     * upper 32 bits of the ids of its rows, and is part of the name of its table, so only
+     * partitions from 0 that fit in 32 bits are valid, leaving out times before the epoch.
+     */
+    static boolean isValidPartition(long partition) {
+        return partition >= 0 && partition <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the partition holding the row with the given id.
+     */
+    static long getPartitionOfId(long id) {
+        return id >> PARTITION_ID_SHIFT;
+    }
+
+    static String getTableName(SimpleContentProvider.Entity entity, long partition) {
+        return entity.name + PARTITION_SUFFIX + partition;
+    }
+
+    /**
+     * Returns the table of the partition, creating it and its indexes if it does not exist.
+     * The partition is read into the cache again once the schema version of the database
+     * shows whether the transaction creating it was committed.
+     */
+    String createPartition(SQLiteDatabase db, SimpleContentProvider.Entity entity, long partition) {
+        if (!isValidPartition(partition)) {
+            throw new IllegalArgumentException("The partition " + partition + " of entity '" + entity.name + "' is out of range - times must not be before the epoch, and long times need a longer partition period");
+        }
+
+        String tableName = getTableName(entity, partition);
+        if (getPartitions(db, entity).contains(partition)) {
+            return tableName;
+        }
+
+        db.execSQL(entity.buildCreateTableSql(tableName).replaceFirst("^CREATE TABLE ", "CREATE TABLE IF NOT EXISTS "));
+        for (SimpleContentProvider.EntityIndex index : entity.indexes) {
+            db.execSQL(getPartitionIndex(index, partition).buildCreateIndexSql(tableName));
+        }
+
+        synchronized (this) {
+            mPartitionsCreated += 1;
+        }
+        return tableName;
+    }
+
+    /**
+     * Returns the id of the next row inserted into the partition. The caller must hold
+     * a transaction, so no other row is inserted before it.
+     */
+    long nextId(SQLiteDatabase db, SimpleContentProvider.Entity entity, long partition) {
+        Cursor cursor = db.rawQuery("SELECT max(" + entity.idColumn + ") FROM " + getTableName(entity, partition), null);
+        try {
+            long firstId = partition << PARTITION_ID_SHIFT;
+            long nextId = (cursor.moveToFirst() && !cursor.isNull(0)) ? Math.max(firstId, cursor.getLong(0)) + 1 : firstId + 1;
+            if (getPartitionOfId(nextId) != partition) {
+                throw new IllegalStateException("No more ids in partition " + partition + " of entity '" + entity.name + "'");
+            }
+            return nextId;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the existing partitions of the entity, in order of time.
+     */
+    TreeSet<Long> getPartitions(SQLiteDatabase db, SimpleContentProvider.Entity entity) {
+        // The schema version changes with every created or dropped table, and is restored by a rollback...
+        long schemaVersion = DatabaseUtils.longForQuery(db, "PRAGMA schema_version", null);
+        synchronized (this) {
+            Long cachedVersion = mSchemaVersions.get(entity.name);
+            if (cachedVersion != null && cachedVersion == schemaVersion) {
+                return new TreeSet<>(mPartitions.get(entity.name));
+            }
+        }
+
+        TreeSet<Long> partitions = new TreeSet<>();
+        String prefix = entity.name + PARTITION_SUFFIX;
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table' AND substr(name,1,?)=?",
+                new String[]{"" + prefix.length(), prefix});
+        try {
+            while (cursor.moveToNext()) {
+                try {
+                    partitions.add(Long.parseLong(cursor.getString(0).substring(prefix.length())));
+                } catch (NumberFormatException e) {
+                    // Not a partition of the entity...
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            mPartitions.put(entity.name, partitions);
+            mSchemaVersions.put(entity.name, schemaVersion);
+        }
+        return new TreeSet<>(partitions);
+    }
+
+    /**
+     * Returns the tables of the partitions that may hold rows in the given time range.
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, inclusive
+     */
+    List<String> getTables(SQLiteDatabase db, SimpleContentProvider.Entity entity, long from, long to) {
+        TreeSet<Long> partitions = getPartitions(db, entity);
+        List<String> tables = new ArrayList<>();
+        if (from <= to) {
+            for (long partition : partitions.subSet(getPartition(entity, from), true, getPartition(entity, to), true)) {
+                tables.add(getTableName(entity, partition));
+            }
+        }
+
+        synchronized (this) {
+            mPartitionsPruned += partitions.size() - tables.size();
+        }
+        return tables;
+    }
+
+    /**
+     * Returns the tables of the partitions holding the rows with the given ids.
+     */
+    Map<String, List<Long>> getTablesOfIds(SQLiteDatabase db, SimpleContentProvider.Entity entity, long[] ids) {
+        TreeSet<Long> partitions = getPartitions(db, entity);
+        Map<String, List<Long>> tables = new HashMap<>();
+        for (long id : ids) {
+            long partition = getPartitionOfId(id);
+            if (partitions.contains(partition)) {
+                String tableName = getTableName(entity, partition);
+                List<Long> tableIds = tables.get(tableName);
+                if (tableIds == null) {
+                    tableIds = new ArrayList<>();
+                    tables.put(tableName, tableIds);
+                }
+                tableIds.add(id);
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Drops the partitions of the entity holding only rows older than its retention.
+     *
+     * @return the number of dropped partitions
+     */
+    int dropExpired(SQLiteDatabase db, SimpleContentProvider.Entity entity, long now) {
+        // A partition expires when its newest possible row does...
+        long lastExpiredPartition = getPartition(entity, now - entity.partitionRetention) - 1;
+        int droppedPartitions = 0;
+        for (long partition : getPartitions(db, entity).headSet(lastExpiredPartition, true)) {
+            db.execSQL("DROP TABLE IF EXISTS " + getTableName(entity, partition));
+            synchronized (this) {
+                mPartitionsDropped += 1;
+            }
+            droppedPartitions += 1;
+        }
+        return droppedPartitions;
+    }
+
+    /**
+     * Adds new columns and indexes of the entity to its existing partitions, when upgrading
+     * the database. Columns can only be added to the end of partitioned entities.
+     */
+    void migrate(SQLiteDatabase db, SimpleContentProvider.Entity entity) {
+        for (long partition : getPartitions(db, entity)) {
+            String tableName = getTableName(entity, partition);
+            Set<String> columnNames = new HashSet<>();
+            Cursor cursor = db.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+            try {
+                int nameIndex = cursor.getColumnIndexOrThrow("name");
+                while (cursor.moveToNext()) {
+                    columnNames.add(cursor.getString(nameIndex));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            for (SimpleContentProvider.EntityColumn column : entity.columns) {
+                if (!columnNames.contains(column.name)) {
+                    db.execSQL("ALTER TABLE " + tableName + " ADD COLUMN " + column.name + " " + column.definition);
+                }
+            }
+
+            for (SimpleContentProvider.EntityIndex index : entity.indexes) {
+                db.execSQL(getPartitionIndex(index, partition).buildCreateIndexSql(tableName));
+            }
+        }
+    }
+
+    /**
+     * Returns the table expression selecting the rows of the given partitions, named after the
+     * entity, so selections and projections qualified with the name of the entity still work.
+     */
+    static String buildUnionTable(SimpleContentProvider.Entity entity, List<String> tables) {
+        if (tables.isEmpty()) {
+            return entity.name;
+        }
+
+        if (tables.size() == 1) {
+            return tables.get(0) + " AS " + entity.name;
+        }
+
+        String columns = null;
+        for (SimpleContentProvider.EntityColumn column : entity.columns) {
+            columns = (columns == null) ? column.name : columns + "," + column.name;
+        }
+
+        StringBuilder union = new StringBuilder("(");
+        for (String table : tables) {
+            union.append(union.length() == 1 ? "" : " UNION ALL ").append("SELECT ").append(columns).append(" FROM ").append(table);
+        }
+        return union.append(") AS ").append(entity.name).toString();
+    }
+
+    /**
+     * Narrows a time range using the comparisons of the time column of the entity with
+     * constants or arguments in a selection, such as "time>=? AND time<?". Only terms of
+     * the selection joined by AND at the top level are used, and only if each is a plain
+     * comparison of the column or a parenthesized conjunction, such as the selections joined
+     * by DatabaseUtils.concatenateWhere. Other terms, such as subqueries or arithmetic, are
+     * ignored, and selections with OR, BETWEEN or CASE at the top level leave the range unchanged.
+     *
+     * @param range the start and end of the time range to narrow, both inclusive
+     */
+    static void narrowTimeRange(SimpleContentProvider.Entity entity, String selection, String[] selectionArgs, long[] range) {
+        if (selection != null && !UNPRUNABLE_ARGUMENTS.matcher(blankQuotes(selection)).find()) {
+            narrowTimeRange(entity, selection, selectionArgs, 0, range);
+        }
+    }
+
+    private static void narrowTimeRange(SimpleContentProvider.Entity entity, String selection, String[] selectionArgs, int firstArgument, long[] range) {
+        List<String> terms = new ArrayList<>();
+        List<Integer> termArguments = new ArrayList<>();
+        if (!splitTopLevelTerms(selection, terms, termArguments)) {
+            return;
+        }
+
+        Pattern comparison = Pattern.compile(
+                "\\s*(?:" + Pattern.quote(entity.name) + "\\.)?" + Pattern.quote(entity.partitionColumn) + "\\s*(>=|<=|==|=|>|<)\\s*(\\?|-?\\d{1,18})\\s*",
+                Pattern.CASE_INSENSITIVE);
+        for (int i = 0; i < terms.size(); i++) {
+            String term = terms.get(i).trim();
+            if (isParenthesized(term)) {
+                narrowTimeRange(entity, term.substring(1, term.length() - 1), selectionArgs, firstArgument + termArguments.get(i), range);
+                continue;
+            }
+
+            Matcher matcher = comparison.matcher(term);
+            if (!matcher.matches()) {
+                continue;
+            }
+
+            long value;
+            try {
+                if ("?".equals(matcher.group(2))) {
+                    int argIndex = firstArgument + termArguments.get(i);
+                    if (selectionArgs == null || argIndex >= selectionArgs.length) {
+                        continue;
+                    }
+                    value = Long.parseLong(selectionArgs[argIndex]);
+                } else {
+                    value = Long.parseLong(matcher.group(2));
+                }
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            String operator = matcher.group(1);
+            if (operator.equals(">=")) {
+                range[0] = Math.max(range[0], value);
+            } else if (operator.equals(">")) {
+                if (value == Long.MAX_VALUE) {
+                    range[0] = Long.MAX_VALUE;
+                    range[1] = Long.MIN_VALUE;
+                } else {
+                    range[0] = Math.max(range[0], value + 1);
+                }
+            } else if (operator.equals("<")) {
+                if (value == Long.MIN_VALUE) {
+                    range[0] = Long.MAX_VALUE;
+                    range[1] = Long.MIN_VALUE;
+                } else {
+                    range[1] = Math.min(range[1], value - 1);
+                }
+            } else if (operator.equals("<=")) {
+                range[1] = Math.min(range[1], value);
+            } else {
+                range[0] = Math.max(range[0], value);
+                range[1] = Math.min(range[1], value);
+            }
+        }
+    }
+
+    synchronized void addStatistics(Bundle statistics) {
+        statistics.putLong(STATISTICS_PARTITIONS_CREATED, mPartitionsCreated);
+        statistics.putLong(STATISTICS_PARTITIONS_DROPPED, mPartitionsDropped);
+        statistics.putLong(STATISTICS_PARTITIONS_PRUNED, mPartitionsPruned);
+    }
+
+    /**
+     * Splits a selection into the terms joined by AND outside of parentheses and quotes,
+     * along with the index of the first argument of each term.
+     *
+     * @return false if the selection cannot be split, because it is not a plain conjunction
+     */
+    private static boolean splitTopLevelTerms(String selection, List<String> terms, List<Integer> termArguments) {
+        String unquoted = blankQuotes(selection);
+        if (unquoted == null) {
+            return false;
+        }
+
+        int depth = 0;
+        int arguments = 0;
+        int termStart = 0;
+        int termArgument = 0;
+        StringBuilder topLevel = new StringBuilder(selection.length());
+        for (int i = 0; i < unquoted.length(); i++) {
+            char c = unquoted.charAt(i);
+            if (c == '?') {
+                arguments += 1;
+            } else if (c == '(') {
+                depth += 1;
+            } else if (c == ')') {
+                depth -= 1;
+                if (depth < 0) {
+                    return false;
+                }
+            } else if (depth == 0 && isKeyword(unquoted, i, "AND")) {
+                terms.add(selection.substring(termStart, i));
+                termArguments.add(termArgument);
+                topLevel.append(' ');
+                i += 2;
+                termStart = i + 1;
+                termArgument = arguments;
+                continue;
+            }
+            topLevel.append(depth == 0 ? c : ' ');
+        }
+
+        if (depth != 0 || UNPRUNABLE_SELECTION.matcher(topLevel).find()) {
+            return false;
+        }
+
+        terms.add(selection.substring(termStart));
+        termArguments.add(termArgument);
+        return true;
+    }
+
+    /**
+     * Returns the selection with its quoted strings and identifiers replaced by spaces,
+     * or null if a quote is not closed.
+     */
+    private static String blankQuotes(String selection) {
+        StringBuilder unquoted = new StringBuilder(selection);
+        for (int i = 0; i < unquoted.length(); i++) {
+            char c = unquoted.charAt(i);
+            if (c == '\'' || c == '"' || c == '`' || c == '[') {
+                int end = selection.indexOf(c == '[' ? ']' : c, i + 1);
+                if (end < 0) {
+                    return null;
+                }
+                for (int j = i; j <= end; j++) {
+                    unquoted.setCharAt(j, ' ');
+                }
+                i = end;
+            }
+        }
+        return unquoted.toString();
+    }
+
+    /**
+     * Returns true if the whole term is enclosed in one pair of parentheses.
+     */
+    private static boolean isParenthesized(String term) {
+        String unquoted = blankQuotes(term);
+        if (unquoted == null || !unquoted.startsWith("(") || !unquoted.endsWith(")")) {
+            return false;
+        }
+
+        int depth = 0;
+        for (int i = 0; i < unquoted.length(); i++) {
+            char c = unquoted.charAt(i);
+            if (c == '(') {
+                depth += 1;
+            } else if (c == ')') {
+                depth -= 1;
+                if (depth == 0 && i < unquoted.length() - 1) {
+                    return false;
+                }
+            }
+        }
+        return depth == 0;
+    }
+
+    private static boolean isKeyword(String selection, int start, String keyword) {
+        int end = start + keyword.length();
+        return selection.regionMatches(true, start, keyword, 0, keyword.length())
+                && (start == 0 || !isIdentifierChar(selection.charAt(start - 1)))
+                && (end == selection.length() || !isIdentifierChar(selection.charAt(end)));
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    private static SimpleContentProvider.EntityIndex getPartitionIndex(SimpleContentProvider.EntityIndex index, long partition) {
+        return new SimpleContentProvider.EntityIndex(index.name + PARTITION_SUFFIX + partition, index.columns, index.unique);
+    }
+}